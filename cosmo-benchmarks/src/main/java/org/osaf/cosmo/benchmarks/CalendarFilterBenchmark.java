@@ -0,0 +1,82 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.DateTime;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osaf.cosmo.calendar.query.CalendarFilter;
+import org.osaf.cosmo.calendar.query.CalendarFilterEvaluater;
+import org.osaf.cosmo.calendar.query.ComponentFilter;
+import org.osaf.cosmo.calendar.query.TimeRangeFilter;
+
+/**
+ * Benchmarks <code>CalendarFilterEvaluater.evaluate()</code> with the
+ * VEVENT time-range filter used by CalDAV clients to fetch a week
+ * or month of events.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CalendarFilterBenchmark {
+
+    /** recurring: large recurring series; timezones: many VTIMEZONEs */
+    @Param({ "recurring", "timezones" })
+    public String corpus;
+
+    private Calendar calendar;
+    private CalendarFilter filter;
+
+    @Setup
+    public void setUp() throws Exception {
+        if ("recurring".equals(corpus))
+            calendar = Corpus.parse(Corpus.recurringSeries(730, 100));
+        else
+            calendar = Corpus.parse(Corpus.manyTimezones(40));
+
+        ComponentFilter eventFilter = new ComponentFilter(Component.VEVENT);
+        eventFilter.setTimeRangeFilter(new TimeRangeFilter(
+                new DateTime("20090601T000000Z"),
+                new DateTime("20090701T000000Z")));
+        ComponentFilter calFilter = new ComponentFilter(Calendar.VCALENDAR);
+        calFilter.getComponentFilters().add(eventFilter);
+
+        filter = new CalendarFilter();
+        filter.setFilter(calFilter);
+    }
+
+    @Benchmark
+    public boolean evaluate() {
+        return new CalendarFilterEvaluater().evaluate(calendar, filter);
+    }
+}
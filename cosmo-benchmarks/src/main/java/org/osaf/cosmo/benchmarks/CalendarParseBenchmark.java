@@ -0,0 +1,65 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import net.fortuna.ical4j.model.Calendar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osaf.cosmo.calendar.util.CalendarUtils;
+
+/**
+ * Benchmarks <code>CalendarUtils.parseCalendar()</code>, which is
+ * called every time stored icalendar data is loaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CalendarParseBenchmark {
+
+    /** recurring: large recurring series; timezones: many VTIMEZONEs */
+    @Param({ "recurring", "timezones" })
+    public String corpus;
+
+    private String data;
+
+    @Setup
+    public void setUp() {
+        if ("recurring".equals(corpus))
+            data = Corpus.recurringSeries(730, 100);
+        else
+            data = Corpus.manyTimezones(40);
+    }
+
+    @Benchmark
+    public Calendar parseCalendar() throws Exception {
+        return CalendarUtils.parseCalendar(data);
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.benchmarks;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.TimeZone;
+import net.fortuna.ical4j.model.TimeZoneRegistry;
+import net.fortuna.ical4j.model.TimeZoneRegistryFactory;
+
+import org.osaf.cosmo.calendar.util.CalendarUtils;
+
+/**
+ * Generates the icalendar data used by the benchmarks.  The corpora
+ * are generated rather than checked in so that their size can be
+ * varied with benchmark parameters, but they are shaped like the
+ * data that is expensive in production: long-running recurring
+ * series with many modifications and exceptions, and collections of
+ * events spread across many timezones.
+ */
+public class Corpus {
+
+    /** Series start, as local time in the series timezone */
+    public static final String SERIES_START = "20080107T090000";
+
+    /** Timezone of the recurring series */
+    public static final String SERIES_TZID = "America/New_York";
+
+    private static final String CRLF = "\r\n";
+
+    private static final TimeZoneRegistry REGISTRY =
+        TimeZoneRegistryFactory.getInstance().createRegistry();
+
+    private static final String[] TZIDS = new String[] {
+        "America/New_York", "America/Chicago", "America/Denver",
+        "America/Los_Angeles", "America/Anchorage", "Pacific/Honolulu",
+        "America/Sao_Paulo", "America/Argentina/Buenos_Aires",
+        "America/Mexico_City", "America/Toronto", "America/Halifax",
+        "America/St_Johns", "Atlantic/Reykjavik", "Europe/London",
+        "Europe/Dublin", "Europe/Lisbon", "Europe/Paris", "Europe/Berlin",
+        "Europe/Madrid", "Europe/Rome", "Europe/Amsterdam",
+        "Europe/Helsinki", "Europe/Athens", "Europe/Istanbul",
+        "Europe/Moscow", "Africa/Cairo", "Africa/Johannesburg",
+        "Africa/Lagos", "Asia/Jerusalem", "Asia/Dubai", "Asia/Tehran",
+        "Asia/Karachi", "Asia/Kolkata", "Asia/Kathmandu", "Asia/Dhaka",
+        "Asia/Bangkok", "Asia/Shanghai", "Asia/Hong_Kong",
+        "Asia/Singapore", "Asia/Tokyo", "Asia/Seoul",
+        "Australia/Adelaide", "Australia/Sydney", "Australia/Perth",
+        "Pacific/Auckland", "Pacific/Fiji"
+    };
+
+    /**
+     * Create a daily recurring series starting on {@link #SERIES_START}.
+     * Every seventh occurrence is modified to start an hour later and
+     * every thirtieth occurrence is excluded.
+     * @param days number of occurrences in the series
+     * @param modifications maximum number of modified occurrences
+     * @return icalendar data
+     */
+    public static String recurringSeries(int days, int modifications) {
+        StringBuffer buf = new StringBuffer();
+        beginCalendar(buf);
+        appendTimeZone(buf, SERIES_TZID);
+
+        buf.append("BEGIN:VEVENT").append(CRLF);
+        buf.append("UID:recurring-series").append(CRLF);
+        buf.append("DTSTAMP:20080101T000000Z").append(CRLF);
+        buf.append("SUMMARY:Daily standup").append(CRLF);
+        buf.append("DESCRIPTION:A long-running daily meeting with many")
+            .append(" modifications and exceptions.").append(CRLF);
+        buf.append("DTSTART;TZID=").append(SERIES_TZID).append(":")
+            .append(SERIES_START).append(CRLF);
+        buf.append("DURATION:PT30M").append(CRLF);
+        buf.append("RRULE:FREQ=DAILY;COUNT=").append(days).append(CRLF);
+        for (int day = 29; day < days; day += 30) {
+            buf.append("EXDATE;TZID=").append(SERIES_TZID).append(":")
+                .append(localTime(SERIES_START, day, 0)).append(CRLF);
+        }
+        buf.append("END:VEVENT").append(CRLF);
+
+        int count = 0;
+        for (int day = 6; day < days && count < modifications; day += 7) {
+            buf.append("BEGIN:VEVENT").append(CRLF);
+            buf.append("UID:recurring-series").append(CRLF);
+            buf.append("DTSTAMP:20080101T000000Z").append(CRLF);
+            buf.append("SUMMARY:Daily standup (moved)").append(CRLF);
+            buf.append("RECURRENCE-ID;TZID=").append(SERIES_TZID).append(":")
+                .append(localTime(SERIES_START, day, 0)).append(CRLF);
+            buf.append("DTSTART;TZID=").append(SERIES_TZID).append(":")
+                .append(localTime(SERIES_START, day, 1)).append(CRLF);
+            buf.append("DURATION:PT30M").append(CRLF);
+            buf.append("END:VEVENT").append(CRLF);
+            count++;
+        }
+
+        endCalendar(buf);
+        return buf.toString();
+    }
+
+    /**
+     * Create a calendar containing one weekly event in each of a
+     * number of timezones, with the VTIMEZONE of each.
+     * @param count number of events, at most the number of
+     *        timezones known to the benchmarks
+     * @return icalendar data
+     */
+    public static String manyTimezones(int count) {
+        StringBuffer buf = new StringBuffer();
+        beginCalendar(buf);
+        List<String> tzids = getTzids(count);
+        for (String tzid : tzids)
+            appendTimeZone(buf, tzid);
+        for (int i = 0; i < tzids.size(); i++)
+            appendEvent(buf, i, tzids.get(i));
+        endCalendar(buf);
+        return buf.toString();
+    }
+
+    /**
+     * Create calendars each containing a single weekly event and the
+     * VTIMEZONE it uses, as stored for the items of a collection.
+     * @param count number of calendars
+     * @return icalendar data of each calendar
+     */
+    public static List<String> eventsInTimezones(int count) {
+        List<String> tzids = getTzids(TZIDS.length);
+        List<String> calendars = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            String tzid = tzids.get(i % tzids.size());
+            StringBuffer buf = new StringBuffer();
+            beginCalendar(buf);
+            appendTimeZone(buf, tzid);
+            appendEvent(buf, i, tzid);
+            endCalendar(buf);
+            calendars.add(buf.toString());
+        }
+        return calendars;
+    }
+
+    /**
+     * Parse icalendar data, rethrowing any error as unchecked.
+     */
+    public static Calendar parse(String data) {
+        try {
+            return CalendarUtils.parseCalendar(data);
+        } catch (Exception e) {
+            throw new RuntimeException("can't parse corpus", e);
+        }
+    }
+
+    /**
+     * @return the timezone of the recurring series
+     */
+    public static TimeZone getSeriesTimeZone() {
+        return REGISTRY.getTimeZone(SERIES_TZID);
+    }
+
+    private static void appendEvent(StringBuffer buf, int index, String tzid) {
+        buf.append("BEGIN:VEVENT").append(CRLF);
+        buf.append("UID:event-").append(index).append(CRLF);
+        buf.append("DTSTAMP:20080101T000000Z").append(CRLF);
+        buf.append("SUMMARY:Weekly call ").append(index).append(CRLF);
+        buf.append("LOCATION:").append(tzid).append(CRLF);
+        buf.append("DTSTART;TZID=").append(tzid).append(":")
+            .append(localTime(SERIES_START, index % 7, index % 8)).append(CRLF);
+        buf.append("DTEND;TZID=").append(tzid).append(":")
+            .append(localTime(SERIES_START, index % 7, index % 8 + 1)).append(CRLF);
+        buf.append("RRULE:FREQ=WEEKLY;UNTIL=20101231T000000Z").append(CRLF);
+        buf.append("END:VEVENT").append(CRLF);
+    }
+
+    private static void beginCalendar(StringBuffer buf) {
+        buf.append("BEGIN:VCALENDAR").append(CRLF);
+        buf.append("VERSION:2.0").append(CRLF);
+        buf.append("PRODID:-//OSAF//Cosmo Benchmarks//EN").append(CRLF);
+    }
+
+    private static void endCalendar(StringBuffer buf) {
+        buf.append("END:VCALENDAR").append(CRLF);
+    }
+
+    private static void appendTimeZone(StringBuffer buf, String tzid) {
+        TimeZone tz = REGISTRY.getTimeZone(tzid);
+        if (tz == null)
+            throw new IllegalStateException("unknown timezone " + tzid);
+        buf.append(tz.getVTimeZone().toString());
+    }
+
+    private static List<String> getTzids(int count) {
+        List<String> tzids = new ArrayList<String>(count);
+        for (int i = 0; i < TZIDS.length && tzids.size() < count; i++) {
+            if (REGISTRY.getTimeZone(TZIDS[i]) != null)
+                tzids.add(TZIDS[i]);
+        }
+        return tzids;
+    }
+
+    /**
+     * Add days and hours to a local date-time string, without any
+     * timezone adjustment.
+     */
+    private static String localTime(String start, int days, int hours) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss");
+        format.setTimeZone(java.util.TimeZone.getTimeZone("UTC"));
+        GregorianCalendar cal =
+            new GregorianCalendar(java.util.TimeZone.getTimeZone("UTC"));
+        try {
+            cal.setTime(format.parse(start));
+        } catch (java.text.ParseException e) {
+            throw new IllegalArgumentException(start);
+        }
+        cal.add(java.util.Calendar.DATE, days);
+        cal.add(java.util.Calendar.HOUR_OF_DAY, hours);
+        return format.format(cal.getTime());
+    }
+}
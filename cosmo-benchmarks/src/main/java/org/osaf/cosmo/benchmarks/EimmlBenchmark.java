@@ -0,0 +1,96 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.benchmarks;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osaf.cosmo.calendar.EntityConverter;
+import org.osaf.cosmo.eim.EimRecordSet;
+import org.osaf.cosmo.eim.eimml.EimmlStreamReader;
+import org.osaf.cosmo.eim.eimml.EimmlStreamWriter;
+import org.osaf.cosmo.eim.schema.ItemTranslator;
+import org.osaf.cosmo.model.NoteItem;
+import org.osaf.cosmo.model.mock.MockEntityFactory;
+
+/**
+ * Benchmarks writing and reading the EIMML of a collection, as done
+ * by Morse Code publish, update and subscribe.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EimmlBenchmark {
+
+    /** number of items in the collection */
+    @Param({ "50", "500" })
+    public int collectionSize;
+
+    private List<EimRecordSet> recordsets;
+    private String eimml;
+
+    @Setup
+    public void setUp() throws Exception {
+        EntityConverter converter = new EntityConverter(new MockEntityFactory());
+        recordsets = new ArrayList<EimRecordSet>();
+        for (String data : Corpus.eventsInTimezones(collectionSize)) {
+            for (NoteItem note : converter.convertEventCalendar(Corpus.parse(data)))
+                recordsets.add(new ItemTranslator(note).generateRecords());
+        }
+        eimml = write();
+    }
+
+    @Benchmark
+    public String write() throws Exception {
+        StringWriter out = new StringWriter();
+        EimmlStreamWriter writer = new EimmlStreamWriter(out);
+        writer.writeStartDocument();
+        writer.writeCollection("benchmark-collection", "Benchmark", null);
+        for (EimRecordSet recordset : recordsets)
+            writer.writeRecordSet(recordset);
+        writer.close();
+        return out.toString();
+    }
+
+    @Benchmark
+    public int read() throws Exception {
+        EimmlStreamReader reader = new EimmlStreamReader(new StringReader(eimml));
+        int count = 0;
+        while (reader.hasNext()) {
+            reader.nextRecordSet();
+            count++;
+        }
+        reader.close();
+        return count;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.benchmarks;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import net.fortuna.ical4j.model.Calendar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osaf.cosmo.calendar.EntityConverter;
+import org.osaf.cosmo.model.NoteItem;
+import org.osaf.cosmo.model.mock.MockCalendarCollectionStamp;
+import org.osaf.cosmo.model.mock.MockCollectionItem;
+import org.osaf.cosmo.model.mock.MockEntityFactory;
+
+/**
+ * Benchmarks <code>EntityConverter.convertNote()</code> for a
+ * recurring series with modifications and
+ * <code>EntityConverter.convertCollection()</code> for a collection
+ * of events in many timezones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityConverterBenchmark {
+
+    /** number of items in the collection */
+    @Param({ "50", "500" })
+    public int collectionSize;
+
+    private EntityConverter converter;
+    private NoteItem series;
+    private MockCollectionItem collection;
+
+    @Setup
+    public void setUp() {
+        converter = new EntityConverter(new MockEntityFactory());
+
+        Set<NoteItem> notes = converter.convertEventCalendar(
+                Corpus.parse(Corpus.recurringSeries(730, 100)));
+        for (NoteItem note : notes) {
+            if (note.getModifies() == null)
+                series = note;
+        }
+
+        collection = new MockCollectionItem();
+        collection.addStamp(new MockCalendarCollectionStamp(collection));
+        List<String> calendars = Corpus.eventsInTimezones(collectionSize);
+        for (String data : calendars) {
+            for (NoteItem note : converter.convertEventCalendar(Corpus.parse(data)))
+                collection.addChild(note);
+        }
+    }
+
+    @Benchmark
+    public Calendar convertNote() {
+        return converter.convertNote(series);
+    }
+
+    @Benchmark
+    public Calendar convertCollection() {
+        return converter.convertCollection(collection);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.benchmarks;
+
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osaf.cosmo.dao.UserDao;
+import org.osaf.cosmo.dao.hibernate.ContentDaoImpl;
+import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.ContentItem;
+import org.osaf.cosmo.model.HomeCollectionItem;
+import org.osaf.cosmo.model.NoteItem;
+import org.osaf.cosmo.model.User;
+import org.osaf.cosmo.model.hibernate.HibCollectionItem;
+import org.osaf.cosmo.model.hibernate.HibMessageStamp;
+import org.osaf.cosmo.model.hibernate.HibNoteItem;
+import org.osaf.cosmo.model.hibernate.HibQName;
+import org.osaf.cosmo.model.hibernate.HibStringAttribute;
+import org.osaf.cosmo.model.hibernate.HibTaskStamp;
+import org.osaf.cosmo.model.hibernate.HibUser;
+import org.springframework.beans.factory.config.PropertyOverrideConfigurer;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Benchmarks <code>ContentDaoImpl.loadChildren()</code> against an
+ * embedded Derby database, loading all children with a single query
+ * (<code>childBatchSize</code> 0) and with a query per association
+ * for each batch of children.  Every child is a note with two stamps
+ * and {@link #ATTRIBUTES} attributes, the shape for which a single
+ * query returns a row for every stamp and attribute combination.
+ * <p>
+ * Besides the time, the <code>rows</code> counter reports the number
+ * of rows returned by the queries of each invocation.  The
+ * collections are created on the first run and reused afterwards;
+ * remove <code>target/benchmark-db</code> to recreate them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LoadChildrenBenchmark {
+
+    /** number of attributes of each child */
+    public static final int ATTRIBUTES = 8;
+
+    private static final String USERNAME = "benchmark";
+
+    /** number of children in the collection */
+    @Param({ "1000", "10000", "50000" })
+    public int collectionSize;
+
+    /** children per set of association queries, 0 for a single query */
+    @Param({ "0", "500" })
+    public int childBatchSize;
+
+    private ClassPathXmlApplicationContext context;
+    private ContentDaoImpl contentDao;
+    private TransactionTemplate txTemplate;
+    private Statistics statistics;
+    private CollectionItem collection;
+
+    /**
+     * Rows returned by the queries of each invocation.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Rows {
+        public long rows;
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        context = new ClassPathXmlApplicationContext(new String[] {
+                "applicationContext.xml", "applicationContext-test.xml" },
+                false);
+        Properties overrides = new Properties();
+        overrides.setProperty("jdbcDataSource.url",
+                "jdbc:derby:target/benchmark-db;create=true");
+        PropertyOverrideConfigurer configurer = new PropertyOverrideConfigurer();
+        configurer.setProperties(overrides);
+        context.addBeanFactoryPostProcessor(configurer);
+        context.refresh();
+
+        contentDao = (ContentDaoImpl) context.getBean("contentDao");
+        contentDao.setChildBatchSize(childBatchSize);
+        txTemplate = new TransactionTemplate((PlatformTransactionManager)
+                context.getBean("transactionManager"));
+        statistics = ((SessionFactory) context.getBean("sessionFactory"))
+            .getStatistics();
+        statistics.setStatisticsEnabled(true);
+
+        collection = findOrCreateCollection();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int loadChildren(Rows rows) {
+        long before = countRows();
+        Integer count = (Integer) txTemplate.execute(new TransactionCallback() {
+            public Object doInTransaction(TransactionStatus status) {
+                Set<ContentItem> children =
+                    contentDao.loadChildren(collection, null);
+                return new Integer(children.size());
+            }
+        });
+        rows.rows += countRows() - before;
+        return count.intValue();
+    }
+
+    private long countRows() {
+        long rows = 0;
+        String[] queries = statistics.getQueries();
+        for (int i = 0; i < queries.length; i++)
+            rows += statistics.getQueryStatistics(queries[i])
+                .getExecutionRowCount();
+        return rows;
+    }
+
+    private CollectionItem findOrCreateCollection() {
+        final String uid = "benchmark-" + collectionSize;
+        CollectionItem existing = (CollectionItem) txTemplate.execute(
+                new TransactionCallback() {
+            public Object doInTransaction(TransactionStatus status) {
+                return contentDao.findItemByUid(uid);
+            }
+        });
+        if (existing != null)
+            return existing;
+
+        CollectionItem created = (CollectionItem) txTemplate.execute(
+                new TransactionCallback() {
+            public Object doInTransaction(TransactionStatus status) {
+                HomeCollectionItem root =
+                    contentDao.getRootItem(findOrCreateUser());
+                CollectionItem collection = new HibCollectionItem();
+                collection.setUid(uid);
+                collection.setName(uid);
+                collection.setOwner(root.getOwner());
+                return contentDao.createCollection(root, collection);
+            }
+        });
+
+        // one transaction per thousand children
+        for (int i = 0; i < collectionSize; i += 1000) {
+            final int start = i;
+            final int end = Math.min(collectionSize, i + 1000);
+            txTemplate.execute(new TransactionCallback() {
+                public Object doInTransaction(TransactionStatus status) {
+                    CollectionItem parent = (CollectionItem)
+                        contentDao.findItemByUid(uid);
+                    for (int j = start; j < end; j++)
+                        contentDao.createContent(parent,
+                                createNote(parent.getOwner(), uid + "-" + j));
+                    return null;
+                }
+            });
+        }
+
+        return created;
+    }
+
+    private User findOrCreateUser() {
+        UserDao userDao = (UserDao) context.getBean("userDao");
+        User user = userDao.getUser(USERNAME);
+        if (user != null)
+            return user;
+
+        user = new HibUser();
+        user.setUsername(USERNAME);
+        user.setPassword(USERNAME);
+        user.setEmail(USERNAME + "@localhost");
+        user.setFirstName(USERNAME);
+        user.setLastName(USERNAME);
+        user = userDao.createUser(user);
+        contentDao.createRootItem(user);
+        return user;
+    }
+
+    private NoteItem createNote(User owner, String name) {
+        NoteItem note = new HibNoteItem();
+        note.setName(name);
+        note.setDisplayName(name);
+        note.setOwner(owner);
+        for (int i = 0; i < ATTRIBUTES; i++)
+            note.addAttribute(new HibStringAttribute(
+                    new HibQName("attribute" + i), "value" + i));
+        note.addStamp(new HibMessageStamp(note));
+        note.addStamp(new HibTaskStamp());
+        return note;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Period;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osaf.cosmo.calendar.data.OutputFilter;
+
+/**
+ * Benchmarks <code>OutputFilter.filter()</code>, which renders the
+ * calendar-data of CalDAV reports, for a large recurring series
+ * rendered as is, expanded, or with its recurrence set limited.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputFilterBenchmark {
+
+    @Param({ "all", "expand", "limit" })
+    public String mode;
+
+    private Calendar calendar;
+    private OutputFilter filter;
+
+    @Setup
+    public void setUp() throws Exception {
+        calendar = Corpus.parse(Corpus.recurringSeries(730, 100));
+
+        filter = new OutputFilter("VCALENDAR");
+        filter.setAllSubComponents();
+        filter.setAllProperties();
+
+        Period month = new Period(new DateTime("20090601T000000Z"),
+                new DateTime("20090701T000000Z"));
+        if ("expand".equals(mode))
+            filter.setExpand(month);
+        else if ("limit".equals(mode))
+            filter.setLimit(month);
+    }
+
+    @Benchmark
+    public String filter() {
+        StringBuffer buffer = new StringBuffer();
+        filter.filter(calendar, buffer);
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.component.VEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osaf.cosmo.calendar.InstanceList;
+import org.osaf.cosmo.calendar.OccurrenceExpander;
+import org.osaf.cosmo.calendar.OccurrenceList;
+import org.osaf.cosmo.calendar.RecurrenceExpander;
+
+/**
+ * Benchmarks <code>RecurrenceExpander.getOcurrences()</code> over a
+ * large recurring series, alongside {@link OccurrenceExpander} for
+ * comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecurrenceExpansionBenchmark {
+
+    /** expanded range: a week, or the whole two year series */
+    @Param({ "week", "series" })
+    public String range;
+
+    private Calendar calendar;
+    private Component master;
+    private List<Component> overrides;
+    private DateTime rangeStart;
+    private DateTime rangeEnd;
+
+    @Setup
+    public void setUp() throws Exception {
+        calendar = Corpus.parse(Corpus.recurringSeries(730, 100));
+        overrides = new ArrayList<Component>();
+        for (Iterator<VEvent> it = calendar.getComponents("VEVENT").iterator(); it.hasNext();) {
+            VEvent event = it.next();
+            if (event.getRecurrenceId() == null)
+                master = event;
+            else
+                overrides.add(event);
+        }
+
+        if ("week".equals(range)) {
+            rangeStart = new DateTime("20080901T000000Z");
+            rangeEnd = new DateTime("20080908T000000Z");
+        } else {
+            rangeStart = new DateTime("20080101T000000Z");
+            rangeEnd = new DateTime("20100201T000000Z");
+        }
+    }
+
+    @Benchmark
+    public InstanceList getOcurrences() {
+        return new RecurrenceExpander().getOcurrences(calendar, rangeStart,
+                rangeEnd, null);
+    }
+
+    @Benchmark
+    public OccurrenceList expandOccurrences() {
+        OccurrenceExpander expander = new OccurrenceExpander();
+        expander.setUTC(true);
+        return expander.expand(master, overrides, rangeStart, rangeEnd);
+    }
+}
@@ -61,6 +61,10 @@ public interface AtomConstants {
     public static final String REL_MASTER = "master";
     public static final String REL_DETACHED = "detached";
     public static final String REL_TICKET = "ticket";
+    /** RFC 5005 paged feed relations */
+    public static final String REL_FIRST = "first";
+    public static final String REL_NEXT = "next";
+    public static final String REL_PREVIOUS = "previous";
 
     // projection constants
 
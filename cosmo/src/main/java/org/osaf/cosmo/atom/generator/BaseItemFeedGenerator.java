@@ -17,9 +17,12 @@ package org.osaf.cosmo.atom.generator;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.abdera.model.Entry;
 import org.apache.abdera.model.Feed;
@@ -36,8 +39,12 @@ import org.osaf.cosmo.model.ModificationUid;
 import org.osaf.cosmo.model.NoteItem;
 import org.osaf.cosmo.model.NoteOccurrence;
 import org.osaf.cosmo.model.Ticket;
+import org.osaf.cosmo.model.filter.EventStampFilter;
+import org.osaf.cosmo.model.filter.ItemFilter;
 import org.osaf.cosmo.model.filter.NoteItemFilter;
+import org.osaf.cosmo.model.filter.FilterOrder.Order;
 import org.osaf.cosmo.server.ServiceLocator;
+import org.osaf.cosmo.service.impl.ParallelCollectionExecutor;
 
 /**
  * A base class for feed generators that work with collections and items.
@@ -55,6 +62,7 @@ public abstract class BaseItemFeedGenerator
         LogFactory.getLog(BaseItemFeedGenerator.class);
 
     private NoteItemFilter filter;
+    private FeedPage page;
 
     /** */
     public BaseItemFeedGenerator(StandardGeneratorFactory factory,
@@ -74,9 +82,21 @@ public abstract class BaseItemFeedGenerator
         this.filter = filter;
     }
 
+    /**
+     * Limits the feed generated for a collection to a single page.
+     * Ignored for feeds that can't be paged (see
+     * {@link #isPageable()}).
+     *
+     * @param page the page, or null for an unpaged feed
+     */
+    public void setPage(FeedPage page) {
+        this.page = page;
+    }
+
     /**
      * Generates an Atom feed containing entries for each child item
-     * of the collection.
+     * of the collection, or for the items on the page if a page has
+     * been set.
      *
      * @param collection the collection on which the feed is based
      * @throws GeneratorException
@@ -85,6 +105,11 @@ public abstract class BaseItemFeedGenerator
         throws GeneratorException {
         Feed feed = createFeed(collection);
 
+        if (page != null && isPageable()) {
+            addPage(feed, collection);
+            return feed;
+        }
+
         for (NoteItem item : this.findContents(collection))
             feed.addEntry(createEntry(item));
 
@@ -119,12 +144,62 @@ public abstract class BaseItemFeedGenerator
         Feed feed = createFeed(collections[0]); // does it matter that only one
                                                 // collection is being used?
 
-        for (CollectionItem collection : collections) {
-            for (NoteItem item : this.findContents(collection))
-                feed.addEntry(createEntry(item));
+        for (List<Entry> entries : createEntries(collections)) {
+            if (entries == null)
+                continue;
+            for (Entry entry : entries)
+                feed.addEntry(entry);
         }
         return feed;
-}   
+    }
+
+    /**
+     * Creates the entries for the contents of each of the given
+     * collections, in collection order. If the factory provides a
+     * {@link ParallelCollectionExecutor}, the collections are
+     * processed concurrently, each in its own session, so the entries
+     * are created by the same task that finds the items.
+     *
+     * @param collections the collections whose contents are listed
+     * @return a list of entries for each collection, or null for a
+     * collection that no longer exists
+     * @throws GeneratorException
+     */
+    protected List<List<Entry>> createEntries(CollectionItem[] collections)
+        throws GeneratorException {
+        ParallelCollectionExecutor executor =
+            getFactory().getCollectionExecutor();
+        if (executor == null) {
+            ArrayList<List<Entry>> entries = new ArrayList<List<Entry>>();
+            for (CollectionItem collection : collections)
+                entries.add(createEntries(collection));
+            return entries;
+        }
+
+        try {
+            return executor.execute(collections,
+                new ParallelCollectionExecutor.CollectionTask<List<Entry>>() {
+                    public List<Entry> execute(CollectionItem collection)
+                        throws GeneratorException {
+                        return createEntries(collection);
+                    }
+                });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GeneratorException)
+                throw (GeneratorException) e.getCause();
+            throw new GeneratorException("Unable to generate feed", e.getCause());
+        }
+    }
+
+    private List<Entry> createEntries(CollectionItem collection)
+        throws GeneratorException {
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        for (NoteItem item : findContents(collection))
+            entries.add(createEntry(item));
+        return entries;
+    }
+
+
     /**
      * Generates an Atom feed containing entries for an expanded
      * recurring item.
@@ -180,9 +255,12 @@ public abstract class BaseItemFeedGenerator
         // XXX page
 
         if (filter != null) {
-            filter.setParent(collection);
+            // the filter may be shared by concurrent calls for
+            // different collections
+            NoteItemFilter contentsFilter = (NoteItemFilter) filter.copy();
+            contentsFilter.setParent(collection);
             for (Item item : getFactory().getContentService().
-                     findItems(filter))
+                     findItems(contentsFilter))
                 contents.add((NoteItem)item);
         } else {
             for (Item child : collection.getChildren()) {
@@ -197,6 +275,112 @@ public abstract class BaseItemFeedGenerator
         return contents;
     }
   
+    /**
+     * Returns true if the generator's feed can be paged. Feeds based
+     * on a time-range query can't be paged, since the occurrences of
+     * recurring events aren't stored.
+     */
+    protected boolean isPageable() {
+        if (filter == null)
+            return true;
+        EventStampFilter eventFilter = (EventStampFilter)
+            filter.getStampFilter(EventStampFilter.class);
+        return eventFilter == null || eventFilter.getPeriod() == null;
+    }
+
+    /**
+     * <p>
+     * Returns the items from the given collection that are on the
+     * generator's page, in page order (see {@link FeedPage#ORDER}),
+     * followed by the next item beyond the page if there is one.
+     * </p>
+     * <p>
+     * The ordering and the page bounds are part of the query, so
+     * only the items on the page are loaded.
+     * </p>
+     *
+     * @param collection the collection whose contents are to be listed
+     */
+    protected List<NoteItem> findPage(CollectionItem collection) {
+        NoteItemFilter pageFilter = filter != null ?
+            filter : new NoteItemFilter();
+        pageFilter.setParent(collection);
+
+        // a page ending before its key is found by reading backwards
+        // from the key
+        Order order = page.isBefore() ? Order.ASC : Order.DESC;
+        pageFilter.getOrders().clear();
+        if (order == Order.ASC) {
+            pageFilter.addOrderBy(ItemFilter.ORDER_BY_MODIFIED_DATE_ASC);
+            pageFilter.addOrderBy(ItemFilter.ORDER_BY_UID_ASC);
+        } else {
+            pageFilter.addOrderBy(ItemFilter.ORDER_BY_MODIFIED_DATE_DESC);
+            pageFilter.addOrderBy(ItemFilter.ORDER_BY_UID_DESC);
+        }
+        if (! page.isFirst())
+            pageFilter.setKeyset(page.getModifiedDate(), page.getUid(),
+                                 order);
+        pageFilter.setMaxResults(page.getSize() + 1);
+
+        // the results may also include the masters of modifications,
+        // which belong on other pages
+        TreeSet<NoteItem> contents = new TreeSet<NoteItem>(FeedPage.ORDER);
+        for (Item item : getFactory().getContentService().
+                 findItems(pageFilter)) {
+            if (page.includes(item))
+                contents.add((NoteItem) item);
+        }
+
+        // keep the items nearest to the key, plus the next one
+        ArrayList<NoteItem> results = new ArrayList<NoteItem>(contents);
+        int max = page.getSize() + 1;
+        if (results.size() > max) {
+            if (page.isBefore())
+                return results.subList(results.size() - max, results.size());
+            return results.subList(0, max);
+        }
+
+        return results;
+    }
+
+    /**
+     * Adds entries for the items on the generator's page to the feed,
+     * along with links to the first, next and previous pages.
+     *
+     * @param feed the feed
+     * @param collection the collection on which the feed is based
+     * @throws GeneratorException
+     */
+    protected void addPage(Feed feed,
+                           CollectionItem collection)
+        throws GeneratorException {
+        List<NoteItem> items = findPage(collection);
+        boolean hasMore = items.size() > page.getSize();
+        if (hasMore) {
+            if (page.isBefore())
+                items = items.subList(1, items.size());
+            else
+                items = items.subList(0, page.getSize());
+        }
+
+        for (NoteItem item : items)
+            feed.addEntry(createEntry(item));
+
+        feed.addLink(newPageLink(REL_FIRST, collection, null, false));
+        if (items.isEmpty())
+            return;
+
+        boolean hasPrevious = page.isBefore() ? hasMore : ! page.isFirst();
+        boolean hasNext = page.isBefore() || hasMore;
+        if (hasPrevious)
+            feed.addLink(newPageLink(REL_PREVIOUS, collection,
+                                     FeedPage.key(items.get(0)), true));
+        if (hasNext)
+            feed.addLink(newPageLink(REL_NEXT, collection,
+                                     FeedPage.key(items.get(items.size()-1)),
+                                     false));
+    }
+
     /**
      * <p>
      * Returns a sorted set of items representing modifications and
@@ -386,6 +570,27 @@ public abstract class BaseItemFeedGenerator
                        ticketsIri(collection));
     }
 
+    /**
+     * Creates a <code>Link</code> to a page of the feed for the given
+     * collection.
+     *
+     * @param rel the link relation
+     * @param collection the collection to link
+     * @param key the key of the entry next to the page, or null for
+     * the first page
+     * @param before true if the page ends just before the entry,
+     * false if it starts just after it
+     * @throws GeneratorException
+     */
+    protected Link newPageLink(String rel,
+                               CollectionItem collection,
+                               String key,
+                               boolean before)
+        throws GeneratorException {
+        return newLink(rel, MEDIA_TYPE_ATOM,
+                       pageIri(collection, key, before));
+    }
+
     /**
      * Creates a <code>Link</code> for the self IRI of the given item.
      *
@@ -575,6 +780,10 @@ public abstract class BaseItemFeedGenerator
         return filter;
     }
 
+    public FeedPage getPage() {
+        return page;
+    }
+
     protected Set<Ticket> visibleTickets(CollectionItem collection) {
         return getFactory().getSecurityManager().getSecurityContext().
             findVisibleTickets(collection);
@@ -597,6 +806,33 @@ public abstract class BaseItemFeedGenerator
         }
     }
     
+    /**
+     * Returns the IRI of a page of the given collection's feed.
+     *
+     * @param collection the collection
+     * @param key the key of the entry next to the page, or null for
+     * the first page
+     * @param before true if the page ends just before the entry,
+     * false if it starts just after it
+     */
+    protected String pageIri(CollectionItem collection,
+                             String key,
+                             boolean before) {
+        StringBuffer iri = new StringBuffer(selfIri(collection));
+        iri.append('?').append(FeedPage.PARAM_LIMIT).append('=').
+            append(page.getSize());
+        if (key == null)
+            return iri.toString();
+        try {
+            iri.append('&').
+                append(before ? FeedPage.PARAM_BEFORE : FeedPage.PARAM_AFTER).
+                append('=').append(URLEncoder.encode(key, "UTF-8"));
+            return iri.toString();
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("Could not encode page key " + key, e);
+        }
+    }
+
     /**
      * Returns the IRI of the given collection's ticket feed.
      *
@@ -84,6 +84,14 @@ public class DashboardFeedGenerator extends FullFeedGenerator {
 
     // our methods
 
+    /**
+     * Returns false since the dashboard is ordered by triage status
+     * rather than by modified date.
+     */
+    protected boolean isPageable() {
+        return false;
+    }
+
     /**
      * <p>
      * Returns a sorted set of items from the given collection to
@@ -99,7 +107,7 @@ public class DashboardFeedGenerator extends FullFeedGenerator {
     protected SortedSet<NoteItem> findContents(CollectionItem collection) {
         String label = triageStatus == -1 ?
             null : TriageStatusUtil.label(triageStatus);
-        Date now = Calendar.getInstance().getTime();
+        Date now = getPointInTime();
         TimeZone tz = null;
         
         // Look for timezone in EventStampFilter if present
@@ -131,7 +139,7 @@ public class DashboardFeedGenerator extends FullFeedGenerator {
     protected SortedSet<NoteItem> findOccurrences(NoteItem item) {
         String label = triageStatus == -1 ?
             null : TriageStatusUtil.label(triageStatus);
-        Date now = Calendar.getInstance().getTime();
+        Date now = getPointInTime();
         TimeZone tz = null;
         if (getFilter() != null) {
             EventStampFilter esf = (EventStampFilter)
@@ -145,6 +153,19 @@ public class DashboardFeedGenerator extends FullFeedGenerator {
             findNotesByTriageStatus(item, context);
     }
   
+    /**
+     * Returns the current time, truncated to the minute.  Recurring
+     * events are expanded over ranges derived from the point in time,
+     * so truncating it lets requests made within the same minute
+     * reuse the cached expansions.
+     */
+    protected Date getPointInTime() {
+        Calendar now = Calendar.getInstance();
+        now.set(Calendar.SECOND, 0);
+        now.set(Calendar.MILLISECOND, 0);
+        return now.getTime();
+    }
+
     /**
      * Returns one of {@link AtomConstants#PROJECTION_DASHBOARD_NOW},
      * {@link AtomConstants#PROJECTION_DASHBOARD_LATER}, or
@@ -84,6 +84,13 @@ public class DetailsFeedGenerator extends BaseItemFeedGenerator {
         return new TreeSet<NoteItem>();
     }
 
+    /**
+     * Returns false since there are no entries in this feed.
+     */
+    protected boolean isPageable() {
+        return false;
+    }
+
     /**
      * Does nothing since there are no entries in this feed.
      */
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.atom.generator;
+
+import java.util.Comparator;
+import java.util.Date;
+
+import org.osaf.cosmo.model.Item;
+
+/**
+ * <p>
+ * Identifies a page of a paged item feed (RFC 5005).
+ * </p>
+ * <p>
+ * The entries of a paged feed are ordered by modified date and then
+ * uid, most recently modified first. A page holds at most
+ * <code>size</code> entries and either starts just after or ends just
+ * before the entry identified by a key (see {@link #key(Item)}).
+ * Pages are found by key rather than by number, so the items of
+ * earlier pages never have to be read.
+ * </p>
+ */
+public class FeedPage {
+
+    public static final String PARAM_LIMIT = "limit";
+    public static final String PARAM_AFTER = "after";
+    public static final String PARAM_BEFORE = "before";
+
+    /**
+     * Orders items by modified date and then uid, most recently
+     * modified first.
+     */
+    public static final Comparator<Item> ORDER = new Comparator<Item>() {
+        public int compare(Item o1, Item o2) {
+            return FeedPage.compare(o1.getModifiedDate(), o1.getUid(),
+                                    o2.getModifiedDate(), o2.getUid());
+        }
+    };
+
+    private int size;
+    private Date modifiedDate;
+    private String uid;
+    private boolean before;
+
+    /**
+     * Identifies the first page.
+     *
+     * @param size the maximum number of entries
+     */
+    public FeedPage(int size) {
+        if (size <= 0)
+            throw new IllegalArgumentException("page size must be positive");
+        this.size = size;
+    }
+
+    /**
+     * Identifies the page next to an entry.
+     *
+     * @param size the maximum number of entries
+     * @param key the key of the entry
+     * @param before true if the page ends just before the entry,
+     * false if it starts just after the entry
+     * @throws IllegalArgumentException if the key is not valid
+     */
+    public FeedPage(int size,
+                    String key,
+                    boolean before) {
+        this(size);
+        int sep = key.indexOf('-');
+        if (sep <= 0 || sep == key.length() - 1)
+            throw new IllegalArgumentException("Invalid page key " + key);
+        try {
+            modifiedDate = new Date(Long.parseLong(key.substring(0, sep)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page key " + key);
+        }
+        uid = key.substring(sep + 1);
+        this.before = before;
+    }
+
+    /**
+     * Returns the key identifying the given item's entry.
+     */
+    public static String key(Item item) {
+        return item.getModifiedDate().getTime() + "-" + item.getUid();
+    }
+
+    /**
+     * Determines whether the given item lies on the side of the
+     * page's key that the page extends to. Every item lies on the
+     * first page's side.
+     */
+    public boolean includes(Item item) {
+        if (modifiedDate == null)
+            return true;
+        int result = compare(item.getModifiedDate(), item.getUid(),
+                             modifiedDate, uid);
+        return before ? result < 0 : result > 0;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the modified date of the entry the page is next to,
+     * or null for the first page.
+     */
+    public Date getModifiedDate() {
+        return modifiedDate;
+    }
+
+    /**
+     * Returns the uid of the entry the page is next to, or null for
+     * the first page.
+     */
+    public String getUid() {
+        return uid;
+    }
+
+    /**
+     * Returns true if the page ends just before its key, false if
+     * it starts just after its key.
+     */
+    public boolean isBefore() {
+        return before;
+    }
+
+    public boolean isFirst() {
+        return modifiedDate == null;
+    }
+
+    private static int compare(Date d1, String uid1,
+                               Date d2, String uid2) {
+        int result = d2.compareTo(d1);
+        if (result != 0)
+            return result;
+        return uid2.compareTo(uid1);
+    }
+}
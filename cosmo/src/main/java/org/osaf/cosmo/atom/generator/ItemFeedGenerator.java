@@ -40,6 +40,14 @@ public interface ItemFeedGenerator {
      */
     public void setFilter(NoteItemFilter filter);
 
+    /**
+     * Limits the feed generated for a collection to a single page
+     * (RFC 5005). Generators that can't page a feed ignore the page.
+     *
+     * @param page the page, or null for an unpaged feed
+     */
+    public void setPage(FeedPage page);
+
     /**
      * Generates an Atom feed containing entries for items in a
      * collection. If a query filter has been set, it is used to
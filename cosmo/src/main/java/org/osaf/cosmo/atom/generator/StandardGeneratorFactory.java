@@ -25,6 +25,7 @@ import org.osaf.cosmo.model.TriageStatus;
 import org.osaf.cosmo.security.CosmoSecurityManager;
 import org.osaf.cosmo.server.ServiceLocator;
 import org.osaf.cosmo.service.ContentService;
+import org.osaf.cosmo.service.impl.ParallelCollectionExecutor;
 
 /**
  * Standard implementation of <code>GeneratorFactory</code>.
@@ -41,6 +42,7 @@ public class StandardGeneratorFactory
     private ContentFactory contentFactory;
     private ContentService contentService;
     private CosmoSecurityManager securityManager;
+    private ParallelCollectionExecutor collectionExecutor;
 
     // GeneratorFactory methods
 
@@ -198,6 +200,19 @@ public class StandardGeneratorFactory
         this.securityManager = manager;
     }
 
+    public ParallelCollectionExecutor getCollectionExecutor() {
+        return collectionExecutor;
+    }
+
+    /**
+     * @param executor executor used to generate feeds spanning
+     * several collections concurrently, or null to process the
+     * collections one after another
+     */
+    public void setCollectionExecutor(ParallelCollectionExecutor executor) {
+        this.collectionExecutor = executor;
+    }
+
     public void init() {
         if (abdera == null)
             throw new IllegalStateException("abdera is required");
@@ -54,6 +54,7 @@ import org.osaf.cosmo.atom.AtomConstants;
 import org.osaf.cosmo.atom.InsufficientPrivilegesException;
 import org.osaf.cosmo.atom.UidConflictException;
 import org.osaf.cosmo.atom.generator.BaseItemFeedGenerator;
+import org.osaf.cosmo.atom.generator.FeedPage;
 import org.osaf.cosmo.atom.generator.GeneratorException;
 import org.osaf.cosmo.atom.generator.ItemFeedGenerator;
 import org.osaf.cosmo.atom.generator.UnsupportedFormatException;
@@ -97,6 +98,7 @@ public class ItemCollectionAdapter extends BaseCollectionAdapter implements Atom
 
     private ProcessorFactory processorFactory;
     private ContentService contentService;
+    private int defaultPageSize = 0;
 
     // Provider methods
     private static final String[] ALLOWED_COLL_METHODS =
@@ -364,6 +366,7 @@ public class ItemCollectionAdapter extends BaseCollectionAdapter implements Atom
                 ItemFeedGenerator generator = createItemFeedGenerator(target,
                         locator);
                 generator.setFilter(createQueryFilter(request));
+                generator.setPage(createFeedPage(request));
                 feed = generator.generateFeed(collection);
             } else {// it's a search
                 feed = getSearchFeed(searchType, request, target, locator,
@@ -834,6 +837,20 @@ public class ItemCollectionAdapter extends BaseCollectionAdapter implements Atom
         this.contentService = contentService;
     }
 
+    public int getDefaultPageSize() {
+        return defaultPageSize;
+    }
+
+    /**
+     * Sets the number of entries on each page of a collection feed
+     * when the request doesn't specify one, or 0 to return every
+     * entry in a single feed document unless the request asks for a
+     * page.
+     */
+    public void setDefaultPageSize(int defaultPageSize) {
+        this.defaultPageSize = defaultPageSize;
+    }
+
     public void init() {
         super.init();
         if (processorFactory == null)
@@ -919,6 +936,47 @@ public class ItemCollectionAdapter extends BaseCollectionAdapter implements Atom
         return itemFilter;
     }
     
+    /**
+     * Returns the page of a collection feed requested with the
+     * <code>limit</code>, <code>after</code> and <code>before</code>
+     * parameters (see {@link FeedPage}), or null if the whole feed is
+     * requested.
+     */
+    protected FeedPage createFeedPage(RequestContext request)
+        throws InvalidQueryException {
+        int size = defaultPageSize;
+        String limit = getNonEmptyParameter(request, FeedPage.PARAM_LIMIT);
+        if (limit != null) {
+            try {
+                size = Integer.parseInt(limit);
+            } catch (NumberFormatException e) {
+                throw new InvalidQueryException("Invalid limit parameter " + limit);
+            }
+            if (size <= 0)
+                throw new InvalidQueryException("Limit parameter must be positive");
+        }
+
+        String after = getNonEmptyParameter(request, FeedPage.PARAM_AFTER);
+        String before = getNonEmptyParameter(request, FeedPage.PARAM_BEFORE);
+        if (after != null && before != null)
+            throw new InvalidQueryException("Only one of the after and before parameters may be provided");
+        if (size <= 0) {
+            if (after != null || before != null)
+                throw new InvalidQueryException("A limit parameter must be provided for a paged feed");
+            return null;
+        }
+
+        try {
+            if (after != null)
+                return new FeedPage(size, after, false);
+            if (before != null)
+                return new FeedPage(size, before, true);
+            return new FeedPage(size);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidQueryException(e.getMessage());
+        }
+    }
+    
     private boolean isCreateCollectionRequest(RequestContext request) {
         if(!(request.getTarget() instanceof NewCollectionTarget))
             return false;
@@ -467,13 +467,13 @@ public class InstanceList extends TreeMap {
         return modified;
     }
 
-    private Date getStartDate(Component comp) {
+    Date getStartDate(Component comp) {
         DtStart prop = (DtStart) comp.getProperties().getProperty(
                 Property.DTSTART);
         return (prop != null) ? prop.getDate() : null;
     }
 
-    private Date getEndDate(Component comp) {
+    Date getEndDate(Component comp) {
         DtEnd dtEnd = (DtEnd) comp.getProperties().getProperty(Property.DTEND);
         // No DTEND? No problem, we'll use the DURATION if present.
         if (dtEnd == null) {
@@ -488,13 +488,13 @@ public class InstanceList extends TreeMap {
         return (dtEnd != null) ? dtEnd.getDate() : null;
     }
 
-    private final Date getRecurrenceId(Component comp) {
+    final Date getRecurrenceId(Component comp) {
         RecurrenceId rid = (RecurrenceId) comp.getProperties().getProperty(
                 Property.RECURRENCE_ID);
         return (rid != null) ? rid.getDate() : null;
     }
 
-    private final boolean getRange(Component comp) {
+    final boolean getRange(Component comp) {
         RecurrenceId rid = (RecurrenceId) comp.getProperties().getProperty(
                 Property.RECURRENCE_ID);
         if (rid == null)
@@ -507,7 +507,7 @@ public class InstanceList extends TreeMap {
      * If the InstanceList is configured to convert all date/times to UTC,
      * then convert the given Date instance into a UTC DateTime.
      */
-    private Date convertToUTCIfNecessary(Date date) {
+    Date convertToUTCIfNecessary(Date date) {
         if(!isUTC)
             return date;
         
@@ -521,7 +521,7 @@ public class InstanceList extends TreeMap {
      * want to adjust the range back an hour to catch the instance that is
      * already occurring.
      */
-    private Date adjustStartRangeIfNecessary(Date startRange, Date start, Dur dur) {
+    Date adjustStartRangeIfNecessary(Date startRange, Date start, Dur dur) {
         
         // If start is a Date, then we need to convert startRange to
         // a Date using the timezone present
@@ -554,7 +554,7 @@ public class InstanceList extends TreeMap {
      * Adjust endRange for Date instances.  First convert the UTC endRange
      * into a Date instance, then add a second
      */
-    private Date adjustEndRangeIfNecessary(Date endRange, Date start) {
+    Date adjustEndRangeIfNecessary(Date endRange, Date start) {
         
         // If instance is DateTime or timezone is not present, then
         // do nothing
@@ -584,7 +584,7 @@ public class InstanceList extends TreeMap {
      * date/time and for floating DateTimes, the the recurrenceId associated 
      * with the Instance loses its "floating" property.
      */
-    private Date adjustFloatingDateIfNecessary(Date date) {
+    Date adjustFloatingDateIfNecessary(Date date) {
         if(timezone==null || ! (date instanceof DateTime))
             return date;
         
@@ -600,19 +600,19 @@ public class InstanceList extends TreeMap {
         
     }
     
-    private boolean dateBefore(Date date1, Date date2) {
+    boolean dateBefore(Date date1, Date date2) {
         return ICalendarUtils.beforeDate(date1, date2, timezone);
     }
     
-    private boolean dateAfter(Date date1, Date date2) {
+    boolean dateAfter(Date date1, Date date2) {
         return ICalendarUtils.afterDate(date1, date2, timezone);
     }
     
-    private boolean dateEquals(Date date1, Date date2) {
+    boolean dateEquals(Date date1, Date date2) {
         return ICalendarUtils.equalsDate(date1, date2, timezone);
     }
     
-    private boolean inRange(Date dateStart, Date dateEnd, Date rangeStart, Date rangeEnd) {
+    boolean inRange(Date dateStart, Date dateEnd, Date rangeStart, Date rangeEnd) {
         return  dateBefore(dateStart, rangeEnd)
                 && dateAfter(dateEnd, rangeStart);
     }
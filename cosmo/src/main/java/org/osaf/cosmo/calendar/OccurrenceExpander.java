@@ -0,0 +1,319 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.calendar;
+
+import java.util.Iterator;
+import java.util.List;
+
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.Date;
+import net.fortuna.ical4j.model.DateList;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Dur;
+import net.fortuna.ical4j.model.Parameter;
+import net.fortuna.ical4j.model.Period;
+import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.PropertyList;
+import net.fortuna.ical4j.model.TimeZone;
+import net.fortuna.ical4j.model.parameter.Value;
+import net.fortuna.ical4j.model.property.ExDate;
+import net.fortuna.ical4j.model.property.ExRule;
+import net.fortuna.ical4j.model.property.RDate;
+import net.fortuna.ical4j.model.property.RRule;
+
+import org.osaf.cosmo.calendar.util.Dates;
+
+/**
+ * Expands a recurring component into an {@link OccurrenceList}.
+ * <p>
+ * The expansion follows the same rules as {@link InstanceList}, but
+ * occurrences generated by recurrence rules are kept as primitive
+ * times instead of <code>Instance</code> objects keyed by string,
+ * and occurrence end times are calculated using a table of timezone
+ * offsets instead of a <code>Calendar</code> per occurrence.  RDATEs,
+ * EXDATEs and overrides are handled directly.  Overrides with a
+ * RANGE of THISANDFUTURE are rare enough that they are delegated to
+ * <code>InstanceList</code>.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class OccurrenceExpander {
+
+    private boolean utc = false;
+    private TimeZone timezone = null;
+    private TimeZoneOffsets defaultOffsets = null;
+
+    /**
+     * Expand a master component and its overrides over a time range.
+     * @param master master component
+     * @param overrides override components of the master, may be null
+     * @param rangeStart expand start date
+     * @param rangeEnd expand end date
+     * @return occurrences within the range
+     */
+    public OccurrenceList expand(Component master, List<Component> overrides,
+                                 Date rangeStart, Date rangeEnd) {
+        InstanceList helper = new InstanceList();
+        helper.setUTC(utc);
+        helper.setTimezone(timezone);
+
+        if (hasThisAndFuture(helper, overrides)) {
+            helper.addComponent(master, rangeStart, rangeEnd);
+            for (Iterator<Component> it = overrides.iterator(); it.hasNext();)
+                helper.addComponent(it.next(), rangeStart, rangeEnd);
+            return OccurrenceList.fromInstanceList(master, helper);
+        }
+
+        OccurrenceList occurrences = addMaster(helper, master, rangeStart,
+                rangeEnd);
+        if (overrides != null) {
+            for (Iterator<Component> it = overrides.iterator(); it.hasNext();)
+                addOverride(helper, occurrences, it.next(), rangeStart,
+                        rangeEnd);
+        }
+        return occurrences;
+    }
+
+    /**
+     * @return if occurrences are generated in UTC
+     */
+    public boolean isUTC() {
+        return utc;
+    }
+
+    /**
+     * Generate occurrences in UTC time periods, as
+     * {@link InstanceList#setUTC(boolean)}.
+     * @param utc
+     */
+    public void setUTC(boolean utc) {
+        this.utc = utc;
+    }
+
+    /**
+     * @return timezone used for floating times
+     */
+    public TimeZone getTimezone() {
+        return timezone;
+    }
+
+    /**
+     * Set the timezone used for floating times, as
+     * {@link InstanceList#setTimezone(TimeZone)}.
+     * @param timezone
+     */
+    public void setTimezone(TimeZone timezone) {
+        this.timezone = timezone;
+    }
+
+    private OccurrenceList addMaster(InstanceList helper, Component comp,
+                                     Date rangeStart, Date rangeEnd) {
+        Date start = helper.getStartDate(comp);
+        if (start == null)
+            return new OccurrenceList(comp, null, utc, timezone);
+
+        Value startValue = start instanceof DateTime ? Value.DATE_TIME : Value.DATE;
+
+        start = helper.convertToUTCIfNecessary(start);
+        if (start instanceof DateTime)
+            start = helper.adjustFloatingDateIfNecessary(start);
+
+        Dur duration = null;
+        Date end = helper.getEndDate(comp);
+        if (end == null) {
+            if (startValue.equals(Value.DATE_TIME))
+                duration = new Dur(0, 0, 0, 0);
+            else
+                duration = new Dur(1, 0, 0, 0);
+            end = Dates.getInstance(duration.getTime(start), start);
+        } else {
+            end = helper.convertToUTCIfNecessary(end);
+            if (startValue.equals(Value.DATE_TIME)) {
+                end = helper.adjustFloatingDateIfNecessary(end);
+                if (end.before(start))
+                    end = Dates.getInstance(new Dur(0, 0, 0, 0).getTime(start), start);
+            } else {
+                if (end.before(start))
+                    end = Dates.getInstance(new Dur(1, 0, 0, 0).getTime(start), start);
+            }
+            duration = new Dur(start, end);
+        }
+
+        OccurrenceList occurrences = new OccurrenceList(comp, start, utc,
+                timezone);
+
+        // first instance
+        if (helper.dateBefore(start, rangeEnd)
+                && (helper.dateAfter(end, rangeStart) || helper.dateEquals(end, rangeStart)))
+            occurrences.add(new Instance(comp, start, end));
+
+        // recurrence dates
+        PropertyList rDates = comp.getProperties().getProperties(Property.RDATE);
+        for (Iterator i = rDates.iterator(); i.hasNext();) {
+            RDate rdate = (RDate) i.next();
+            if (Value.PERIOD.equals(rdate.getParameters().getParameter(
+                    Parameter.VALUE))) {
+                for (Iterator j = rdate.getPeriods().iterator(); j.hasNext();) {
+                    Period period = (Period) j.next();
+                    Date periodStart = helper.adjustFloatingDateIfNecessary(period.getStart());
+                    Date periodEnd = helper.adjustFloatingDateIfNecessary(period.getEnd());
+                    if (periodStart.before(rangeEnd) && periodEnd.after(rangeStart))
+                        occurrences.add(new Instance(comp, periodStart, periodEnd));
+                }
+            } else {
+                for (Iterator j = rdate.getDates().iterator(); j.hasNext();) {
+                    Date startDate = (Date) j.next();
+                    startDate = helper.convertToUTCIfNecessary(startDate);
+                    startDate = helper.adjustFloatingDateIfNecessary(startDate);
+                    Date endDate = Dates.getInstance(duration.getTime(startDate),
+                            startDate);
+                    if (helper.inRange(startDate, endDate, rangeStart, rangeEnd))
+                        occurrences.add(new Instance(comp, startDate, endDate));
+                }
+            }
+        }
+
+        // recurrence rules
+        PropertyList rRules = comp.getProperties().getProperties(Property.RRULE);
+        PropertyList exRules = comp.getProperties().getProperties(Property.EXRULE);
+
+        Date adjustedRangeStart = null;
+        Date adjustedRangeEnd = null;
+        if (rRules.size() > 0 || exRules.size() > 0) {
+            adjustedRangeStart = helper.adjustStartRangeIfNecessary(rangeStart,
+                    start, duration);
+            adjustedRangeEnd = helper.adjustEndRangeIfNecessary(rangeEnd, start);
+        }
+
+        Value value = (start instanceof DateTime) ? Value.DATE_TIME : Value.DATE;
+        byte kind = OccurrenceList.kindOf(start);
+        for (Iterator i = rRules.iterator(); i.hasNext();) {
+            RRule rrule = (RRule) i.next();
+            DateList startDates = rrule.getRecur().getDates(start,
+                    adjustedRangeStart, adjustedRangeEnd, value);
+            for (int j = 0; j < startDates.size(); j++) {
+                long time = ((Date) startDates.get(j)).getTime();
+                occurrences.add(time, time, getEnd(time, duration), kind);
+            }
+        }
+
+        occurrences.sort();
+
+        // exception dates
+        PropertyList exDates = comp.getProperties().getProperties(Property.EXDATE);
+        for (Iterator i = exDates.iterator(); i.hasNext();) {
+            ExDate exDate = (ExDate) i.next();
+            for (Iterator j = exDate.getDates().iterator(); j.hasNext();) {
+                Date sd = (Date) j.next();
+                sd = helper.convertToUTCIfNecessary(sd);
+                sd = helper.adjustFloatingDateIfNecessary(sd);
+                occurrences.remove(sd.getTime(), OccurrenceList.kindOf(sd));
+            }
+        }
+
+        // exception rules
+        for (Iterator i = exRules.iterator(); i.hasNext();) {
+            ExRule exrule = (ExRule) i.next();
+            DateList startDates = exrule.getRecur().getDates(start,
+                    adjustedRangeStart, adjustedRangeEnd, value);
+            for (int j = 0; j < startDates.size(); j++) {
+                Date sd = (Date) startDates.get(j);
+                occurrences.remove(sd.getTime(), OccurrenceList.kindOf(sd));
+            }
+        }
+
+        return occurrences;
+    }
+
+    private void addOverride(InstanceList helper, OccurrenceList occurrences,
+                             Component comp, Date rangeStart, Date rangeEnd) {
+        if (comp.getProperties().getProperty(Property.RECURRENCE_ID) == null)
+            return;
+
+        Date dtstart = helper.getStartDate(comp);
+        if (dtstart == null)
+            return;
+
+        Value startValue = dtstart instanceof DateTime ? Value.DATE_TIME : Value.DATE;
+
+        dtstart = helper.convertToUTCIfNecessary(dtstart);
+        if (dtstart instanceof DateTime)
+            dtstart = helper.adjustFloatingDateIfNecessary(dtstart);
+
+        Date dtend = helper.getEndDate(comp);
+        if (dtend == null) {
+            Dur duration = startValue.equals(Value.DATE_TIME) ?
+                    new Dur(0, 0, 0, 0) : new Dur(1, 0, 0, 0);
+            dtend = Dates.getInstance(duration.getTime(dtstart), dtstart);
+        } else {
+            dtend = helper.convertToUTCIfNecessary(dtend);
+            if (startValue.equals(Value.DATE_TIME)) {
+                dtend = helper.adjustFloatingDateIfNecessary(dtend);
+                if (dtend.before(dtstart))
+                    dtend = Dates.getInstance(new Dur(0, 0, 0, 0).getTime(dtstart), dtstart);
+            } else {
+                if (dtend.before(dtstart))
+                    dtend = Dates.getInstance(new Dur(1, 0, 0, 0).getTime(dtstart), dtstart);
+            }
+        }
+
+        Date riddt = helper.getRecurrenceId(comp);
+        riddt = helper.convertToUTCIfNecessary(riddt);
+        if (riddt instanceof DateTime)
+            riddt = helper.adjustFloatingDateIfNecessary(riddt);
+
+        Instance instance = new Instance(comp, dtstart, dtend, riddt, true,
+                false);
+
+        // replace the master instance if it exists
+        occurrences.remove(instance.getRid().getTime(),
+                OccurrenceList.kindOf(instance.getRid()));
+        if (dtstart.before(rangeEnd) && dtend.after(rangeStart))
+            occurrences.insert(instance);
+    }
+
+    /**
+     * Calculate the end of an occurrence the same way
+     * <code>Dur.getTime()</code> does, which adds days in the default
+     * timezone and then adds the time part of the duration.
+     */
+    private long getEnd(long start, Dur duration) {
+        if (duration.isNegative())
+            return duration.getTime(new java.util.Date(start)).getTime();
+
+        long time = ((duration.getHours() * 60L + duration.getMinutes()) * 60L
+                + duration.getSeconds()) * 1000L;
+        int days = duration.getWeeks() * 7 + duration.getDays();
+        if (days == 0)
+            return start + time;
+
+        if (defaultOffsets == null
+                || !defaultOffsets.getTimeZone().equals(java.util.TimeZone.getDefault()))
+            defaultOffsets = new TimeZoneOffsets(java.util.TimeZone.getDefault());
+        return defaultOffsets.addDays(start, days) + time;
+    }
+
+    private boolean hasThisAndFuture(InstanceList helper,
+                                     List<Component> overrides) {
+        if (overrides == null)
+            return false;
+        for (Iterator<Component> it = overrides.iterator(); it.hasNext();) {
+            if (helper.getRange(it.next()))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.calendar;
+
+import java.util.Iterator;
+
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.Date;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.TimeZone;
+
+import org.osaf.cosmo.calendar.util.Dates;
+
+/**
+ * The occurrences of a recurring component, as produced by
+ * {@link OccurrenceExpander}.
+ * <p>
+ * Occurrences are stored as parallel arrays of recurrence-id, start
+ * and end times in milliseconds, ordered by recurrence-id.  The
+ * {@link Instance} for an occurrence generated by a recurrence rule is
+ * only created when {@link #getInstance(int)} is called, so callers
+ * that only need the times of the occurrences (free-busy, time-range
+ * matching) never create per-occurrence objects.
+ * <p>
+ * {@link #toInstanceList()} converts the occurrences into an
+ * {@link InstanceList} for code written against the original API.
+ */
+public class OccurrenceList {
+
+    /** recurrence-id is a DATE */
+    static final byte KIND_DATE = 0;
+    /** recurrence-id is a floating DATE-TIME */
+    static final byte KIND_FLOATING = 1;
+    /** recurrence-id is a UTC DATE-TIME */
+    static final byte KIND_UTC = 2;
+
+    private Component comp;
+    private Date prototype;
+    private boolean utc;
+    private TimeZone timezone;
+
+    private int size = 0;
+    private long[] rids = new long[16];
+    private long[] starts = new long[16];
+    private long[] ends = new long[16];
+    private byte[] kinds = new byte[16];
+    private Instance[] instances = new Instance[16];
+
+    /**
+     * @param comp master component
+     * @param prototype date whose type and timezone are used for the
+     *                  start and end of generated occurrences
+     * @param utc true if occurrences were expanded in UTC
+     * @param timezone timezone used for floating times, or null
+     */
+    OccurrenceList(Component comp, Date prototype, boolean utc,
+                   TimeZone timezone) {
+        this.comp = comp;
+        this.prototype = prototype;
+        this.utc = utc;
+        this.timezone = timezone;
+    }
+
+    /**
+     * Create an OccurrenceList from an already expanded InstanceList.
+     */
+    static OccurrenceList fromInstanceList(Component comp,
+                                           InstanceList instances) {
+        OccurrenceList occurrences = new OccurrenceList(comp, null,
+                instances.isUTC(), instances.getTimezone());
+        for (Iterator<Instance> it = instances.values().iterator(); it.hasNext();)
+            occurrences.add(it.next());
+        return occurrences;
+    }
+
+    /**
+     * @return number of occurrences
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index occurrence index
+     * @return recurrence-id of the occurrence in milliseconds
+     */
+    public long getRecurrenceId(int index) {
+        checkIndex(index);
+        return rids[index];
+    }
+
+    /**
+     * @param index occurrence index
+     * @return start of the occurrence in milliseconds
+     */
+    public long getStart(int index) {
+        checkIndex(index);
+        return starts[index];
+    }
+
+    /**
+     * @param index occurrence index
+     * @return end of the occurrence in milliseconds
+     */
+    public long getEnd(int index) {
+        checkIndex(index);
+        return ends[index];
+    }
+
+    /**
+     * @param index occurrence index
+     * @return true if the occurrence is defined by an override
+     *         component
+     */
+    public boolean isOverridden(int index) {
+        checkIndex(index);
+        return instances[index] != null && instances[index].isOverridden();
+    }
+
+    /**
+     * @param index occurrence index
+     * @return the component defining the occurrence, either the
+     *         master or an override
+     */
+    public Component getComponent(int index) {
+        checkIndex(index);
+        return instances[index] != null ? instances[index].getComp() : comp;
+    }
+
+    /**
+     * @param index occurrence index
+     * @return Instance for the occurrence, created if necessary
+     */
+    public Instance getInstance(int index) {
+        checkIndex(index);
+        if (instances[index] == null) {
+            Date start = Dates.getInstance(new java.util.Date(starts[index]),
+                    prototype);
+            Date end = Dates.getInstance(new java.util.Date(ends[index]),
+                    prototype);
+            instances[index] = new Instance(comp, start, end);
+        }
+        return instances[index];
+    }
+
+    /**
+     * @return the occurrences as an InstanceList
+     */
+    public InstanceList toInstanceList() {
+        InstanceList list = new InstanceList();
+        list.setUTC(utc);
+        list.setTimezone(timezone);
+        for (int i = 0; i < size; i++) {
+            Instance instance = getInstance(i);
+            list.put(instance.getRid().toString(), instance);
+        }
+        return list;
+    }
+
+    /**
+     * Add a generated occurrence.  The list must be sorted before
+     * it is searched.
+     */
+    void add(long rid, long start, long end, byte kind) {
+        ensureCapacity(size + 1);
+        rids[size] = rid;
+        starts[size] = start;
+        ends[size] = end;
+        kinds[size] = kind;
+        instances[size] = null;
+        size++;
+    }
+
+    /**
+     * Add an occurrence whose Instance has already been created.
+     * The list must be sorted before it is searched.
+     */
+    void add(Instance instance) {
+        add(instance.getRid().getTime(), instance.getStart().getTime(),
+                instance.getEnd().getTime(), kindOf(instance.getRid()));
+        instances[size - 1] = instance;
+    }
+
+    /**
+     * Insert an occurrence into a sorted list, replacing any occurrence
+     * with the same recurrence-id.
+     */
+    void insert(Instance instance) {
+        long rid = instance.getRid().getTime();
+        byte kind = kindOf(instance.getRid());
+        int index = search(rid, kind);
+        if (index >= 0) {
+            set(index, rid, instance, kind);
+            return;
+        }
+
+        index = -(index + 1);
+        ensureCapacity(size + 1);
+        int moved = size - index;
+        System.arraycopy(rids, index, rids, index + 1, moved);
+        System.arraycopy(starts, index, starts, index + 1, moved);
+        System.arraycopy(ends, index, ends, index + 1, moved);
+        System.arraycopy(kinds, index, kinds, index + 1, moved);
+        System.arraycopy(instances, index, instances, index + 1, moved);
+        size++;
+        set(index, rid, instance, kind);
+    }
+
+    /**
+     * Remove the occurrence with the given recurrence-id from a
+     * sorted list.
+     * @return true if an occurrence was removed
+     */
+    boolean remove(long rid, byte kind) {
+        int index = search(rid, kind);
+        if (index < 0)
+            return false;
+
+        int moved = size - index - 1;
+        System.arraycopy(rids, index + 1, rids, index, moved);
+        System.arraycopy(starts, index + 1, starts, index, moved);
+        System.arraycopy(ends, index + 1, ends, index, moved);
+        System.arraycopy(kinds, index + 1, kinds, index, moved);
+        System.arraycopy(instances, index + 1, instances, index, moved);
+        size--;
+        instances[size] = null;
+        return true;
+    }
+
+    /**
+     * Sort occurrences by recurrence-id.  When several occurrences
+     * have the same recurrence-id, the one added last is kept, as it
+     * would be by <code>InstanceList.put()</code>.
+     */
+    void sort() {
+        if (size < 2)
+            return;
+
+        boolean ordered = true;
+        for (int i = 1; i < size && ordered; i++)
+            ordered = compare(i - 1, i) <= 0;
+
+        if (!ordered) {
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++)
+                order[i] = i;
+            mergeSort(order, new int[size], 0, size);
+            reorder(order);
+        }
+
+        // duplicates are now adjacent, in the order they were added
+        int last = 0;
+        for (int i = 1; i < size; i++) {
+            if (compare(last, i) != 0)
+                last++;
+            if (last != i)
+                move(i, last);
+        }
+        for (int i = last + 1; i < size; i++)
+            instances[i] = null;
+        size = last + 1;
+    }
+
+    /**
+     * Binary search of a sorted list.
+     * @return index of the occurrence, or <code>-(insertion point) - 1</code>
+     */
+    int search(long rid, byte kind) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(rids[mid], kinds[mid], rid, kind);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return the kind of recurrence-id the date would produce, which
+     *         together with its time identifies an occurrence in the
+     *         same way as the recurrence-id string keys of an
+     *         InstanceList
+     */
+    static byte kindOf(Date date) {
+        if (!(date instanceof DateTime))
+            return KIND_DATE;
+        DateTime dt = (DateTime) date;
+        return (dt.isUtc() || dt.getTimeZone() != null) ? KIND_UTC
+                : KIND_FLOATING;
+    }
+
+    private void set(int index, long rid, Instance instance, byte kind) {
+        rids[index] = rid;
+        starts[index] = instance.getStart().getTime();
+        ends[index] = instance.getEnd().getTime();
+        kinds[index] = kind;
+        instances[index] = instance;
+    }
+
+    private void move(int from, int to) {
+        rids[to] = rids[from];
+        starts[to] = starts[from];
+        ends[to] = ends[from];
+        kinds[to] = kinds[from];
+        instances[to] = instances[from];
+    }
+
+    private void reorder(int[] order) {
+        long[] newRids = new long[rids.length];
+        long[] newStarts = new long[starts.length];
+        long[] newEnds = new long[ends.length];
+        byte[] newKinds = new byte[kinds.length];
+        Instance[] newInstances = new Instance[instances.length];
+        for (int i = 0; i < size; i++) {
+            int j = order[i];
+            newRids[i] = rids[j];
+            newStarts[i] = starts[j];
+            newEnds[i] = ends[j];
+            newKinds[i] = kinds[j];
+            newInstances[i] = instances[j];
+        }
+        rids = newRids;
+        starts = newStarts;
+        ends = newEnds;
+        kinds = newKinds;
+        instances = newInstances;
+    }
+
+    // stable, so duplicates stay in the order they were added
+    private void mergeSort(int[] order, int[] buffer, int from, int to) {
+        if (to - from < 2)
+            return;
+        int mid = (from + to) >>> 1;
+        mergeSort(order, buffer, from, mid);
+        mergeSort(order, buffer, mid, to);
+        if (compare(order[mid - 1], order[mid]) <= 0)
+            return;
+
+        System.arraycopy(order, from, buffer, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < mid && compare(buffer[i], buffer[j]) <= 0))
+                order[k] = buffer[i++];
+            else
+                order[k] = buffer[j++];
+        }
+    }
+
+    private int compare(int i, int j) {
+        return compare(rids[i], kinds[i], rids[j], kinds[j]);
+    }
+
+    private static int compare(long rid1, byte kind1, long rid2, byte kind2) {
+        if (rid1 != rid2)
+            return rid1 < rid2 ? -1 : 1;
+        return kind1 - kind2;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= rids.length)
+            return;
+        int length = Math.max(capacity, rids.length * 2);
+        long[] newRids = new long[length];
+        long[] newStarts = new long[length];
+        long[] newEnds = new long[length];
+        byte[] newKinds = new byte[length];
+        Instance[] newInstances = new Instance[length];
+        System.arraycopy(rids, 0, newRids, 0, size);
+        System.arraycopy(starts, 0, newStarts, 0, size);
+        System.arraycopy(ends, 0, newEnds, 0, size);
+        System.arraycopy(kinds, 0, newKinds, 0, size);
+        System.arraycopy(instances, 0, newInstances, 0, size);
+        rids = newRids;
+        starts = newStarts;
+        ends = newEnds;
+        kinds = newKinds;
+        instances = newInstances;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index " + index
+                    + " size " + size);
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.calendar;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.fortuna.ical4j.model.Date;
+import net.fortuna.ical4j.model.TimeZone;
+
+import org.osaf.cosmo.model.EventStamp;
+import org.osaf.cosmo.model.hibernate.HibItem;
+
+/**
+ * Bounded LRU cache of recurring event expansions.
+ * <p>
+ * Expansions are keyed by the uid of the recurring series, the
+ * version of the master item, the expanded range, and the timezone
+ * used for floating times.  Any change to the series produces a new
+ * version, so stale expansions are never returned and simply age out
+ * of the cache.  Since the range is part of the key, callers that
+ * derive the range from the current time should round the time (see
+ * <code>DashboardFeedGenerator</code>), or the expansions will never
+ * be reused.
+ * <p>
+ * Instances returned by {@link #getOcurrences(EventStamp, Date, Date, TimeZone)}
+ * are detached from the calendar they were expanded from:
+ * <code>Instance.getComp()</code> returns null.  This allows a cached
+ * expansion to be used without parsing the event's icalendar data.
+ */
+public class RecurrenceExpansionCache implements RecurrenceExpansionCacheMBean {
+
+    private int maxEntries = 1000;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    private LinkedHashMap<Key, Object> entries =
+        new LinkedHashMap<Key, Object>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+    /**
+     * Expand a recurring event for a given time range, using a
+     * cached expansion if one is available.
+     * @param stamp recurring event stamp
+     * @param rangeStart expand start date
+     * @param rangeEnd expand end date
+     * @param timezone Optional timezone to use for floating dates.  If
+     *        null, the system default is used.
+     * @return InstanceList containing all occurrences of recurring
+     *         event during time range.  The list may be freely
+     *         modified by the caller.
+     */
+    public InstanceList getOcurrences(EventStamp stamp, Date rangeStart,
+                                      Date rangeEnd, TimeZone timezone) {
+        Key key = createKey(stamp, "instances", rangeStart, rangeEnd, timezone);
+
+        Instance[] cached = key != null ? (Instance[]) get(key) : null;
+        if (cached == null) {
+            RecurrenceExpander expander = new RecurrenceExpander();
+            InstanceList instances = expander.getOcurrences(stamp.getEvent(),
+                    stamp.getExceptions(), rangeStart, rangeEnd, timezone);
+            if (key == null)
+                return instances;
+            cached = detach(instances);
+            put(key, cached);
+        }
+
+        InstanceList instances = new InstanceList();
+        instances.setTimezone(timezone);
+        for (int i = 0; i < cached.length; i++)
+            instances.put(cached[i].getRid().toString(), cached[i]);
+        return instances;
+    }
+
+    /**
+     * Create a key for a cached value derived from expanding a
+     * recurring event.
+     * @param stamp recurring event stamp
+     * @param kind kind of value cached, allowing different values
+     *             to be cached for the same expansion
+     * @param rangeStart expand start date
+     * @param rangeEnd expand end date
+     * @param timezone timezone used for floating dates, or null
+     * @return key, or null if the event cannot be cached because
+     *         it hasn't been persisted yet
+     */
+    public Key createKey(EventStamp stamp, String kind, Date rangeStart,
+                         Date rangeEnd, TimeZone timezone) {
+        String version = getSeriesVersion(stamp);
+        if (version == null)
+            return null;
+
+        return new Key(stamp.getItem().getUid(), version, kind,
+                rangeStart.getTime(), rangeEnd.getTime(),
+                timezone != null ? timezone.getID() : null);
+    }
+
+    /**
+     * @param key key
+     * @return cached value, or null if not cached
+     */
+    public synchronized Object get(Key key) {
+        Object value = entries.get(key);
+        if (value == null)
+            misses++;
+        else
+            hits++;
+        return value;
+    }
+
+    /**
+     * Cache a value.  The value must not be modified once cached.
+     * @param key key
+     * @param value value
+     */
+    public synchronized void put(Key key, Object value) {
+        entries.put(key, value);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Set the maximum number of expansions to cache.
+     * @param maxEntries
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    private Instance[] detach(InstanceList instances) {
+        Instance[] detached = new Instance[instances.size()];
+        int i = 0;
+        for (Iterator<Instance> it = instances.values().iterator(); it.hasNext();) {
+            Instance instance = it.next();
+            detached[i++] = new Instance(null, instance.getStart(),
+                    instance.getEnd(), instance.getRid(),
+                    instance.isOverridden(), instance.isFuture());
+        }
+        return detached;
+    }
+
+    /**
+     * The version of a recurring series is the version of the master
+     * item, which is updated whenever the master event or any of its
+     * modifications are updated, or when a modification is added or
+     * removed.  The version is only incremented when the master is
+     * flushed, but events are only expanded once they have been
+     * returned by a query, and queries flush pending changes first.
+     * Items that haven't been saved yet have no version.
+     */
+    private String getSeriesVersion(EventStamp stamp) {
+        if (!(stamp.getItem() instanceof HibItem))
+            return null;
+
+        Integer version = ((HibItem) stamp.getItem()).getVersion();
+        return version != null ? version.toString() : null;
+    }
+
+    /**
+     * Cache key.
+     */
+    public static class Key {
+        private String uid;
+        private String version;
+        private String kind;
+        private long rangeStart;
+        private long rangeEnd;
+        private String tzid;
+
+        public Key(String uid, String version, String kind, long rangeStart,
+                   long rangeEnd, String tzid) {
+            this.uid = uid;
+            this.version = version;
+            this.kind = kind;
+            this.rangeStart = rangeStart;
+            this.rangeEnd = rangeEnd;
+            this.tzid = tzid;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return uid.equals(other.uid) && version.equals(other.version)
+                    && kind.equals(other.kind)
+                    && rangeStart == other.rangeStart
+                    && rangeEnd == other.rangeEnd
+                    && (tzid == null ? other.tzid == null : tzid.equals(other.tzid));
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = uid.hashCode();
+            hash = 31 * hash + version.hashCode();
+            hash = 31 * hash + kind.hashCode();
+            hash = 31 * hash + (int) (rangeStart ^ (rangeStart >>> 32));
+            hash = 31 * hash + (int) (rangeEnd ^ (rangeEnd >>> 32));
+            return 31 * hash + (tzid == null ? 0 : tzid.hashCode());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.calendar;
+
+/**
+ * Management interface for {@link RecurrenceExpansionCache}.
+ */
+public interface RecurrenceExpansionCacheMBean {
+
+    /**
+     * @return number of expansions found in the cache
+     */
+    public long getHits();
+
+    /**
+     * @return number of expansions not found in the cache
+     */
+    public long getMisses();
+
+    /**
+     * @return ratio of hits to total lookups
+     */
+    public double getHitRatio();
+
+    /**
+     * @return number of expansions currently cached
+     */
+    public int getSize();
+
+    /**
+     * @return maximum number of expansions cached
+     */
+    public int getMaxEntries();
+
+    /**
+     * Remove all cached expansions and reset statistics.
+     */
+    public void clear();
+}
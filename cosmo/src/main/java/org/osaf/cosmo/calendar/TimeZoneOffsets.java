@@ -0,0 +1,120 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.calendar;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * Table of the UTC offsets of a timezone, one entry per (UTC) day.
+ * <p>
+ * Offsets are calculated the first time a day is looked up and
+ * remembered, so expanding a recurrence over a long range only asks
+ * the timezone for the offset of each day once, instead of creating
+ * a <code>Calendar</code> for every occurrence.  Days containing an
+ * offset transition are not tabled and are always delegated to the
+ * timezone.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class TimeZoneOffsets {
+
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+    private static final int TRANSITION = Integer.MAX_VALUE;
+
+    private TimeZone timezone;
+    private long firstDay = 0;
+    private int[] offsets = new int[0];
+
+    /**
+     * @param timezone timezone
+     */
+    public TimeZoneOffsets(TimeZone timezone) {
+        this.timezone = timezone;
+    }
+
+    /**
+     * @return the timezone
+     */
+    public TimeZone getTimeZone() {
+        return timezone;
+    }
+
+    /**
+     * @param time UTC time in milliseconds
+     * @return offset from UTC in milliseconds of the timezone at the
+     *         given time
+     */
+    public int getOffset(long time) {
+        int offset = lookup(floorDay(time));
+        return offset == TRANSITION ? timezone.getOffset(time) : offset;
+    }
+
+    /**
+     * Add a number of days to a time, keeping the local time of day
+     * in the timezone, as <code>Calendar.add(Calendar.DATE, days)</code>
+     * does.
+     * @param time UTC time in milliseconds
+     * @param days number of days to add, may be negative
+     * @return resulting UTC time in milliseconds
+     */
+    public long addDays(long time, int days) {
+        long local = time + getOffset(time) + days * DAY;
+        long guess = local - getOffset(time + days * DAY);
+        return local - getOffset(guess);
+    }
+
+    private int lookup(long day) {
+        ensureCapacity(day);
+        int index = (int) (day - firstDay);
+        int offset = offsets[index];
+        if (offset == UNKNOWN) {
+            long start = day * DAY;
+            int startOffset = timezone.getOffset(start);
+            int endOffset = timezone.getOffset(start + DAY - 1);
+            offset = startOffset == endOffset ? startOffset : TRANSITION;
+            offsets[index] = offset;
+        }
+        return offset;
+    }
+
+    private void ensureCapacity(long day) {
+        if (offsets.length > 0 && day >= firstDay
+                && day < firstDay + offsets.length)
+            return;
+
+        // grow by at least a year in either direction, since
+        // expansions tend to walk forward through consecutive days
+        long newFirst = offsets.length == 0 ? day - 32
+                : Math.min(firstDay, day - 32);
+        long newEnd = offsets.length == 0 ? day + 366
+                : Math.max(firstDay + offsets.length, day + 366);
+        int[] newOffsets = new int[(int) (newEnd - newFirst)];
+        Arrays.fill(newOffsets, UNKNOWN);
+        if (offsets.length > 0)
+            System.arraycopy(offsets, 0, newOffsets,
+                    (int) (firstDay - newFirst), offsets.length);
+        firstDay = newFirst;
+        offsets = newOffsets;
+    }
+
+    private static long floorDay(long time) {
+        long day = time / DAY;
+        return (time % DAY < 0) ? day - 1 : day;
+    }
+}
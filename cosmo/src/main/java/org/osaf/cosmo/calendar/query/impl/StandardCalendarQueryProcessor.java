@@ -15,8 +15,12 @@
  */
 package org.osaf.cosmo.calendar.query.impl;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import net.fortuna.ical4j.model.Calendar;
@@ -43,6 +47,9 @@ import org.apache.commons.logging.LogFactory;
 import org.osaf.cosmo.calendar.EntityConverter;
 import org.osaf.cosmo.calendar.Instance;
 import org.osaf.cosmo.calendar.InstanceList;
+import org.osaf.cosmo.calendar.OccurrenceExpander;
+import org.osaf.cosmo.calendar.OccurrenceList;
+import org.osaf.cosmo.calendar.RecurrenceExpansionCache;
 import org.osaf.cosmo.calendar.query.CalendarFilter;
 import org.osaf.cosmo.calendar.query.CalendarFilterEvaluater;
 import org.osaf.cosmo.calendar.query.CalendarQueryProcessor;
@@ -53,6 +60,7 @@ import org.osaf.cosmo.dao.ContentDao;
 import org.osaf.cosmo.model.CalendarCollectionStamp;
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.ContentItem;
+import org.osaf.cosmo.model.EventStamp;
 import org.osaf.cosmo.model.HomeCollectionItem;
 import org.osaf.cosmo.model.ICalendarItem;
 import org.osaf.cosmo.model.Item;
@@ -73,6 +81,8 @@ public class StandardCalendarQueryProcessor implements CalendarQueryProcessor {
     private CalendarDao calendarDao = null;
     private ContentDao contentDao = null;
     private EntityConverter entityConverter = new EntityConverter(null);
+    private RecurrenceExpansionCache expansionCache = null;
+    private boolean useBusyIndex = false;
     
     /* (non-Javadoc)
      * @see org.osaf.cosmo.calendar.query.CalendarQueryProcessor#filterQuery(org.osaf.cosmo.model.CollectionItem, org.osaf.cosmo.calendar.query.CalendarFilter)
@@ -110,6 +120,7 @@ public class StandardCalendarQueryProcessor implements CalendarQueryProcessor {
         PeriodList busyTentativePeriods = new PeriodList();
         PeriodList busyUnavailablePeriods = new PeriodList();
         
+        ArrayList<CollectionItem> collections = new ArrayList<CollectionItem>();
         HomeCollectionItem home = contentDao.getRootItem(user);
         for(Item item: home.getChildren()) {
             if(! (item instanceof CollectionItem))
@@ -119,8 +130,16 @@ public class StandardCalendarQueryProcessor implements CalendarQueryProcessor {
             if(StampUtils.getCalendarCollectionStamp(collection)==null || collection.isExcludeFreeBusyRollup())
                 continue;
             
-            doFreeBusyQuery(busyPeriods, busyTentativePeriods, busyUnavailablePeriods,
-                    collection, period);  
+            collections.add(collection);
+        }
+        
+        if(useBusyIndex) {
+            doIndexedFreeBusyQuery(busyPeriods, busyTentativePeriods,
+                    busyUnavailablePeriods, collections, period);
+        } else {
+            for(CollectionItem collection: collections)
+                doFreeBusyQuery(busyPeriods, busyTentativePeriods,
+                        busyUnavailablePeriods, collection, period);
         }
 
         return createVFreeBusy(busyPeriods, busyTentativePeriods,
@@ -135,8 +154,13 @@ public class StandardCalendarQueryProcessor implements CalendarQueryProcessor {
         PeriodList busyTentativePeriods = new PeriodList();
         PeriodList busyUnavailablePeriods = new PeriodList();
         
-        doFreeBusyQuery(busyPeriods, busyTentativePeriods, busyUnavailablePeriods,
-                collection, period);
+        if(useBusyIndex && StampUtils.getCalendarCollectionStamp(collection)!=null)
+            doIndexedFreeBusyQuery(busyPeriods, busyTentativePeriods,
+                    busyUnavailablePeriods, Collections.singletonList(collection),
+                    period);
+        else
+            doFreeBusyQuery(busyPeriods, busyTentativePeriods,
+                    busyUnavailablePeriods, collection, period);
 
         return createVFreeBusy(busyPeriods, busyTentativePeriods,
                 busyUnavailablePeriods, period);
@@ -177,26 +201,86 @@ public class StandardCalendarQueryProcessor implements CalendarQueryProcessor {
         for(CalendarFilter filter: filters)
             results.addAll(calendarDao.findCalendarItems(collection, filter));
         
-        for(ContentItem content: results) {
-            Calendar calendar = entityConverter.convertContent(content);
-            if(calendar==null)
-                continue;
+        for(ContentItem content: results)
+            addBusyPeriods(content, tz, period, busyPeriods,
+                    busyTentativePeriods, busyUnavailablePeriods);
+    }
+    
+    /**
+     * Find the busy periods of a set of calendar collections using
+     * the busy-time index maintained with the event time-range index.
+     * Items that aren't covered by the index are expanded.
+     */
+    protected void doIndexedFreeBusyQuery(PeriodList busyPeriods,
+            PeriodList busyTentativePeriods, PeriodList busyUnavailablePeriods,
+            List<CollectionItem> collections, Period period) {
+        
+        Map<ContentItem, CollectionItem> unindexed = calendarDao
+                .findBusyPeriods(collections, period, busyPeriods,
+                        busyTentativePeriods);
+        
+        if(log.isDebugEnabled())
+            log.debug("expanding " + unindexed.size()
+                    + " items not covered by the busy-time index");
+        
+        for(Map.Entry<ContentItem, CollectionItem> entry: unindexed.entrySet()) {
+            CalendarCollectionStamp ccs =
+                StampUtils.getCalendarCollectionStamp(entry.getValue());
+            addBusyPeriods(entry.getKey(), ccs!=null ? ccs.getTimezone() : null,
+                    period, busyPeriods, busyTentativePeriods,
+                    busyUnavailablePeriods);
+        }
+    }
+    
+    /**
+     * Add the busy periods of an item, using the cached busy periods
+     * of the item if available.
+     */
+    protected void addBusyPeriods(ContentItem content, TimeZone tz,
+            Period period, PeriodList busyPeriods,
+            PeriodList busyTentativePeriods, PeriodList busyUnavailablePeriods) {
+        RecurrenceExpansionCache.Key key = null;
+        EventStamp eventStamp = StampUtils.getEventStamp(content);
+        if(expansionCache!=null && eventStamp!=null) {
+            key = expansionCache.createKey(eventStamp, "freebusy",
+                    period.getStart(), period.getEnd(), tz);
+            PeriodList[] cached = key != null ? (PeriodList[]) expansionCache.get(key) : null;
+            if(cached!=null) {
+                busyPeriods.addAll(cached[0]);
+                busyTentativePeriods.addAll(cached[1]);
+                busyUnavailablePeriods.addAll(cached[2]);
+                return;
+            }
+        }
+        
+        Calendar calendar = entityConverter.convertContent(content);
+        if(calendar==null)
+            return;
+        
+        if(key==null) {
             // Add busy details from the calendar data
             addBusyPeriods(calendar, tz, period, busyPeriods,
                     busyTentativePeriods, busyUnavailablePeriods);
+            return;
         }
+        
+        PeriodList[] itemPeriods = new PeriodList[] { new PeriodList(),
+                new PeriodList(), new PeriodList() };
+        addBusyPeriods(calendar, tz, period, itemPeriods[0],
+                itemPeriods[1], itemPeriods[2]);
+        expansionCache.put(key, itemPeriods);
+        
+        busyPeriods.addAll(itemPeriods[0]);
+        busyTentativePeriods.addAll(itemPeriods[1]);
+        busyUnavailablePeriods.addAll(itemPeriods[2]);
     }
     
     protected void addBusyPeriods(Calendar calendar, TimeZone timezone,
             Period freeBusyRange, PeriodList busyPeriods,
             PeriodList busyTentativePeriods, PeriodList busyUnavailablePeriods) {
         
-        // Create list of instances within the specified time-range
-        InstanceList instances = new InstanceList();
-        instances.setUTC(true);
-        instances.setTimezone(timezone);
-
         // Look at each VEVENT/VFREEBUSY component only
+        ComponentList masters = new ComponentList();
         ComponentList overrides = new ComponentList();
         for (Iterator<Component> i = calendar.getComponents().iterator(); i.hasNext();) {
             Component comp = i.next();
@@ -204,8 +288,7 @@ public class StandardCalendarQueryProcessor implements CalendarQueryProcessor {
                 VEvent vcomp = (VEvent) comp;
                 // See if this is the master instance
                 if (vcomp.getRecurrenceId() == null) {
-                    instances.addComponent(vcomp, freeBusyRange.getStart(),
-                            freeBusyRange.getEnd());
+                    masters.add(vcomp);
                 } else {
                     overrides.add(vcomp);
                 }
@@ -232,53 +315,81 @@ public class StandardCalendarQueryProcessor implements CalendarQueryProcessor {
             }
         }
 
-        for (Iterator<Component> i = overrides.iterator(); i.hasNext();) {
+        // The common case of a single event is expanded without creating
+        // an Instance for each occurrence.
+        if (masters.size() == 1) {
+            OccurrenceExpander expander = new OccurrenceExpander();
+            expander.setUTC(true);
+            expander.setTimezone(timezone);
+            OccurrenceList occurrences = expander.expand(
+                    (Component) masters.get(0), overrides,
+                    freeBusyRange.getStart(), freeBusyRange.getEnd());
+            for (int i = 0; i < occurrences.size(); i++) {
+                addBusyPeriod(occurrences.getComponent(i),
+                        occurrences.getStart(i), occurrences.getEnd(i),
+                        freeBusyRange, busyPeriods, busyTentativePeriods);
+            }
+            return;
+        }
+
+        // Create list of instances within the specified time-range
+        InstanceList instances = new InstanceList();
+        instances.setUTC(true);
+        instances.setTimezone(timezone);
+
+        for (Iterator<Component> i = masters.iterator(); i.hasNext();) {
             Component comp = i.next();
             instances.addComponent(comp, freeBusyRange.getStart(),
                     freeBusyRange.getEnd());
         }
 
-        // See if there is nothing to do (should not really happen)
-        if (instances.size() == 0) {
-            return;
+        for (Iterator<Component> i = overrides.iterator(); i.hasNext();) {
+            Component comp = i.next();
+            instances.addComponent(comp, freeBusyRange.getStart(),
+                    freeBusyRange.getEnd());
         }
 
         // Add start/end period for each instance
         for (Iterator<String> i = instances.keySet().iterator(); i.hasNext();) {
             String ikey = i.next();
             Instance instance = (Instance) instances.get(ikey);
+            addBusyPeriod(instance.getComp(), instance.getStart().getTime(),
+                    instance.getEnd().getTime(), freeBusyRange, busyPeriods,
+                    busyTentativePeriods);
+        }
+    }
 
-            // Check that the VEVENT has the proper busy status
-            if (Transp.TRANSPARENT.equals(instance.getComp().getProperties()
-                    .getProperty(Property.TRANSP))) {
-                continue;
-            }
-            if (Status.VEVENT_CANCELLED.equals(instance.getComp()
-                    .getProperties().getProperty(Property.STATUS))) {
-                continue;
-            }
+    /**
+     * Add the busy period of an event occurrence, limited to the
+     * free-busy range.
+     */
+    private void addBusyPeriod(Component comp, long startTime, long endTime,
+            Period freeBusyRange, PeriodList busyPeriods,
+            PeriodList busyTentativePeriods) {
+        
+        // Check that the VEVENT has the proper busy status
+        if (Transp.TRANSPARENT.equals(comp.getProperties()
+                .getProperty(Property.TRANSP))) {
+            return;
+        }
+        if (Status.VEVENT_CANCELLED.equals(comp.getProperties()
+                .getProperty(Property.STATUS))) {
+            return;
+        }
 
-            // Can only have DATE-TIME values in PERIODs
-            DateTime start, end = null;
-            
-            start = (DateTime) instance.getStart();
-            end = (DateTime) instance.getEnd();
-           
-            if (start.compareTo(freeBusyRange.getStart()) < 0) {
-                start = (DateTime) org.osaf.cosmo.calendar.util.Dates.getInstance(freeBusyRange
-                        .getStart(), start);
-            }
-            if (end.compareTo(freeBusyRange.getEnd()) > 0) {
-                end = (DateTime) org.osaf.cosmo.calendar.util.Dates.getInstance(freeBusyRange.getEnd(),
-                        end);
-            }
-            if (Status.VEVENT_TENTATIVE.equals(instance.getComp()
-                    .getProperties().getProperty(Property.STATUS))) {
-                busyTentativePeriods.add(new Period(start, end));
-            } else {
-                busyPeriods.add(new Period(start, end));
-            }
-            
+        // Can only have DATE-TIME values in PERIODs
+        DateTime start = new DateTime(Math.max(startTime,
+                freeBusyRange.getStart().getTime()));
+        start.setUtc(true);
+        DateTime end = new DateTime(Math.min(endTime,
+                freeBusyRange.getEnd().getTime()));
+        end.setUtc(true);
+
+        if (Status.VEVENT_TENTATIVE.equals(comp.getProperties()
+                .getProperty(Property.STATUS))) {
+            busyTentativePeriods.add(new Period(start, end));
+        } else {
+            busyPeriods.add(new Period(start, end));
         }
     }
     
@@ -393,6 +504,29 @@ public class StandardCalendarQueryProcessor implements CalendarQueryProcessor {
         this.calendarDao = calendarDao;
     }
 
+    /**
+     * Set the cache used to memoize the busy periods of events.
+     * If not set, events are expanded each time.
+     * @param expansionCache
+     */
+    public void setExpansionCache(RecurrenceExpansionCache expansionCache) {
+        this.expansionCache = expansionCache;
+    }
+
+    public boolean isUseBusyIndex() {
+        return useBusyIndex;
+    }
+
+    /**
+     * If set, free-busy queries on calendar collections are answered
+     * from the busy-time index where possible instead of querying
+     * and expanding each event.
+     * @param useBusyIndex
+     */
+    public void setUseBusyIndex(boolean useBusyIndex) {
+        this.useBusyIndex = useBusyIndex;
+    }
+
     public void setContentDao(ContentDao contentDao) {
         this.contentDao = contentDao;
     }
@@ -15,9 +15,13 @@
  */
 package org.osaf.cosmo.dao;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 
 import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Period;
+import net.fortuna.ical4j.model.PeriodList;
 
 import org.osaf.cosmo.calendar.query.CalendarFilter;
 import org.osaf.cosmo.model.CollectionItem;
@@ -75,4 +79,29 @@ public interface CalendarDao {
                                              DateTime rangeStart, DateTime rangeEnd,
                                              boolean expandRecurringEvents);
 
+
+    /**
+     * Find the busy time of the events in a set of calendar
+     * collections that overlaps a time range, using the event
+     * time-range index and, for recurring events, the event
+     * occurrence index.  Busy periods are clipped to the time range
+     * and added to the given lists according to their free-busy type.
+     * <p>
+     * The busy time of some items can't be determined from the
+     * indexes: recurring events that aren't covered by the occurrence
+     * index or that have modifications, events indexed before their
+     * free-busy type was recorded, and free-busy items.  These items
+     * are returned, along with the collection they were found in, so
+     * that the caller can expand them.
+     *
+     * @param collections calendar collections to search
+     * @param period time range
+     * @param busyPeriods list to add BUSY periods to
+     * @param busyTentativePeriods list to add BUSY-TENTATIVE periods to
+     * @return items that must be expanded by the caller, mapped to
+     *         the collection they were found in
+     */
+    public Map<ContentItem, CollectionItem> findBusyPeriods(
+            Collection<CollectionItem> collections, Period period,
+            PeriodList busyPeriods, PeriodList busyTentativePeriods);
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dao;
+
+/**
+ * Interface for DAO that provides access to collection lock leases
+ * shared by the nodes of a cluster.
+ * <p>
+ * Each method should be run in its own transaction so that a lease
+ * is visible to other nodes as soon as it is acquired, except that
+ * {@link #renewLease(String, String, long, long)} may also be run in
+ * the transaction of a write to fence it with the token of the lease.
+ */
+public interface CollectionLockDao extends Dao {
+
+    /**
+     * Acquire the lease on a collection lock if it is free or the
+     * current lease has expired.
+     * @param collectionUid uid of the locked collection
+     * @param owner lease owner
+     * @param expires time the lease expires
+     * @param now current time
+     * @return token of the new lease, or null if the lease
+     *         is held by another owner
+     * @throws org.springframework.dao.DataIntegrityViolationException
+     *         if another owner created the lease concurrently
+     */
+    public Long acquireLease(String collectionUid, String owner,
+                             long expires, long now);
+
+    /**
+     * Extend a lease that is still held.  The row of the lease stays
+     * locked until the current transaction completes.
+     * @param collectionUid uid of the locked collection
+     * @param owner lease owner
+     * @param token token of the lease
+     * @param expires new time the lease expires
+     * @return false if the lease is no longer held by the owner
+     */
+    public boolean renewLease(String collectionUid, String owner, long token,
+                              long expires);
+
+    /**
+     * Release a lease.
+     * @param collectionUid uid of the locked collection
+     * @param owner lease owner
+     * @param token token of the lease
+     * @return false if the lease was no longer held by the owner
+     */
+    public boolean releaseLease(String collectionUid, String owner, long token);
+}
@@ -16,10 +16,15 @@
 package org.osaf.cosmo.dao;
 
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.ContentItem;
+import org.osaf.cosmo.model.ContentItemIterator;
+import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemTombstone;
 import org.osaf.cosmo.model.User;
 
 /**
@@ -140,4 +145,46 @@ public interface ContentDao extends ItemDao {
      *         timestamp, or all children if timestamp is null
      */
     public Set<ContentItem> loadChildren(CollectionItem collection, Date timestamp);
+
+    /**
+     * Iterate over the children of a collection that have been
+     * updated since a given timestamp, or over all children if no
+     * timestamp is specified.  Children are loaded in chunks, and
+     * each chunk is detached from the session once the iterator
+     * moves past it, so memory use doesn't depend on the number of
+     * children.  The iterator must be used and closed within the
+     * current transaction.
+     * @param collection collection
+     * @param timestamp timestamp
+     * @param chunkSize number of children loaded at a time
+     * @return iterator over the children of collection that have been
+     *         updated since timestamp, or all children if timestamp
+     *         is null
+     */
+    public ContentItemIterator iterateChildren(CollectionItem collection,
+                                               Date timestamp,
+                                               int chunkSize);
+
+    /**
+     * Find the children of a collection that have the given names.
+     * The children are looked up with as few queries as possible
+     * rather than one at a time.
+     * @param collection collection
+     * @param names names of children
+     * @return children of collection indexed by name; names that
+     *         don't identify a child are not included
+     */
+    public Map<String, Item> findChildrenByNames(CollectionItem collection,
+                                                 Set<String> names);
+
+    /**
+     * Find the tombstones of the items removed from a collection
+     * after a given timestamp.
+     * @param collection collection
+     * @param timestamp timestamp
+     * @return tombstones of the items removed from collection after
+     *         timestamp
+     */
+    public List<ItemTombstone> findItemTombstones(CollectionItem collection,
+                                                 Date timestamp);
 }
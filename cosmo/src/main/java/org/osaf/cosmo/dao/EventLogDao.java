@@ -51,4 +51,13 @@ public interface EventLogDao extends Dao {
      */
     public List<ItemChangeRecord> findChangesForCollection(CollectionItem collection, Date start, Date end);
     
+    /**
+     * Return the date of the oldest entry that was added but may not
+     * be returned by {@link #findChangesForCollection(CollectionItem, Date, Date)}
+     * yet, because it has not been written or committed.
+     * @return date of the oldest pending entry, or null if no entries
+     *         are pending
+     */
+    public Date getOldestPendingEntryDate();
+    
 }
@@ -0,0 +1,816 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dao.hibernate;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osaf.cosmo.dao.EventLogDao;
+import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.ItemChangeRecord;
+import org.osaf.cosmo.model.event.EventLogEntry;
+import org.osaf.cosmo.model.hibernate.HibEventLogEntry;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * <code>EventLogDao</code> that batches the writing of event log
+ * entries, delegating to {@link EventLogDaoImpl}.
+ * <p>
+ * Entries are translated to <code>HibEventLogEntry</code>s when they
+ * are added, and are buffered until the end of the current
+ * transaction.  What happens then depends on the mode:
+ * <dl>
+ * <dt><code>synchronous</code></dt>
+ * <dd>Entries are not buffered; each call writes its entries and
+ * flushes them immediately.</dd>
+ * <dt><code>transactional</code></dt>
+ * <dd>The entries of a transaction are written just before it
+ * commits, with a single flush, so they are committed (or rolled
+ * back) with the changes they describe.</dd>
+ * <dt><code>write-behind</code></dt>
+ * <dd>Once the transaction has committed its entries are put on a
+ * bounded queue and written in batches by a background thread, in
+ * transactions of their own.  Entries that are queued but not yet
+ * written are lost if the server stops abruptly, and are not
+ * returned by {@link #findChangesForCollection(CollectionItem, Date, Date)}
+ * until they are written.</dd>
+ * </dl>
+ * When the queue is full, a request waits up to
+ * <code>offerTimeout</code> milliseconds for space, and then writes
+ * its entries itself, so the queue slows requests down rather than
+ * losing entries.
+ * <p>
+ * Batches are written with a single flush, so the inserts are sent
+ * in JDBC batches of <code>hibernate.jdbc.batch_size</code> wherever
+ * the id generator of the database allows it.
+ * <p>
+ * A batch written in a transaction of its own (by the background
+ * writer, or by a request when the queue is full) is retried up to
+ * <code>maxRetries</code> times, waiting <code>retryInterval</code>
+ * milliseconds before the first retry and twice as long before each
+ * following one.  If it still can't be written, its entries are
+ * serialized to a file in <code>spillDirectory</code>.  Spilled files
+ * are written, oldest first, by {@link #init()} and by the background
+ * writer once the database accepts writes again, and deleted when
+ * their entries have been written.  Entries are only lost if they
+ * can't be spilled either, or if no spill directory is set.
+ * <p>
+ * {@link #getOldestPendingEntryDate()} returns the date of the oldest
+ * entry added on this server that may not be returned by
+ * {@link #findChangesForCollection(CollectionItem, Date, Date)} yet:
+ * an entry of a transaction that has not completed, a queued entry or
+ * a spilled one.  Changes found by date are only complete up to just
+ * before that date.  Entries of other servers are not known.
+ * <p>
+ * There is no separate outbox table: <code>transactional</code> mode
+ * is the transactional outbox.  Its entries are inserted in the
+ * transaction of the changes they describe, so they are committed
+ * together, and a failure to write them rolls the changes back.
+ * <p>
+ * {@link #init()} must be called before use and {@link #destroy()}
+ * when the dao is no longer used, which writes any queued entries.
+ */
+public class BatchingEventLogDao implements EventLogDao,
+        BatchingEventLogDaoMBean {
+
+    public static final String MODE_SYNCHRONOUS = "synchronous";
+    public static final String MODE_TRANSACTIONAL = "transactional";
+    public static final String MODE_WRITE_BEHIND = "write-behind";
+
+    private static final Log log = LogFactory.getLog(BatchingEventLogDao.class);
+
+    private static final String SPILL_PREFIX = "eventlog-";
+    private static final String SPILL_SUFFIX = ".ser";
+
+    private EventLogDaoImpl eventLogDao;
+    private PlatformTransactionManager transactionManager;
+    private String mode = MODE_TRANSACTIONAL;
+    private int queueCapacity = 10000;
+    private int batchSize = 100;
+    private long flushInterval = 1000;
+    private long offerTimeout = 5000;
+    private int maxRetries = 3;
+    private long retryInterval = 1000;
+    private String spillDirectory;
+
+    private BlockingQueue<HibEventLogEntry> queue;
+    private TransactionTemplate txTemplate;
+    private Thread writer;
+    private volatile boolean running = false;
+    private File spillDir;
+    private final Object spillLock = new Object();
+    private volatile Long oldestSpilled = null;
+    private final TreeMap<Long, Integer> pendingDates = new TreeMap<Long, Integer>();
+    private AtomicLong spillSequence = new AtomicLong(0);
+
+    private AtomicInteger maxQueueDepth = new AtomicInteger(0);
+    private AtomicLong entriesQueued = new AtomicLong(0);
+    private AtomicLong entriesWritten = new AtomicLong(0);
+    private AtomicLong batchesWritten = new AtomicLong(0);
+    private AtomicLong entriesFailed = new AtomicLong(0);
+    private AtomicLong writeRetries = new AtomicLong(0);
+    private AtomicLong entriesSpilled = new AtomicLong(0);
+    private AtomicLong entriesReplayed = new AtomicLong(0);
+    private AtomicLong backpressureWaits = new AtomicLong(0);
+    private AtomicLong overflowWrites = new AtomicLong(0);
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.EventLogDao#addEventLogEntry(org.osaf.cosmo.model.event.EventLogEntry)
+     */
+    public void addEventLogEntry(EventLogEntry entry) {
+        List<HibEventLogEntry> translated = new ArrayList<HibEventLogEntry>(1);
+        translate(entry, translated);
+        add(translated);
+    }
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.EventLogDao#addEventLogEntries(java.util.List)
+     */
+    public void addEventLogEntries(List<EventLogEntry> entries) {
+        List<HibEventLogEntry> translated =
+            new ArrayList<HibEventLogEntry>(entries.size());
+        for (EventLogEntry entry : entries)
+            translate(entry, translated);
+        add(translated);
+    }
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.EventLogDao#findChangesForCollection(org.osaf.cosmo.model.CollectionItem, java.util.Date, java.util.Date)
+     */
+    public List<ItemChangeRecord> findChangesForCollection(
+            CollectionItem collection, Date start, Date end) {
+        return eventLogDao.findChangesForCollection(collection, start, end);
+    }
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.EventLogDao#getOldestPendingEntryDate()
+     */
+    public Date getOldestPendingEntryDate() {
+        Long oldest = null;
+        synchronized (pendingDates) {
+            if (!pendingDates.isEmpty())
+                oldest = pendingDates.firstKey();
+        }
+        Long spilled = oldestSpilled;
+        if (spilled != null && (oldest == null || spilled < oldest))
+            oldest = spilled;
+        return oldest == null ? null : new Date(oldest);
+    }
+
+    public void init() {
+        if (eventLogDao == null)
+            throw new IllegalStateException("eventLogDao must not be null");
+        if (transactionManager == null)
+            throw new IllegalStateException("transactionManager must not be null");
+        if (!MODE_SYNCHRONOUS.equals(mode) && !MODE_TRANSACTIONAL.equals(mode)
+                && !MODE_WRITE_BEHIND.equals(mode))
+            throw new IllegalStateException("unknown mode " + mode);
+
+        txTemplate = new TransactionTemplate(transactionManager);
+        txTemplate.setPropagationBehavior(
+                TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        queue = new ArrayBlockingQueue<HibEventLogEntry>(queueCapacity);
+
+        if (spillDirectory != null && spillDirectory.length() > 0) {
+            spillDir = new File(spillDirectory);
+            if (!spillDir.isDirectory() && !spillDir.mkdirs())
+                throw new IllegalStateException("unable to create spill directory "
+                        + spillDir.getAbsolutePath());
+            updateOldestSpilled();
+            if (oldestSpilled != null && !replaySpilled())
+                log.warn("spilled event log entries in "
+                        + spillDir.getAbsolutePath() + " could not be written yet");
+        }
+
+        if (MODE_WRITE_BEHIND.equals(mode)) {
+            running = true;
+            writer = new Thread(new Writer(), "EventLogWriter");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    public void destroy() {
+        if (writer == null)
+            return;
+
+        // the writer writes the remaining entries before it stops
+        running = false;
+        try {
+            writer.join(flushInterval + 30000);
+        } catch (InterruptedException e) {
+            log.warn("interrupted waiting for event log writer");
+        }
+        if (writer.isAlive())
+            log.error("event log writer did not stop, " + queue.size()
+                    + " entries not written");
+        writer = null;
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * Set how entries are written: <code>synchronous</code>,
+     * <code>transactional</code> or <code>write-behind</code>.
+     * @param mode
+     */
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    public int getQueueDepth() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Set the maximum number of entries waiting to be written by the
+     * background writer.
+     * @param queueCapacity
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the maximum number of entries written by the background
+     * writer in one transaction.
+     * @param batchSize
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * Set the time in milliseconds the background writer waits for
+     * entries before checking whether it should stop.
+     * @param flushInterval
+     */
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public long getOfferTimeout() {
+        return offerTimeout;
+    }
+
+    /**
+     * Set the time in milliseconds a request waits for space in a
+     * full queue before writing its entries itself.
+     * @param offerTimeout
+     */
+    public void setOfferTimeout(long offerTimeout) {
+        this.offerTimeout = offerTimeout;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Set the number of times a batch that could not be written is
+     * retried before its entries are spilled.
+     * @param maxRetries
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getRetryInterval() {
+        return retryInterval;
+    }
+
+    /**
+     * Set the time in milliseconds to wait before retrying a batch that
+     * could not be written.  The time doubles with each retry.
+     * @param retryInterval
+     */
+    public void setRetryInterval(long retryInterval) {
+        this.retryInterval = retryInterval;
+    }
+
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * Set the directory that entries which could not be written are
+     * spilled to.  If not set, such entries are lost.
+     * @param spillDirectory
+     */
+    public void setSpillDirectory(String spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    public long getEntriesQueued() {
+        return entriesQueued.get();
+    }
+
+    public long getEntriesWritten() {
+        return entriesWritten.get();
+    }
+
+    public long getBatchesWritten() {
+        return batchesWritten.get();
+    }
+
+    public long getEntriesFailed() {
+        return entriesFailed.get();
+    }
+
+    public long getWriteRetries() {
+        return writeRetries.get();
+    }
+
+    public long getEntriesSpilled() {
+        return entriesSpilled.get();
+    }
+
+    public long getEntriesReplayed() {
+        return entriesReplayed.get();
+    }
+
+    public int getSpilledBatches() {
+        return spillDir == null ? 0 : listSpillFiles().length;
+    }
+
+    public long getBackpressureWaits() {
+        return backpressureWaits.get();
+    }
+
+    public long getOverflowWrites() {
+        return overflowWrites.get();
+    }
+
+    public void resetStatistics() {
+        maxQueueDepth.set(getQueueDepth());
+        entriesQueued.set(0);
+        entriesWritten.set(0);
+        batchesWritten.set(0);
+        entriesFailed.set(0);
+        writeRetries.set(0);
+        entriesSpilled.set(0);
+        entriesReplayed.set(0);
+        backpressureWaits.set(0);
+        overflowWrites.set(0);
+    }
+
+    public EventLogDaoImpl getEventLogDao() {
+        return eventLogDao;
+    }
+
+    public void setEventLogDao(EventLogDaoImpl eventLogDao) {
+        this.eventLogDao = eventLogDao;
+    }
+
+    public PlatformTransactionManager getTransactionManager() {
+        return transactionManager;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    private void translate(EventLogEntry entry, List<HibEventLogEntry> translated) {
+        HibEventLogEntry hibEntry = eventLogDao.createHibEventLogEntry(entry);
+        if (hibEntry != null)
+            translated.add(hibEntry);
+    }
+
+    private void add(List<HibEventLogEntry> entries) {
+        if (entries.isEmpty())
+            return;
+
+        boolean synchronizing =
+            TransactionSynchronizationManager.isSynchronizationActive();
+        if (!synchronizing) {
+            if (!MODE_WRITE_BEHIND.equals(mode)) {
+                save(entries);
+            } else {
+                track(entries);
+                enqueue(entries);
+            }
+            return;
+        }
+
+        TransactionBuffer buffer = (TransactionBuffer)
+            TransactionSynchronizationManager.getResource(this);
+        if (buffer == null) {
+            buffer = new TransactionBuffer();
+            TransactionSynchronizationManager.bindResource(this, buffer);
+            TransactionSynchronizationManager.registerSynchronization(buffer);
+        }
+        buffer.entries.addAll(entries);
+        track(entries);
+
+        if (MODE_SYNCHRONOUS.equals(mode))
+            save(entries);
+    }
+
+    /**
+     * Remember the dates of entries that are not visible yet.
+     */
+    private void track(List<HibEventLogEntry> entries) {
+        synchronized (pendingDates) {
+            for (HibEventLogEntry entry : entries) {
+                Long date = entry.getDate().getTime();
+                Integer count = pendingDates.get(date);
+                pendingDates.put(date, count == null ? 1 : count + 1);
+            }
+        }
+    }
+
+    /**
+     * Forget the dates of entries that were written, or that will
+     * never be written.
+     */
+    private void untrack(List<HibEventLogEntry> entries) {
+        synchronized (pendingDates) {
+            for (HibEventLogEntry entry : entries) {
+                Long date = entry.getDate().getTime();
+                Integer count = pendingDates.get(date);
+                if (count == null)
+                    continue;
+                if (count > 1)
+                    pendingDates.put(date, count - 1);
+                else
+                    pendingDates.remove(date);
+            }
+        }
+    }
+
+    /**
+     * Queue entries for the background writer, waiting for space if
+     * the queue is full and writing the entries in a new transaction
+     * if it stays full.
+     */
+    private void enqueue(List<HibEventLogEntry> entries) {
+        List<HibEventLogEntry> overflow = null;
+        for (HibEventLogEntry entry : entries) {
+            boolean queued = queue.offer(entry);
+            if (!queued) {
+                backpressureWaits.incrementAndGet();
+                try {
+                    queued = queue.offer(entry, offerTimeout,
+                            TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (queued) {
+                entriesQueued.incrementAndGet();
+            } else {
+                if (overflow == null)
+                    overflow = new ArrayList<HibEventLogEntry>();
+                overflow.add(entry);
+            }
+        }
+
+        int depth = queue.size();
+        while (true) {
+            int max = maxQueueDepth.get();
+            if (depth <= max || maxQueueDepth.compareAndSet(max, depth))
+                break;
+        }
+
+        if (overflow != null) {
+            log.warn("event log queue full, writing " + overflow.size()
+                    + " entries synchronously");
+            overflowWrites.addAndGet(overflow.size());
+            write(overflow);
+        }
+    }
+
+    /**
+     * Write entries in the current transaction.
+     */
+    private void save(List<HibEventLogEntry> entries) {
+        eventLogDao.saveEventLogEntries(entries);
+        entriesWritten.addAndGet(entries.size());
+        batchesWritten.incrementAndGet();
+    }
+
+    /**
+     * Write entries in a new transaction, retrying with a growing
+     * interval if that fails and spilling the entries if it keeps
+     * failing.
+     */
+    private void write(List<HibEventLogEntry> entries) {
+        long interval = retryInterval;
+        for (int retries = 0; ; retries++) {
+            try {
+                writeOnce(entries);
+                untrack(entries);
+                return;
+            } catch (RuntimeException e) {
+                if (retries >= maxRetries) {
+                    log.error("error writing " + entries.size()
+                            + " event log entries, giving up after "
+                            + retries + " retries", e);
+                    break;
+                }
+                log.warn("error writing " + entries.size()
+                        + " event log entries, retrying in " + interval
+                        + "ms", e);
+            }
+
+            writeRetries.incrementAndGet();
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            interval *= 2;
+        }
+
+        spill(entries);
+    }
+
+    /**
+     * Write entries in a new transaction, without retrying.
+     */
+    private void writeOnce(final List<HibEventLogEntry> entries) {
+        txTemplate.execute(new TransactionCallback() {
+            public Object doInTransaction(TransactionStatus status) {
+                save(entries);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Serialize entries that could not be written to a new file in the
+     * spill directory.  The file is named after the date of its oldest
+     * entry, is synced to disk and only gets its final name once it is
+     * complete.
+     */
+    private void spill(List<HibEventLogEntry> entries) {
+        if (spillDir == null) {
+            untrack(entries);
+            entriesFailed.addAndGet(entries.size());
+            log.error("no spill directory, " + entries.size()
+                    + " event log entries lost");
+            return;
+        }
+
+        long oldest = Long.MAX_VALUE;
+        for (HibEventLogEntry entry : entries)
+            oldest = Math.min(oldest, entry.getDate().getTime());
+
+        synchronized (spillLock) {
+            String name;
+            File file;
+            do {
+                name = SPILL_PREFIX
+                    + String.format("%020d-%010d", oldest,
+                            spillSequence.incrementAndGet()) + SPILL_SUFFIX;
+                file = new File(spillDir, name);
+            } while (file.exists());
+            File tmp = new File(spillDir, name + ".tmp");
+            try {
+                FileOutputStream fos = new FileOutputStream(tmp);
+                try {
+                    ObjectOutputStream out = new ObjectOutputStream(fos);
+                    out.writeObject(new ArrayList<HibEventLogEntry>(entries));
+                    out.flush();
+                    fos.getFD().sync();
+                } finally {
+                    fos.close();
+                }
+                if (!tmp.renameTo(file))
+                    throw new IOException("unable to rename " + tmp + " to " + file);
+            } catch (IOException e) {
+                tmp.delete();
+                untrack(entries);
+                entriesFailed.addAndGet(entries.size());
+                log.error("error spilling " + entries.size()
+                        + " event log entries, entries lost", e);
+                return;
+            }
+
+            updateOldestSpilled();
+            untrack(entries);
+            entriesSpilled.addAndGet(entries.size());
+            log.warn("spilled " + entries.size() + " event log entries to "
+                    + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Write the entries in the spill directory, oldest file first,
+     * deleting each file once its entries are written.  Stops at the
+     * first file that can't be written.  Files that can't be read are
+     * renamed so that they are no longer replayed.
+     * @return true if no spilled files are left
+     */
+    boolean replaySpilled() {
+        if (spillDir == null)
+            return true;
+
+        synchronized (spillLock) {
+            for (File file : listSpillFiles()) {
+                List<HibEventLogEntry> entries;
+                try {
+                    entries = readSpillFile(file);
+                } catch (Exception e) {
+                    log.error("unable to read spilled event log entries from "
+                            + file.getAbsolutePath(), e);
+                    file.renameTo(new File(file.getPath() + ".bad"));
+                    updateOldestSpilled();
+                    continue;
+                }
+
+                try {
+                    writeOnce(entries);
+                } catch (RuntimeException e) {
+                    log.warn("error writing spilled event log entries from "
+                            + file.getAbsolutePath(), e);
+                    return false;
+                }
+
+                if (!file.delete())
+                    log.error("unable to delete " + file.getAbsolutePath()
+                            + ", its entries will be written again");
+                else
+                    log.info("wrote " + entries.size()
+                            + " spilled event log entries from "
+                            + file.getAbsolutePath());
+                updateOldestSpilled();
+                entriesReplayed.addAndGet(entries.size());
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Find the date of the oldest spilled entry from the name of the
+     * oldest spill file.
+     */
+    private void updateOldestSpilled() {
+        File[] files = listSpillFiles();
+        if (files.length == 0) {
+            oldestSpilled = null;
+            return;
+        }
+        String name = files[0].getName();
+        int end = name.indexOf('-', SPILL_PREFIX.length());
+        try {
+            oldestSpilled = Long.valueOf(
+                    name.substring(SPILL_PREFIX.length(), end));
+        } catch (RuntimeException e) {
+            log.warn("unexpected spill file name " + name);
+            oldestSpilled = Long.valueOf(0);
+        }
+    }
+
+    private File[] listSpillFiles() {
+        File[] files = spillDir.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                String name = file.getName();
+                return file.isFile() && name.startsWith(SPILL_PREFIX)
+                        && name.endsWith(SPILL_SUFFIX);
+            }
+        });
+        if (files == null)
+            return new File[0];
+        Arrays.sort(files);
+        return files;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<HibEventLogEntry> readSpillFile(File file)
+            throws IOException, ClassNotFoundException {
+        ObjectInputStream in =
+            new ObjectInputStream(new FileInputStream(file));
+        try {
+            return (List<HibEventLogEntry>) in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Event log entries added during a transaction.
+     */
+    private class TransactionBuffer extends TransactionSynchronizationAdapter {
+        List<HibEventLogEntry> entries = new ArrayList<HibEventLogEntry>();
+
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResource(
+                    BatchingEventLogDao.this);
+        }
+
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(
+                    BatchingEventLogDao.this, this);
+        }
+
+        public void beforeCommit(boolean readOnly) {
+            if (MODE_TRANSACTIONAL.equals(mode))
+                save(entries);
+        }
+
+        public void afterCommit() {
+            if (MODE_WRITE_BEHIND.equals(mode))
+                enqueue(entries);
+        }
+
+        public void afterCompletion(int status) {
+            // queued entries are pending until they are written
+            if (!MODE_WRITE_BEHIND.equals(mode) || status != STATUS_COMMITTED)
+                untrack(entries);
+            if (TransactionSynchronizationManager.hasResource(
+                    BatchingEventLogDao.this))
+                TransactionSynchronizationManager.unbindResource(
+                        BatchingEventLogDao.this);
+        }
+    }
+
+    /**
+     * Writes queued entries in batches until the dao is destroyed
+     * and the queue is empty, and writes spilled entries whenever
+     * <code>retryInterval</code> has passed since the last attempt.
+     */
+    private class Writer implements Runnable {
+        public void run() {
+            List<HibEventLogEntry> batch = new ArrayList<HibEventLogEntry>(batchSize);
+            long lastReplay = 0;
+            while (running || !queue.isEmpty()) {
+                long now = System.currentTimeMillis();
+                if (oldestSpilled != null && now - lastReplay >= retryInterval) {
+                    lastReplay = now;
+                    replaySpilled();
+                }
+
+                HibEventLogEntry first = null;
+                try {
+                    first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (first == null)
+                    continue;
+
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+                batch = new ArrayList<HibEventLogEntry>(batchSize);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dao.hibernate;
+
+/**
+ * Management interface for {@link BatchingEventLogDao}.
+ */
+public interface BatchingEventLogDaoMBean {
+
+    /**
+     * @return how entries are written: <code>synchronous</code>,
+     *         <code>transactional</code> or <code>write-behind</code>
+     */
+    public String getMode();
+
+    /**
+     * @return number of entries waiting to be written by the
+     *         background writer
+     */
+    public int getQueueDepth();
+
+    /**
+     * @return largest number of entries that were waiting to be
+     *         written at the same time
+     */
+    public int getMaxQueueDepth();
+
+    /**
+     * @return maximum number of entries that can wait to be written
+     */
+    public int getQueueCapacity();
+
+    /**
+     * @return number of entries queued for the background writer
+     */
+    public long getEntriesQueued();
+
+    /**
+     * @return number of entries written
+     */
+    public long getEntriesWritten();
+
+    /**
+     * @return number of batches written
+     */
+    public long getBatchesWritten();
+
+    /**
+     * @return number of entries that could neither be written nor
+     *         spilled, and were lost
+     */
+    public long getEntriesFailed();
+
+    /**
+     * @return number of times a batch was retried after it could not
+     *         be written
+     */
+    public long getWriteRetries();
+
+    /**
+     * @return number of entries spilled to the spill directory because
+     *         they could not be written
+     */
+    public long getEntriesSpilled();
+
+    /**
+     * @return number of spilled entries that were written later
+     */
+    public long getEntriesReplayed();
+
+    /**
+     * @return number of spilled batches waiting to be written
+     */
+    public int getSpilledBatches();
+
+    /**
+     * @return number of times a request had to wait because the
+     *         queue was full
+     */
+    public long getBackpressureWaits();
+
+    /**
+     * @return number of entries written by the request because the
+     *         queue stayed full
+     */
+    public long getOverflowWrites();
+
+    /**
+     * Reset all statistics.
+     */
+    public void resetStatistics();
+}
@@ -15,15 +15,27 @@
  */
 package org.osaf.cosmo.dao.hibernate;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.DateTime;
 import net.fortuna.ical4j.model.Period;
+import net.fortuna.ical4j.model.PeriodList;
+import net.fortuna.ical4j.model.TimeZone;
+import net.fortuna.ical4j.model.parameter.FbType;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.FlushMode;
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
 import org.osaf.cosmo.calendar.EntityConverter;
@@ -32,13 +44,16 @@ import org.osaf.cosmo.calendar.query.CalendarFilterEvaluater;
 import org.osaf.cosmo.dao.CalendarDao;
 import org.osaf.cosmo.dao.hibernate.query.CalendarFilterConverter;
 import org.osaf.cosmo.dao.hibernate.query.ItemFilterProcessor;
+import org.osaf.cosmo.model.CalendarCollectionStamp;
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.ContentItem;
 import org.osaf.cosmo.model.ICalendarItem;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.StampUtils;
 import org.osaf.cosmo.model.filter.EventStampFilter;
 import org.osaf.cosmo.model.filter.ItemFilter;
 import org.osaf.cosmo.model.filter.NoteItemFilter;
+import org.osaf.cosmo.model.hibernate.HibBaseEventStamp;
 import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
 
 /**
@@ -48,6 +63,11 @@ public class CalendarDaoImpl extends HibernateDaoSupport implements CalendarDao
 
     private static final Log log = LogFactory.getLog(CalendarDaoImpl.class);
 
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+    
+    private static final List<String> BUSY_TYPES = Arrays.asList(new String[] {
+            FbType.BUSY.getValue(), FbType.BUSY_TENTATIVE.getValue() });
+
     private ItemFilterProcessor itemFilterProcessor = null;
     private EntityConverter entityConverter = new EntityConverter(null);
    
@@ -136,6 +156,163 @@ public class CalendarDaoImpl extends HibernateDaoSupport implements CalendarDao
 
 
 
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.CalendarDao#findBusyPeriods(java.util.Collection, net.fortuna.ical4j.model.Period, net.fortuna.ical4j.model.PeriodList, net.fortuna.ical4j.model.PeriodList)
+     */
+    public Map<ContentItem, CollectionItem> findBusyPeriods(
+            Collection<CollectionItem> collections, Period period,
+            PeriodList busyPeriods, PeriodList busyTentativePeriods) {
+        
+        HashMap<ContentItem, CollectionItem> unindexed =
+            new HashMap<ContentItem, CollectionItem>();
+        if(collections.isEmpty())
+            return unindexed;
+        
+        // Floating times are converted using the timezone of the
+        // collection, so query a day either side of the time range
+        // and compare the exact times once they have been converted.
+        String start = formatFloating(period.getStart().getTime() - DAY);
+        String end = formatFloating(period.getEnd().getTime() + DAY);
+        String utcStart = period.getStart().toString();
+        String utcEnd = period.getEnd().toString();
+        
+        try {
+            List<Object[]> rows = getSession().getNamedQuery(
+                    "busyPeriod.by.parents.timeRange")
+                    .setParameterList("parents", collections)
+                    .setParameterList("busyTypes", BUSY_TYPES)
+                    .setParameter("start", start)
+                    .setParameter("end", end)
+                    .setFlushMode(FlushMode.MANUAL).list();
+            addBusyPeriods(rows, period, busyPeriods, busyTentativePeriods);
+            
+            rows = getSession().getNamedQuery(
+                    "busyOccurrence.by.parents.timeRange")
+                    .setParameterList("parents", collections)
+                    .setParameterList("busyTypes", BUSY_TYPES)
+                    .setParameter("start", start)
+                    .setParameter("end", end)
+                    .setParameter("utcStart", utcStart)
+                    .setParameter("utcEnd", utcEnd)
+                    .setFlushMode(FlushMode.MANUAL).list();
+            addBusyPeriods(rows, period, busyPeriods, busyTentativePeriods);
+            
+            rows = getSession().getNamedQuery(
+                    "unindexedBusyEvent.by.parents.timeRange")
+                    .setParameterList("parents", collections)
+                    .setParameterList("busyTypes", BUSY_TYPES)
+                    .setParameter("start", start)
+                    .setParameter("end", end)
+                    .setParameter("utcStart", utcStart)
+                    .setParameter("utcEnd", utcEnd)
+                    .setFlushMode(FlushMode.MANUAL).list();
+            addItems(rows, unindexed);
+            
+            // a modification can move an occurrence into the time
+            // range without its master overlapping the time range
+            rows = getSession().getNamedQuery(
+                    "modifiedBusyEvent.by.parents.timeRange")
+                    .setParameterList("parents", collections)
+                    .setParameter("start", start)
+                    .setParameter("end", end)
+                    .setFlushMode(FlushMode.MANUAL).list();
+            addItems(rows, unindexed);
+            
+            rows = getSession().getNamedQuery("freeBusyItem.by.parents")
+                    .setParameterList("parents", collections)
+                    .setFlushMode(FlushMode.MANUAL).list();
+            addItems(rows, unindexed);
+            
+            return unindexed;
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+    
+    private void addItems(List<Object[]> rows,
+            Map<ContentItem, CollectionItem> items) {
+        for(Object[] row: rows)
+            items.put((ContentItem) row[0], (CollectionItem) row[1]);
+    }
+    
+    /**
+     * Add the busy periods of index rows of the form (collection,
+     * start date, end date, is floating, busy type).
+     */
+    private void addBusyPeriods(List<Object[]> rows, Period period,
+            PeriodList busyPeriods, PeriodList busyTentativePeriods) {
+        long rangeStart = period.getStart().getTime();
+        long rangeEnd = period.getEnd().getTime();
+        HashMap<CollectionItem, TimeZone> timezones =
+            new HashMap<CollectionItem, TimeZone>();
+        
+        for(Iterator<Object[]> it = rows.iterator(); it.hasNext();) {
+            Object[] row = it.next();
+            CollectionItem collection = (CollectionItem) row[0];
+            String startDate = (String) row[1];
+            String endDate = (String) row[2];
+            boolean floating = Boolean.TRUE.equals(row[3]);
+            
+            TimeZone tz = null;
+            if(floating) {
+                if(!timezones.containsKey(collection)) {
+                    CalendarCollectionStamp ccs =
+                        StampUtils.getCalendarCollectionStamp(collection);
+                    timezones.put(collection, ccs!=null ? ccs.getTimezone() : null);
+                }
+                tz = timezones.get(collection);
+            }
+            
+            long startTime, endTime;
+            try {
+                startTime = parseIndexDate(startDate, floating, tz);
+                endTime = parseIndexDate(endDate, floating, tz);
+            } catch (ParseException e) {
+                log.warn("unable to parse indexed dates " + startDate + "/" + endDate);
+                continue;
+            }
+            
+            // an all-day event with no end lasts for the day
+            if(startDate.length()==8 && startDate.equals(endDate))
+                endTime = startTime + DAY;
+            
+            if(startTime >= rangeEnd || endTime <= rangeStart || endTime <= startTime)
+                continue;
+            
+            DateTime start = new DateTime(Math.max(startTime, rangeStart));
+            start.setUtc(true);
+            DateTime end = new DateTime(Math.min(endTime, rangeEnd));
+            end.setUtc(true);
+            
+            if(FbType.BUSY_TENTATIVE.getValue().equals(row[4]))
+                busyTentativePeriods.add(new Period(start, end));
+            else
+                busyPeriods.add(new Period(start, end));
+        }
+    }
+    
+    private static long parseIndexDate(String date, boolean floating,
+            TimeZone tz) throws ParseException {
+        if(HibBaseEventStamp.TIME_INFINITY.equals(date))
+            return Long.MAX_VALUE;
+        
+        // dates are midnight in the timezone of the collection
+        if(date.length()==8)
+            date = date + "T000000";
+        
+        if(floating)
+            return new DateTime(date, tz).getTime();
+        else
+            return new DateTime(date).getTime();
+    }
+    
+    private static String formatFloating(long time) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss");
+        format.setTimeZone(java.util.TimeZone.getTimeZone("UTC"));
+        return format.format(new java.util.Date(time));
+    }
+
     /*
      * (non-Javadoc)
      * 
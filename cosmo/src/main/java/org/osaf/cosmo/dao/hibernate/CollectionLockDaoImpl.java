@@ -0,0 +1,118 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dao.hibernate;
+
+import org.hibernate.HibernateException;
+import org.osaf.cosmo.dao.CollectionLockDao;
+import org.osaf.cosmo.model.hibernate.HibCollectionLock;
+import org.springframework.orm.hibernate3.SessionFactoryUtils;
+import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
+
+/**
+ * Implementation of CollectionLockDao using Hibernate persistent objects.
+ * <p>
+ * Leases are acquired with a single conditional update, so two
+ * nodes can never both acquire the same lease.  The row of a
+ * collection is created the first time its lock is acquired and is
+ * kept when the lease is released so that its token keeps
+ * increasing.
+ */
+public class CollectionLockDaoImpl extends HibernateDaoSupport implements
+        CollectionLockDao {
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.CollectionLockDao#acquireLease(java.lang.String, java.lang.String, long, long)
+     */
+    public Long acquireLease(String collectionUid, String owner,
+                             long expires, long now) {
+        try {
+            int updated = getSession().createQuery(
+                    "update HibCollectionLock set owner=:owner, token=token+1, "
+                    + "expires=:expires where collectionUid=:uid and "
+                    + "(owner is null or expires<:now)")
+                    .setParameter("owner", owner)
+                    .setParameter("expires", new Long(expires))
+                    .setParameter("uid", collectionUid)
+                    .setParameter("now", new Long(now))
+                    .executeUpdate();
+
+            if (updated == 0) {
+                HibCollectionLock lock = (HibCollectionLock) getSession().get(
+                        HibCollectionLock.class, collectionUid);
+                if (lock != null)
+                    return null;
+
+                // first lock of the collection; a concurrent insert
+                // by another node fails with a constraint violation
+                lock = new HibCollectionLock(collectionUid, owner, 1, expires);
+                getSession().save(lock);
+                getSession().flush();
+                return new Long(1);
+            }
+
+            return (Long) getSession().createQuery(
+                    "select token from HibCollectionLock where collectionUid=:uid")
+                    .setParameter("uid", collectionUid).uniqueResult();
+        } catch (HibernateException e) {
+            throw SessionFactoryUtils.convertHibernateAccessException(e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.CollectionLockDao#renewLease(java.lang.String, java.lang.String, long, long)
+     */
+    public boolean renewLease(String collectionUid, String owner, long token,
+                              long expires) {
+        try {
+            return getSession().createQuery(
+                    "update HibCollectionLock set expires=:expires where "
+                    + "collectionUid=:uid and owner=:owner and token=:token")
+                    .setParameter("expires", new Long(expires))
+                    .setParameter("uid", collectionUid)
+                    .setParameter("owner", owner)
+                    .setParameter("token", new Long(token))
+                    .executeUpdate() == 1;
+        } catch (HibernateException e) {
+            throw SessionFactoryUtils.convertHibernateAccessException(e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.CollectionLockDao#releaseLease(java.lang.String, java.lang.String, long)
+     */
+    public boolean releaseLease(String collectionUid, String owner, long token) {
+        try {
+            return getSession().createQuery(
+                    "update HibCollectionLock set owner=null, expires=0 where "
+                    + "collectionUid=:uid and owner=:owner and token=:token")
+                    .setParameter("uid", collectionUid)
+                    .setParameter("owner", owner)
+                    .setParameter("token", new Long(token))
+                    .executeUpdate() == 1;
+        } catch (HibernateException e) {
+            throw SessionFactoryUtils.convertHibernateAccessException(e);
+        }
+    }
+
+    public void destroy() {
+        // nothing
+    }
+
+    public void init() {
+        // nothing
+    }
+
+}
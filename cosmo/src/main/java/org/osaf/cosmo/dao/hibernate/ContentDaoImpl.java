@@ -15,11 +15,14 @@
  */
 package org.osaf.cosmo.dao.hibernate;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -28,13 +31,17 @@ import org.hibernate.FlushMode;
 import org.hibernate.Hibernate;
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.validator.InvalidStateException;
 import org.osaf.cosmo.dao.ContentDao;
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.ContentItem;
+import org.osaf.cosmo.model.ContentItemIterator;
 import org.osaf.cosmo.model.ICalendarItem;
 import org.osaf.cosmo.model.IcalUidInUseException;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemTombstone;
 import org.osaf.cosmo.model.ModelValidationException;
 import org.osaf.cosmo.model.NoteItem;
 import org.osaf.cosmo.model.User;
@@ -49,6 +56,12 @@ import org.osaf.cosmo.model.hibernate.HibItemTombstone;
 public class ContentDaoImpl extends ItemDaoImpl implements ContentDao {
 
     private static final Log log = LogFactory.getLog(ContentDaoImpl.class);
+    
+    // keeps the list of names bound to a single query well below
+    // the limits of the supported databases
+    private static final int NAMES_PER_QUERY = 500;
+
+    private int childBatchSize = 0;
    
     /*
      * (non-Javadoc)
@@ -344,6 +357,9 @@ public class ContentDaoImpl extends ItemDaoImpl implements ContentDao {
      */
     public Set<ContentItem> loadChildren(CollectionItem collection, Date timestamp) {
         try {
+            if (childBatchSize > 0)
+                return loadChildrenInBatches(collection, timestamp);
+            
             Set<ContentItem> children = new HashSet<ContentItem>();
             Query query = null;
 
@@ -373,6 +389,103 @@ public class ContentDaoImpl extends ItemDaoImpl implements ContentDao {
     }
 
 
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.ContentDao#iterateChildren(org.osaf.cosmo.model.CollectionItem, java.util.Date, int)
+     */
+    public ContentItemIterator iterateChildren(CollectionItem collection,
+                                               Date timestamp,
+                                               int chunkSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunkSize must be positive");
+        
+        try {
+            // scroll through ids only, as collection fetches can't
+            // be combined with a cursor
+            Query query = createChildIdQuery(collection, timestamp);
+            query.setFetchSize(chunkSize);
+            return new ChildIterator(query.scroll(ScrollMode.FORWARD_ONLY),
+                    chunkSize);
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.ContentDao#findChildrenByNames(org.osaf.cosmo.model.CollectionItem, java.util.Set)
+     */
+    public Map<String, Item> findChildrenByNames(CollectionItem collection,
+                                                 Set<String> names) {
+        try {
+            Map<String, Item> children = new HashMap<String, Item>();
+            List<String> nameList = new ArrayList<String>(names);
+            for (int i = 0; i < nameList.size(); i += NAMES_PER_QUERY) {
+                int end = Math.min(nameList.size(), i + NAMES_PER_QUERY);
+                List<Item> items = getSession().getNamedQuery("item.by.parent.names")
+                        .setParameter("parent", collection)
+                        .setParameterList("names", nameList.subList(i, end))
+                        .setFlushMode(FlushMode.MANUAL).list();
+
+                List<Long> contentIds = new ArrayList<Long>();
+                for (Item item : items) {
+                    if (item instanceof ContentItem)
+                        contentIds.add(getBaseModelObject(item).getId());
+                    children.put(item.getName(), item);
+                }
+                if (! contentIds.isEmpty())
+                    fetchContentAssociations(contentIds);
+
+                for (Item item : items)
+                    initializeItem(item);
+            }
+            return children;
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.ContentDao#findItemTombstones(org.osaf.cosmo.model.CollectionItem, java.util.Date)
+     */
+    public List<ItemTombstone> findItemTombstones(CollectionItem collection,
+                                                 Date timestamp) {
+        try {
+            Query query = getSession().getNamedQuery(
+                    "itemTombstones.by.item.timestamp").setParameter("item",
+                    collection).setParameter("timestamp", timestamp);
+            query.setFlushMode(FlushMode.MANUAL);
+            return query.list();
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+
+    /**
+     * @return number of children whose associations are loaded by
+     *         each set of queries in <code>loadChildren()</code>, or 0
+     *         if all children are loaded by a single query
+     */
+    public int getChildBatchSize() {
+        return childBatchSize;
+    }
+
+    /**
+     * Set the number of children whose associations are loaded by
+     * each set of queries in <code>loadChildren()</code>.  Loading
+     * children with a single query that fetches stamps, attributes
+     * and tombstones at once returns a row for every combination of
+     * them, so for a positive batch size the ids of the children are
+     * queried first, and each association is then fetched separately
+     * for a batch of ids at a time.
+     *
+     * @param childBatchSize batch size, or 0 to use a single query
+     */
+    public void setChildBatchSize(int childBatchSize) {
+        this.childBatchSize = childBatchSize;
+    }
+
     @Override
     public void initializeItem(Item item) {
         super.initializeItem(item);
@@ -658,6 +771,9 @@ public class ContentDaoImpl extends ItemDaoImpl implements ContentDao {
         if (collection.getOwner() == null)
             throw new IllegalArgumentException("collection must have owner");
         
+        // collection may have been renamed
+        getItemPathTranslator().evictItem(collection);
+        
         collection.updateTimestamp();
     }
     
@@ -768,10 +884,150 @@ public class ContentDaoImpl extends ItemDaoImpl implements ContentDao {
             checkForDuplicateICalUid(item, parent);
     }
     
+    private Set<ContentItem> loadChildrenInBatches(CollectionItem collection,
+                                                   Date timestamp) {
+        List<Long> ids = createChildIdQuery(collection, timestamp).list();
+        Set<ContentItem> children = new HashSet<ContentItem>(ids.size());
+        for (int i = 0; i < ids.size(); i += childBatchSize) {
+            int end = Math.min(ids.size(), i + childBatchSize);
+            children.addAll(loadContentItems(ids.subList(i, end)));
+        }
+        return children;
+    }
+    
+    private Query createChildIdQuery(CollectionItem collection, Date timestamp) {
+        Query query = null;
+        if (timestamp == null)
+            query = getSession().getNamedQuery("contentItemId.by.parent")
+                    .setParameter("parent", collection);
+        else
+            query = getSession().getNamedQuery("contentItemId.by.parent.timestamp")
+                    .setParameter("parent", collection).setParameter(
+                            "timestamp", timestamp);
+        query.setFlushMode(FlushMode.MANUAL);
+        return query;
+    }
+    
+    /**
+     * Load the items with the given ids and initialize their
+     * associations, fetching each association with its own query so
+     * that no query returns more than a row per associated object.
+     */
+    private List<ContentItem> loadContentItems(List<Long> ids) {
+        List<ContentItem> items = getSession().getNamedQuery("contentItem.by.ids")
+                .setParameterList("ids", ids).setFlushMode(FlushMode.MANUAL).list();
+        
+        fetchContentAssociations(ids);
+        
+        for (ContentItem item : items)
+            initializeItem(item);
+        
+        return items;
+    }
+    
+    /**
+     * Initialize the stamps, attributes and tombstones of the content
+     * items with the given ids, which must already be in the session.
+     */
+    private void fetchContentAssociations(List<Long> ids) {
+        // the items are already in the session, so these queries
+        // only initialize their collections
+        getSession().getNamedQuery("contentItem.stamps.by.ids")
+                .setParameterList("ids", ids).setFlushMode(FlushMode.MANUAL).list();
+        getSession().getNamedQuery("contentItem.attributes.by.ids")
+                .setParameterList("ids", ids).setFlushMode(FlushMode.MANUAL).list();
+        getSession().getNamedQuery("contentItem.tombstones.by.ids")
+                .setParameterList("ids", ids).setFlushMode(FlushMode.MANUAL).list();
+    }
+    
     private boolean isNoteModification(Item item) {
         if(!(item instanceof NoteItem))
             return false;
         
         return (((NoteItem) item).getModifies()!=null);
     }
+    
+    /**
+     * Iterates over children by loading the children of the next
+     * chunk of ids from a cursor, with the same associations as
+     * <code>loadChildren()</code>, and evicting the previous chunk.
+     */
+    private class ChildIterator implements ContentItemIterator {
+        
+        private ScrollableResults ids;
+        private int chunkSize;
+        private List<ContentItem> chunk = new ArrayList<ContentItem>(0);
+        private int next = 0;
+        
+        ChildIterator(ScrollableResults ids, int chunkSize) {
+            this.ids = ids;
+            this.chunkSize = chunkSize;
+        }
+        
+        public boolean hasNext() {
+            if (next < chunk.size())
+                return true;
+            if (ids == null)
+                return false;
+            
+            try {
+                evictChunk();
+                loadChunk();
+            } catch (HibernateException e) {
+                close();
+                getSession().clear();
+                throw convertHibernateAccessException(e);
+            }
+            return next < chunk.size();
+        }
+
+        public ContentItem next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return chunk.get(next++);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() {
+            if (ids == null)
+                return;
+            try {
+                ids.close();
+                evictChunk();
+            } catch (HibernateException e) {
+                log.warn("error closing child iterator", e);
+            } finally {
+                ids = null;
+            }
+        }
+
+        private void loadChunk() {
+            List<Long> chunkIds = new ArrayList<Long>(chunkSize);
+            while (chunkIds.size() < chunkSize && ids.next())
+                chunkIds.add((Long) ids.get(0));
+            
+            if (chunkIds.isEmpty()) {
+                close();
+                return;
+            }
+            
+            chunk = loadContentItems(chunkIds);
+            next = 0;
+        }
+        
+        private void evictChunk() {
+            // evicting an item cascades to its stamps, attributes
+            // and tombstones
+            for (ContentItem item : chunk) {
+                getSession().evict(item);
+                if (isNoteModification(item))
+                    getSession().evict(((NoteItem) item).getModifies());
+            }
+            chunk = new ArrayList<ContentItem>(0);
+            next = 0;
+        }
+    }
 }
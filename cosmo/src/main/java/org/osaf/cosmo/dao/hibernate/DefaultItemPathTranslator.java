@@ -19,25 +19,70 @@ import java.util.List;
 
 import org.hibernate.Query;
 import org.hibernate.Session;
+import org.hibernate.proxy.HibernateProxy;
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.hibernate.BaseModelObject;
+import org.osaf.cosmo.model.hibernate.HibItem;
 import org.springframework.orm.hibernate3.HibernateCallback;
 import org.springframework.orm.hibernate3.HibernateTemplate;
 
 /**
  * Default implementation for ItempPathTranslator. This implementation expects
  * paths to be of the format: /username/parent1/parent2/itemname
- * 
+ * <p>
+ * By default, each path segment is resolved with a separate query.
+ * If <code>singleQuery</code> is set, the entire path is resolved
+ * with one query that joins each level of the hierarchy.  If an
+ * <code>ItemPathCache</code> is configured, resolved absolute paths
+ * are cached and validated against the current versions of the
+ * item's ancestors before being reused.
  */
 public class DefaultItemPathTranslator implements ItemPathTranslator {
 
     
     private HibernateTemplate template = null;
+    private boolean singleQuery = false;
+    private ItemPathCache pathCache = null;
     
     public DefaultItemPathTranslator(HibernateTemplate template) {
         this.template = template;
     }
     
+    public boolean isSingleQuery() {
+        return singleQuery;
+    }
+
+    /**
+     * Resolve paths using a single query instead of one
+     * query per path segment.
+     * @param singleQuery
+     */
+    public void setSingleQuery(boolean singleQuery) {
+        this.singleQuery = singleQuery;
+    }
+
+    public ItemPathCache getPathCache() {
+        return pathCache;
+    }
+
+    /**
+     * Set the cache used to remember resolved paths.  If
+     * not set, paths are not cached.
+     * @param pathCache
+     */
+    public void setPathCache(ItemPathCache pathCache) {
+        this.pathCache = pathCache;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.dao.hibernate.ItemPathTranslator#evictItem(org.osaf.cosmo.model.Item)
+     */
+    public void evictItem(Item item) {
+        if(pathCache!=null && item!=null)
+            pathCache.evict(((BaseModelObject) item).getId());
+    }
+    
     /*
      * (non-Javadoc)
      * 
@@ -104,11 +149,22 @@ public class DefaultItemPathTranslator implements ItemPathTranslator {
             path = path.substring(1, path.length());
 
         String[] segments = path.split("/");
-        String username = segments[0];
 
         if (segments.length == 0)
             return null;
 
+        String cacheKey = null;
+        if(pathCache!=null) {
+            cacheKey = ItemPathCache.normalizePath(path);
+            Item item = findCachedItem(session, cacheKey, segments);
+            if(item!=null)
+                return item;
+        }
+        
+        if(singleQuery)
+            return findItemBySegments(session, segments, null, cacheKey);
+        
+        String username = segments[0];
         String rootName = segments[0];
         Item rootItem = findRootItemByOwnerAndName(session, username,
                 rootName);
@@ -117,15 +173,24 @@ public class DefaultItemPathTranslator implements ItemPathTranslator {
         if (rootItem == null)
             return null;
 
+        Long[] pathIds = new Long[segments.length];
+        Integer[] versions = new Integer[segments.length - 1];
+        pathIds[0] = getId(rootItem);
+        
         Item parentItem = rootItem;
         for (int i = 1; i < segments.length; i++) {
             Item nextItem = findItemByParentAndName(session, parentItem,
                     segments[i]);
-            parentItem = nextItem;
-            // if any parent item doesn't exist then bail now
-            if (parentItem == null)
+            if (nextItem == null)
                 return null;
+            
+            pathIds[i] = getId(nextItem);
+            versions[i - 1] = parentItem.getVersion();
+            parentItem = nextItem;
         }
+        
+        if(cacheKey!=null)
+            pathCache.put(cacheKey, pathIds, versions);
 
         return parentItem;
     }
@@ -142,6 +207,9 @@ public class DefaultItemPathTranslator implements ItemPathTranslator {
         
         if (segments.length == 0)
             return null;
+        
+        if(singleQuery)
+            return findItemBySegments(session, segments, root, null);
 
         Item parentItem = root;
         for (int i = 0; i < segments.length; i++) {
@@ -156,6 +224,145 @@ public class DefaultItemPathTranslator implements ItemPathTranslator {
         return parentItem;
     }
     
+    /**
+     * Return the cached item for a path, if the cache entry is
+     * still valid.  An entry is valid if every item along the path
+     * still exists and still has the name of its path segment, and
+     * the versions of the item's ancestors haven't changed since it
+     * was cached.  Renaming or moving an ancestor changes the
+     * version of the ancestor or of the collection it was moved
+     * out of.
+     */
+    protected Item findCachedItem(Session session, String cacheKey,
+            String[] segments) {
+        ItemPathCache.Entry entry = pathCache.get(cacheKey);
+        if (entry == null)
+            return null;
+
+        Long[] pathIds = entry.getPathIds();
+        Integer[] versions = entry.getAncestorVersions();
+        if (pathIds.length != segments.length) {
+            pathCache.remove(cacheKey);
+            return null;
+        }
+
+        // items are in the second level cache, so these
+        // lookups should not hit the database
+        for (int i = 0; i < pathIds.length - 1; i++) {
+            Item ancestor = (Item) session.get(HibItem.class, pathIds[i]);
+            if (ancestor == null || !segments[i].equals(ancestor.getName())
+                    || ancestor.getVersion() == null
+                    || !ancestor.getVersion().equals(versions[i])) {
+                pathCache.remove(cacheKey);
+                return null;
+            }
+        }
+
+        Item item = (Item) session.get(HibItem.class, entry.getItemId());
+        
+        // Prevent proxied object from being returned
+        if (item instanceof HibernateProxy)
+            item = (Item) ((HibernateProxy) item).getHibernateLazyInitializer().getImplementation();
+        
+        if (item != null && segments[segments.length - 1].equals(item.getName()))
+            return item;
+
+        pathCache.remove(cacheKey);
+        return null;
+    }
+
+    /**
+     * Resolve a path using a single query that joins each level of
+     * the item hierarchy.
+     * @param session current session
+     * @param segments path segments
+     * @param root collection that the path is relative to, or null if
+     *             the first segment is the name of a root item
+     * @param cacheKey key to cache result under, or null
+     * @return item at path, or null if not found
+     */
+    protected Item findItemBySegments(Session session, String[] segments,
+            CollectionItem root, String cacheKey) {
+        Query hibQuery = session.createQuery(buildPathQuery(segments.length,
+                root != null));
+        
+        if (root != null)
+            hibQuery.setParameter("rootid", getId(root));
+        else
+            hibQuery.setParameter("username", segments[0]);
+        
+        for (int i = 0; i < segments.length; i++)
+            hibQuery.setParameter("name" + i, segments[i]);
+        
+        hibQuery.setMaxResults(1);
+
+        List results = hibQuery.list();
+        if (results.size() == 0)
+            return null;
+
+        Object[] row = (Object[]) results.get(0);
+        Item item = (Item) row[0];
+
+        if (cacheKey != null) {
+            Long[] pathIds = new Long[segments.length];
+            Integer[] versions = new Integer[segments.length - 1];
+            for (int i = 0; i < segments.length - 1; i++) {
+                pathIds[i] = (Long) row[2 * i + 2];
+                versions[i] = (Integer) row[2 * i + 3];
+            }
+            pathIds[segments.length - 1] = getId(item);
+            pathCache.put(cacheKey, pathIds, versions);
+        }
+
+        return item;
+    }
+
+    /**
+     * Build the HQL query that resolves a path of the given depth.
+     * The query returns the item, its version, and the id and
+     * version of each of its ancestors along the path.
+     */
+    protected String buildPathQuery(int depth, boolean relative) {
+        StringBuffer select = new StringBuffer("select i" + (depth - 1));
+        StringBuffer from = new StringBuffer(" from ");
+        StringBuffer where = new StringBuffer(" where ");
+
+        // always select more than the item, so each row is an array
+        select.append(", i" + (depth - 1) + ".version");
+
+        for (int i = 0; i < depth; i++) {
+            if (i > 0) {
+                from.append(", ");
+                where.append(" and ");
+            }
+
+            if (i < depth - 1)
+                select.append(", i" + i + ".id, i" + i + ".version");
+
+            from.append("HibItem i" + i);
+
+            if (i == 0 && !relative) {
+                from.append(", HibUser u");
+                where.append("i0.owner=u and u.username=:username and size(i0.parentDetails)=0");
+            } else {
+                from.append(" join i" + i + ".parentDetails pd" + i);
+                if (i == 0)
+                    where.append("pd0.primaryKey.collection.id=:rootid");
+                else
+                    where.append("pd" + i + ".primaryKey.collection.id=i"
+                            + (i - 1) + ".id");
+            }
+
+            where.append(" and i" + i + ".name=:name" + i);
+        }
+
+        return select.append(from).append(where).toString();
+    }
+
+    protected Long getId(Item item) {
+        return ((BaseModelObject) item).getId();
+    }
+
     protected Item findRootItemByOwnerAndName(Session session,
             String username, String name) {
         Query hibQuery = session.getNamedQuery(
@@ -73,6 +73,33 @@ public class EventLogDaoImpl extends HibernateDaoSupport implements EventLogDao
     }
     
     
+    /**
+     * Save entries that were already translated using
+     * {@link #createHibEventLogEntry(EventLogEntry)}, flushing the
+     * session once so that the inserts are batched.
+     * @param entries translated entries
+     */
+    public void saveEventLogEntries(List<HibEventLogEntry> entries) {
+        try {
+            for(HibEventLogEntry entry: entries)
+                getSession().save(entry);
+            
+            getSession().flush();
+        } catch (HibernateException e) {
+            getSession().clear();
+            throw convertHibernateAccessException(e);
+        }
+    }
+    
+    /**
+     * Entries are written in the caller's transaction and are not
+     * tracked, so no entries are known to be pending.
+     * @return null
+     */
+    public Date getOldestPendingEntryDate() {
+        return null;
+    }
+    
     public List<ItemChangeRecord> findChangesForCollection(
             CollectionItem collection, Date start, Date end) {
         try {
@@ -110,6 +137,7 @@ public class EventLogDaoImpl extends HibernateDaoSupport implements EventLogDao
         record.setAction(ItemChangeRecord.toAction(entry.getType()));
         record.setDate(entry.getDate());
         record.setItemUuid(entry.getUid1());
+        record.setItemName(entry.getStrval3());
         record.setItemDisplayName(entry.getStrval1());
         record.setModifiedBy(entry.getStrval2());
         
@@ -117,35 +145,54 @@ public class EventLogDaoImpl extends HibernateDaoSupport implements EventLogDao
     }
     
     private void addEventLogEntryInternal(EventLogEntry entry) {
+        HibEventLogEntry hibEntry = createHibEventLogEntry(entry);
+        if(hibEntry!=null)
+            getSession().save(hibEntry);
+    }
+    
+    /**
+     * Translate an entry to a HibEventLogEntry without saving it.
+     * The translated entry only holds ids and values copied from
+     * the items of the entry, so it can be saved later in another
+     * session.
+     * @param entry entry to translate
+     * @return translated entry, or null if the type of entry is not
+     *         logged
+     */
+    public HibEventLogEntry createHibEventLogEntry(EventLogEntry entry) {
         
         if(entry instanceof ItemAddedEntry)
-            addItemAddedEntry((ItemAddedEntry) entry);
+            return createItemAddedEntry((ItemAddedEntry) entry);
         else if(entry instanceof ItemRemovedEntry)
-            addItemRemovedEntry((ItemRemovedEntry) entry);
+            return createItemRemovedEntry((ItemRemovedEntry) entry);
         else if(entry instanceof ItemUpdatedEntry)
-            addItemUpdatedEntry((ItemUpdatedEntry) entry);
+            return createItemUpdatedEntry((ItemUpdatedEntry) entry);
         
+        return null;
     }
     
     // translate ItemAddedEntry to HibEventLogEntry
-    private void addItemAddedEntry(ItemAddedEntry entry) {
+    private HibEventLogEntry createItemAddedEntry(ItemAddedEntry entry) {
         HibEventLogEntry hibEntry = createBaseHibEntry(entry);
         hibEntry.setType("ItemAdded");
         setBaseItemEntryAttributes(hibEntry, entry);
+        return hibEntry;
     }
     
     // translate ItemRevmoedEntry to HibEventLogEntry
-    private void addItemRemovedEntry(ItemRemovedEntry entry) {
+    private HibEventLogEntry createItemRemovedEntry(ItemRemovedEntry entry) {
         HibEventLogEntry hibEntry = createBaseHibEntry(entry);
         hibEntry.setType("ItemRemoved");
         setBaseItemEntryAttributes(hibEntry, entry);
+        return hibEntry;
     }
     
     // translate ItemUpdatedEntry to HibEventLogEntry(s)
-    private void addItemUpdatedEntry(ItemUpdatedEntry entry) {
+    private HibEventLogEntry createItemUpdatedEntry(ItemUpdatedEntry entry) {
         HibEventLogEntry hibEntry = createBaseHibEntry(entry);
         hibEntry.setType("ItemUpdated");
         setBaseItemEntryAttributes(hibEntry, entry);
+        return hibEntry;
     }
     
     private HibEventLogEntry createBaseHibEntry(EventLogEntry entry) {
@@ -169,9 +216,9 @@ public class EventLogDaoImpl extends HibernateDaoSupport implements EventLogDao
         hibEntry.setId1(((HibItem) entry.getCollection()).getId());
         hibEntry.setId2(((HibItem) entry.getItem()).getId());
         hibEntry.setUid1(entry.getItem().getUid());
+        hibEntry.setStrval3(entry.getItem().getName());
         updateDisplayName(hibEntry, entry);
         updateLastModifiedBy(hibEntry, entry);
-        getSession().save(hibEntry);
     }
     
     private void updateLastModifiedBy(HibEventLogEntry hibEntry, ItemEntry entry) {
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dao.hibernate;
+
+import java.util.List;
+import java.util.TimerTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.osaf.cosmo.model.hibernate.EventOccurrenceIndexer;
+import org.osaf.cosmo.model.hibernate.HibEventStamp;
+import org.osaf.cosmo.model.hibernate.HibEventTimeRangeIndex;
+
+/**
+ * Background task that rolls the window of the event occurrence
+ * index forward.  Recurring events are only re-indexed by
+ * {@link org.osaf.cosmo.model.hibernate.EventStampInterceptor} when
+ * they are updated, so without this task the index of an event that
+ * never changes would eventually stop covering the current time.
+ * <p>
+ * Events are processed in batches, each in its own session and
+ * transaction.  The sessions don't use the interceptors configured
+ * on the session factory: rolling the window forward only changes
+ * the occurrence index, so the events must not be expanded a second
+ * time by <code>EventStampInterceptor</code>, and their modified
+ * date and entity tag must not be updated by
+ * <code>AuditableObjectInterceptor</code>.  Events that had too
+ * many occurrences to be indexed are skipped unless the maximum
+ * number of occurrences has been raised since.
+ */
+public class EventOccurrenceIndexRefresher extends TimerTask {
+
+    private static final Log log =
+        LogFactory.getLog(EventOccurrenceIndexRefresher.class);
+
+    private static final String QUERY_STALE_EVENTS =
+        "select es from HibEventStamp es where es.id > :lastId"
+        + " and es.timeRangeIndex.isRecurring=true"
+        + " and (es.timeRangeIndex.occurrenceLimit is null"
+        + " or es.timeRangeIndex.occurrenceLimit < :maxOccurrences)"
+        + " and (es.timeRangeIndex.occurrenceEnd is null"
+        + " or es.timeRangeIndex.occurrenceEnd < :threshold)"
+        + " order by es.id";
+
+    private SessionFactory sessionFactory;
+    private EventOccurrenceIndexer occurrenceIndexer;
+    private int batchSize = 100;
+
+    public void run() {
+        if (!occurrenceIndexer.isEnabled())
+            return;
+
+        // an exception thrown from a TimerTask kills the timer thread
+        try {
+            int count = refresh();
+            if (log.isDebugEnabled())
+                log.debug("refreshed occurrence index of " + count + " events");
+        } catch (RuntimeException e) {
+            log.error("error refreshing event occurrence index", e);
+        }
+    }
+
+    /**
+     * Re-index every recurring event whose occurrence index is
+     * missing or about to fall behind the current time.
+     * @return number of events re-indexed
+     */
+    public int refresh() {
+        String threshold = occurrenceIndexer.getRefreshThreshold();
+        Long lastId = new Long(0);
+        int count = 0;
+
+        while (true) {
+            Session session =
+                sessionFactory.openSession(EmptyInterceptor.INSTANCE);
+            Transaction tx = null;
+            try {
+                tx = session.beginTransaction();
+                List<HibEventStamp> stamps =
+                    findStaleEvents(session, lastId, threshold);
+
+                for (HibEventStamp stamp : stamps) {
+                    refreshStamp(stamp);
+                    lastId = stamp.getId();
+                }
+
+                tx.commit();
+                count += stamps.size();
+
+                if (stamps.size() < batchSize)
+                    return count;
+            } catch (RuntimeException e) {
+                if (tx != null)
+                    tx.rollback();
+                throw e;
+            } finally {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Find the next batch of recurring events whose occurrence index
+     * is missing or ends before a threshold.
+     * @param session session
+     * @param lastId events with an id up to lastId are skipped
+     * @param threshold first day that must be covered by the index
+     * @return event stamps ordered by id
+     */
+    protected List<HibEventStamp> findStaleEvents(Session session,
+                                                  Long lastId,
+                                                  String threshold) {
+        return session.createQuery(QUERY_STALE_EVENTS)
+                .setParameter("lastId", lastId)
+                .setParameter("threshold", threshold)
+                .setParameter("maxOccurrences",
+                        new Integer(occurrenceIndexer.getMaxOccurrences()))
+                .setMaxResults(batchSize).list();
+    }
+
+    private void refreshStamp(HibEventStamp stamp) {
+        HibEventTimeRangeIndex previous = stamp.getTimeRangeIndex();
+        HibEventTimeRangeIndex index = new HibEventTimeRangeIndex();
+        index.setStartDate(previous.getStartDate());
+        index.setEndDate(previous.getEndDate());
+        index.setIsFloating(previous.getIsFloating());
+        index.setIsRecurring(previous.getIsRecurring());
+        index.setBusyType(previous.getBusyType());
+
+        occurrenceIndexer.indexOccurrences(stamp, index, previous);
+        stamp.setTimeRangeIndex(index);
+    }
+
+    public void setSessionFactory(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    public void setOccurrenceIndexer(EventOccurrenceIndexer occurrenceIndexer) {
+        this.occurrenceIndexer = occurrenceIndexer;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize number of events re-indexed per transaction
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+}
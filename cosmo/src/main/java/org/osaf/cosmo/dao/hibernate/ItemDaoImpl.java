@@ -417,6 +417,9 @@ public abstract class ItemDaoImpl extends HibernateDaoSupport implements ItemDao
             
             verifyNotInLoop(item, parent);
             
+            // forget cached paths through the item's old location
+            itemPathTranslator.evictItem(item);
+            
             item.setName(moveName);
             if(!parent.getUid().equals(oldParent.getUid())) {
                 ((HibCollectionItem)parent).removeTombstone(item);
@@ -812,6 +815,8 @@ public abstract class ItemDaoImpl extends HibernateDaoSupport implements ItemDao
         if(!item.getParents().contains(collection))
             return;
         
+        itemPathTranslator.evictItem(item);
+        
         getHibItem(collection).addTombstone(new HibItemTombstone(collection, item));
         ((HibItem) item).removeParent(collection);
         
@@ -831,6 +836,7 @@ public abstract class ItemDaoImpl extends HibernateDaoSupport implements ItemDao
     }
     
     protected void removeItemInternal(Item item) {
+        itemPathTranslator.evictItem(item);
         getSession().delete(item);
     }
     
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dao.hibernate;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded LRU cache that maps a normalized item path to the
+ * database id of the item at that path.
+ *
+ * Each entry remembers the ids of every item along the path, and
+ * the versions of the item's ancestors at the time the entry was
+ * cached.  Entries are evicted when any item along the path is
+ * moved, renamed or removed (see {@link #evict(Long)}), and callers
+ * are expected to discard entries whose ancestor versions no longer
+ * match, which covers ancestors renamed or moved without an
+ * eviction.  The entries resolving through each item are indexed
+ * by the item's id, so evicting an item doesn't scan the cache.
+ */
+public class ItemPathCache implements ItemPathCacheMBean {
+
+    private int maxEntries = 10000;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    private LinkedHashMap<String, Entry> entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= maxEntries)
+                    return false;
+                unindex(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+
+    // keys of the entries resolving through each item
+    private HashMap<Long, Set<String>> keysById =
+        new HashMap<Long, Set<String>>();
+
+    /**
+     * Normalize a path by removing leading and trailing slashes.
+     * @param path path to normalize
+     * @return normalized path
+     */
+    public static String normalizePath(String path) {
+        if (path == null)
+            return null;
+
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/')
+            start++;
+        while (end > start && path.charAt(end - 1) == '/')
+            end--;
+
+        return path.substring(start, end);
+    }
+
+    /**
+     * @param path normalized path
+     * @return cached entry for path, or null if not cached
+     */
+    public synchronized Entry get(String path) {
+        Entry entry = entries.get(path);
+        if (entry == null)
+            misses++;
+        else
+            hits++;
+        return entry;
+    }
+
+    /**
+     * Cache the item resolved for a path.
+     * @param path normalized path
+     * @param pathIds ids of each item along the path, starting
+     *                with the root item and ending with the
+     *                resolved item
+     * @param ancestorVersions versions of each item along the path
+     *                         except the resolved item
+     */
+    public synchronized void put(String path, Long[] pathIds,
+                                 Integer[] ancestorVersions) {
+        Entry entry = new Entry(pathIds, ancestorVersions);
+        Entry old = entries.put(path, entry);
+        if (old != null)
+            unindex(path, old);
+        for (Long id : pathIds) {
+            Set<String> keys = keysById.get(id);
+            if (keys == null) {
+                keys = new HashSet<String>();
+                keysById.put(id, keys);
+            }
+            keys.add(path);
+        }
+    }
+
+    /**
+     * Remove the cached entry for a path.
+     * @param path normalized path
+     */
+    public synchronized void remove(String path) {
+        Entry entry = entries.remove(path);
+        if (entry != null)
+            unindex(path, entry);
+    }
+
+    /**
+     * Remove all entries that resolve through the given item,
+     * which includes the item itself and all of its descendants.
+     * @param itemId database id of item
+     */
+    public synchronized void evict(Long itemId) {
+        if (itemId == null)
+            return;
+        Set<String> keys = keysById.remove(itemId);
+        if (keys == null)
+            return;
+        for (String key : keys) {
+            Entry entry = entries.remove(key);
+            if (entry != null)
+                unindex(key, entry);
+        }
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        keysById.clear();
+    }
+
+    private void unindex(String path, Entry entry) {
+        for (Long id : entry.pathIds) {
+            Set<String> keys = keysById.get(id);
+            if (keys == null)
+                continue;
+            keys.remove(path);
+            if (keys.isEmpty())
+                keysById.remove(id);
+        }
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Set the maximum number of paths cached
+     * @param maxEntries
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Cached path resolution.
+     */
+    public static class Entry {
+        private Long[] pathIds;
+        private Integer[] ancestorVersions;
+
+        public Entry(Long[] pathIds, Integer[] ancestorVersions) {
+            this.pathIds = pathIds;
+            this.ancestorVersions = ancestorVersions;
+        }
+
+        /**
+         * @return id of the item at the path
+         */
+        public Long getItemId() {
+            return pathIds[pathIds.length - 1];
+        }
+
+        /**
+         * @return ids of each item along the path, starting with
+         *         the root item and ending with the item at the path
+         */
+        public Long[] getPathIds() {
+            return pathIds;
+        }
+
+        /**
+         * @return versions of each item along the path except the
+         *         item at the path, when the entry was cached
+         */
+        public Integer[] getAncestorVersions() {
+            return ancestorVersions;
+        }
+
+        public boolean containsId(Long id) {
+            for (int i = 0; i < pathIds.length; i++)
+                if (id.equals(pathIds[i]))
+                    return true;
+            return false;
+        }
+    }
+}
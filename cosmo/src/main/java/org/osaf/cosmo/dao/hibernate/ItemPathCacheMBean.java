@@ -0,0 +1,47 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dao.hibernate;
+
+/**
+ * Management interface for {@link ItemPathCache}.
+ */
+public interface ItemPathCacheMBean {
+
+    /**
+     * @return number of paths found in the cache
+     */
+    public long getHits();
+
+    /**
+     * @return number of paths not found in the cache
+     */
+    public long getMisses();
+
+    /**
+     * @return number of paths currently cached
+     */
+    public int getSize();
+
+    /**
+     * @return maximum number of paths cached
+     */
+    public int getMaxEntries();
+
+    /**
+     * Remove all entries.
+     */
+    public void clear();
+}
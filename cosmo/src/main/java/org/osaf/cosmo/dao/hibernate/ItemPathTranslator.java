@@ -26,4 +26,12 @@ public interface ItemPathTranslator {
     public Item findItemByPath(String path, CollectionItem root);
     public String getItemName(String path);
     public Item findItemParent(String path);
+    
+    /**
+     * Notify the translator that an item has been moved, renamed
+     * or removed, so that any cached path resolutions through
+     * the item can be discarded.
+     * @param item item that changed
+     */
+    public void evictItem(Item item);
 }
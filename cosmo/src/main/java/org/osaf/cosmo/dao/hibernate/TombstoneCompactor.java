@@ -0,0 +1,144 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dao.hibernate;
+
+import java.util.Date;
+import java.util.List;
+import java.util.TimerTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+/**
+ * Background task that removes tombstones older than a maximum age.
+ * Tombstones are kept so that clients can be told about removed
+ * items, stamps and attributes, but a collection that is shared for
+ * a long time would otherwise accumulate them forever.
+ * <p>
+ * A client that last synchronized before the maximum age may have
+ * missed a removed tombstone, so it has to fetch the whole collection
+ * again.
+ * <p>
+ * Tombstones are removed in batches, each in its own session and
+ * transaction.
+ */
+public class TombstoneCompactor extends TimerTask {
+
+    private static final Log log =
+        LogFactory.getLog(TombstoneCompactor.class);
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private static final String QUERY_OLD_TOMBSTONES =
+        "select ts.id from HibTombstone ts where ts.timestamp < :timestamp";
+
+    private static final String QUERY_DELETE_TOMBSTONES =
+        "delete from HibTombstone ts where ts.id in (:ids)";
+
+    private SessionFactory sessionFactory;
+    private int maxAgeDays = 0;
+    private int batchSize = 1000;
+
+    public void run() {
+        if (maxAgeDays <= 0)
+            return;
+
+        // an exception thrown from a TimerTask kills the timer thread
+        try {
+            int count = compact();
+            if (log.isDebugEnabled())
+                log.debug("removed " + count + " tombstones");
+        } catch (RuntimeException e) {
+            log.error("error removing tombstones", e);
+        }
+    }
+
+    /**
+     * Remove every tombstone older than the maximum age.
+     * @return number of tombstones removed
+     */
+    public int compact() {
+        Date horizon = new Date(getHorizon());
+        int count = 0;
+
+        while (true) {
+            Session session = sessionFactory.openSession();
+            Transaction tx = null;
+            try {
+                tx = session.beginTransaction();
+                List<Long> ids = session.createQuery(QUERY_OLD_TOMBSTONES)
+                        .setParameter("timestamp", horizon)
+                        .setMaxResults(batchSize).list();
+
+                if (!ids.isEmpty())
+                    session.createQuery(QUERY_DELETE_TOMBSTONES)
+                            .setParameterList("ids", ids).executeUpdate();
+
+                tx.commit();
+                count += ids.size();
+
+                if (ids.size() < batchSize)
+                    return count;
+            } catch (RuntimeException e) {
+                if (tx != null)
+                    tx.rollback();
+                throw e;
+            } finally {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * @return time before which tombstones are removed, or 0 if
+     *         tombstones are never removed
+     */
+    public long getHorizon() {
+        if (maxAgeDays <= 0)
+            return 0;
+        return System.currentTimeMillis() - maxAgeDays * MILLIS_PER_DAY;
+    }
+
+    public void setSessionFactory(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    public int getMaxAgeDays() {
+        return maxAgeDays;
+    }
+
+    /**
+     * @param maxAgeDays number of days tombstones are kept, or 0 to
+     *        keep them forever
+     */
+    public void setMaxAgeDays(int maxAgeDays) {
+        this.maxAgeDays = maxAgeDays;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize number of tombstones removed per transaction
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+}
@@ -18,8 +18,8 @@ package org.osaf.cosmo.dao.hibernate.query;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.Map.Entry;
@@ -31,6 +31,7 @@ import org.hibernate.Session;
 import org.osaf.cosmo.calendar.Instance;
 import org.osaf.cosmo.calendar.InstanceList;
 import org.osaf.cosmo.calendar.RecurrenceExpander;
+import org.osaf.cosmo.calendar.RecurrenceExpansionCache;
 import org.osaf.cosmo.model.ContentItem;
 import org.osaf.cosmo.model.EventStamp;
 import org.osaf.cosmo.model.Item;
@@ -52,19 +53,55 @@ import org.osaf.cosmo.model.filter.NullExpression;
 import org.osaf.cosmo.model.filter.StampFilter;
 import org.osaf.cosmo.model.filter.TextAttributeFilter;
 import org.osaf.cosmo.model.filter.FilterOrder.Order;
+import org.osaf.cosmo.model.hibernate.HibEventStamp;
+import org.osaf.cosmo.model.hibernate.HibEventTimeRangeIndex;
 import org.osaf.cosmo.model.hibernate.HibNoteItem;
 
 /**
  * Standard Implementation of <code>ItemFilterProcessor</code>.
  * Translates filter into HQL Query, executes
  * query and processes the results.
+ * <p>
+ * All filter values are bound as named parameters, so filters
+ * with the same structure always produce the same HQL, and
+ * Hibernate's query plan cache reuses the compiled query.
+ * <p>
+ * If <code>useOccurrenceIndex</code> is set, time-range queries match
+ * recurring events against the event occurrence index (see
+ * <code>EventOccurrenceIndexer</code>) where the index covers the
+ * time-range, avoiding recurrence expansion for those events.
  */
 public class StandardItemFilterProcessor implements ItemFilterProcessor {
     
     private static final Log log = LogFactory.getLog(StandardItemFilterProcessor.class);
     
+    private boolean useOccurrenceIndex = false;
+    
+    private RecurrenceExpansionCache expansionCache = null;
+    
     public StandardItemFilterProcessor() {}
     
+    public boolean isUseOccurrenceIndex() {
+        return useOccurrenceIndex;
+    }
+
+    public void setUseOccurrenceIndex(boolean useOccurrenceIndex) {
+        this.useOccurrenceIndex = useOccurrenceIndex;
+    }
+    
+    public RecurrenceExpansionCache getExpansionCache() {
+        return expansionCache;
+    }
+
+    /**
+     * Set the cache used to memoize the expansion of recurring
+     * events.  If not set, recurring events are expanded each time.
+     * @param expansionCache
+     */
+    public void setExpansionCache(RecurrenceExpansionCache expansionCache) {
+        this.expansionCache = expansionCache;
+    }
+    
     /* (non-Javadoc)
      * @see org.osaf.cosmo.dao.hibernate.query.ItemFilterProcessor#processFilter(org.hibernate.Session, org.osaf.cosmo.model.filter.ItemFilter)
      */
@@ -150,6 +187,14 @@ public class StandardItemFilterProcessor implements ItemFilterProcessor {
             params.put("parent", filter.getParent());
         }
         
+        // filter on position in (modifiedDate, uid) order
+        if(filter.getKeysetModifiedDate()!=null) {
+            String op = Order.DESC.equals(filter.getKeysetOrder()) ? "<" : ">";
+            appendWhere(whereBuf, "(i.modifiedDate" + op + ":keysetDate or (i.modifiedDate=:keysetDate and i.uid" + op + ":keysetUid))");
+            params.put("keysetDate", filter.getKeysetModifiedDate());
+            params.put("keysetUid", filter.getKeysetUid());
+        }
+        
         if(filter.getDisplayName()!=null)
             formatExpression(whereBuf, params, "i.displayName", filter.getDisplayName());
         
@@ -236,20 +281,49 @@ public class StandardItemFilterProcessor implements ItemFilterProcessor {
         
         // handle time range
         if(filter.getPeriod()!=null) {
-           whereBuf.append(" and ( ");
-           whereBuf.append("(es.timeRangeIndex.isFloating=true and es.timeRangeIndex.startDate < '" + filter.getFloatEnd() + "'");
-           whereBuf.append(" and es.timeRangeIndex.endDate > '" + filter.getFloatStart() + "')");
+           whereBuf.append(" and ");
            
-           whereBuf.append(" or (es.timeRangeIndex.isFloating=false and es.timeRangeIndex.startDate < '" + filter.getUTCEnd() + "'");
-           whereBuf.append(" and es.timeRangeIndex.endDate > '" + filter.getUTCStart() + "')");
+           if(useOccurrenceIndex) {
+               // Recurring events whose occurrence index covers the
+               // time range are matched against the index, everything
+               // else is matched against the time range index.
+               whereBuf.append("((es.timeRangeIndex.isRecurring=true");
+               whereBuf.append(" and es.timeRangeIndex.occurrenceStart <= :utcStart");
+               whereBuf.append(" and es.timeRangeIndex.occurrenceEnd >= :utcEnd");
+               whereBuf.append(" and exists (select oes.id from HibEventStamp oes join oes.occurrences o where oes.id=es.id and ");
+               appendTimeRangeOverlap(whereBuf, "o.startDate", "o.endDate");
+               whereBuf.append(")) or ((es.timeRangeIndex.isRecurring=false");
+               whereBuf.append(" or es.timeRangeIndex.occurrenceStart is null");
+               whereBuf.append(" or es.timeRangeIndex.occurrenceStart > :utcStart");
+               whereBuf.append(" or es.timeRangeIndex.occurrenceEnd < :utcEnd) and ");
+               appendTimeRangeOverlap(whereBuf, "es.timeRangeIndex.startDate", "es.timeRangeIndex.endDate");
+               whereBuf.append("))");
+           } else {
+               appendTimeRangeOverlap(whereBuf, "es.timeRangeIndex.startDate", "es.timeRangeIndex.endDate");
+           }
            
-           // edge case where start==end
-           whereBuf.append(" or (es.timeRangeIndex.startDate=es.timeRangeIndex.endDate and (es.timeRangeIndex.startDate='" + filter.getFloatStart() + "' or es.timeRangeIndex.startDate='" + filter.getUTCStart() + "'))");
-                   
-           whereBuf.append(")");
+           params.put("floatStart", filter.getFloatStart());
+           params.put("floatEnd", filter.getFloatEnd());
+           params.put("utcStart", filter.getUTCStart());
+           params.put("utcEnd", filter.getUTCEnd());
         }
     }
     
+    private void appendTimeRangeOverlap(StringBuffer whereBuf,
+            String startProp, String endProp) {
+        whereBuf.append("( ");
+        whereBuf.append("(es.timeRangeIndex.isFloating=true and " + startProp + " < :floatEnd");
+        whereBuf.append(" and " + endProp + " > :floatStart)");
+        
+        whereBuf.append(" or (es.timeRangeIndex.isFloating=false and " + startProp + " < :utcEnd");
+        whereBuf.append(" and " + endProp + " > :utcStart)");
+        
+        // edge case where start==end
+        whereBuf.append(" or (" + startProp + "=" + endProp + " and (" + startProp + "=:floatStart or " + startProp + "=:utcStart))");
+                
+        whereBuf.append(")");
+    }
+    
     private void handleNoteItemFilter(StringBuffer selectBuf,
             StringBuffer whereBuf, StringBuffer orderBuf,  HashMap<String, Object> params,
             NoteItemFilter filter) {
@@ -342,12 +416,13 @@ public class StandardItemFilterProcessor implements ItemFilterProcessor {
      * for the entire recurrence series, and expansion is required to determine
      * if the event actually occurs, and to return individual occurences.
      */
-    private HashSet<Item> processResults(List<Item> results, ItemFilter itemFilter) {
+    private LinkedHashSet<Item> processResults(List<Item> results, ItemFilter itemFilter) {
         boolean hasTimeRangeFilter = false;
         boolean includeMasterInResults = true;
         boolean doTimeRangeSecondPass = true;
         
-        HashSet<Item> processedResults = new HashSet<Item>();
+        // keep the order of the query results
+        LinkedHashSet<Item> processedResults = new LinkedHashSet<Item>();
         EventStampFilter eventFilter = (EventStampFilter) itemFilter.getStampFilter(EventStampFilter.class);
         
         
@@ -404,19 +479,41 @@ public class StandardItemFilterProcessor implements ItemFilterProcessor {
         EventStamp eventStamp = (EventStamp) note.getStamp(EventStamp.class);
         ArrayList<ContentItem> results = new ArrayList<ContentItem>();
 
-        // If the event is not recurring or the filter is configured
-        // to not do a second pass then just return the note
-        if (!eventStamp.isRecurring() || !doTimeRangeSecondPass) {
+        // If the filter is configured to not do a second pass then
+        // just return the note
+        if (!doTimeRangeSecondPass) {
+            results.add(note);
+            return results;
+        }
+        
+        // If the event was matched using the occurrence index, then it
+        // is known to occur in the time range
+        if (useOccurrenceIndex && !filter.isExpandRecurringEvents()
+                && isCoveredByOccurrenceIndex(note, eventStamp, filter)) {
+            if (includeMasterInResults)
+                results.add(note);
+            return results;
+        }
+        
+        // If the event is not recurring then just return the note
+        if (!eventStamp.isRecurring()) {
             results.add(note);
             return results;
         }
 
         // Otherwise, expand the recurring item to determine if it actually
         // occurs in the time range specified
-        RecurrenceExpander expander = new RecurrenceExpander();
-        InstanceList instances = expander.getOcurrences(eventStamp.getEvent(),
-                eventStamp.getExceptions(), filter.getPeriod().getStart(),
-                filter.getPeriod().getEnd(), filter.getTimezone());
+        InstanceList instances = null;
+        if (expansionCache != null) {
+            instances = expansionCache.getOcurrences(eventStamp,
+                    filter.getPeriod().getStart(), filter.getPeriod().getEnd(),
+                    filter.getTimezone());
+        } else {
+            RecurrenceExpander expander = new RecurrenceExpander();
+            instances = expander.getOcurrences(eventStamp.getEvent(),
+                    eventStamp.getExceptions(), filter.getPeriod().getStart(),
+                    filter.getPeriod().getEnd(), filter.getTimezone());
+        }
 
         // If recurring event occurs in range, add master unless the filter
         // is configured to not return the master
@@ -442,6 +539,27 @@ public class StandardItemFilterProcessor implements ItemFilterProcessor {
         return results;
     }
     
+    private boolean isCoveredByOccurrenceIndex(NoteItem note,
+            EventStamp eventStamp, EventStampFilter filter) {
+        if (!(eventStamp instanceof HibEventStamp))
+            return false;
+        
+        HibEventTimeRangeIndex index = ((HibEventStamp) eventStamp).getTimeRangeIndex();
+        if (index == null || !Boolean.TRUE.equals(index.getIsRecurring())
+                || index.getOccurrenceStart() == null)
+            return false;
+        
+        if (index.getOccurrenceStart().compareTo(filter.getUTCStart()) > 0
+                || index.getOccurrenceEnd().compareTo(filter.getUTCEnd()) < 0)
+            return false;
+        
+        // The occurrence index doesn't account for modifications,
+        // which may move an occurrence out of the time range.  Use
+        // the flag kept on the note rather than loading them.
+        return note instanceof HibNoteItem
+            && !((HibNoteItem) note).hasModifications();
+    }
+    
     private void formatExpression(StringBuffer whereBuf,
             HashMap<String, Object> params, String propName,
             FilterCriteria fc) {
@@ -17,6 +17,7 @@ package org.osaf.cosmo.dav;
 
 import org.osaf.cosmo.calendar.query.CalendarQueryProcessor;
 import org.osaf.cosmo.icalendar.ICalendarClientFilterManager;
+import org.osaf.cosmo.icalendar.ICalendarFragmentCache;
 import org.osaf.cosmo.model.Item;
 import org.osaf.cosmo.security.CosmoSecurityManager;
 import org.osaf.cosmo.service.ContentService;
@@ -72,6 +73,12 @@ public interface DavResourceFactory {
     
     public ICalendarClientFilterManager getClientFilterManager();
 
+    /**
+     * Returns the cache of serialized item calendars, or null if
+     * calendars aren't cached.
+     */
+    public ICalendarFragmentCache getFragmentCache();
+
     public CalendarQueryProcessor getCalendarQueryProcessor();
     
     public UserService getUserService();
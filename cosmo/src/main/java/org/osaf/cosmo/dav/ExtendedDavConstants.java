@@ -52,6 +52,20 @@ public interface ExtendedDavConstants extends DavConstants {
     public static final DavPropertyName UUID =
         DavPropertyName.create(PROPERTY_UUID, NAMESPACE_COSMO);
 
+    /** The WebDAV property name <code>sync-token</code> */
+    public static final String PROPERTY_SYNC_TOKEN = "sync-token";
+
+    /** The WebDAV property <code>DAV:sync-token</code> */
+    public static final DavPropertyName SYNCTOKEN =
+        DavPropertyName.create(PROPERTY_SYNC_TOKEN, NAMESPACE);
+
+    /** The WebDAV report name <code>sync-collection</code> */
+    public static final String ELEMENT_SYNC_COLLECTION = "sync-collection";
+    public static final String ELEMENT_SYNC_TOKEN = "sync-token";
+    public static final String ELEMENT_SYNC_LEVEL = "sync-level";
+    public static final String ELEMENT_LIMIT = "limit";
+    public static final String ELEMENT_NRESULTS = "nresults";
+
     public static final DavPropertyName OWNER =
         DavPropertyName.create(XML_OWNER, NAMESPACE);
     public static final DavPropertyName SUPPORTEDREPORTSET =
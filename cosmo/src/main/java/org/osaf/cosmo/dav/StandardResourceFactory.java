@@ -31,6 +31,7 @@ import org.osaf.cosmo.dav.impl.DavTask;
 import org.osaf.cosmo.dav.impl.DavInboxCollection;
 import org.osaf.cosmo.dav.impl.DavOutboxCollection;
 import org.osaf.cosmo.icalendar.ICalendarClientFilterManager;
+import org.osaf.cosmo.icalendar.ICalendarFragmentCache;
 import org.osaf.cosmo.model.AvailabilityItem;
 import org.osaf.cosmo.model.CalendarCollectionStamp;
 import org.osaf.cosmo.model.CollectionItem;
@@ -64,7 +65,9 @@ public class StandardResourceFactory
     private EntityFactory entityFactory;
     private CalendarQueryProcessor calendarQueryProcessor;
     private ICalendarClientFilterManager clientFilterManager;
+    private ICalendarFragmentCache fragmentCache;
     private boolean schedulingEnabled = false;
+    private int syncTokenMaxAgeDays = 0;
 
     public StandardResourceFactory(ContentService contentService,
                                    UserService userService,
@@ -275,6 +278,18 @@ public class StandardResourceFactory
         return clientFilterManager;
     }
 
+    public ICalendarFragmentCache getFragmentCache() {
+        return fragmentCache;
+    }
+
+    /**
+     * @param fragmentCache cache of serialized item calendars, or
+     *        null to serialize calendars on every request
+     */
+    public void setFragmentCache(ICalendarFragmentCache fragmentCache) {
+        this.fragmentCache = fragmentCache;
+    }
+
     public boolean isSchedulingEnabled() {
         return schedulingEnabled;
     }
@@ -282,4 +297,17 @@ public class StandardResourceFactory
     public void setSchedulingEnabled(boolean schedulingEnabled) {
         this.schedulingEnabled = schedulingEnabled;
     }
+
+    public int getSyncTokenMaxAgeDays() {
+        return syncTokenMaxAgeDays;
+    }
+
+    /**
+     * @param syncTokenMaxAgeDays number of days a sync token is
+     *        valid, or 0 if sync tokens never expire. Should match the
+     *        age at which item tombstones are removed.
+     */
+    public void setSyncTokenMaxAgeDays(int syncTokenMaxAgeDays) {
+        this.syncTokenMaxAgeDays = syncTokenMaxAgeDays;
+    }
 }
@@ -20,9 +20,13 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import javax.xml.stream.XMLStreamException;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -39,6 +43,8 @@ import org.osaf.cosmo.dav.DavContent;
 import org.osaf.cosmo.dav.DavResource;
 import org.osaf.cosmo.dav.UnprocessableEntityException;
 import org.osaf.cosmo.dav.impl.DavCalendarResource;
+import org.osaf.cosmo.dav.impl.DavItemCollection;
+import org.osaf.cosmo.dav.util.MultiStatusWriter;
 
 import org.w3c.dom.Element;
 
@@ -57,6 +63,7 @@ public class MultigetReport extends CaldavMultiStatusReport {
                             NAMESPACE_CALDAV, MultigetReport.class);
 
     private Set<String> hrefs;
+    private Map<String, DavResource> targets;
 
     // Report methods
 
@@ -136,28 +143,51 @@ public class MultigetReport extends CaldavMultiStatusReport {
      */
     protected void runQuery()
         throws DavException {
-        DavPropertyNameSet propspec = createResultPropSpec();
+        targets = new LinkedHashMap<String, DavResource>();
+
+        // resolve the members of an item collection in bulk
+        if (getResource() instanceof DavItemCollection) {
+            Map<String, DavResource> members =
+                ((DavItemCollection) getResource()).findMembers(hrefs);
+            for (String href : hrefs)
+                targets.put(href, members.get(href));
+            return;
+        }
 
         if (getResource() instanceof DavCollection) {
             DavCollection collection = (DavCollection) getResource();
-            for (String href : hrefs) {
-                DavResource target = collection.findMember(href);
-                if (target != null)
-                    getMultiStatus().addResponse(buildMultiStatusResponse(target, propspec));
-                else
-                    getMultiStatus().addResponse(new MultiStatusResponse(href,404));
-            }
+            for (String href : hrefs)
+                targets.put(href, collection.findMember(href));
             return;
         }
 
         if (getResource() instanceof DavCalendarResource) {
-            getMultiStatus().addResponse(buildMultiStatusResponse(getResource(), propspec));
+            targets.put(getResource().getResourceLocator().getHref(false),
+                        getResource());
             return;
         }
 
         throw new UnprocessableEntityException(getType() + " report not supported for non-calendar resources");
     }
 
+    // MultiStatusReport methods
+
+    /**
+     * Writes a response for each resolved href, or a 404 response for
+     * each href that did not resolve to a resource.
+     */
+    protected void writeResponses(MultiStatusWriter writer)
+        throws DavException, XMLStreamException {
+        DavPropertyNameSet propspec = createResultPropSpec();
+
+        for (Map.Entry<String, DavResource> entry : targets.entrySet()) {
+            if (entry.getValue() != null)
+                writer.writeResponse(buildMultiStatusResponse(entry.getValue(), propspec));
+            else
+                writer.writeResponse(new MultiStatusResponse(entry.getKey(), 404));
+        }
+    }
+
     private static URL normalizeHref(URL context,
                                      String href)
         throws DavException {
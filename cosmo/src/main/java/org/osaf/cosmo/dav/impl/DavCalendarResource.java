@@ -47,10 +47,12 @@ import org.osaf.cosmo.dav.property.ContentLength;
 import org.osaf.cosmo.dav.property.ContentType;
 import org.osaf.cosmo.dav.property.DavProperty;
 import org.osaf.cosmo.icalendar.ICalendarConstants;
+import org.osaf.cosmo.icalendar.ICalendarFragmentCache;
 import org.osaf.cosmo.model.ContentItem;
 import org.osaf.cosmo.model.EntityFactory;
 import org.osaf.cosmo.model.ICalendarItem;
 import org.osaf.cosmo.model.IcalUidInUseException;
+import org.osaf.cosmo.model.Item;
 import org.osaf.cosmo.model.NoteItem;
 
 /**
@@ -181,11 +183,7 @@ public abstract class DavCalendarResource extends DavContentBase
             IOUtil.buildContentType(ICALENDAR_MEDIA_TYPE, "UTF-8");
         outputContext.setContentType(contentType);
   
-        // Get calendar
-        Calendar calendar = getCalendar();
-        
-        // convert Calendar object to String, then to bytes (UTF-8)    
-        byte[] calendarBytes = calendar.toString().getBytes("UTF-8");
+        byte[] calendarBytes = getCalendarBytes();
         outputContext.setContentLength(calendarBytes.length);
         outputContext.setModificationTime(getModificationTime());
         outputContext.setETag(getETag());
@@ -207,7 +205,7 @@ public abstract class DavCalendarResource extends DavContentBase
         super.loadLiveProperties(properties);
 
         try {
-            byte[] calendarBytes = getCalendar().toString().getBytes("UTF-8");
+            byte[] calendarBytes = getCalendarBytes();
             properties.add(new ContentLength(new Long(calendarBytes.length)));
         } catch (Exception e) {
             throw new RuntimeException("Can't convert calendar", e);
@@ -216,6 +214,34 @@ public abstract class DavCalendarResource extends DavContentBase
         properties.add(new ContentType(ICALENDAR_MEDIA_TYPE, "UTF-8"));
     }
 
+    /**
+     * Returns the calendar object associated with this resource
+     * serialized to bytes (UTF-8). The bytes are cached by item uid,
+     * entity tag and client, so an unchanged item is converted and
+     * serialized only once.
+     */
+    protected byte[] getCalendarBytes()
+        throws IOException {
+        ICalendarFragmentCache cache =
+            getResourceFactory().getFragmentCache();
+        Item item = getItem();
+        if (cache == null || item.getUid() == null ||
+            item.getEntityTag() == null)
+            return getCalendar().toString().getBytes("UTF-8");
+
+        String client = getClientFilterManager() != null ?
+            getClientFilterManager().getClient() :
+            null;
+        byte[] calendarBytes =
+            cache.getCalendar(item.getUid(), item.getEntityTag(), client);
+        if (calendarBytes == null) {
+            calendarBytes = getCalendar().toString().getBytes("UTF-8");
+            cache.putCalendar(item.getUid(), item.getEntityTag(), client,
+                              calendarBytes);
+        }
+        return calendarBytes;
+    }
+
     /** */
     protected void setLiveProperty(DavProperty property)
         throws DavException {
@@ -19,7 +19,10 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import javax.xml.namespace.QName;
@@ -44,6 +47,7 @@ import org.osaf.cosmo.dav.DavResource;
 import org.osaf.cosmo.dav.DavResourceFactory;
 import org.osaf.cosmo.dav.DavResourceLocator;
 import org.osaf.cosmo.dav.LockedException;
+import org.osaf.cosmo.dav.ProtectedPropertyModificationException;
 import org.osaf.cosmo.dav.UnprocessableEntityException;
 import org.osaf.cosmo.dav.acl.report.PrincipalMatchReport;
 import org.osaf.cosmo.dav.acl.report.PrincipalPropertySearchReport;
@@ -52,6 +56,8 @@ import org.osaf.cosmo.dav.caldav.report.MultigetReport;
 import org.osaf.cosmo.dav.caldav.report.QueryReport;
 import org.osaf.cosmo.dav.property.DavProperty;
 import org.osaf.cosmo.dav.property.ExcludeFreeBusyRollup;
+import org.osaf.cosmo.dav.property.SyncToken;
+import org.osaf.cosmo.dav.report.SyncCollectionReport;
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.CollectionLockedException;
 import org.osaf.cosmo.model.ContentItem;
@@ -69,6 +75,7 @@ import org.w3c.dom.Element;
  *
  * <ul>
  * <li><code>DAV:supported-report-set</code> (protected)</li>
+ * <li><code>DAV:sync-token</code> (protected)</li>
  * <li><code>cosmo:exclude-free-busy-rollup</code></li>
  * </ul>
  *
@@ -87,6 +94,7 @@ public class DavCollectionBase extends DavItemResourceBase
 
     static {
         registerLiveProperty(EXCLUDEFREEBUSYROLLUP);
+        registerLiveProperty(SYNCTOKEN);
 
         REPORT_TYPES.add(FreeBusyReport.REPORT_TYPE_CALDAV_FREEBUSY);
         REPORT_TYPES.add(MultigetReport.REPORT_TYPE_CALDAV_MULTIGET);
@@ -94,6 +102,7 @@ public class DavCollectionBase extends DavItemResourceBase
         REPORT_TYPES.add(PrincipalMatchReport.REPORT_TYPE_PRINCIPAL_MATCH);
         REPORT_TYPES.add(PrincipalPropertySearchReport.
                          REPORT_TYPE_PRINCIPAL_PROPERTY_SEARCH);
+        REPORT_TYPES.add(SyncCollectionReport.REPORT_TYPE_SYNC_COLLECTION);
 
         DEAD_PROPERTY_FILTER.add(CollectionItem.class.getName());
     }
@@ -224,6 +233,67 @@ public class DavCollectionBase extends DavItemResourceBase
         return ((CollectionItem) getItem()).isExcludeFreeBusyRollup();
     }
 
+    /**
+     * Returns the member resources at the given absolute hrefs. The
+     * items identified by hrefs of direct children of this collection
+     * are looked up together with a single service call; any other
+     * href is resolved on its own with {@link #findMember(String)}.
+     */
+    public Map<String, DavResource> findMembers(Set<String> hrefs)
+        throws DavException {
+        Map<String, DavResource> members = new HashMap<String, DavResource>();
+        Map<String, String> childHrefs = new HashMap<String, String>();
+
+        String prefix = getResourcePath() + "/";
+        for (String href : hrefs) {
+            String path = getResourceLocator().getFactory().
+                createResourceLocatorByUri(getResourceLocator().getContext(),
+                                           href).getPath();
+            String name = path.startsWith(prefix) ?
+                path.substring(prefix.length()) : null;
+            if (name != null && name.length() > 0 && name.indexOf('/') < 0) {
+                childHrefs.put(name, href);
+                continue;
+            }
+
+            DavResource member = findMember(href);
+            if (member != null)
+                members.put(href, member);
+        }
+
+        if (childHrefs.isEmpty())
+            return members;
+
+        Map<String, Item> children = getContentService().
+            findChildrenByNames((CollectionItem) getItem(), childHrefs.keySet());
+        for (Map.Entry<String, Item> entry : children.entrySet()) {
+            DavResource member = memberToResource(entry.getValue());
+            if (member != null)
+                members.put(childHrefs.get(entry.getKey()), member);
+        }
+
+        return members;
+    }
+
+    /**
+     * Returns the time encoded by the collection's current sync
+     * token: the time the collection's members last changed, but no
+     * later than {@link SyncCollectionReport#OVERLAP} before now,
+     * since changes made just before now may not be visible yet, and
+     * before the oldest event log entry that has not been written or
+     * committed yet.
+     */
+    public long getSyncTime() {
+        long time = System.currentTimeMillis() - SyncCollectionReport.OVERLAP;
+        Date pending = getContentService().getOldestPendingChangeDate();
+        if (pending != null && pending.getTime() - 1 < time)
+            time = pending.getTime() - 1;
+        Date modified = ((CollectionItem) getItem()).getModifiedDate();
+        if (modified != null && modified.getTime() < time)
+            return modified.getTime();
+        return time;
+    }
+
     // our methods
 
     protected Set<QName> getResourceTypes() {
@@ -245,6 +315,8 @@ public class DavCollectionBase extends DavItemResourceBase
             return;
 
         properties.add(new ExcludeFreeBusyRollup(cc.isExcludeFreeBusyRollup()));
+        if (cc.getModifiedDate() != null)
+            properties.add(new SyncToken(getSyncTime()));
     }
 
     /** */
@@ -260,6 +332,9 @@ public class DavCollectionBase extends DavItemResourceBase
         if (property.getValue() == null)
             throw new UnprocessableEntityException("Property " + name + " requires a value");
 
+        if (name.equals(SYNCTOKEN))
+            throw new ProtectedPropertyModificationException(name);
+
         if (name.equals(EXCLUDEFREEBUSYROLLUP)) {
             Boolean flag = Boolean.valueOf(property.getValueText());
             cc.setExcludeFreeBusyRollup(flag);
@@ -275,6 +350,9 @@ public class DavCollectionBase extends DavItemResourceBase
         if (cc == null)
             return;
 
+        if (name.equals(SYNCTOKEN))
+            throw new ProtectedPropertyModificationException(name);
+
         if (name.equals(EXCLUDEFREEBUSYROLLUP))
             cc.setExcludeFreeBusyRollup(false);
     }
@@ -15,7 +15,12 @@
  */
 package org.osaf.cosmo.dav.impl;
 
+import java.util.Map;
+import java.util.Set;
+
 import org.osaf.cosmo.dav.DavCollection;
+import org.osaf.cosmo.dav.DavException;
+import org.osaf.cosmo.dav.DavResource;
 
 /**
  * An interface for DAV collection resources that are backed by content
@@ -39,4 +44,12 @@ public interface DavItemCollection extends DavItemResource, DavCollection {
      * query rollups.
      */
     public boolean isExcludedFromFreeBusyRollups();
+
+    /**
+     * Returns the member resources at the given absolute hrefs,
+     * indexed by href. Hrefs that don't identify a resource are not
+     * included.
+     */
+    public Map<String, DavResource> findMembers(Set<String> hrefs)
+        throws DavException;
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dav.property;
+
+/**
+ * Represents the DAV:sync-token property.
+ * <p>
+ * A sync token is a URI that identifies the state of a collection's
+ * members at a point in time. The token encodes the time in
+ * milliseconds since the epoch.
+ */
+public class SyncToken extends StandardDavProperty {
+
+    /** Prefix of every sync token issued by the server */
+    public static final String PREFIX = NS_COSMO + "/sync/";
+
+    public SyncToken(long timestamp) {
+        super(SYNCTOKEN, format(timestamp), true);
+    }
+
+    /**
+     * Returns the sync token for the given time.
+     */
+    public static String format(long timestamp) {
+        return PREFIX + timestamp;
+    }
+
+    /**
+     * Returns the time encoded by the given sync token, or -1 if the
+     * token was not issued by the server.
+     */
+    public static long parse(String token) {
+        if (token == null || ! token.startsWith(PREFIX))
+            return -1;
+        try {
+            long timestamp = Long.parseLong(token.substring(PREFIX.length()));
+            return timestamp >= 0 ? timestamp : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -19,9 +19,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+import javax.xml.stream.XMLStreamException;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.jackrabbit.webdav.DavConstants;
+import org.apache.jackrabbit.webdav.DavResourceIterator;
 import org.apache.jackrabbit.webdav.MultiStatus;
 import org.apache.jackrabbit.webdav.MultiStatusResponse;
 import org.apache.jackrabbit.webdav.io.InputContext;
@@ -60,6 +63,7 @@ import org.osaf.cosmo.dav.impl.DavInboxCollection;
 import org.osaf.cosmo.dav.impl.DavOutboxCollection;
 import org.osaf.cosmo.dav.io.DavInputContext;
 import org.osaf.cosmo.dav.ticket.TicketConstants;
+import org.osaf.cosmo.dav.util.MultiStatusWriter;
 import org.osaf.cosmo.model.EntityFactory;
 import org.osaf.cosmo.model.Item;
 import org.osaf.cosmo.model.Ticket;
@@ -131,10 +135,18 @@ public abstract class BaseProvider
         // check must be done manually here.
         checkPropFindAccess(resource, props, type);
 
-        MultiStatus ms = new MultiStatus();
-        ms.addResourceProperties(resource, props, type, depth);
-
-        response.sendMultiStatus(ms);
+        // write each response as soon as it is built
+        MultiStatusWriter writer = null;
+        try {
+            writer = MultiStatusWriter.start(response);
+            writeResourceProperties(writer, resource, props, type, depth);
+            writer.writeEndMultiStatus();
+        } catch (XMLStreamException e) {
+            throw new DavException(e);
+        } finally {
+            if (writer != null)
+                writer.close();
+        }
     }
 
     public void proppatch(DavRequest request,
@@ -337,6 +349,26 @@ public abstract class BaseProvider
         response.flushBuffer();
     }
 
+    /**
+     * Writes a response with the requested properties of the resource
+     * and, depending on the depth, of its members and their
+     * descendents.
+     */
+    protected void writeResourceProperties(MultiStatusWriter writer,
+                                           DavResource resource,
+                                           DavPropertyNameSet props,
+                                           int type,
+                                           int depth)
+        throws XMLStreamException {
+        writer.writeResponse(new MultiStatusResponse(resource, props, type));
+        if (depth <= 0 || ! resource.isCollection())
+            return;
+
+        for (DavResourceIterator i = resource.getMembers(); i.hasNext();)
+            writeResourceProperties(writer, (DavResource) i.nextResource(),
+                                    props, type, depth - 1);
+    }
+
     protected InputContext createInputContext(DavRequest request)
         throws DavException, IOException {
         String xfer = request.getHeader("Transfer-Encoding");
@@ -15,6 +15,11 @@
  */
 package org.osaf.cosmo.dav.report;
 
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.xml.stream.XMLStreamException;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -25,6 +30,7 @@ import org.apache.jackrabbit.webdav.property.DavPropertyNameSet;
 
 import org.osaf.cosmo.dav.DavException;
 import org.osaf.cosmo.dav.DavResource;
+import org.osaf.cosmo.dav.util.MultiStatusWriter;
 
 /**
  * Base class for WebDAV reports that return multistatus responses.
@@ -45,22 +51,42 @@ public abstract class MultiStatusReport extends ReportBase {
     // our methods
 
     /**
-     * Generates and writes the multistatus response.
+     * Generates and writes the multistatus response. Each response is
+     * written as soon as it is built rather than being collected into
+     * a single multistatus document.
      */
     protected void output(DavServletResponse response)
         throws DavException {
-        DavPropertyNameSet resultProps = createResultPropSpec();
-
-        for (DavResource result : getResults()) {
-            MultiStatusResponse msr =
-                buildMultiStatusResponse(result, resultProps);
-            multistatus.addResponse(msr);
-        }
-
+        MultiStatusWriter writer = null;
         try {
-            response.sendXmlResponse(multistatus, 207);
-        } catch (Exception e) {
+            writer = MultiStatusWriter.start(response);
+            writeResponses(writer);
+            writer.writeEndMultiStatus();
+        } catch (IOException e) {
+            throw new DavException(e);
+        } catch (XMLStreamException e) {
             throw new DavException(e);
+        } finally {
+            if (writer != null)
+                writer.close();
+        }
+    }
+
+    /**
+     * Writes the responses added to the multistatus while running the
+     * query, followed by a response for each result. Results are
+     * released once their responses are written.
+     */
+    protected void writeResponses(MultiStatusWriter writer)
+        throws DavException, XMLStreamException {
+        for (MultiStatusResponse msr : multistatus.getResponses())
+            writer.writeResponse(msr);
+
+        DavPropertyNameSet resultProps = createResultPropSpec();
+        for (Iterator<DavResource> i=getResults().iterator(); i.hasNext();) {
+            writer.writeResponse(buildMultiStatusResponse(i.next(),
+                                                          resultProps));
+            i.remove();
         }
     }
 
@@ -0,0 +1,456 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dav.report;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.apache.jackrabbit.webdav.DavResourceIterator;
+import org.apache.jackrabbit.webdav.DavServletResponse;
+import org.apache.jackrabbit.webdav.MultiStatus;
+import org.apache.jackrabbit.webdav.MultiStatusResponse;
+import org.apache.jackrabbit.webdav.property.DavPropertyNameSet;
+import org.apache.jackrabbit.webdav.version.report.ReportInfo;
+import org.apache.jackrabbit.webdav.version.report.ReportType;
+import org.apache.jackrabbit.webdav.xml.DomUtil;
+
+import org.osaf.cosmo.dav.BadRequestException;
+import org.osaf.cosmo.dav.DavCollection;
+import org.osaf.cosmo.dav.DavException;
+import org.osaf.cosmo.dav.DavResource;
+import org.osaf.cosmo.dav.DavResourceLocator;
+import org.osaf.cosmo.dav.ForbiddenException;
+import org.osaf.cosmo.dav.InsufficientStorageException;
+import org.osaf.cosmo.dav.InvalidSyncTokenException;
+import org.osaf.cosmo.dav.StandardResourceFactory;
+import org.osaf.cosmo.dav.UnprocessableEntityException;
+import org.osaf.cosmo.dav.impl.DavCollectionBase;
+import org.osaf.cosmo.dav.property.SyncToken;
+import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemChangeRecord;
+import org.osaf.cosmo.model.ItemTombstone;
+import org.osaf.cosmo.model.ModelValidationException;
+import org.osaf.cosmo.model.ModificationUid;
+import org.osaf.cosmo.model.NoteItem;
+import org.osaf.cosmo.service.ContentService;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * <p>
+ * Represents the <code>DAV:sync-collection</code> report defined by
+ * RFC 6578 that returns the members of a collection that changed or
+ * were removed since the client was issued a sync token.
+ * </p>
+ * <p>
+ * The changes are found in the event log and the removed members in
+ * the collection's item tombstones, so members that did not change
+ * are not loaded. A report without a sync token returns every member.
+ * When the number of changes exceeds the limit requested by the
+ * client, the oldest changes are returned along with a token from
+ * which the client continues.
+ * </p>
+ * <p>
+ * Modifications of recurring events are not members of the collection
+ * in their own right, so a changed or removed modification is
+ * reported as a change to its master.
+ * </p>
+ * <p>
+ * Event log entries are dated when a change is made but only become
+ * visible when the change is committed, or when a write-behind queue
+ * writes them, so the token is no later than {@link #OVERLAP} before
+ * the report and earlier than the oldest entry this server has not
+ * written or committed yet. A change made within that time of a
+ * report may be returned again by the next report. For entries added
+ * on other servers, only {@link #OVERLAP} applies.
+ * </p>
+ */
+public class SyncCollectionReport extends MultiStatusReport {
+    private static final Log log =
+        LogFactory.getLog(SyncCollectionReport.class);
+    public static final ReportType REPORT_TYPE_SYNC_COLLECTION =
+        ReportType.register(ELEMENT_SYNC_COLLECTION, NAMESPACE,
+                            SyncCollectionReport.class);
+
+    /**
+     * Time in milliseconds before a report during which changes are
+     * not considered to be visible yet, even if no entries are known
+     * to be pending.
+     */
+    public static final long OVERLAP = 60 * 1000;
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private SyncMultiStatus multistatus = new SyncMultiStatus();
+    private String syncToken;
+    private int limit = 0;
+
+    // Report methods
+
+    public ReportType getType() {
+        return REPORT_TYPE_SYNC_COLLECTION;
+    }
+
+    // ReportBase methods
+
+    /**
+     * <p>
+     * Parses the report info, extracting the sync token, the sync
+     * level, the limit and the properties.
+     * </p>
+     * <pre>
+     * <!ELEMENT sync-collection (sync-token, sync-level, limit?, prop)>
+     * <!ELEMENT limit (nresults)>
+     * </pre>
+     * <p>
+     * Only a sync level of 1 is supported. A missing sync level is
+     * taken to be 1.
+     * </p>
+     *
+     * @throws DavException if the report info is not of the correct type
+     * @throws BadRequestException if the report info is invalid
+     */
+    protected void parseReport(ReportInfo info)
+        throws DavException {
+        if (! getType().isRequestedReportType(info))
+            throw new DavException("Report not of type " + getType().getReportName());
+
+        setPropFindProps(info.getPropertyNameSet());
+        if (info.containsContentElement(XML_ALLPROP, NAMESPACE))
+            setPropFindType(PROPFIND_ALL_PROP);
+        else if (info.containsContentElement(XML_PROPNAME, NAMESPACE))
+            setPropFindType(PROPFIND_PROPERTY_NAMES);
+        else
+            setPropFindType(PROPFIND_BY_PROPERTY);
+
+        Element report = info.getReportElement();
+
+        Element token =
+            DomUtil.getChildElement(report, ELEMENT_SYNC_TOKEN, NAMESPACE);
+        if (token == null)
+            throw new BadRequestException("Expected DAV:" + ELEMENT_SYNC_TOKEN);
+        syncToken = DomUtil.getTextTrim(token);
+        if (syncToken != null && syncToken.length() == 0)
+            syncToken = null;
+
+        Element level =
+            DomUtil.getChildElement(report, ELEMENT_SYNC_LEVEL, NAMESPACE);
+        if (level != null) {
+            String value = DomUtil.getTextTrim(level);
+            if ("infinite".equals(value))
+                throw new ForbiddenException("Sync level infinite not supported");
+            if (! "1".equals(value))
+                throw new BadRequestException("Invalid sync level " + value);
+        }
+
+        Element limitElement =
+            DomUtil.getChildElement(report, ELEMENT_LIMIT, NAMESPACE);
+        if (limitElement != null) {
+            Element nresults =
+                DomUtil.getChildElement(limitElement, ELEMENT_NRESULTS,
+                                        NAMESPACE);
+            if (nresults == null)
+                throw new BadRequestException("Expected DAV:" + ELEMENT_NRESULTS);
+            String value = DomUtil.getTextTrim(nresults);
+            try {
+                limit = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new BadRequestException("Invalid number of results " + value);
+            }
+            if (limit <= 0)
+                throw new BadRequestException("Invalid number of results " + value);
+        }
+    }
+
+    protected void doQuerySelf(DavResource resource)
+        throws DavException {}
+
+    protected void doQueryChildren(DavCollection collection)
+        throws DavException {}
+
+    /**
+     * Finds the members of the targeted collection that changed since
+     * the sync token, or every member if no token was given. The
+     * depth of the request is ignored.
+     *
+     * @throws InvalidSyncTokenException if the token was not issued by
+     * the server or has expired
+     * @throws InsufficientStorageException if more members than the
+     * limit would be returned and the result can't be truncated
+     */
+    protected void runQuery()
+        throws DavException {
+        if (! (getResource() instanceof DavCollectionBase))
+            throw new UnprocessableEntityException(getType() + " report not supported for non-collection resources");
+        DavCollectionBase collection = (DavCollectionBase) getResource();
+
+        if (syncToken == null) {
+            queryMembers(collection);
+            return;
+        }
+
+        long since = SyncToken.parse(syncToken);
+        if (since < 0)
+            throw new InvalidSyncTokenException("Sync token " + syncToken + " not issued by this server");
+        if (since < getHorizon())
+            throw new InvalidSyncTokenException("Sync token " + syncToken + " has expired");
+
+        queryChanges(collection, since);
+    }
+
+    // MultiStatusReport methods
+
+    /**
+     * Writes the multistatus response, including the new sync token.
+     */
+    protected void output(DavServletResponse response)
+        throws DavException {
+        try {
+            response.sendXmlResponse(multistatus, 207);
+        } catch (Exception e) {
+            throw new DavException(e);
+        }
+    }
+
+    protected MultiStatus getMultiStatus() {
+        return multistatus;
+    }
+
+    // our methods
+
+    /**
+     * Returns the sync token the client uses for the next report.
+     */
+    public String getNewSyncToken() {
+        return multistatus.getSyncToken();
+    }
+
+    private void queryMembers(DavCollectionBase collection)
+        throws DavException {
+        DavPropertyNameSet propspec = createResultPropSpec();
+
+        int count = 0;
+        for (DavResourceIterator i = collection.getMembers(); i.hasNext();) {
+            DavResource member = (DavResource) i.nextResource();
+            if (limit > 0 && ++count > limit)
+                throw new InsufficientStorageException("Collection has more than " + limit + " members");
+            multistatus.addResponse(buildMultiStatusResponse(member, propspec));
+        }
+
+        multistatus.setSyncToken(SyncToken.format(collection.getSyncTime()));
+    }
+
+    private void queryChanges(DavCollectionBase collection,
+                              long since)
+        throws DavException {
+        CollectionItem item = (CollectionItem) collection.getItem();
+        ContentService contentService =
+            collection.getResourceFactory().getContentService();
+
+        // the latest change of each item, oldest first
+        List<Change> changes = new ArrayList<Change>();
+        for (ItemChangeRecord record :
+                 contentService.findChangesForCollection(item,
+                                                         new Date(since + 1),
+                                                         new Date()))
+            changes.add(new Change(record.getItemUuid(), record.getItemName(),
+                                   record.getDate()));
+        for (ItemTombstone tombstone :
+                 contentService.findItemTombstones(item, new Date(since)))
+            changes.add(new Change(tombstone.getItemUid(), null,
+                                   tombstone.getTimestamp()));
+        Collections.sort(changes);
+
+        LinkedHashMap<String, Change> latest =
+            new LinkedHashMap<String, Change>();
+        for (Change change : changes) {
+            Change previous = latest.remove(change.uid);
+            if (change.name == null && previous != null)
+                change.name = previous.name;
+            latest.put(change.uid, change);
+        }
+        changes = new ArrayList<Change>(latest.values());
+
+        long token = Math.max(since, collection.getSyncTime());
+        boolean truncated = false;
+        if (limit > 0 && changes.size() > limit) {
+            // leave out the changes made at the same time as the first
+            // change left out so that the token covers all of them
+            Date cut = changes.get(limit).date;
+            int end = limit;
+            while (end > 0 && ! changes.get(end - 1).date.before(cut))
+                end--;
+            if (end == 0)
+                throw new InsufficientStorageException("More than " + limit + " members changed at " + cut);
+            changes = changes.subList(0, end);
+            token = changes.get(end - 1).date.getTime();
+            truncated = true;
+        }
+
+        // look up the members that changed in bulk
+        HashSet<String> names = new HashSet<String>();
+        for (Change change : changes) {
+            if (change.name != null)
+                names.add(change.name);
+        }
+        Map<String, Item> members = names.isEmpty() ?
+            new HashMap<String, Item>() :
+            contentService.findChildrenByNames(item, names);
+        HashMap<String, Item> masters = new HashMap<String, Item>();
+
+        DavPropertyNameSet propspec = createResultPropSpec();
+        HashSet<String> reported = new HashSet<String>();
+        for (Change change : changes) {
+            Item member = change.name != null ? members.get(change.name) : null;
+            if (member != null && ! member.getUid().equals(change.uid))
+                member = null;
+
+            if (member instanceof NoteItem &&
+                ((NoteItem) member).getModifies() != null) {
+                member = ((NoteItem) member).getModifies();
+            } else if (member == null) {
+                String masterUid = getMasterUid(change.uid);
+                if (masterUid != null) {
+                    if (! masters.containsKey(masterUid))
+                        masters.put(masterUid,
+                                    contentService.findItemByUid(masterUid));
+                    member = masters.get(masterUid);
+                    if (member == null || ! member.getParents().contains(item)) {
+                        if (log.isDebugEnabled())
+                            log.debug("skipping modification " + change.uid + " of removed master");
+                        continue;
+                    }
+                }
+            }
+
+            if (member != null) {
+                if (! reported.add(member.getUid()))
+                    continue;
+                DavResource resource = collection.getResourceFactory().
+                    createResource(createMemberLocator(collection,
+                                                       member.getName()),
+                                   member);
+                if (resource != null)
+                    multistatus.addResponse(buildMultiStatusResponse(resource, propspec));
+            } else if (change.name != null) {
+                if (! reported.add(change.uid))
+                    continue;
+                String href = createMemberLocator(collection, change.name).
+                    getHref(false);
+                multistatus.addResponse(new MultiStatusResponse(href, 404));
+            } else if (log.isDebugEnabled()) {
+                log.debug("skipping removed item " + change.uid + " with unknown name");
+            }
+        }
+
+        if (truncated) {
+            String href = collection.getResourceLocator().getHref(true);
+            multistatus.addResponse(new MultiStatusResponse(href, 507));
+        }
+
+        multistatus.setSyncToken(SyncToken.format(token));
+    }
+
+    private DavResourceLocator createMemberLocator(DavCollection collection,
+                                                   String name) {
+        String path = collection.getResourcePath() + "/" + name;
+        DavResourceLocator locator = collection.getResourceLocator();
+        return locator.getFactory().
+            createResourceLocatorByPath(locator.getContext(), path);
+    }
+
+    /**
+     * Returns the uid of the master of a modification, or null if the
+     * uid is not the uid of a modification.
+     */
+    private static String getMasterUid(String uid) {
+        if (uid.indexOf(ModificationUid.RECURRENCEID_DELIMITER) < 0)
+            return null;
+        try {
+            return new ModificationUid(uid).getParentUid();
+        } catch (ModelValidationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the time before which sync tokens have expired, or 0 if
+     * sync tokens never expire.
+     */
+    private long getHorizon() {
+        int days = ((StandardResourceFactory) getResource().
+                    getResourceFactory()).getSyncTokenMaxAgeDays();
+        if (days <= 0)
+            return 0;
+        return System.currentTimeMillis() - days * MILLIS_PER_DAY;
+    }
+
+    private static class Change implements Comparable<Change> {
+        private String uid;
+        private String name;
+        private Date date;
+
+        public Change(String uid,
+                      String name,
+                      Date date) {
+            this.uid = uid;
+            this.name = name;
+            this.date = date;
+        }
+
+        public int compareTo(Change other) {
+            return date.compareTo(other.date);
+        }
+    }
+
+    /**
+     * Multistatus that includes the <code>DAV:sync-token</code>
+     * element after the responses.
+     */
+    private static class SyncMultiStatus extends MultiStatus {
+        private String syncToken;
+
+        public String getSyncToken() {
+            return syncToken;
+        }
+
+        public void setSyncToken(String syncToken) {
+            this.syncToken = syncToken;
+        }
+
+        public Element toXml(Document document) {
+            Element element = super.toXml(document);
+            if (syncToken != null)
+                element.appendChild(DomUtil.createElement(document,
+                                                          ELEMENT_SYNC_TOKEN,
+                                                          NAMESPACE,
+                                                          syncToken));
+            return element;
+        }
+    }
+}
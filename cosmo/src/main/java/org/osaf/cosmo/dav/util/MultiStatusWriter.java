@@ -0,0 +1,218 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dav.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jackrabbit.webdav.DavConstants;
+import org.apache.jackrabbit.webdav.DavServletResponse;
+import org.apache.jackrabbit.webdav.MultiStatusResponse;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.CharacterData;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Writes a <code>DAV:multistatus</code> response body one response at
+ * a time.
+ * <p>
+ * Unlike {@link org.apache.jackrabbit.webdav.MultiStatus}, which
+ * collects every response and is serialized as a single DOM tree, each
+ * response is converted to DOM and written as soon as it is passed to
+ * {@link #writeResponse(MultiStatusResponse)}, after which the caller
+ * can release it. Namespaces are declared on the outermost element
+ * that uses them, so the <code>DAV:</code> namespace is only declared
+ * once per body.
+ * <p>
+ * Once the first response has been written, errors can no longer be
+ * reported with a different status code.
+ */
+public class MultiStatusWriter implements DavConstants {
+    private static final Log log = LogFactory.getLog(MultiStatusWriter.class);
+    private static final XMLOutputFactory XML_OUTPUT_FACTORY =
+        XMLOutputFactory.newInstance();
+    private static final DocumentBuilderFactory BUILDER_FACTORY =
+        DocumentBuilderFactory.newInstance();
+
+    static {
+        BUILDER_FACTORY.setNamespaceAware(true);
+    }
+
+    private XMLStreamWriter writer;
+    private Document document;
+
+    /**
+     * @param out stream to write the body to
+     */
+    public MultiStatusWriter(OutputStream out)
+        throws XMLStreamException {
+        writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+        try {
+            document = BUILDER_FACTORY.newDocumentBuilder().newDocument();
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Sets the status and content type of a multistatus response and
+     * starts writing its body.
+     *
+     * @param response the response to write to
+     * @return a writer positioned inside the
+     *         <code>DAV:multistatus</code> element
+     */
+    public static MultiStatusWriter start(HttpServletResponse response)
+        throws IOException, XMLStreamException {
+        response.setStatus(DavServletResponse.SC_MULTI_STATUS);
+        response.setContentType("text/xml; charset=UTF-8");
+
+        MultiStatusWriter writer =
+            new MultiStatusWriter(response.getOutputStream());
+        writer.writeStartMultiStatus();
+        return writer;
+    }
+
+    public void writeStartMultiStatus()
+        throws XMLStreamException {
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.writeStartElement(NAMESPACE.getPrefix(), XML_MULTISTATUS,
+                                 NAMESPACE.getURI());
+        writer.writeNamespace(NAMESPACE.getPrefix(), NAMESPACE.getURI());
+        writer.setPrefix(NAMESPACE.getPrefix(), NAMESPACE.getURI());
+    }
+
+    /**
+     * Writes a single <code>DAV:response</code> element.
+     */
+    public void writeResponse(MultiStatusResponse response)
+        throws XMLStreamException {
+        writeElement(response.toXml(document));
+    }
+
+    /**
+     * Writes an arbitrary element inside the multistatus, for example
+     * a <code>DAV:responsedescription</code>.
+     */
+    public void writeElement(Element e)
+        throws XMLStreamException {
+        String local = e.getLocalName();
+        if (local == null)
+            local = e.getNodeName();
+
+        String ns = e.getNamespaceURI();
+        String prefix = e.getPrefix();
+        if (ns == null) {
+            writer.writeStartElement(local);
+        } else if (prefix == null) {
+            writer.writeStartElement("", local, ns);
+            if (! isBound("", ns)) {
+                writer.writeDefaultNamespace(ns);
+                writer.setDefaultNamespace(ns);
+            }
+        } else {
+            writer.writeStartElement(prefix, local, ns);
+            declare(prefix, ns);
+        }
+
+        NamedNodeMap attributes = e.getAttributes();
+        for (int i=0; i<attributes.getLength(); i++)
+            writeAttribute((Attr) attributes.item(i));
+
+        NodeList children = e.getChildNodes();
+        for (int i=0; i<children.getLength(); i++) {
+            Node n = children.item(i);
+            if (n.getNodeType() == Node.ELEMENT_NODE)
+                writeElement((Element) n);
+            else if (n.getNodeType() == Node.CDATA_SECTION_NODE ||
+                     n.getNodeType() == Node.TEXT_NODE)
+                writer.writeCharacters(((CharacterData) n).getData());
+            else
+                log.warn("Skipping node " + n.getNodeName());
+        }
+
+        writer.writeEndElement();
+    }
+
+    /**
+     * Closes the <code>DAV:multistatus</code> element and flushes the
+     * body.
+     */
+    public void writeEndMultiStatus()
+        throws XMLStreamException {
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+    }
+
+    /**
+     * Releases the writer. Does not close the underlying stream.
+     */
+    public void close() {
+        try {
+            writer.close();
+        } catch (XMLStreamException e) {
+            log.warn("Unable to close XML writer", e);
+        }
+    }
+
+    private void writeAttribute(Attr a)
+        throws XMLStreamException {
+        String local = a.getLocalName();
+        if (local == null)
+            local = a.getNodeName();
+        String ns = a.getNamespaceURI();
+        String prefix = a.getPrefix();
+
+        // namespace declarations are written along with the elements
+        // and attributes that use them
+        if (local.equals("xmlns") || "xmlns".equals(prefix))
+            return;
+
+        if (ns != null && prefix != null) {
+            declare(prefix, ns);
+            writer.writeAttribute(prefix, ns, local, a.getValue());
+        } else {
+            writer.writeAttribute(local, a.getValue());
+        }
+    }
+
+    private void declare(String prefix, String ns)
+        throws XMLStreamException {
+        if (isBound(prefix, ns))
+            return;
+        writer.writeNamespace(prefix, ns);
+        writer.setPrefix(prefix, ns);
+    }
+
+    private boolean isBound(String prefix, String ns) {
+        return ns.equals(writer.getNamespaceContext().getNamespaceURI(prefix));
+    }
+}
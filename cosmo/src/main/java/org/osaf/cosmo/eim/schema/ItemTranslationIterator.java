@@ -40,7 +40,12 @@ public class ItemTranslationIterator implements EimRecordSetIterator {
 
     public ItemTranslationIterator(List<ContentItem> items,
                                    long timestamp) {
-        this.decorated = items.iterator();
+        this(items.iterator(), timestamp);
+    }
+
+    public ItemTranslationIterator(Iterator<ContentItem> items,
+                                   long timestamp) {
+        this.decorated = items;
         this.timestamp = timestamp;
     }
 
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.filters;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.osaf.cosmo.security.util.AccessDecisionCache;
+
+/**
+ * A filter that lets the <code>AccessDecisionCache</code> remember
+ * access decisions for the duration of a request.
+ */
+public class AccessDecisionCacheFilter implements Filter {
+
+    private AccessDecisionCache accessDecisionCache;
+
+    public void destroy() {
+    }
+
+    public void doFilter(ServletRequest request, ServletResponse response,
+            FilterChain chain) throws IOException, ServletException {
+        accessDecisionCache.beginRequest();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            accessDecisionCache.endRequest();
+        }
+    }
+
+    public void setAccessDecisionCache(AccessDecisionCache accessDecisionCache) {
+        this.accessDecisionCache = accessDecisionCache;
+    }
+
+    public void init(FilterConfig arg0) throws ServletException {
+
+    }
+}
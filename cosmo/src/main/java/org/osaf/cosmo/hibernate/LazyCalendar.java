@@ -0,0 +1,186 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.hibernate;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import net.fortuna.ical4j.data.ParserException;
+import net.fortuna.ical4j.model.Calendar;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osaf.cosmo.calendar.util.CalendarUtils;
+
+/**
+ * Holder for an icalendar object that is persisted as text.
+ *
+ * The raw icalendar text read from the database is kept as is
+ * and only parsed into an ical4j <code>Calendar</code> the first
+ * time the calendar is requested.  Once the calendar has been
+ * handed out, the holder assumes it may have been modified, and
+ * the text representation is regenerated from the calendar
+ * when it is needed.  The calendar is serialized once when it is
+ * parsed, and as long as it still serializes to the same text,
+ * the original text is used, so that differences between the
+ * stored text and ical4j's output (line folding, property order,
+ * escaping) don't make a calendar that was only read look
+ * modified.
+ *
+ * Snapshots (see {@link #snapshot()}) share the immutable text
+ * with the original holder, so taking a snapshot of a holder
+ * that was never accessed costs nothing.
+ */
+public class LazyCalendar implements Serializable {
+
+    private static final long serialVersionUID = 2431578920497718436L;
+
+    private static final Log log = LogFactory.getLog(LazyCalendar.class);
+
+    private String icalendar = null;
+    private transient Calendar calendar = null;
+    // serialized form of the calendar when it was parsed
+    private transient String parsedICalendar = null;
+    private transient boolean checkedOut = false;
+
+    /**
+     * @param icalendar raw icalendar text
+     */
+    public LazyCalendar(String icalendar) {
+        this.icalendar = icalendar;
+    }
+
+    /**
+     * @param calendar calendar object
+     */
+    public LazyCalendar(Calendar calendar) {
+        setCalendar(calendar);
+    }
+
+    /**
+     * Return the calendar, parsing the icalendar text if
+     * necessary.  As the caller is free to modify the returned
+     * object, the holder is considered possibly modified from
+     * now on.
+     * @return calendar
+     */
+    public Calendar getCalendar() {
+        if (calendar == null && icalendar != null) {
+            try {
+                calendar = CalendarUtils.parseCalendar(icalendar);
+                parsedICalendar = calendar.toString();
+            } catch (ParserException e) {
+                log.error("error parsing icalendar from db", e);
+                // shouldn't happen because we always persist valid data
+                throw new IllegalStateException("cannot parse icalendar");
+            } catch (IOException e) {
+                throw new IllegalStateException("cannot read icalendar");
+            }
+        }
+
+        checkedOut = true;
+        return calendar;
+    }
+
+    /**
+     * Replace the held calendar.
+     * @param calendar new calendar
+     */
+    public void setCalendar(Calendar calendar) {
+        this.calendar = calendar;
+        this.icalendar = null;
+        this.parsedICalendar = null;
+        this.checkedOut = true;
+    }
+
+    /**
+     * @return true if the icalendar text has been parsed into
+     *         a calendar object
+     */
+    public boolean isParsed() {
+        return calendar != null;
+    }
+
+    /**
+     * @return true if the calendar object has been handed out
+     *         and therefore may have been modified
+     */
+    public boolean isCheckedOut() {
+        return checkedOut;
+    }
+
+    /**
+     * Return the icalendar text for the held calendar.  The
+     * text is only regenerated if the calendar object has been
+     * handed out, otherwise the original text is returned
+     * without parsing.  The original text is also returned if
+     * the calendar hasn't been changed since it was parsed.
+     * @return icalendar text
+     */
+    public String getICalendarString() {
+        if (checkedOut && calendar != null) {
+            String current = calendar.toString();
+            if (icalendar != null && current.equals(parsedICalendar))
+                return icalendar;
+            return current;
+        }
+        return icalendar;
+    }
+
+    /**
+     * Return an unparsed copy of this holder that reflects the
+     * current state of the calendar.  The copy shares the
+     * icalendar text with this holder, no calendar objects
+     * are copied.
+     * @return unparsed copy of this holder
+     */
+    public LazyCalendar snapshot() {
+        return new LazyCalendar(getICalendarString());
+    }
+
+    /**
+     * Determine whether this holder represents the same icalendar
+     * data as another holder.  Two holders that were never
+     * accessed are compared by their original text; otherwise
+     * the calendar is serialized and compared.
+     */
+    public boolean isSameAs(LazyCalendar other) {
+        if (other == null)
+            return false;
+        if (this == other)
+            return true;
+
+        String s1 = getICalendarString();
+        String s2 = other.getICalendarString();
+
+        if (s1 == s2)
+            return true;
+        if (s1 == null || s2 == null)
+            return false;
+        return s1.equals(s2);
+    }
+
+    public String toString() {
+        return getICalendarString();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        // make sure any changes to the calendar object survive
+        icalendar = getICalendarString();
+        out.defaultWriteObject();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.hibernate;
+
+import java.io.Reader;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import javax.transaction.TransactionManager;
+
+import org.apache.commons.io.IOUtils;
+import org.hibernate.HibernateException;
+import org.springframework.jdbc.support.lob.LobCreator;
+import org.springframework.jdbc.support.lob.LobHandler;
+import org.springframework.orm.hibernate3.support.ClobStringType;
+
+/**
+ * Custom Hibernate type that persists a {@link LazyCalendar} to a
+ * CLOB field in the database.
+ *
+ * Unlike {@link CalendarClobType}, the icalendar text is not parsed
+ * when the entity is loaded, and dirty checking is done against an
+ * unparsed snapshot of the text instead of a deep copy of the
+ * calendar.  This means entities that are loaded but whose calendar
+ * is never accessed never pay for parsing, and the column is only
+ * written back if the icalendar data actually changed.
+ */
+public class LazyCalendarClobType extends ClobStringType {
+
+    public LazyCalendarClobType() {
+        super();
+    }
+
+    protected LazyCalendarClobType(LobHandler lobHandler,
+                                   TransactionManager jtaTransactionManager) {
+        super(lobHandler, jtaTransactionManager);
+    }
+
+    protected Object nullSafeGetInternal(ResultSet resultSet,
+                                         String[] columns,
+                                         Object owner,
+                                         LobHandler lobHandler)
+        throws SQLException, HibernateException {
+
+        // we only handle one column, so panic if it isn't so
+        if (columns == null || columns.length != 1)
+            throw new HibernateException("Only one column name can be used for the " + getClass() + " user type");
+
+        Reader reader = lobHandler.getClobAsCharacterStream(resultSet, columns[0]);
+        if (reader == null)
+            return null;
+
+        try {
+            return new LazyCalendar(IOUtils.toString(reader));
+        } catch (Exception e) {
+            throw new HibernateException("cannot read icalendar stream");
+        } finally {
+            try {reader.close();} catch(Exception e) {}
+        }
+    }
+
+    protected void nullSafeSetInternal(PreparedStatement statement,
+                                       int index,
+                                       Object value,
+                                       LobCreator lobCreator)
+        throws SQLException, HibernateException {
+        String icalStr = null;
+        if (value != null)
+            icalStr = ((LazyCalendar) value).getICalendarString();
+        super.nullSafeSetInternal(statement, index, icalStr, lobCreator);
+    }
+
+    @Override
+    public Object deepCopy(Object value) throws HibernateException {
+        if (value == null)
+            return null;
+        return ((LazyCalendar) value).snapshot();
+    }
+
+    @Override
+    public boolean equals(Object x, Object y) throws HibernateException {
+        if (x == y)
+            return true;
+        if (x == null || y == null)
+            return false;
+
+        return ((LazyCalendar) x).isSameAs((LazyCalendar) y);
+    }
+
+    public Class returnedClass() {
+        return LazyCalendar.class;
+    }
+
+    public boolean isMutable() {
+        return true;
+    }
+}
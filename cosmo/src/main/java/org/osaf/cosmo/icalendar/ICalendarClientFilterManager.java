@@ -50,7 +50,14 @@ public class ICalendarClientFilterManager {
     public void setClient(String id) {
         clientLocal.set(id);
     }
-    
+
+    /**
+     * @return client identifier for the current thread, or null
+     */
+    public String getClient() {
+        return clientLocal.get();
+    }
+
     /**
      * Filter Calendar instance based on the current
      * client identifier.  If a ICalendarClientFilter
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.icalendar;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import net.fortuna.ical4j.data.FoldingWriter;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.PropertyList;
+import net.fortuna.ical4j.model.property.CalScale;
+import net.fortuna.ical4j.model.property.ProdId;
+import net.fortuna.ical4j.model.property.Version;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osaf.cosmo.CosmoConstants;
+import org.osaf.cosmo.calendar.EntityConverter;
+import org.osaf.cosmo.model.ContentItem;
+
+/**
+ * Writes the iCalendar representation of the children of a calendar
+ * collection to an output stream without building a single calendar
+ * object for the whole collection.
+ *
+ * Each child is converted and serialized on its own, and the result
+ * is cached in an {@link ICalendarFragmentCache} (if one is
+ * provided) under the child's entity tag, so that children that have
+ * not changed are not converted again.  The output is the same as
+ * that of {@link EntityConverter#convertCollection} written with
+ * {@link ICalendarOutputter}: each VTIMEZONE is written once, before
+ * all other components.
+ *
+ * The children are read twice: once to find the timezones
+ * ({@link #findTimezones(Iterator)}), and once to write the
+ * timezones and stream the components
+ * ({@link #write(Map, Iterator, OutputStream)}).
+ */
+public class ICalendarCollectionWriter {
+    private static final Log log =
+        LogFactory.getLog(ICalendarCollectionWriter.class);
+
+    private static final String CRLF = "\r\n";
+    private static final String HEADER;
+    private static final String FOOTER = "END:VCALENDAR" + CRLF;
+
+    static {
+        PropertyList props = new PropertyList();
+        props.add(new ProdId(CosmoConstants.PRODUCT_ID));
+        props.add(Version.VERSION_2_0);
+        props.add(CalScale.GREGORIAN);
+        HEADER = "BEGIN:VCALENDAR" + CRLF + props.toString();
+    }
+
+    private EntityConverter entityConverter;
+    private ICalendarClientFilterManager clientFilterManager;
+    private ICalendarFragmentCache fragmentCache;
+
+    /**
+     * @param entityConverter converts each child to a calendar
+     * @param clientFilterManager filters each child's calendar for the
+     *                            current client, or null
+     * @param fragmentCache caches each child's serialized components,
+     *                      or null
+     */
+    public ICalendarCollectionWriter(EntityConverter entityConverter,
+                                     ICalendarClientFilterManager clientFilterManager,
+                                     ICalendarFragmentCache fragmentCache) {
+        this.entityConverter = entityConverter;
+        this.clientFilterManager = clientFilterManager;
+        this.fragmentCache = fragmentCache;
+    }
+
+    /**
+     * Finds the timezones used by the given children, which have to
+     * be written before their components.  This is the first of two
+     * passes over the children: each child is converted (or found in
+     * the fragment cache) and its fragment is cached, but only its
+     * timezones are kept, so that the second pass
+     * ({@link #write(Map, Iterator, OutputStream)}) can stream the
+     * components.  If different children have different definitions
+     * for a tzid, the first one wins.
+     *
+     * @param children the children of a calendar collection
+     * @return the serialized timezones, keyed by tzid
+     */
+    public Map<String, String> findTimezones(Iterator<? extends ContentItem> children) {
+        Map<String, String> timezones = new LinkedHashMap<String, String>();
+        while (children.hasNext()) {
+            ICalendarFragmentCache.Fragment fragment =
+                getFragment(children.next());
+            if (fragment == null)
+                continue;
+
+            for (Map.Entry<String, String> entry :
+                     fragment.getTimezones().entrySet()) {
+                if (! timezones.containsKey(entry.getKey()))
+                    timezones.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return timezones;
+    }
+
+    /**
+     * Writes an iCalendar stream containing the given timezones
+     * (see {@link #findTimezones(Iterator)}) followed by the calendar
+     * components of the given children.  Children that can't be
+     * converted (for example modifications, which are written with
+     * their master) are ignored.
+     * <p>
+     * Each child's components are written as soon as the child is
+     * read, so only the timezones are held in memory.  The fragments
+     * of the children are usually found in the fragment cache, where
+     * the first pass put them; without a fragment cache, or if a
+     * fragment was evicted in the meantime, the child is converted
+     * again.  A timezone that wasn't found by the first pass (because
+     * a child changed between the passes) is written once, before
+     * the first component that uses it.
+     *
+     * @param timezones the timezones used by the children
+     * @param children the children of a calendar collection
+     * @param out stream to write to
+     * @throws IOException
+     */
+    public void write(Map<String, String> timezones,
+                      Iterator<? extends ContentItem> children,
+                      OutputStream out)
+        throws IOException {
+        FoldingWriter writer =
+            new FoldingWriter(new OutputStreamWriter(out, "UTF-8"),
+                              FoldingWriter.REDUCED_FOLD_LENGTH);
+        writer.write(HEADER);
+        for (String timezone : timezones.values())
+            writer.write(timezone);
+
+        Set<String> written = new HashSet<String>(timezones.keySet());
+        while (children.hasNext()) {
+            ICalendarFragmentCache.Fragment fragment =
+                getFragment(children.next());
+            if (fragment == null)
+                continue;
+
+            for (Map.Entry<String, String> entry :
+                     fragment.getTimezones().entrySet()) {
+                if (written.add(entry.getKey()))
+                    writer.write(entry.getValue());
+            }
+            writer.write(fragment.getComponents());
+        }
+
+        writer.write(FOOTER);
+        writer.flush();
+    }
+
+    private ICalendarFragmentCache.Fragment getFragment(ContentItem item) {
+        String client = clientFilterManager != null ?
+            clientFilterManager.getClient() :
+            null;
+
+        ICalendarFragmentCache.Fragment fragment = null;
+        if (fragmentCache != null) {
+            fragment = fragmentCache.getFragment(item.getUid(),
+                                                 item.getEntityTag(), client);
+            if (fragment != null)
+                return fragment;
+        }
+
+        Calendar calendar = entityConverter.convertContent(item);
+        if (calendar == null)
+            return null;
+
+        // Filter if necessary so we play nicely with clients
+        // that don't adhere to spec
+        if (clientFilterManager != null)
+            clientFilterManager.filterCalendar(calendar);
+
+        Map<String, String> timezones = new LinkedHashMap<String, String>();
+        StringBuffer buffer = new StringBuffer();
+        for (Iterator<Component> i=calendar.getComponents().iterator();
+             i.hasNext();) {
+            Component comp = i.next();
+            if (Component.VTIMEZONE.equals(comp.getName())) {
+                Property tzId = comp.getProperties().getProperty(Property.TZID);
+                timezones.put(tzId.getValue(), comp.toString());
+            } else {
+                buffer.append(comp.toString());
+            }
+        }
+
+        fragment = new ICalendarFragmentCache.Fragment(timezones,
+                                                       buffer.toString());
+        if (fragmentCache != null)
+            fragmentCache.putFragment(item.getUid(), item.getEntityTag(),
+                                      client, fragment);
+        if (log.isDebugEnabled())
+            log.debug("serialized calendar for item " + item.getUid());
+        return fragment;
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.icalendar;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of serialized iCalendar content.
+ *
+ * Three kinds of entries are cached: the serialized components of a
+ * single item, keyed by the item's uid and entity tag, the complete
+ * serialized calendar of a single item, keyed the same way, and the
+ * complete serialized calendar of a collection, keyed by the
+ * collection's uid and entity tag.  Item components are used to
+ * build webcal collection calendars, while item calendars are
+ * returned as is by DAV GET and HEAD requests and used to compute
+ * content lengths.  Since an entity tag changes
+ * whenever its item changes, entries never need to be invalidated;
+ * entries for old versions are simply evicted once they are the
+ * least recently used.
+ *
+ * All entries are also keyed by the iCalendar client identifier
+ * (see {@link ICalendarClientFilterManager}), since the client filter
+ * may change the content.
+ *
+ * The number of cached item components is bounded, while item and
+ * collection calendars are each bounded by their total size in
+ * bytes.
+ */
+public class ICalendarFragmentCache implements ICalendarFragmentCacheMBean {
+
+    private int maxFragments = 10000;
+    private long maxCollectionBytes = 10 * 1024 * 1024;
+    private long maxCalendarBytes = 10 * 1024 * 1024;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long collectionHits = 0;
+    private long collectionMisses = 0;
+    private long collectionBytes = 0;
+    private long calendarHits = 0;
+    private long calendarMisses = 0;
+    private long calendarBytes = 0;
+
+    private LinkedHashMap<String, Fragment> fragments =
+        new LinkedHashMap<String, Fragment>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Fragment> eldest) {
+                return size() > maxFragments;
+            }
+        };
+
+    private LinkedHashMap<String, byte[]> collections =
+        new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+
+    private LinkedHashMap<String, byte[]> calendars =
+        new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+
+    /**
+     * @param uid item uid
+     * @param etag item entity tag
+     * @param client client identifier, or null
+     * @return cached fragment, or null if not cached
+     */
+    public synchronized Fragment getFragment(String uid, String etag,
+                                             String client) {
+        Fragment fragment = fragments.get(key(uid, etag, client));
+        if (fragment == null)
+            misses++;
+        else
+            hits++;
+        return fragment;
+    }
+
+    /**
+     * Cache the serialized components of an item.
+     * @param uid item uid
+     * @param etag item entity tag
+     * @param client client identifier, or null
+     * @param fragment serialized components
+     */
+    public synchronized void putFragment(String uid, String etag,
+                                         String client, Fragment fragment) {
+        fragments.put(key(uid, etag, client), fragment);
+    }
+
+    /**
+     * @param uid collection uid
+     * @param etag collection entity tag
+     * @param client client identifier, or null
+     * @return cached calendar bytes, or null if not cached
+     */
+    public synchronized byte[] getCollection(String uid, String etag,
+                                             String client) {
+        byte[] bytes = collections.get(key(uid, etag, client));
+        if (bytes == null)
+            collectionMisses++;
+        else
+            collectionHits++;
+        return bytes;
+    }
+
+    /**
+     * Cache the serialized calendar of a collection, evicting the
+     * least recently used collections until the total size fits in
+     * the maximum.  A calendar larger than the maximum is not
+     * cached.
+     * @param uid collection uid
+     * @param etag collection entity tag
+     * @param client client identifier, or null
+     * @param bytes serialized calendar
+     */
+    public synchronized void putCollection(String uid, String etag,
+                                           String client, byte[] bytes) {
+        if (bytes.length > maxCollectionBytes)
+            return;
+
+        collectionBytes = put(collections, key(uid, etag, client), bytes,
+                              collectionBytes, maxCollectionBytes);
+    }
+
+    /**
+     * @param uid item uid
+     * @param etag item entity tag
+     * @param client client identifier, or null
+     * @return cached calendar bytes, or null if not cached
+     */
+    public synchronized byte[] getCalendar(String uid, String etag,
+                                           String client) {
+        byte[] bytes = calendars.get(key(uid, etag, client));
+        if (bytes == null)
+            calendarMisses++;
+        else
+            calendarHits++;
+        return bytes;
+    }
+
+    /**
+     * Cache the serialized calendar of an item, evicting the least
+     * recently used item calendars until the total size fits in the
+     * maximum.  A calendar larger than the maximum is not cached.
+     * @param uid item uid
+     * @param etag item entity tag
+     * @param client client identifier, or null
+     * @param bytes serialized calendar
+     */
+    public synchronized void putCalendar(String uid, String etag,
+                                         String client, byte[] bytes) {
+        if (bytes.length > maxCalendarBytes)
+            return;
+
+        calendarBytes = put(calendars, key(uid, etag, client), bytes,
+                            calendarBytes, maxCalendarBytes);
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public synchronized void clear() {
+        fragments.clear();
+        collections.clear();
+        collectionBytes = 0;
+        calendars.clear();
+        calendarBytes = 0;
+    }
+
+    public synchronized int getSize() {
+        return fragments.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int getCollectionSize() {
+        return collections.size();
+    }
+
+    public synchronized long getCollectionBytes() {
+        return collectionBytes;
+    }
+
+    public synchronized long getCollectionHits() {
+        return collectionHits;
+    }
+
+    public synchronized long getCollectionMisses() {
+        return collectionMisses;
+    }
+
+    public synchronized int getCalendarSize() {
+        return calendars.size();
+    }
+
+    public synchronized long getCalendarBytes() {
+        return calendarBytes;
+    }
+
+    public synchronized long getCalendarHits() {
+        return calendarHits;
+    }
+
+    public synchronized long getCalendarMisses() {
+        return calendarMisses;
+    }
+
+    public int getMaxFragments() {
+        return maxFragments;
+    }
+
+    /**
+     * Set the maximum number of item fragments cached
+     * @param maxFragments
+     */
+    public void setMaxFragments(int maxFragments) {
+        this.maxFragments = maxFragments;
+    }
+
+    public long getMaxCollectionBytes() {
+        return maxCollectionBytes;
+    }
+
+    /**
+     * Set the maximum total size of the cached collection calendars,
+     * or 0 to cache no collection calendars
+     * @param maxCollectionBytes
+     */
+    public void setMaxCollectionBytes(long maxCollectionBytes) {
+        this.maxCollectionBytes = maxCollectionBytes;
+    }
+
+    public long getMaxCalendarBytes() {
+        return maxCalendarBytes;
+    }
+
+    /**
+     * Set the maximum total size of the cached item calendars, or 0
+     * to cache no item calendars
+     * @param maxCalendarBytes
+     */
+    public void setMaxCalendarBytes(long maxCalendarBytes) {
+        this.maxCalendarBytes = maxCalendarBytes;
+    }
+
+    /**
+     * Puts bytes into a byte-bounded map and evicts the least
+     * recently used entries until the total fits in the maximum.
+     * Returns the new total.
+     */
+    private long put(LinkedHashMap<String, byte[]> entries, String key,
+                     byte[] bytes, long total, long max) {
+        byte[] old = entries.put(key, bytes);
+        if (old != null)
+            total -= old.length;
+        total += bytes.length;
+
+        for (Iterator<byte[]> it = entries.values().iterator();
+             total > max && it.hasNext();) {
+            total -= it.next().length;
+            it.remove();
+        }
+        return total;
+    }
+
+    private String key(String uid, String etag, String client) {
+        return uid + ":" + etag + ":" + (client != null ? client : "");
+    }
+
+    /**
+     * Serialized components of an item.  The timezones are kept
+     * apart from the other components so that a timezone shared by
+     * several items is written only once per calendar.
+     */
+    public static class Fragment {
+        private Map<String, String> timezones;
+        private String components;
+
+        /**
+         * @param timezones serialized VTIMEZONE components, indexed
+         *                  by TZID
+         * @param components all other components, serialized
+         */
+        public Fragment(Map<String, String> timezones, String components) {
+            this.timezones = timezones;
+            this.components = components;
+        }
+
+        public Map<String, String> getTimezones() {
+            return timezones;
+        }
+
+        public String getComponents() {
+            return components;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.icalendar;
+
+/**
+ * Management interface for {@link ICalendarFragmentCache}.
+ */
+public interface ICalendarFragmentCacheMBean {
+
+    /**
+     * @return number of item fragments found in the cache
+     */
+    public long getHits();
+
+    /**
+     * @return number of item fragments not found in the cache
+     */
+    public long getMisses();
+
+    /**
+     * @return number of item fragments currently cached
+     */
+    public int getSize();
+
+    /**
+     * @return number of collection calendars found in the cache
+     */
+    public long getCollectionHits();
+
+    /**
+     * @return number of collection calendars not found in the cache
+     */
+    public long getCollectionMisses();
+
+    /**
+     * @return number of collection calendars currently cached
+     */
+    public int getCollectionSize();
+
+    /**
+     * @return total size in bytes of the cached collection calendars
+     */
+    public long getCollectionBytes();
+
+    /**
+     * @return number of item calendars found in the cache
+     */
+    public long getCalendarHits();
+
+    /**
+     * @return number of item calendars not found in the cache
+     */
+    public long getCalendarMisses();
+
+    /**
+     * @return number of item calendars currently cached
+     */
+    public int getCalendarSize();
+
+    /**
+     * @return total size in bytes of the cached item calendars
+     */
+    public long getCalendarBytes();
+
+    /**
+     * @return maximum number of item fragments cached
+     */
+    public int getMaxFragments();
+
+    /**
+     * @return maximum total size in bytes of the cached collection
+     *         calendars
+     */
+    public long getMaxCollectionBytes();
+
+    /**
+     * @return maximum total size in bytes of the cached item calendars
+     */
+    public long getMaxCalendarBytes();
+
+    /**
+     * Remove all entries.
+     */
+    public void clear();
+}
@@ -122,6 +122,8 @@ public interface MorseCodeController {
      * is not found
      * @throws NotCollectionException if the specified item is not a
      * collection
+     * @throws SyncTokenException if the token is older than the
+     * tombstones that are kept
      * @throws MorseCodeException if an unknown error occurs
      */
     public SubRecords synchronizeCollection(String uid,
@@ -52,6 +52,9 @@ import org.osaf.cosmo.server.ServiceLocator;
 import org.osaf.cosmo.server.ServiceLocatorFactory;
 import org.osaf.cosmo.server.UserPath;
 import org.springframework.beans.BeansException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
 import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.context.support.WebApplicationContextUtils;
 
@@ -80,6 +83,8 @@ public class MorseCodeServlet extends HttpServlet implements EimmlConstants {
         "serviceLocatorFactory";
     private static final String BEAN_SECURITY_MANAGER =
         "securityManager";
+    private static final String BEAN_TRANSACTION_MANAGER =
+        "transactionManager";
 
     /**
      * The name of the request parameter that provides the
@@ -121,6 +126,7 @@ public class MorseCodeServlet extends HttpServlet implements EimmlConstants {
     private MorseCodeController controller;
     private ServiceLocatorFactory serviceLocatorFactory;
     private CosmoSecurityManager securityManager;
+    private PlatformTransactionManager transactionManager;
 
     // HttpServlet methods
 
@@ -235,11 +241,16 @@ public class MorseCodeServlet extends HttpServlet implements EimmlConstants {
                 tokenStr = req.getParameter(PARAM_SYNC_TOKEN);
             if (StringUtils.isBlank(tokenStr))
                 tokenStr = null;
+            
+            // records may be read from storage while they are written,
+            // so keep the transaction open until the response is done
+            TransactionStatus tx = beginReadOnlyTransaction();
+            SubRecords records = null;
             try {
                 SyncToken token = tokenStr != null ?
                     SyncToken.deserialize(tokenStr) :
                     null;
-                SubRecords records = token == null ?
+                records = token == null ?
                     controller.subscribeToCollection(cp.getUid()) :
                     controller.synchronizeCollection(cp.getUid(), token);
 
@@ -299,6 +310,10 @@ public class MorseCodeServlet extends HttpServlet implements EimmlConstants {
             } catch (RuntimeException e) {    
                 handleGeneralException(new MorseCodeException(e), resp);
                 return;
+            } finally {
+                if (records != null)
+                    records.close();
+                endReadOnlyTransaction(tx);
             }
         }
         resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -532,6 +547,11 @@ public class MorseCodeServlet extends HttpServlet implements EimmlConstants {
             if (securityManager == null)
                 securityManager = (CosmoSecurityManager)
                     getBean(BEAN_SECURITY_MANAGER, CosmoSecurityManager.class);
+            if (transactionManager == null &&
+                wac.containsBean(BEAN_TRANSACTION_MANAGER))
+                transactionManager = (PlatformTransactionManager)
+                    getBean(BEAN_TRANSACTION_MANAGER,
+                            PlatformTransactionManager.class);
         }
         
         if (controller == null)
@@ -578,8 +598,39 @@ public class MorseCodeServlet extends HttpServlet implements EimmlConstants {
         this.securityManager = securityManager;
     }
 
+    /**
+     */
+    public PlatformTransactionManager getTransactionManager() {
+        return transactionManager;
+    }
+
+    /**
+     */
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
     // private methods
 
+    private TransactionStatus beginReadOnlyTransaction() {
+        if (transactionManager == null)
+            return null;
+        DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+        def.setReadOnly(true);
+        return transactionManager.getTransaction(def);
+    }
+
+    private void endReadOnlyTransaction(TransactionStatus tx) {
+        if (tx == null || tx.isCompleted())
+            return;
+        // nothing is written while subscribing or synchronizing
+        try {
+            transactionManager.rollback(tx);
+        } catch (RuntimeException e) {
+            log.warn("Error ending read-only transaction", e);
+        }
+    }
+
     private Object getBean(String name,
                            Class clazz)
         throws ServletException {
@@ -20,6 +20,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -35,6 +36,7 @@ import org.osaf.cosmo.model.CalendarCollectionStamp;
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.CollectionLockedException;
 import org.osaf.cosmo.model.ContentItem;
+import org.osaf.cosmo.model.ContentItemIterator;
 import org.osaf.cosmo.model.EntityFactory;
 import org.osaf.cosmo.model.HomeCollectionItem;
 import org.osaf.cosmo.model.IcalUidInUseException;
@@ -46,7 +48,6 @@ import org.osaf.cosmo.model.NoteItem;
 import org.osaf.cosmo.model.NoteOccurrence;
 import org.osaf.cosmo.model.Ticket;
 import org.osaf.cosmo.model.TicketType;
-import org.osaf.cosmo.model.Tombstone;
 import org.osaf.cosmo.model.UidInUseException;
 import org.osaf.cosmo.model.User;
 import org.osaf.cosmo.security.CosmoSecurityException;
@@ -70,6 +71,8 @@ public class StandardMorseCodeController implements MorseCodeController {
     private UserService userService;
     private CosmoSecurityManager securityManager;
     private EntityFactory entityFactory;
+    private int syncChunkSize = 0;
+    private int tombstoneMaxAgeDays = 0;
     private static final HashSet<String> EMPTY_TICKETS = new HashSet<String>(0);
 
     /**
@@ -255,6 +258,13 @@ public class StandardMorseCodeController implements MorseCodeController {
             throw new NotCollectionException(item);
         CollectionItem collection = (CollectionItem) item;
 
+        // stream items and let the next sync catch up with changes
+        // made while streaming
+        if (syncChunkSize > 0)
+            return new SubRecords(collection,
+                    iterateShareableItems(collection, null),
+                    new ArrayList<ItemTombstone>(0), null);
+
         SubRecords subRecords = new SubRecords(collection, getAllItems(collection));
         
         // Ensure collection has not been modified since reading the data
@@ -288,6 +298,8 @@ public class StandardMorseCodeController implements MorseCodeController {
      * is not found
      * @throws NotCollectionException if the specified item is not a
      * collection
+     * @throws SyncTokenException if the token is older than the
+     * tombstones that are kept
      * @throws MorseCodeException if an unknown error occurs
      */
     public SubRecords synchronizeCollection(String uid,
@@ -308,6 +320,17 @@ public class StandardMorseCodeController implements MorseCodeController {
         if (token.isValid(collection))
             return new SubRecords(collection, new ArrayList<ContentItem>(0));
         
+        // tombstones of removals since the token may have been
+        // compacted away, so the client has to subscribe again
+        if (isTokenExpired(token))
+            throw new SyncTokenException(token.serialize());
+        
+        if (syncChunkSize > 0)
+            return new SubRecords(collection,
+                    iterateShareableItems(collection,
+                            new Date(token.getTimestamp())),
+                    getRecentTombstones(token, collection), token);
+        
         SubRecords subRecords = new SubRecords(collection, getModifiedItems(token, collection),
                 getRecentTombstones(token, collection), token);
        
@@ -457,6 +480,43 @@ public class StandardMorseCodeController implements MorseCodeController {
         this.entityFactory = entityFactory;
     }
 
+    /**
+     * @return number of days tombstones are kept, or 0 if they are
+     *         kept forever
+     */
+    public int getTombstoneMaxAgeDays() {
+        return tombstoneMaxAgeDays;
+    }
+
+    /**
+     * Sets the number of days tombstones are kept.  Synchronizing
+     * with a token older than that fails with a
+     * <code>SyncTokenException</code>, since the removal of an item
+     * may no longer be known.
+     */
+    public void setTombstoneMaxAgeDays(int tombstoneMaxAgeDays) {
+        this.tombstoneMaxAgeDays = tombstoneMaxAgeDays;
+    }
+
+    /**
+     * @return number of items loaded at a time when subscribing to
+     *         or synchronizing a collection, or 0 if all items are
+     *         loaded at once
+     */
+    public int getSyncChunkSize() {
+        return syncChunkSize;
+    }
+
+    /**
+     * Sets the number of items loaded at a time when subscribing to
+     * or synchronizing a collection.  When positive, the returned
+     * <code>SubRecords</code> read items as they are translated and
+     * must be closed within the transaction they were created in.
+     */
+    public void setSyncChunkSize(int syncChunkSize) {
+        this.syncChunkSize = syncChunkSize;
+    }
+
     /** */
     public void init() {
         if (contentService == null)
@@ -623,19 +683,26 @@ public class StandardMorseCodeController implements MorseCodeController {
         return itemList;
     }
     
+    private ContentItemIterator iterateShareableItems(CollectionItem collection,
+                                                      Date timestamp) {
+        return new ShareableItemIterator(contentService.iterateChildren(
+                collection, timestamp, syncChunkSize));
+    }
+    
     private List<ItemTombstone> getRecentTombstones(SyncToken prevToken,
             CollectionItem collection) {
-        ArrayList<ItemTombstone> tombstones = new ArrayList<ItemTombstone>();
         if (prevToken.isValid(collection))
-            return tombstones;
-
-        for (Tombstone tombstone : collection.getTombstones()) {
-            if (tombstone instanceof ItemTombstone)
-                if (prevToken.isTombstoneRecent(tombstone))
-                    tombstones.add((ItemTombstone) tombstone);
-        }
+            return new ArrayList<ItemTombstone>(0);
 
-        return tombstones;
+        return contentService.findItemTombstones(collection,
+                new Date(prevToken.getTimestamp()));
+    }
+    
+    private boolean isTokenExpired(SyncToken token) {
+        if (tombstoneMaxAgeDays <= 0)
+            return false;
+        long maxAge = tombstoneMaxAgeDays * 24 * 60 * 60 * 1000L;
+        return token.getTimestamp() < System.currentTimeMillis() - maxAge;
     }
     
     private boolean isShareableItem(Item item) {
@@ -643,4 +710,41 @@ public class StandardMorseCodeController implements MorseCodeController {
         // with non-Note items
         return item instanceof NoteItem;
     }
+    
+    /**
+     * Filters the items that are not shareable from an iterator.
+     */
+    private class ShareableItemIterator implements ContentItemIterator {
+        private ContentItemIterator decorated;
+        private ContentItem next;
+
+        ShareableItemIterator(ContentItemIterator decorated) {
+            this.decorated = decorated;
+        }
+
+        public boolean hasNext() {
+            while (next == null && decorated.hasNext()) {
+                ContentItem item = decorated.next();
+                if (isShareableItem(item))
+                    next = item;
+            }
+            return next != null;
+        }
+
+        public ContentItem next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            ContentItem item = next;
+            next = null;
+            return item;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() {
+            decorated.close();
+        }
+    }
 }
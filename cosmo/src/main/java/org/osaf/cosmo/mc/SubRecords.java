@@ -24,6 +24,7 @@ import org.osaf.cosmo.eim.schema.ItemTranslationIterator;
 import org.osaf.cosmo.eim.schema.TombstoneTranslationIterator;
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.ContentItem;
+import org.osaf.cosmo.model.ContentItemIterator;
 import org.osaf.cosmo.model.ItemTombstone;
 
 /**
@@ -40,6 +41,7 @@ public class SubRecords {
     private TombstoneTranslationIterator tombstoneIterator;
     private CollectionItem collection;
     private SyncToken prevToken;
+    private ContentItemIterator source;
 
     /** */
     public SubRecords(CollectionItem collection, List<ContentItem> items) {
@@ -58,6 +60,26 @@ public class SubRecords {
         this.tombstoneIterator = createTombstoneIterator(tombstones);
     }
 
+    /**
+     * Creates records that translate items as they are read from the
+     * given iterator.  The token is generated before any item is
+     * read, so items that change while the records are being read
+     * are reported again by the next synchronization.  The records
+     * must be closed when they are no longer used.
+     */
+    public SubRecords(CollectionItem collection,
+                      ContentItemIterator items,
+                      List<ItemTombstone> tombstones,
+                      SyncToken prevToken) {
+        this.collection = collection;
+        this.prevToken = prevToken;
+        this.token = SyncToken.generate(collection);
+        this.source = items;
+        this.itemIterator = new ItemTranslationIterator(items,
+                prevToken != null ? prevToken.getTimestamp() : -1);
+        this.tombstoneIterator = createTombstoneIterator(tombstones);
+    }
+
     /** */
     public EimRecordSetIterator getItemRecordSets() {
         return itemIterator;
@@ -93,6 +115,15 @@ public class SubRecords {
         return ! collection.getIsActive();
     }
 
+    /**
+     * Releases the resources held by the item iterator, if the items
+     * are read as the records are.
+     */
+    public void close() {
+        if (source != null)
+            source.close();
+    }
+
     /** */
     protected ItemTranslationIterator createItemIterator(List<ContentItem> items) {
         if(prevToken!=null)
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.model;
+
+import java.util.Iterator;
+
+/**
+ * Iterator over content items that are loaded on demand, so that
+ * only some of the items are in memory at a time.  An item returned
+ * by <code>next()</code> may be detached from storage once the
+ * iterator moves past it, so it should be fully processed before
+ * the next item is requested.
+ * <p>
+ * The iterator holds storage resources until it is exhausted, and
+ * must be closed when it is no longer used.
+ */
+public interface ContentItemIterator extends Iterator<ContentItem> {
+
+    /**
+     * Release the resources held by the iterator.  Calling this
+     * method more than once has no effect.
+     */
+    public void close();
+}
@@ -27,6 +27,7 @@ public class ItemChangeRecord {
     private Date date;
     private String modifiedBy;
     private String itemUuid;
+    private String itemName;
     private String itemDisplayName;
     
     public ItemChangeRecord() {}
@@ -55,6 +56,12 @@ public class ItemChangeRecord {
     public void setItemUuid(String itemUuid) {
         this.itemUuid = itemUuid;
     }
+    public String getItemName() {
+        return itemName;
+    }
+    public void setItemName(String itemName) {
+        this.itemName = itemName;
+    }
     public String getItemDisplayName() {
         return itemDisplayName;
     }
@@ -16,11 +16,13 @@
 package org.osaf.cosmo.model.filter;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.QName;
+import org.osaf.cosmo.model.filter.FilterOrder.Order;
 
 /**
  * Represents a filter that matches a set of criteria to all items.
@@ -32,12 +34,24 @@ import org.osaf.cosmo.model.QName;
  * If there are multiple AttributeFilters or StampFilters, all filters
  * must match the item for the item to match the ItemFilter.
  */
-public class ItemFilter {
+public class ItemFilter implements Cloneable {
+    
+    public static final FilterOrder ORDER_BY_MODIFIED_DATE_ASC = new FilterOrder(
+            "modifiedDate", Order.ASC);
+    public static final FilterOrder ORDER_BY_MODIFIED_DATE_DESC = new FilterOrder(
+            "modifiedDate", Order.DESC);
+    public static final FilterOrder ORDER_BY_UID_ASC = new FilterOrder(
+            "uid", Order.ASC);
+    public static final FilterOrder ORDER_BY_UID_DESC = new FilterOrder(
+            "uid", Order.DESC);
    
     FilterCriteria displayName = null;
     CollectionItem parent = null;
     FilterCriteria uid = null;
     Integer maxResults = null;
+    Date keysetModifiedDate = null;
+    String keysetUid = null;
+    Order keysetOrder = null;
     
     ArrayList<AttributeFilter> attributeFilters = new ArrayList<AttributeFilter>();
     ArrayList<StampFilter> stampFilters = new ArrayList<StampFilter>();
@@ -177,4 +191,56 @@ public class ItemFilter {
         this.maxResults = maxResults;
     }
     
+    /**
+     * <p>
+     * Match only items that follow the given position when items are
+     * ordered by modifiedDate and then uid.  Used along with
+     * setMaxResults() and orders on modifiedDate and uid in the same
+     * direction to page through a large set of items without
+     * counting the items of previous pages.
+     * </p>
+     *
+     * @param modifiedDate modifiedDate of the item at the position
+     * @param uid uid of the item at the position
+     * @param order direction of the ordering
+     */
+    public void setKeyset(Date modifiedDate, String uid, Order order) {
+        this.keysetModifiedDate = modifiedDate;
+        this.keysetUid = uid;
+        this.keysetOrder = order;
+    }
+    
+    public Date getKeysetModifiedDate() {
+        return keysetModifiedDate;
+    }
+    
+    public String getKeysetUid() {
+        return keysetUid;
+    }
+    
+    public Order getKeysetOrder() {
+        return keysetOrder;
+    }
+    
+    /**
+     * Returns a copy of the filter whose parent, orders and other
+     * properties can be changed without changing this filter, for
+     * example to run the same query against several collections at
+     * the same time.  The criteria and the attribute and stamp filters
+     * are shared with this filter.
+     * @return copy of the filter
+     */
+    public ItemFilter copy() {
+        try {
+            ItemFilter copy = (ItemFilter) clone();
+            copy.attributeFilters = new ArrayList<AttributeFilter>(attributeFilters);
+            copy.stampFilters = new ArrayList<StampFilter>(stampFilters);
+            copy.filterProperties = new HashMap<String, String>(filterProperties);
+            copy.order = new ArrayList<FilterOrder>(order);
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
 }
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.model.hibernate;
+
+import java.text.SimpleDateFormat;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.component.VEvent;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osaf.cosmo.calendar.Instance;
+import org.osaf.cosmo.calendar.InstanceList;
+import org.osaf.cosmo.calendar.RecurrenceExpander;
+
+/**
+ * Maintains the event occurrence index, which stores each
+ * occurrence of a recurring event that falls within a rolling
+ * window around the current time (by default one year in the past
+ * and two years in the future).  The window is recorded on the
+ * event's {@link HibEventTimeRangeIndex} so that time-range queries
+ * that fall inside the window can be answered using the index alone,
+ * without expanding the recurrence rules.
+ * <p>
+ * Only the master event's own recurrence set (RRULE, RDATE, EXDATE,
+ * EXRULE) is indexed.  Modifications are separate items with their
+ * own time-range index.
+ */
+public class EventOccurrenceIndexer {
+
+    private static final Log log = LogFactory.getLog(EventOccurrenceIndexer.class);
+
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+
+    private boolean enabled = false;
+    private int pastDays = 365;
+    private int futureDays = 730;
+    private int maxOccurrences = 5000;
+
+    /**
+     * Update the occurrence index of an event.  The time-range index
+     * is updated with the window covered by the occurrence index.
+     * If the event is not recurring, indexing is disabled, or the
+     * event has too many occurrences within the window, any existing
+     * occurrences are removed and the window is left unset.  An event
+     * with too many occurrences is marked with the maximum number of
+     * occurrences it exceeded, so that it isn't selected for
+     * re-indexing over and over (see {@link #getMaxOccurrences()}).
+     * @param stamp event stamp
+     * @param index newly calculated time-range index for stamp
+     * @param previous previous time-range index for stamp, or null
+     */
+    public void indexOccurrences(HibEventStamp stamp,
+                                 HibEventTimeRangeIndex index,
+                                 HibEventTimeRangeIndex previous) {
+        Set<HibEventOccurrence> occurrences = null;
+        index.setOccurrenceLimit(null);
+        if (enabled && Boolean.TRUE.equals(index.getIsRecurring()))
+            occurrences = expandOccurrences(stamp, index);
+
+        // An event that was never indexed has no occurrences, so
+        // avoid loading the occurrence collection for the common case
+        // of an event that is not and was not indexed.
+        if (occurrences == null) {
+            index.setOccurrenceStart(null);
+            index.setOccurrenceEnd(null);
+            if (previous != null && previous.getOccurrenceStart() != null)
+                stamp.getOccurrences().clear();
+            return;
+        }
+
+        if (!stamp.getOccurrences().equals(occurrences)) {
+            stamp.getOccurrences().clear();
+            stamp.getOccurrences().addAll(occurrences);
+        }
+    }
+
+    /**
+     * @return the date of the first day of the occurrence window that
+     *         must be covered by the index of an event for the index
+     *         to be considered current
+     */
+    public String getRefreshThreshold() {
+        // refresh events once a month's worth of the future window
+        // has been used up
+        return formatDay(System.currentTimeMillis()
+                + (futureDays - 30) * DAY);
+    }
+
+    private Set<HibEventOccurrence> expandOccurrences(HibEventStamp stamp,
+                                                      HibEventTimeRangeIndex index) {
+        VEvent event = stamp.getEvent();
+        if (event == null)
+            return null;
+
+        long now = System.currentTimeMillis();
+        DateTime windowStart = new DateTime(now - pastDays * DAY);
+        windowStart.setUtc(true);
+        DateTime windowEnd = new DateTime(now + futureDays * DAY);
+        windowEnd.setUtc(true);
+
+        RecurrenceExpander expander = new RecurrenceExpander();
+        InstanceList instances = expander.getOcurrences(event, windowStart,
+                windowEnd, null);
+
+        if (instances.size() > maxOccurrences) {
+            if (log.isDebugEnabled())
+                log.debug("not indexing " + instances.size()
+                        + " occurrences of event " + stamp.getItem().getUid());
+            index.setOccurrenceLimit(new Integer(maxOccurrences));
+            return null;
+        }
+
+        HashSet<HibEventOccurrence> occurrences =
+            new HashSet<HibEventOccurrence>(instances.size());
+        for (Iterator<Instance> it = instances.values().iterator(); it.hasNext();) {
+            Instance instance = it.next();
+            occurrences.add(new HibEventOccurrence(
+                    EventStampInterceptor.fromDateToStringNoTimezone(instance.getStart()),
+                    EventStampInterceptor.fromDateToStringNoTimezone(instance.getEnd())));
+        }
+
+        // The advertised window is a day narrower on each side than
+        // the expanded range so that it is valid for floating events
+        // regardless of the timezone used to query them.
+        index.setOccurrenceStart(formatDay(windowStart.getTime() + DAY));
+        index.setOccurrenceEnd(formatDay(windowEnd.getTime() - DAY));
+
+        return occurrences;
+    }
+
+    private static String formatDay(long time) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+        format.setTimeZone(java.util.TimeZone.getTimeZone("UTC"));
+        return format.format(new java.util.Date(time));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enable or disable the occurrence index.  When disabled, events
+     * are removed from the index the next time they are updated.
+     * @param enabled
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getPastDays() {
+        return pastDays;
+    }
+
+    /**
+     * @param pastDays number of days before the current time
+     *                 covered by the index
+     */
+    public void setPastDays(int pastDays) {
+        this.pastDays = pastDays;
+    }
+
+    public int getFutureDays() {
+        return futureDays;
+    }
+
+    /**
+     * @param futureDays number of days after the current time
+     *                   covered by the index
+     */
+    public void setFutureDays(int futureDays) {
+        this.futureDays = futureDays;
+    }
+
+    public int getMaxOccurrences() {
+        return maxOccurrences;
+    }
+
+    /**
+     * @param maxOccurrences maximum number of occurrences indexed
+     *                       for a single event.  Events with more
+     *                       occurrences in the window are not indexed.
+     */
+    public void setMaxOccurrences(int maxOccurrences) {
+        this.maxOccurrences = maxOccurrences;
+    }
+}
@@ -20,6 +20,12 @@ import java.io.Serializable;
 import net.fortuna.ical4j.model.Date;
 import net.fortuna.ical4j.model.DateTime;
 import net.fortuna.ical4j.model.Dur;
+import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.PropertyList;
+import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.parameter.FbType;
+import net.fortuna.ical4j.model.property.Status;
+import net.fortuna.ical4j.model.property.Transp;
 
 import org.hibernate.EmptyInterceptor;
 import org.hibernate.type.Type;
@@ -28,10 +34,29 @@ import org.osaf.cosmo.calendar.util.Dates;
 import org.osaf.cosmo.model.EventStamp;
 
 /**
- * Hibernate Interceptor that updates BaseEventStamp timeRangeIndexes.
+ * Hibernate Interceptor that updates BaseEventStamp timeRangeIndexes
+ * (including the free-busy type used by indexed free-busy queries),
+ * and if an <code>EventOccurrenceIndexer</code> is configured, the
+ * occurrence index of recurring EventStamps.
  */
 public class EventStampInterceptor extends EmptyInterceptor {
 
+    private EventOccurrenceIndexer occurrenceIndexer = null;
+    
+    public EventOccurrenceIndexer getOccurrenceIndexer() {
+        return occurrenceIndexer;
+    }
+
+    /**
+     * Set the indexer used to maintain the occurrence index of
+     * recurring events.  The occurrence collection can be safely
+     * modified here because Hibernate processes an entity's
+     * collections after its interceptor callbacks.
+     * @param occurrenceIndexer
+     */
+    public void setOccurrenceIndexer(EventOccurrenceIndexer occurrenceIndexer) {
+        this.occurrenceIndexer = occurrenceIndexer;
+    }
  
     @Override
     public boolean onFlushDirty(Object object, Serializable id, Object[] currentState, Object[] previousState, String[] propertyNames, Type[] types) {
@@ -45,6 +70,8 @@ public class EventStampInterceptor extends EmptyInterceptor {
         if(index==null)
             return false;
         
+        updateOccurrenceIndex(es, index);
+        
         // update modifiedDate and entityTag
         for ( int i=0; i < propertyNames.length; i++ ) {
             if ( "timeRangeIndex".equals( propertyNames[i] ) ) {
@@ -69,6 +96,8 @@ public class EventStampInterceptor extends EmptyInterceptor {
         if(index==null)
             return false;
         
+        updateOccurrenceIndex(es, index);
+        
         // update modifiedDate and entityTag
         for ( int i=0; i < propertyNames.length; i++ ) {
             if ( "timeRangeIndex".equals( propertyNames[i] ) ) {
@@ -80,6 +109,13 @@ public class EventStampInterceptor extends EmptyInterceptor {
         return false;
     }
     
+    private void updateOccurrenceIndex(HibBaseEventStamp eventStamp,
+                                       HibEventTimeRangeIndex index) {
+        if(occurrenceIndexer!=null && eventStamp instanceof HibEventStamp)
+            occurrenceIndexer.indexOccurrences((HibEventStamp) eventStamp,
+                    index, eventStamp.getTimeRangeIndex());
+    }
+    
     /**
      * Update the TimeRangeIndex property of the BaseEventStamp.
      * For recurring events, this means calculating the first start date
@@ -153,11 +189,32 @@ public class EventStampInterceptor extends EmptyInterceptor {
         
         timeRangeIndex.setIsFloating(isFloating);
         timeRangeIndex.setIsRecurring(isRecurring);
+        timeRangeIndex.setBusyType(getBusyType(eventStamp));
         
         return timeRangeIndex;
     }
     
-    private String fromDateToStringNoTimezone(Date date) {
+    /**
+     * Determine the free-busy type of the time occupied by an event.
+     * Transparent and cancelled events don't block time.
+     */
+    protected String getBusyType(HibBaseEventStamp eventStamp) {
+        VEvent event = eventStamp.getEvent();
+        if(event==null)
+            return null;
+        
+        PropertyList props = event.getProperties();
+        if(Transp.TRANSPARENT.equals(props.getProperty(Property.TRANSP)))
+            return FbType.FREE.getValue();
+        if(Status.VEVENT_CANCELLED.equals(props.getProperty(Property.STATUS)))
+            return FbType.FREE.getValue();
+        if(Status.VEVENT_TENTATIVE.equals(props.getProperty(Property.STATUS)))
+            return FbType.BUSY_TENTATIVE.getValue();
+        
+        return FbType.BUSY.getValue();
+    }
+    
+    static String fromDateToStringNoTimezone(Date date) {
         if(date==null)
             return null;
         
@@ -62,6 +62,7 @@ import net.fortuna.ical4j.model.property.Trigger;
 import org.hibernate.annotations.Type;
 import org.hibernate.validator.NotNull;
 import org.osaf.cosmo.calendar.ICalendarUtils;
+import org.osaf.cosmo.hibernate.LazyCalendar;
 import org.osaf.cosmo.icalendar.ICalendarConstants;
 import org.osaf.cosmo.model.BaseEventStamp;
 import org.osaf.cosmo.model.Item;
@@ -86,9 +87,9 @@ public abstract class HibBaseEventStamp extends HibStamp
     protected static final String VALUE_MISSING = "MISSING";
     
     @Column(table="event_stamp", name = "icaldata", length=102400000, nullable = false)
-    @Type(type="calendar_clob")
+    @Type(type="lazy_calendar_clob")
     @NotNull
-    private Calendar eventCalendar = null;
+    private LazyCalendar eventCalendar = null;
     
     @Embedded
     private HibEventTimeRangeIndex timeRangeIndex = null;
@@ -103,14 +104,19 @@ public abstract class HibBaseEventStamp extends HibStamp
      * @see org.osaf.cosmo.model.BaseEventStamp#getEventCalendar()
      */
     public Calendar getEventCalendar() {
-        return eventCalendar;
+        return eventCalendar != null ? eventCalendar.getCalendar() : null;
     }
     
     /* (non-Javadoc)
      * @see org.osaf.cosmo.model.BaseEventStamp#setEventCalendar(net.fortuna.ical4j.model.Calendar)
      */
     public void setEventCalendar(Calendar calendar) {
-        this.eventCalendar = calendar;
+        if (calendar == null)
+            this.eventCalendar = null;
+        else if (eventCalendar == null)
+            this.eventCalendar = new LazyCalendar(calendar);
+        else
+            this.eventCalendar.setCalendar(calendar);
     }
     
     public HibEventTimeRangeIndex getTimeRangeIndex() {
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.model.hibernate;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Hibernate persistent lease on a collection lock, shared by all
+ * nodes of a cluster.
+ * <p>
+ * The lease is held by <code>owner</code> until <code>expires</code>
+ * (in milliseconds since the epoch).  <code>token</code> is
+ * incremented every time the lease is acquired.  Rows are never
+ * deleted, so tokens increase monotonically per collection.
+ */
+@Entity
+@Table(name="collection_lock")
+public class HibCollectionLock implements Serializable {
+
+    private static final long serialVersionUID = 2925127451930815238L;
+
+    @Id
+    @Column(name = "collectionuid", length=255)
+    private String collectionUid;
+
+    @Column(name = "owner", length=255)
+    private String owner;
+
+    @Column(name = "token", nullable = false)
+    private long token;
+
+    @Column(name = "expires", nullable = false)
+    private long expires;
+
+    /** default constructor */
+    public HibCollectionLock() {
+    }
+
+    public HibCollectionLock(String collectionUid, String owner, long token,
+                             long expires) {
+        this.collectionUid = collectionUid;
+        this.owner = owner;
+        this.token = token;
+        this.expires = expires;
+    }
+
+    public String getCollectionUid() {
+        return collectionUid;
+    }
+
+    public void setCollectionUid(String collectionUid) {
+        this.collectionUid = collectionUid;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public long getToken() {
+        return token;
+    }
+
+    public void setToken(long token) {
+        this.token = token;
+    }
+
+    public long getExpires() {
+        return expires;
+    }
+
+    public void setExpires(long expires) {
+        this.expires = expires;
+    }
+}
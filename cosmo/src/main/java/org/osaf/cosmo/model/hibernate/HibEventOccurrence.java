@@ -0,0 +1,82 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.model.hibernate;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+
+import org.hibernate.annotations.Index;
+
+/**
+ * A single occurrence of a recurring event, as stored in the
+ * event occurrence index.  Dates use the same format as
+ * {@link HibEventTimeRangeIndex}: floating dates have no
+ * timezone and all other dates are converted to UTC.
+ */
+@Embeddable
+public class HibEventOccurrence {
+
+    @Column(name = "startdate", length=16, nullable = false)
+    @Index(name="idx_occurstartdt")
+    private String startDate = null;
+
+    @Column(name = "enddate", length=16, nullable = false)
+    @Index(name="idx_occurenddt")
+    private String endDate = null;
+
+    public HibEventOccurrence() {
+    }
+
+    public HibEventOccurrence(String startDate, String endDate) {
+        this.startDate = startDate;
+        this.endDate = endDate;
+    }
+
+    public String getStartDate() {
+        return startDate;
+    }
+
+    public void setStartDate(String startDate) {
+        this.startDate = startDate;
+    }
+
+    public String getEndDate() {
+        return endDate;
+    }
+
+    public void setEndDate(String endDate) {
+        this.endDate = endDate;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof HibEventOccurrence))
+            return false;
+        HibEventOccurrence other = (HibEventOccurrence) obj;
+        return equals(startDate, other.startDate)
+                && equals(endDate, other.endDate);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = startDate == null ? 0 : startDate.hashCode();
+        return 31 * hash + (endDate == null ? 0 : endDate.hashCode());
+    }
+
+    private static boolean equals(String s1, String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
+    }
+}
@@ -16,10 +16,14 @@
 package org.osaf.cosmo.model.hibernate;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.persistence.DiscriminatorValue;
 import javax.persistence.Entity;
+import javax.persistence.JoinColumn;
+import javax.persistence.JoinTable;
 
 import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.Component;
@@ -28,6 +32,7 @@ import net.fortuna.ical4j.model.component.VEvent;
 
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.CollectionOfElements;
 import org.osaf.cosmo.hibernate.validator.Event;
 import org.osaf.cosmo.model.EventExceptionStamp;
 import org.osaf.cosmo.model.EventStamp;
@@ -50,6 +55,13 @@ public class HibEventStamp extends HibBaseEventStamp implements
      */
     private static final long serialVersionUID = 3992468809776886156L;
     
+    @CollectionOfElements
+    @JoinTable(
+            name="event_occurrence",
+            joinColumns = @JoinColumn(name="stampid")
+    )
+    private Set<HibEventOccurrence> occurrences = new HashSet<HibEventOccurrence>(0);
+    
     
     /** default constructor */
     public HibEventStamp() {
@@ -69,6 +81,20 @@ public class HibEventStamp extends HibBaseEventStamp implements
         return getMasterEvent();
     }
 
+    /**
+     * The occurrences of a recurring event that fall within the
+     * window of the event occurrence index.  Maintained by
+     * {@link EventStampInterceptor} when occurrence indexing is enabled.
+     * @return indexed occurrences
+     */
+    public Set<HibEventOccurrence> getOccurrences() {
+        return occurrences;
+    }
+
+    public void setOccurrences(Set<HibEventOccurrence> occurrences) {
+        this.occurrences = occurrences;
+    }
+
     /** Used by the hibernate validator **/
     @Event
     private Calendar getValidationCalendar() {
@@ -29,6 +29,18 @@ public class HibEventTimeRangeIndex {
     @Index(name="idx_recurring")
     private Boolean isRecurring = null;
     
+    @Column(table="event_stamp", name = "occurstart", length=16)
+    private String occurrenceStart = null;
+    
+    @Column(table="event_stamp", name = "occurend", length=16)
+    private String occurrenceEnd = null;
+    
+    @Column(table="event_stamp", name = "occurlimit")
+    private Integer occurrenceLimit = null;
+
+    @Column(table="event_stamp", name = "fbtype", length=16)
+    private String busyType = null;
+
     /**
      * The end date of the event.  If the event is recurring, the
      * value is the earliest start date for the recurring series.
@@ -109,4 +121,67 @@ public class HibEventTimeRangeIndex {
     public void setIsRecurring(Boolean isRecurring) {
         this.isRecurring = isRecurring;
     }
+    
+    /**
+     * The first day covered by the event occurrence index of a
+     * recurring event, in the form 20070101.  Every occurrence that
+     * overlaps the days between the occurrence start and the
+     * occurrence end (inclusive) is present in the index.  If the
+     * event has not been indexed, the value is null.
+     * @return first day covered by the occurrence index
+     */
+    public String getOccurrenceStart() {
+        return occurrenceStart;
+    }
+
+    public void setOccurrenceStart(String occurrenceStart) {
+        this.occurrenceStart = occurrenceStart;
+    }
+
+    /**
+     * The last day covered by the event occurrence index of a
+     * recurring event, in the form 20070101.  If the event has
+     * not been indexed, the value is null.
+     * @return last day covered by the occurrence index
+     */
+    public String getOccurrenceEnd() {
+        return occurrenceEnd;
+    }
+
+    public void setOccurrenceEnd(String occurrenceEnd) {
+        this.occurrenceEnd = occurrenceEnd;
+    }
+
+    /**
+     * The maximum number of occurrences that was exceeded when the
+     * occurrence index of a recurring event was last calculated.
+     * The event was not indexed, and doesn't need to be indexed
+     * again until the maximum is raised or the event is updated.
+     * If the event was indexed or not considered, the value is null.
+     * @return maximum number of occurrences exceeded by the event
+     */
+    public Integer getOccurrenceLimit() {
+        return occurrenceLimit;
+    }
+
+    public void setOccurrenceLimit(Integer occurrenceLimit) {
+        this.occurrenceLimit = occurrenceLimit;
+    }
+
+    /**
+     * The free-busy type of the time occupied by the event, as
+     * determined by its STATUS and TRANSP properties: one of
+     * <code>BUSY</code>, <code>BUSY-TENTATIVE</code> or
+     * <code>FREE</code> (for transparent and cancelled events).
+     * The value is null for events indexed before the free-busy
+     * type was recorded.
+     * @return free-busy type of the event
+     */
+    public String getBusyType() {
+        return busyType;
+    }
+
+    public void setBusyType(String busyType) {
+        this.busyType = busyType;
+    }
 }
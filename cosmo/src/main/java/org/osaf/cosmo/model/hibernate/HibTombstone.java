@@ -30,6 +30,7 @@ import javax.persistence.Table;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.hibernate.annotations.Index;
 import org.hibernate.annotations.Type;
 import org.osaf.cosmo.model.Item;
 import org.osaf.cosmo.model.Tombstone;
@@ -40,6 +41,12 @@ import org.osaf.cosmo.model.Tombstone;
 @Entity
 @Inheritance(strategy=InheritanceType.SINGLE_TABLE)
 @Table(name="tombstones")
+// Sync queries the tombstones of a collection newer than a timestamp,
+// compaction removes all tombstones older than a timestamp
+@org.hibernate.annotations.Table(
+        appliesTo="tombstones",
+        indexes={@Index(name="idx_tombstoneitemdt", columnNames={"itemid", "removedate"}),
+                 @Index(name="idx_tombstonedt", columnNames={"removedate"})})
 @DiscriminatorColumn(
         name="tombstonetype",
         discriminatorType=DiscriminatorType.STRING,
@@ -34,6 +34,11 @@
             typeClass = org.osaf.cosmo.hibernate.CalendarClobType.class
     ),
 
+    @TypeDef(
+            name="lazy_calendar_clob",
+            typeClass = org.osaf.cosmo.hibernate.LazyCalendarClobType.class
+    ),
+
     @TypeDef(
             name="xml_clob",
             typeClass = org.osaf.cosmo.hibernate.XmlClobType.class
@@ -71,10 +76,18 @@
     @NamedQuery(name="collectionItem.by.uid", query="from HibCollectionItem i where i.uid=:uid"),
     @NamedQuery(name="contentItem.by.uid", query="from HibContentItem i where i.uid=:uid"),
     @NamedQuery(name="item.by.parent.name", query="select item from HibItem item join item.parentDetails pd where pd.primaryKey.collection=:parent and item.name=:name"),
+    @NamedQuery(name="item.by.parent.names", query="select item from HibItem item join item.parentDetails pd where pd.primaryKey.collection=:parent and item.name in (:names)"),
     @NamedQuery(name="item.by.ownerName.name.nullParent", query="select i from HibItem i, HibUser u where i.owner=u and u.username=:username and i.name=:name and size(i.parentDetails)=0"),
     @NamedQuery(name="item.by.ownerId.and.nullParent", query="select i from HibItem i where i.owner.id=:ownerid and size(i.parentDetails)=0"),
     @NamedQuery(name="contentItem.by.parent.timestamp", query="select item from HibContentItem item left join fetch item.stamps left join fetch item.attributes left join fetch item.tombstones join item.parentDetails pd where pd.primaryKey.collection=:parent and item.modifiedDate>:timestamp"),
     @NamedQuery(name="contentItem.by.parent", query="select item from HibContentItem item left join fetch item.stamps left join fetch item.attributes left join fetch item.tombstones join item.parentDetails pd where pd.primaryKey.collection=:parent"),
+    @NamedQuery(name="contentItemId.by.parent.timestamp", query="select item.id from HibContentItem item join item.parentDetails pd where pd.primaryKey.collection=:parent and item.modifiedDate>:timestamp"),
+    @NamedQuery(name="contentItemId.by.parent", query="select item.id from HibContentItem item join item.parentDetails pd where pd.primaryKey.collection=:parent"),
+    @NamedQuery(name="itemTombstones.by.item.timestamp", query="select ts from HibItemTombstone ts where ts.item=:item and ts.timestamp>:timestamp"),
+    @NamedQuery(name="contentItem.by.ids", query="select item from HibContentItem item where item.id in (:ids)"),
+    @NamedQuery(name="contentItem.stamps.by.ids", query="select item from HibContentItem item left join fetch item.stamps where item.id in (:ids)"),
+    @NamedQuery(name="contentItem.attributes.by.ids", query="select item from HibContentItem item left join fetch item.attributes where item.id in (:ids)"),
+    @NamedQuery(name="contentItem.tombstones.by.ids", query="select item from HibContentItem item left join fetch item.tombstones where item.id in (:ids)"),
     @NamedQuery(name="noteItemId.by.parent.icaluid", query="select item.id from HibNoteItem item join item.parentDetails pd where pd.primaryKey.collection.id=:parentid and item.icalUid=:icaluid and item.modifies is null"),
     @NamedQuery(name="icalendarItem.by.parent.icaluid", query="select item.id from HibICalendarItem item join item.parentDetails pd where pd.primaryKey.collection.id=:parentid and item.icalUid=:icaluid"),
     @NamedQuery(name="contentItem.by.owner", query="from HibContentItem i where i.owner=:owner"),
@@ -105,7 +118,14 @@
     
     // Event Queries
     @NamedQuery(name="event.by.calendar.icaluid", query="select i from HibNoteItem i join i.parentDetails pd join i.stamps stamp where pd.primaryKey.collection=:calendar and stamp.class=HibEventStamp and i.icalUid=:uid"),
-    
+
+    // Free-Busy Queries
+    @NamedQuery(name="busyPeriod.by.parents.timeRange", query="select pd.primaryKey.collection, es.timeRangeIndex.startDate, es.timeRangeIndex.endDate, es.timeRangeIndex.isFloating, es.timeRangeIndex.busyType from HibEventStamp es, HibNoteItem i join i.parentDetails pd where es.item=i and pd.primaryKey.collection in (:parents) and es.timeRangeIndex.isRecurring=false and es.timeRangeIndex.busyType in (:busyTypes) and es.timeRangeIndex.startDate<:end and es.timeRangeIndex.endDate>=:start"),
+    @NamedQuery(name="busyOccurrence.by.parents.timeRange", query="select pd.primaryKey.collection, o.startDate, o.endDate, es.timeRangeIndex.isFloating, es.timeRangeIndex.busyType from HibEventStamp es join es.occurrences o, HibNoteItem i join i.parentDetails pd where es.item=i and pd.primaryKey.collection in (:parents) and es.timeRangeIndex.isRecurring=true and i.hasModifications=false and es.timeRangeIndex.occurrenceStart<=:utcStart and es.timeRangeIndex.occurrenceEnd>=:utcEnd and es.timeRangeIndex.busyType in (:busyTypes) and o.startDate<:end and o.endDate>=:start"),
+    @NamedQuery(name="unindexedBusyEvent.by.parents.timeRange", query="select i, pd.primaryKey.collection from HibEventStamp es, HibNoteItem i join i.parentDetails pd where es.item=i and pd.primaryKey.collection in (:parents) and es.timeRangeIndex.startDate<:end and es.timeRangeIndex.endDate>=:start and (es.timeRangeIndex.busyType is null or (es.timeRangeIndex.isRecurring=true and (i.hasModifications=true or (es.timeRangeIndex.busyType in (:busyTypes) and (es.timeRangeIndex.occurrenceStart is null or es.timeRangeIndex.occurrenceStart>:utcStart or es.timeRangeIndex.occurrenceEnd<:utcEnd)))))"),
+    @NamedQuery(name="modifiedBusyEvent.by.parents.timeRange", query="select i.modifies, pd.primaryKey.collection from HibEventExceptionStamp es, HibNoteItem i join i.parentDetails pd where es.item=i and pd.primaryKey.collection in (:parents) and es.timeRangeIndex.startDate<:end and es.timeRangeIndex.endDate>=:start"),
+    @NamedQuery(name="freeBusyItem.by.parents", query="select i, pd.primaryKey.collection from HibFreeBusyItem i join i.parentDetails pd where pd.primaryKey.collection in (:parents)"),
+
     // Event Log Queries
     @NamedQuery(name="logEntry.by.collection.date", query="from HibEventLogEntry e where id1=:parentId and entryDate between :startDate and :endDate")
     
@@ -15,7 +15,9 @@
  */
 package org.osaf.cosmo.security.aop;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -39,7 +41,9 @@ import org.osaf.cosmo.security.CosmoSecurityContext;
 import org.osaf.cosmo.security.CosmoSecurityException;
 import org.osaf.cosmo.security.CosmoSecurityManager;
 import org.osaf.cosmo.security.Permission;
+import org.osaf.cosmo.security.util.AccessDecisionCache;
 import org.osaf.cosmo.security.util.SecurityHelper;
+import org.osaf.cosmo.security.util.TicketGrantIndex;
 import org.osaf.cosmo.service.triage.TriageStatusQueryContext;
 import org.springframework.core.Ordered;
 
@@ -58,6 +62,8 @@ public class SecurityAdvice extends OrderedAdvice {
     private ContentDao contentDao = null;
     private UserDao userDao = null;
     private SecurityHelper securityHelper = null;
+    private AccessDecisionCache accessDecisionCache = null;
+    private TicketGrantIndex ticketGrantIndex = null;
     
     // keep track of whether the current method call has been secured or not
     private static ThreadLocal<Boolean> secured = new ThreadLocal<Boolean>();
@@ -71,6 +77,8 @@ public class SecurityAdvice extends OrderedAdvice {
         if(userDao==null)
             throw new IllegalStateException("userDao must not be null");
         securityHelper = new SecurityHelper(contentDao, userDao);
+        securityHelper.setAccessDecisionCache(accessDecisionCache);
+        securityHelper.setTicketGrantIndex(ticketGrantIndex);
     }
     
     public static void setSecured(boolean isSecured) {
@@ -245,6 +253,70 @@ public class SecurityAdvice extends OrderedAdvice {
         return pjp.proceed();
     }
     
+    @Around("execution(* org.osaf.cosmo.service.ContentService.iterateChildren(..)) &&"
+            + "args(collection, date, chunkSize)")
+    public Object checkIterateChildren(ProceedingJoinPoint pjp,
+            CollectionItem collection, Date date, int chunkSize) throws Throwable {
+        if(log.isDebugEnabled())
+            log.debug("in checkIterateChildren(collection, date, chunkSize)");
+        if (!enabled)
+            return pjp.proceed();
+        
+        if (!securityHelper.hasReadAccess(securityManager.getSecurityContext(),collection))
+            throwItemSecurityException(collection, Permission.READ); 
+        
+        secured.set(Boolean.TRUE);
+        return pjp.proceed();
+    }
+    
+    @Around("execution(* org.osaf.cosmo.service.ContentService.findChildrenByNames(..)) &&"
+            + "args(collection, names)")
+    public Object checkFindChildrenByNames(ProceedingJoinPoint pjp,
+            CollectionItem collection, Set<String> names) throws Throwable {
+        if(log.isDebugEnabled())
+            log.debug("in checkFindChildrenByNames(collection, names)");
+        if (!enabled)
+            return pjp.proceed();
+        
+        if (!securityHelper.hasReadAccess(securityManager.getSecurityContext(),collection))
+            throwItemSecurityException(collection, Permission.READ); 
+        
+        secured.set(Boolean.TRUE);
+        return pjp.proceed();
+    }
+    
+    @Around("execution(* org.osaf.cosmo.service.ContentService.findChangesForCollection(..)) &&"
+            + "args(collection, start, end)")
+    public Object checkFindChangesForCollection(ProceedingJoinPoint pjp,
+            CollectionItem collection, Date start, Date end) throws Throwable {
+        if(log.isDebugEnabled())
+            log.debug("in checkFindChangesForCollection(collection, start, end)");
+        if (!enabled)
+            return pjp.proceed();
+        
+        if (!securityHelper.hasReadAccess(securityManager.getSecurityContext(),collection))
+            throwItemSecurityException(collection, Permission.READ); 
+        
+        secured.set(Boolean.TRUE);
+        return pjp.proceed();
+    }
+    
+    @Around("execution(* org.osaf.cosmo.service.ContentService.findItemTombstones(..)) &&"
+            + "args(collection, date)")
+    public Object checkFindItemTombstones(ProceedingJoinPoint pjp,
+            CollectionItem collection, Date date) throws Throwable {
+        if(log.isDebugEnabled())
+            log.debug("in checkFindItemTombstones(collection, date)");
+        if (!enabled)
+            return pjp.proceed();
+        
+        if (!securityHelper.hasReadAccess(securityManager.getSecurityContext(),collection))
+            throwItemSecurityException(collection, Permission.READ); 
+        
+        secured.set(Boolean.TRUE);
+        return pjp.proceed();
+    }
+    
     @Around("execution(* org.osaf.cosmo.service.ContentService.createCollection(..)) &&"
             + "args(parent, collection)")
     public Object checkCreateCollection(ProceedingJoinPoint pjp,
@@ -273,13 +345,7 @@ public class SecurityAdvice extends OrderedAdvice {
         if (!securityHelper.hasWriteAccess(securityManager.getSecurityContext(),parent))
             throwItemSecurityException(parent, Permission.WRITE); 
         
-        for(Item child: children) {
-            // existing items
-            if(child.getCreationDate()!=null) {
-                if (!securityHelper.hasWriteAccess(securityManager.getSecurityContext(),child))
-                    throwItemSecurityException(child, Permission.WRITE); 
-            }
-        }
+        checkExistingChildren(children);
         
         secured.set(Boolean.TRUE);
         return pjp.proceed();
@@ -297,13 +363,7 @@ public class SecurityAdvice extends OrderedAdvice {
         if (!securityHelper.hasWriteAccess(securityManager.getSecurityContext(),collection))
             throwItemSecurityException(collection, Permission.WRITE); 
         
-        for(Item child: children) {
-            // existing items
-            if(child.getCreationDate()!=null) {
-                if (!securityHelper.hasWriteAccess(securityManager.getSecurityContext(),child))
-                    throwItemSecurityException(child, Permission.WRITE); 
-            }
-        }
+        checkExistingChildren(children);
         
         secured.set(Boolean.TRUE);
         return pjp.proceed();
@@ -625,6 +685,19 @@ public class SecurityAdvice extends OrderedAdvice {
         return false;
     }
     
+    private void checkExistingChildren(Set<Item> children) {
+        List<Item> existing = new ArrayList<Item>();
+        for(Item child: children)
+            if(child.getCreationDate()!=null)
+                existing.add(child);
+        
+        // check all the existing items at once
+        List<Item> denied = securityHelper.getWriteDeniedItems(
+                securityManager.getSecurityContext(), existing);
+        if(!denied.isEmpty())
+            throwItemSecurityException(denied.get(0), Permission.WRITE);
+    }
+    
     private void throwItemSecurityException(Item item, int permission) {
         throw new ItemSecurityException(item,
                 "principal does not have access to item "
@@ -635,4 +708,12 @@ public class SecurityAdvice extends OrderedAdvice {
         this.userDao = userDao;
     }
 
+    public void setAccessDecisionCache(AccessDecisionCache accessDecisionCache) {
+        this.accessDecisionCache = accessDecisionCache;
+    }
+
+    public void setTicketGrantIndex(TicketGrantIndex ticketGrantIndex) {
+        this.ticketGrantIndex = ticketGrantIndex;
+    }
+
 }
@@ -27,6 +27,7 @@ import org.osaf.cosmo.security.CosmoSecurityException;
 import org.osaf.cosmo.security.CosmoSecurityManager;
 import org.osaf.cosmo.security.Permission;
 import org.osaf.cosmo.security.PermissionDeniedException;
+import org.osaf.cosmo.security.util.TicketGrantIndex;
 
 import org.springframework.security.Authentication;
 import org.springframework.security.AuthenticationException;
@@ -49,6 +50,7 @@ public class CosmoSecurityManagerImpl implements CosmoSecurityManager {
         LogFactory.getLog(CosmoSecurityManagerImpl.class);
 
     private AuthenticationManager authenticationManager;
+    private TicketGrantIndex ticketGrantIndex;
     
     // store additional tickets for authenticated principal
     private ThreadLocal<Set<Ticket>> tickets = new ThreadLocal<Set<Ticket>>();
@@ -147,7 +149,10 @@ public class CosmoSecurityManagerImpl implements CosmoSecurityManager {
 
         Ticket ticket = ctx.getTicket();
         if (ticket != null) {
-            if (! ticket.isGranted(item)) {
+            boolean granted = ticketGrantIndex != null ?
+                ticketGrantIndex.isGranted(ticket, item) :
+                ticket.isGranted(item);
+            if (! granted) {
                 log.warn("Non-granted ticket " + ticket.getKey() + " attempted access to item " + item.getUid());
                 throw new PermissionDeniedException("Ticket " + ticket.getKey() + " is not granted on item " + item.getUid());
             }
@@ -189,6 +194,14 @@ public class CosmoSecurityManagerImpl implements CosmoSecurityManager {
         this.authenticationManager = authenticationManager;
     }
 
+    /**
+     * @param ticketGrantIndex index of the items covered by tickets,
+     *        or null to walk each item's ancestors
+     */
+    public void setTicketGrantIndex(TicketGrantIndex ticketGrantIndex) {
+        this.ticketGrantIndex = ticketGrantIndex;
+    }
+
     public void registerTickets(Set<Ticket> tickets) {
         Set<Ticket> currentTickets = this.tickets.get();
         if(currentTickets==null) {
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.security.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.osaf.cosmo.model.Ticket;
+
+/**
+ * Caches the information {@link SecurityHelper} uses to decide
+ * whether a principal has access to an item it doesn't own.
+ *
+ * The tickets referenced by each user's collection subscriptions
+ * are kept for a short time (by default 30 seconds) in a bounded
+ * LRU cache, so that they don't have to be looked up for every
+ * item checked.  Tickets are compared by value, so cached tickets
+ * can be used after the session they were loaded in is closed.
+ *
+ * Between {@link #beginRequest()} and {@link #endRequest()}, the
+ * decisions made for each item and the collections to which access
+ * was granted by a ticket are also remembered for the current
+ * thread.  Access granted to a collection by a ticket extends to
+ * the collection's children.
+ *
+ * Entries must be invalidated when a user's subscriptions or any
+ * tickets change (see {@link #invalidate(String)} and
+ * {@link #invalidateAll()}).
+ */
+public class AccessDecisionCache {
+
+    private int maxPrincipals = 1000;
+    private long timeToLive = 30000;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    private LinkedHashMap<String, Entry> principals =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxPrincipals;
+            }
+        };
+
+    private ThreadLocal<RequestDecisions> requestDecisions =
+        new ThreadLocal<RequestDecisions>();
+
+    /**
+     * @param username user
+     * @return the tickets referenced by the user's subscriptions,
+     *         or null if not cached
+     */
+    public synchronized List<Ticket> getSubscriptionTickets(String username) {
+        Entry entry = principals.get(username);
+        if (entry != null && entry.expires < System.currentTimeMillis()) {
+            principals.remove(username);
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return entry.tickets;
+    }
+
+    /**
+     * Cache the tickets referenced by a user's subscriptions.
+     * @param username user
+     * @param tickets subscription tickets that exist
+     */
+    public synchronized void putSubscriptionTickets(String username,
+                                                    List<Ticket> tickets) {
+        principals.put(username,
+                       new Entry(Collections.unmodifiableList(tickets),
+                                 System.currentTimeMillis() + timeToLive));
+    }
+
+    /**
+     * Start remembering access decisions for the current thread.
+     */
+    public void beginRequest() {
+        requestDecisions.set(new RequestDecisions());
+    }
+
+    /**
+     * Stop remembering access decisions for the current thread.
+     */
+    public void endRequest() {
+        requestDecisions.remove();
+    }
+
+    /**
+     * @param principal principal name
+     * @param itemUid uid of item
+     * @param write true for write access, false for read access
+     * @return the decision made earlier in the current request, or
+     *         null if none was made or no request is in progress
+     */
+    public Boolean getDecision(String principal, String itemUid,
+                               boolean write) {
+        RequestDecisions decisions = requestDecisions.get();
+        if (decisions == null)
+            return null;
+        return decisions.decisions.get(decisionKey(principal, itemUid, write));
+    }
+
+    /**
+     * Remember an access decision for the rest of the current
+     * request.  Does nothing if no request is in progress.
+     * @param principal principal name
+     * @param itemUid uid of item
+     * @param write true for write access, false for read access
+     * @param granted decision
+     */
+    public void putDecision(String principal, String itemUid,
+                            boolean write, boolean granted) {
+        RequestDecisions decisions = requestDecisions.get();
+        if (decisions != null)
+            decisions.decisions.put(decisionKey(principal, itemUid, write),
+                                    Boolean.valueOf(granted));
+    }
+
+    /**
+     * @param principal principal name
+     * @param collectionUid uid of collection
+     * @param write true for write access, false for read access
+     * @return true if access to the collection was granted by a
+     *         ticket earlier in the current request
+     */
+    public boolean isCollectionGranted(String principal,
+                                       String collectionUid,
+                                       boolean write) {
+        RequestDecisions decisions = requestDecisions.get();
+        return decisions != null &&
+            decisions.collections.contains(decisionKey(principal,
+                                                       collectionUid,
+                                                       write));
+    }
+
+    /**
+     * Remember that access to a collection was granted by a ticket
+     * for the rest of the current request.  Does nothing if no
+     * request is in progress.
+     * @param principal principal name
+     * @param collectionUid uid of collection
+     * @param write true for write access, false for read access
+     */
+    public void putCollectionGranted(String principal, String collectionUid,
+                                     boolean write) {
+        RequestDecisions decisions = requestDecisions.get();
+        if (decisions != null)
+            decisions.collections.add(decisionKey(principal, collectionUid,
+                                                  write));
+    }
+
+    /**
+     * Remove the cached subscription tickets of a user, and the
+     * decisions made in the current request.
+     * @param username user
+     */
+    public void invalidate(String username) {
+        synchronized (this) {
+            principals.remove(username);
+        }
+        clearRequest();
+    }
+
+    /**
+     * Remove all cached subscription tickets, and the decisions made
+     * in the current request.
+     */
+    public void invalidateAll() {
+        synchronized (this) {
+            principals.clear();
+        }
+        clearRequest();
+    }
+
+    private void clearRequest() {
+        if (requestDecisions.get() != null)
+            requestDecisions.set(new RequestDecisions());
+    }
+
+    private static String decisionKey(String principal, String uid,
+                                      boolean write) {
+        return (write ? "w:" : "r:") + principal + ":" + uid;
+    }
+
+    public synchronized int getSize() {
+        return principals.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public int getMaxPrincipals() {
+        return maxPrincipals;
+    }
+
+    /**
+     * Set the maximum number of users whose subscription tickets
+     * are cached
+     * @param maxPrincipals
+     */
+    public void setMaxPrincipals(int maxPrincipals) {
+        this.maxPrincipals = maxPrincipals;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Set the number of milliseconds for which a user's
+     * subscription tickets are cached
+     * @param timeToLive
+     */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    private static class Entry {
+        private List<Ticket> tickets;
+        private long expires;
+
+        public Entry(List<Ticket> tickets, long expires) {
+            this.tickets = tickets;
+            this.expires = expires;
+        }
+    }
+
+    private static class RequestDecisions {
+        private HashMap<String, Boolean> decisions =
+            new HashMap<String, Boolean>();
+        private Set<String> collections = new HashSet<String>();
+    }
+}
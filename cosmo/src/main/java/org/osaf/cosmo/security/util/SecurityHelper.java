@@ -15,6 +15,10 @@
  */
 package org.osaf.cosmo.security.util;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 import org.osaf.cosmo.dao.ContentDao;
@@ -37,12 +41,30 @@ public class SecurityHelper {
     
     private ContentDao contentDao;
     private UserDao userDao;
+    private AccessDecisionCache accessDecisionCache;
+    private TicketGrantIndex ticketGrantIndex;
     
     public SecurityHelper(ContentDao contentDao, UserDao userDao) {
         this.contentDao = contentDao;
         this.userDao = userDao;
     }
     
+    /**
+     * @param accessDecisionCache cache for subscription tickets and
+     *        ticket-based decisions, or null to look them up each time
+     */
+    public void setAccessDecisionCache(AccessDecisionCache accessDecisionCache) {
+        this.accessDecisionCache = accessDecisionCache;
+    }
+    
+    /**
+     * @param ticketGrantIndex index of the items covered by tickets,
+     *        or null to walk each item's ancestors
+     */
+    public void setTicketGrantIndex(TicketGrantIndex ticketGrantIndex) {
+        this.ticketGrantIndex = ticketGrantIndex;
+    }
+    
     /**
      * Determines if the current security context has access to
      * User.  The context must either be the user, or have admin access.
@@ -129,6 +151,31 @@ public class SecurityHelper {
         return false;
     }
     
+    /**
+     * Determines which of several items the security context can't
+     * update.  For a ticket principal, the ticket is checked against
+     * all the items at once.
+     * @param context security context
+     * @param items existing items
+     * @return the items the security context has insufficient
+     *         privileges to update, in iteration order
+     */
+    public List<Item> getWriteDeniedItems(CosmoSecurityContext context,
+                                          Collection<? extends Item> items) {
+        Set<Item> granted = Collections.emptySet();
+        Ticket ticket = context.getTicket();
+        if(context.getUser()==null && ticket!=null && ticketGrantIndex!=null
+           && !ticket.hasTimedOut() && ticket.isReadWrite())
+            granted = ticketGrantIndex.getGrantedItems(ticket, items);
+        
+        List<Item> denied = new ArrayList<Item>();
+        for(Item item: items)
+            if(!granted.contains(item) && !hasWriteAccess(context, item))
+                denied.add(item);
+        
+        return denied;
+    }
+    
     private boolean hasReadAccess(User user, Item item, Set<Ticket> tickets) {
         // admin always has access
         if(user.getAdmin()!=null && user.getAdmin().booleanValue())
@@ -143,28 +190,8 @@ public class SecurityHelper {
             if(parent.getOwner().equals(user))
                 return true;
         
-        // Case 3: ticket for item present
-        if(tickets!=null) {
-            for(Ticket ticket: tickets)
-                if(hasReadAccess(ticket, item))
-                    return true;
-        }
-        
-        // Case 4: check subscriptions
-        // refresh user to prevent lazy init exceptions
-        user = userDao.getUser(user.getUsername());
-        if(user!=null) {
-            for(CollectionSubscription cs: user.getCollectionSubscriptions()) {
-                Ticket ticket = contentDao.findTicket(cs.getTicketKey());
-                if(ticket==null)
-                    continue;
-                if(hasReadAccess(ticket,item))
-                    return true;
-            }
-        }
-        
-        // otherwise no access
-        return false;
+        // Cases 3 and 4: ticket for item present or subscribed to
+        return hasTicketAccess(user, item, tickets, false);
     }
     
     private boolean hasReadAccess(Ticket ticket, Item item, Set<Ticket> tickets) {
@@ -185,7 +212,7 @@ public class SecurityHelper {
     
     private boolean hasReadAccess(Ticket ticket, Item item) {
         // ticket must be valid
-        if(ticket.isGranted(item) && !ticket.hasTimedOut())
+        if(isGranted(ticket, item) && !ticket.hasTimedOut())
             return true;
        
         // otherwise no access
@@ -206,28 +233,8 @@ public class SecurityHelper {
             if(parent.getOwner().equals(user))
                 return true;
         
-        // Case 3: ticket for item present
-        if(tickets!=null) {
-            for(Ticket ticket: tickets)
-                if(hasWriteAccess(ticket, item))
-                    return true;
-        }
-        
-        // Case 4: check subscriptions
-        // refresh user to prevent lazy init exceptions
-        user = userDao.getUser(user.getUsername());
-        if(user!=null) {
-            for(CollectionSubscription cs: user.getCollectionSubscriptions()) {
-                Ticket ticket = contentDao.findTicket(cs.getTicketKey());
-                if(ticket==null)
-                    continue;
-                if(hasWriteAccess(ticket,item))
-                    return true;
-            }
-        }
-        
-        // otherwise no access
-        return false;
+        // Cases 3 and 4: ticket for item present or subscribed to
+        return hasTicketAccess(user, item, tickets, true);
     }
     
     private boolean hasWriteAccess(Ticket ticket, Item item, Set<Ticket> tickets) {
@@ -246,14 +253,106 @@ public class SecurityHelper {
         return false;
     }
     
+    private boolean hasTicketAccess(User user, Item item,
+                                    Set<Ticket> tickets, boolean write) {
+        String principal = user.getUsername();
+        // items that haven't been saved yet can't be remembered
+        boolean remember = accessDecisionCache!=null && item.getUid()!=null;
+        if(remember) {
+            Boolean decision =
+                accessDecisionCache.getDecision(principal, item.getUid(), write);
+            if(decision!=null)
+                return decision.booleanValue();
+            
+            // access granted to a collection extends to its children
+            for(CollectionItem parent: item.getParents())
+                if(accessDecisionCache.isCollectionGranted(principal,
+                        parent.getUid(), write))
+                    return true;
+        }
+        
+        boolean granted = false;
+        
+        // Case 3: ticket for item present
+        if(tickets!=null) {
+            for(Ticket ticket: tickets) {
+                if(hasTicketAccess(ticket, item, write)) {
+                    granted = true;
+                    break;
+                }
+            }
+        }
+        
+        // Case 4: check subscriptions
+        if(!granted) {
+            for(Ticket ticket: getSubscriptionTickets(principal)) {
+                if(hasTicketAccess(ticket, item, write)) {
+                    granted = true;
+                    break;
+                }
+            }
+        }
+        
+        if(remember) {
+            accessDecisionCache.putDecision(principal, item.getUid(), write,
+                                            granted);
+            if(granted && item instanceof CollectionItem)
+                accessDecisionCache.putCollectionGranted(principal,
+                                                         item.getUid(), write);
+        }
+        
+        return granted;
+    }
+    
+    private boolean hasTicketAccess(Ticket ticket, Item item, boolean write) {
+        return write ? hasWriteAccess(ticket, item) : hasReadAccess(ticket, item);
+    }
+    
+    /**
+     * Returns the tickets referenced by the user's subscriptions,
+     * using the cached tickets if present.
+     */
+    private List<Ticket> getSubscriptionTickets(String username) {
+        if(accessDecisionCache!=null) {
+            List<Ticket> cached =
+                accessDecisionCache.getSubscriptionTickets(username);
+            if(cached!=null)
+                return cached;
+        }
+        
+        List<Ticket> subscriptionTickets = new ArrayList<Ticket>();
+        
+        // refresh user to prevent lazy init exceptions
+        User user = userDao.getUser(username);
+        if(user!=null) {
+            for(CollectionSubscription cs: user.getCollectionSubscriptions()) {
+                Ticket ticket = contentDao.findTicket(cs.getTicketKey());
+                if(ticket!=null)
+                    subscriptionTickets.add(ticket);
+            }
+        }
+        
+        if(accessDecisionCache!=null)
+            accessDecisionCache.putSubscriptionTickets(username,
+                                                       subscriptionTickets);
+        
+        return subscriptionTickets;
+    }
+    
     private boolean hasWriteAccess(Ticket ticket, Item item) {
         // ticket must be valid
-        if(ticket.isGranted(item) && !ticket.hasTimedOut() && ticket.isReadWrite())
+        if(isGranted(ticket, item) && !ticket.hasTimedOut() && ticket.isReadWrite())
             return true;
        
         // otherwise no access
         return false;
     }
+    
+    private boolean isGranted(Ticket ticket, Item item) {
+        if(ticketGrantIndex!=null)
+            return ticketGrantIndex.isGranted(ticket, item);
+        return ticket.isGranted(item);
+    }
    
     
 }
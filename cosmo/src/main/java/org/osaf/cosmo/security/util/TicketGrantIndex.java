@@ -0,0 +1,418 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.security.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.Ticket;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Indexes the items covered by tickets, so that deciding whether a
+ * ticket is granted on an item (see {@link Ticket#isGranted(Item)})
+ * doesn't require walking the tickets of the item and all of its
+ * ancestors.
+ *
+ * For each ticket, the uid of the item the ticket was created on is
+ * kept.  For each item, the uids of the item and of all the
+ * collections it is contained in, directly or indirectly, are kept.
+ * A ticket is granted on an item if its item is among them.  Both
+ * are held in bounded LRU caches and only contain uids, so they can
+ * be used after the session the items were loaded in is closed.
+ *
+ * Tickets must be added and removed as they are created and removed
+ * (see {@link #putTicket(Ticket, Item)} and
+ * {@link #removeTicket(Ticket)}), and items must be invalidated when
+ * they are added to, removed from or moved between collections (see
+ * {@link #invalidate(Item)}).  Items that haven't been saved yet and
+ * tickets whose item isn't known are checked with
+ * {@link Ticket#isGranted(Item)}.
+ *
+ * Changes are made before the transaction that makes them commits,
+ * so a closure computed by another thread in the meantime would
+ * still reflect the old hierarchy.  When a transaction is active,
+ * invalidated items and removed tickets are therefore invalidated
+ * again once it completes.  Changes made through other servers
+ * sharing the database are never seen, so closures also expire after
+ * <code>timeToLive</code> milliseconds, and the index should be
+ * disabled when more than one server is running.  A disabled index
+ * checks every ticket with {@link Ticket#isGranted(Item)}.
+ */
+public class TicketGrantIndex {
+
+    private int maxTickets = 10000;
+    private int maxItems = 50000;
+    private long timeToLive = 300000;
+    private boolean enabled = true;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    // incremented whenever the hierarchy changes, so that closures
+    // computed while it changed aren't kept
+    private long generation = 0;
+
+    private LinkedHashMap<String, String> tickets =
+        new LinkedHashMap<String, String>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxTickets;
+            }
+        };
+
+    private LinkedHashMap<String, Entry> closures =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxItems;
+            }
+        };
+
+    /**
+     * @param ticket ticket
+     * @param item item
+     * @return true if the ticket is granted on the item or one of
+     *         its ancestors
+     */
+    public boolean isGranted(Ticket ticket, Item item) {
+        if (item == null)
+            return false;
+        if (! enabled)
+            return ticket.isGranted(item);
+
+        String ticketedUid = getTicketedUid(ticket);
+        if (ticketedUid == null || item.getUid() == null)
+            return ticket.isGranted(item);
+
+        return getClosure(item, new HashMap<String, Set<String>>())
+            .contains(ticketedUid);
+    }
+
+    /**
+     * Determines on which of several items a ticket is granted.  The
+     * ancestors shared by the items are only looked up once.
+     * @param ticket ticket
+     * @param items items
+     * @return the items on which the ticket is granted
+     */
+    public Set<Item> getGrantedItems(Ticket ticket,
+                                     Collection<? extends Item> items) {
+        HashSet<Item> granted = new HashSet<Item>();
+        if (! enabled) {
+            for (Item item : items) {
+                if (item != null && ticket.isGranted(item))
+                    granted.add(item);
+            }
+            return granted;
+        }
+
+        String ticketedUid = getTicketedUid(ticket);
+        HashMap<String, Set<String>> found =
+            new HashMap<String, Set<String>>();
+
+        for (Item item : items) {
+            if (item == null)
+                continue;
+            if (ticketedUid == null || item.getUid() == null) {
+                if (ticket.isGranted(item))
+                    granted.add(item);
+            } else if (getClosure(item, found).contains(ticketedUid)) {
+                granted.add(item);
+            }
+        }
+
+        return granted;
+    }
+
+    /**
+     * Add a ticket that was created on an item.
+     * @param ticket ticket
+     * @param item item the ticket was created on
+     */
+    public synchronized void putTicket(Ticket ticket, Item item) {
+        if (enabled && ticket.getKey() != null && item.getUid() != null)
+            tickets.put(ticket.getKey(), item.getUid());
+    }
+
+    /**
+     * Remove a ticket that was removed from its item.  If a
+     * transaction is active, the ticket is removed again once it
+     * completes.
+     * @param ticket ticket
+     */
+    public void removeTicket(Ticket ticket) {
+        if (ticket.getKey() == null)
+            return;
+        removeTicketKey(ticket.getKey());
+        PendingInvalidations pending = getPendingInvalidations();
+        if (pending != null)
+            pending.tickets.add(ticket.getKey());
+    }
+
+    /**
+     * Invalidate the ancestors of an item that was added to, removed
+     * from or moved between collections.  For a collection, the
+     * ancestors of every item are invalidated, since they may include
+     * the collection.  If a transaction is active, the item is
+     * invalidated again once it completes.
+     * @param item item
+     */
+    public void invalidate(Item item) {
+        boolean all = item instanceof CollectionItem;
+        if (! all && item.getUid() == null)
+            return;
+        invalidateUid(all ? null : item.getUid());
+        PendingInvalidations pending = getPendingInvalidations();
+        if (pending == null)
+            return;
+        if (all)
+            pending.all = true;
+        else
+            pending.items.add(item.getUid());
+    }
+
+    private synchronized void removeTicketKey(String key) {
+        tickets.remove(key);
+    }
+
+    /**
+     * Invalidates the ancestors of the item with the given uid, or
+     * of every item if the uid is null.
+     */
+    private synchronized void invalidateUid(String uid) {
+        generation++;
+        if (uid == null)
+            closures.clear();
+        else
+            closures.remove(uid);
+    }
+
+    /**
+     * Returns the invalidations to repeat when the current
+     * transaction completes, or null if there is no transaction.
+     */
+    private PendingInvalidations getPendingInvalidations() {
+        if (! TransactionSynchronizationManager.isSynchronizationActive())
+            return null;
+
+        PendingInvalidations pending = (PendingInvalidations)
+            TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            pending = new PendingInvalidations();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(pending);
+        }
+        return pending;
+    }
+
+    /**
+     * Remove all indexed tickets and items.
+     */
+    public synchronized void invalidateAll() {
+        generation++;
+        tickets.clear();
+        closures.clear();
+    }
+
+    /**
+     * Returns the uid of the ticket's item, or null if it isn't
+     * known.  A ticket that isn't indexed yet is only indexed if
+     * its item still holds it.
+     */
+    private String getTicketedUid(Ticket ticket) {
+        if (ticket.getKey() == null)
+            return null;
+
+        synchronized (this) {
+            String uid = tickets.get(ticket.getKey());
+            if (uid != null)
+                return uid;
+        }
+
+        Item item = ticket.getItem();
+        if (item == null || item.getUid() == null ||
+            ! item.getTickets().contains(ticket))
+            return null;
+
+        putTicket(ticket, item);
+        return item.getUid();
+    }
+
+    /**
+     * Returns the uids of the item and of all of its ancestors.
+     * Closures computed by the current call are kept in
+     * <code>found</code> even if they can't be cached.
+     */
+    private Set<String> getClosure(Item item,
+                                   Map<String, Set<String>> found) {
+        Set<String> closure = found.get(item.getUid());
+        if (closure != null)
+            return closure;
+
+        long started;
+        synchronized (this) {
+            Entry entry = closures.get(item.getUid());
+            if (entry != null && entry.expires < System.currentTimeMillis()) {
+                closures.remove(item.getUid());
+                entry = null;
+            }
+            if (entry != null) {
+                hits++;
+                return entry.uids;
+            }
+            misses++;
+            started = generation;
+        }
+
+        HashSet<String> uids = new HashSet<String>();
+        uids.add(item.getUid());
+        // guard against cycles while the closure is computed
+        found.put(item.getUid(), Collections.unmodifiableSet(uids));
+        for (Item parent : item.getParents()) {
+            if (parent.getUid() == null)
+                continue;
+            uids.addAll(getClosure(parent, found));
+        }
+
+        closure = Collections.unmodifiableSet(uids);
+        found.put(item.getUid(), closure);
+        synchronized (this) {
+            if (started == generation)
+                closures.put(item.getUid(),
+                             new Entry(closure,
+                                       System.currentTimeMillis() + timeToLive));
+        }
+        return closure;
+    }
+
+    public synchronized int getTicketCount() {
+        return tickets.size();
+    }
+
+    public synchronized int getSize() {
+        return closures.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public int getMaxTickets() {
+        return maxTickets;
+    }
+
+    /**
+     * Set the maximum number of tickets whose item is indexed
+     * @param maxTickets
+     */
+    public void setMaxTickets(int maxTickets) {
+        this.maxTickets = maxTickets;
+    }
+
+    public int getMaxItems() {
+        return maxItems;
+    }
+
+    /**
+     * Set the maximum number of items whose ancestors are indexed
+     * @param maxItems
+     */
+    public void setMaxItems(int maxItems) {
+        this.maxItems = maxItems;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Set the number of milliseconds for which the ancestors of an
+     * item are indexed
+     * @param timeToLive
+     */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Set whether tickets and items are indexed, or every ticket is
+     * checked with {@link Ticket#isGranted(Item)}
+     * @param enabled
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    private static class Entry {
+        private Set<String> uids;
+        private long expires;
+
+        public Entry(Set<String> uids, long expires) {
+            this.uids = uids;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Items invalidated and tickets removed during a transaction.
+     */
+    private class PendingInvalidations extends TransactionSynchronizationAdapter {
+        boolean all = false;
+        Set<String> items = new HashSet<String>();
+        Set<String> tickets = new HashSet<String>();
+
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResource(
+                    TicketGrantIndex.this);
+        }
+
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(
+                    TicketGrantIndex.this, this);
+        }
+
+        public void afterCompletion(int status) {
+            if (TransactionSynchronizationManager.hasResource(
+                    TicketGrantIndex.this))
+                TransactionSynchronizationManager.unbindResource(
+                        TicketGrantIndex.this);
+
+            for (String key : tickets)
+                removeTicketKey(key);
+            if (all) {
+                invalidateUid(null);
+            } else {
+                for (String uid : items)
+                    invalidateUid(uid);
+            }
+        }
+    }
+}
@@ -16,6 +16,8 @@
 package org.osaf.cosmo.service;
 
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 
@@ -23,8 +25,11 @@ import net.fortuna.ical4j.model.DateTime;
 
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.ContentItem;
+import org.osaf.cosmo.model.ContentItemIterator;
 import org.osaf.cosmo.model.HomeCollectionItem;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemChangeRecord;
+import org.osaf.cosmo.model.ItemTombstone;
 import org.osaf.cosmo.model.NoteItem;
 import org.osaf.cosmo.model.Ticket;
 import org.osaf.cosmo.model.User;
@@ -144,6 +149,66 @@ public interface ContentService extends Service {
      */
     public Set<ContentItem> loadChildren(CollectionItem collection, Date timestamp);
 
+    /**
+     * Iterate over the children of a collection that have been updated
+     * since a given timestamp, loading <code>chunkSize</code> children
+     * at a time.  If no timestamp is specified, then iterate over all
+     * children.  The iterator must be closed, and must be used within
+     * the transaction it was opened in.
+     * @param collection collection
+     * @param timestamp timestamp
+     * @param chunkSize number of children to load at a time
+     * @return iterator over the children of collection that have been
+     *         updated since timestamp, or all children if timestamp is null
+     */
+    public ContentItemIterator iterateChildren(CollectionItem collection,
+                                               Date timestamp,
+                                               int chunkSize);
+
+    /**
+     * Find the children of a collection that have the given names,
+     * looking them up in bulk rather than one at a time.
+     * @param collection collection
+     * @param names names of children
+     * @return children of collection indexed by name; names that
+     *         don't identify a child are not included
+     */
+    public Map<String, Item> findChildrenByNames(CollectionItem collection,
+                                                 Set<String> names);
+
+    /**
+     * Find the tombstones of the items removed from a collection
+     * after a given timestamp.
+     * @param collection collection
+     * @param timestamp timestamp
+     * @return tombstones of the items removed from collection after
+     *         timestamp
+     */
+    public List<ItemTombstone> findItemTombstones(CollectionItem collection,
+                                                 Date timestamp);
+
+    /**
+     * Find the changes made to the items of a collection during a
+     * period of time, as recorded by the event log.
+     * @param collection collection
+     * @param start start of the period
+     * @param end end of the period
+     * @return changes made to the items of collection between start
+     *         and end
+     */
+    public List<ItemChangeRecord> findChangesForCollection(CollectionItem collection,
+                                                           Date start,
+                                                           Date end);
+
+    /**
+     * Find the date of the oldest change recorded by the event log
+     * that may not be returned by
+     * {@link #findChangesForCollection(CollectionItem, Date, Date)} yet.
+     * @return date of the oldest pending change, or null if no
+     *         changes are pending
+     */
+    public Date getOldestPendingChangeDate();
+
     /**
      * Create a new collection.
      * 
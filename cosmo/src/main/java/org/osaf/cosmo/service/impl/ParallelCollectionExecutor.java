@@ -0,0 +1,376 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.service.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.service.ContentService;
+import org.springframework.orm.hibernate3.SessionFactoryUtils;
+import org.springframework.orm.hibernate3.SessionHolder;
+import org.springframework.security.context.SecurityContext;
+import org.springframework.security.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * <p>
+ * Runs a task for each of several collections concurrently, for
+ * example to generate a feed or dashboard spanning all of a user's
+ * subscribed collections.
+ * </p>
+ * <p>
+ * Tasks run in the calling thread and on a fixed pool of threads
+ * shared by all requests, and no more than
+ * <code>maxParallelism</code> collections of a single request are
+ * processed at a time.  The calling thread and the pool threads take
+ * collections from the same queue, so a request makes progress even
+ * when every pool thread is busy with other requests; pool threads
+ * that only get to run once all collections have been taken are
+ * cancelled.  The timeout of a pool thread starts when it begins to
+ * process collections, so time spent waiting for a free thread
+ * doesn't count against it.
+ * </p>
+ * <p>
+ * Each pool thread gets its own Hibernate session and the security
+ * context of the calling thread (like the scheduler's
+ * <code>HibernateSessionFilter</code> and
+ * <code>SecurityContextFilter</code> do for jobs), and each
+ * collection is loaded again in that session, so that tasks on pool
+ * threads never touch the caller's session.  Objects loaded by a
+ * task on a pool thread are detached once it completes, so tasks
+ * should return values that don't depend on lazy loading.  Since
+ * each pool thread holds a database connection while it processes a
+ * collection, the pool size has to leave room in the connection pool
+ * for the request threads.
+ * </p>
+ * <p>
+ * If the pool size or the maximum parallelism is less than 2, or
+ * there is only one collection, tasks run in the calling thread.
+ * </p>
+ */
+public class ParallelCollectionExecutor {
+    private static final Log log =
+        LogFactory.getLog(ParallelCollectionExecutor.class);
+
+    private ContentService contentService;
+    private SessionFactory sessionFactory;
+    private int poolSize = 8;
+    private int maxParallelism = 4;
+    private long timeout = 60000;
+    private ExecutorService executor;
+
+    /**
+     * A task run for a single collection.
+     */
+    public interface CollectionTask<T> {
+
+        /**
+         * @param collection the collection, loaded in the session of
+         *        the current thread
+         * @return the result for the collection
+         */
+        public T execute(CollectionItem collection)
+            throws Exception;
+    }
+
+    public void init() {
+        if (poolSize > 1)
+            executor = Executors.newFixedThreadPool(poolSize,
+                                                    new WorkerThreadFactory());
+    }
+
+    public void destroy() {
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+    /**
+     * Runs the task for each collection and returns the results in
+     * collection order.  The result for a collection that was
+     * removed while the tasks ran is null.
+     *
+     * @param collections the collections
+     * @param task the task
+     * @throws ExecutionException if a task fails, with the task's
+     *         exception as the cause, or if the tasks on a pool
+     *         thread don't complete within the timeout
+     */
+    public <T> List<T> execute(CollectionItem[] collections,
+                               CollectionTask<T> task)
+        throws ExecutionException {
+        if (executor == null || maxParallelism < 2 || collections.length < 2)
+            return executeInline(collections, task);
+
+        Object[] results = new Object[collections.length];
+        AtomicInteger next = new AtomicInteger();
+        SecurityContext securityContext = SecurityContextHolder.getContext();
+
+        // the calling thread is one of the workers
+        int count = Math.min(collections.length, maxParallelism) - 1;
+        ArrayList<Worker<T>> workers = new ArrayList<Worker<T>>(count);
+        ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>(count);
+        for (int i = 0; i < count; i++) {
+            Worker<T> worker = new Worker<T>(collections, task, results,
+                                             next, securityContext);
+            workers.add(worker);
+            futures.add(executor.submit(worker));
+        }
+
+        try {
+            new Worker<T>(collections, task, results, next, null).process();
+        } catch (Exception e) {
+            cancel(futures, next, collections.length);
+            throw new ExecutionException(e);
+        }
+
+        try {
+            for (int i = 0; i < count; i++) {
+                Future<Object> future = futures.get(i);
+                long started = workers.get(i).getStarted();
+                // nothing is left for a worker that hasn't started
+                if (started == 0 && future.cancel(false))
+                    continue;
+                if (started == 0)
+                    started = System.currentTimeMillis();
+                future.get(Math.max(started + timeout -
+                                    System.currentTimeMillis(), 0),
+                           TimeUnit.MILLISECONDS);
+            }
+        } catch (TimeoutException e) {
+            cancel(futures, next, collections.length);
+            throw new ExecutionException(e);
+        } catch (InterruptedException e) {
+            cancel(futures, next, collections.length);
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(e);
+        } catch (ExecutionException e) {
+            cancel(futures, next, collections.length);
+            throw e;
+        }
+
+        ArrayList<T> list = new ArrayList<T>(collections.length);
+        for (Object result : results)
+            list.add((T) result);
+        return list;
+    }
+
+    private <T> List<T> executeInline(CollectionItem[] collections,
+                                      CollectionTask<T> task)
+        throws ExecutionException {
+        ArrayList<T> results = new ArrayList<T>(collections.length);
+        for (CollectionItem collection : collections) {
+            try {
+                results.add(task.execute(collection));
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new ExecutionException(e);
+            }
+        }
+        return results;
+    }
+
+    private void cancel(List<Future<Object>> futures,
+                        AtomicInteger next,
+                        int count) {
+        // keep workers from starting any more collections
+        next.set(count);
+        for (Future<Object> future : futures)
+            future.cancel(false);
+    }
+
+    private boolean bindSession() {
+        if (sessionFactory == null ||
+            TransactionSynchronizationManager.hasResource(sessionFactory))
+            return false;
+
+        Session session = SessionFactoryUtils.getSession(sessionFactory, true);
+        TransactionSynchronizationManager.bindResource(sessionFactory,
+                new SessionHolder(session));
+        return true;
+    }
+
+    private void releaseSession() {
+        SessionHolder holder = (SessionHolder) TransactionSynchronizationManager
+                .unbindResource(sessionFactory);
+        SessionFactoryUtils.closeSession(holder.getSession());
+    }
+
+    public ContentService getContentService() {
+        return contentService;
+    }
+
+    /**
+     * @param contentService service used to load each collection in
+     *        its worker's session
+     */
+    public void setContentService(ContentService contentService) {
+        this.contentService = contentService;
+    }
+
+    public SessionFactory getSessionFactory() {
+        return sessionFactory;
+    }
+
+    public void setSessionFactory(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Set the number of threads shared by all requests, or less than
+     * 2 to run all tasks in the calling thread.  Each thread holds a
+     * database connection while it processes a collection, so the
+     * pool size plus the number of concurrent requests must not
+     * exceed the size of the connection pool.
+     * @param poolSize
+     */
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public int getMaxParallelism() {
+        return maxParallelism;
+    }
+
+    /**
+     * Set the maximum number of collections of a single request
+     * processed at a time, including the one processed by the
+     * calling thread
+     * @param maxParallelism
+     */
+    public void setMaxParallelism(int maxParallelism) {
+        this.maxParallelism = maxParallelism;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Set the number of milliseconds to wait for the tasks of a
+     * single request on a pool thread, counted from when the thread
+     * begins to process collections
+     * @param timeout
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Processes collections until there are none left.
+     */
+    private class Worker<T> implements Callable<Object> {
+        private CollectionItem[] collections;
+        private CollectionTask<T> task;
+        private Object[] results;
+        private AtomicInteger next;
+        private SecurityContext securityContext;
+        private volatile long started = 0;
+
+        public Worker(CollectionItem[] collections,
+                      CollectionTask<T> task,
+                      Object[] results,
+                      AtomicInteger next,
+                      SecurityContext securityContext) {
+            this.collections = collections;
+            this.task = task;
+            this.results = results;
+            this.next = next;
+            this.securityContext = securityContext;
+        }
+
+        /**
+         * Processes collections on a pool thread, in a session and
+         * security context of its own.
+         */
+        public Object call() throws Exception {
+            started = System.currentTimeMillis();
+            SecurityContextHolder.setContext(securityContext);
+            boolean bound = bindSession();
+            try {
+                process();
+                return null;
+            } finally {
+                if (bound)
+                    releaseSession();
+                SecurityContextHolder.clearContext();
+            }
+        }
+
+        /**
+         * Processes collections in the current thread's session and
+         * security context.
+         */
+        public void process() throws Exception {
+            int i;
+            while ((i = next.getAndIncrement()) < collections.length) {
+                CollectionItem collection = load(collections[i]);
+                if (collection != null)
+                    results[i] = task.execute(collection);
+            }
+        }
+
+        /**
+         * Returns the time the worker began to run on a pool thread,
+         * or 0 if it hasn't yet.
+         */
+        public long getStarted() {
+            return started;
+        }
+
+        private CollectionItem load(CollectionItem collection) {
+            if (contentService == null)
+                return collection;
+            Item item = contentService.findItemByUid(collection.getUid());
+            if (! (item instanceof CollectionItem)) {
+                log.warn("collection " + collection.getUid() +
+                         " no longer exists");
+                return null;
+            }
+            return (CollectionItem) item;
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "collection-executor-" +
+                                       count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
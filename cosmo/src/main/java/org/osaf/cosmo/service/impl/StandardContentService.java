@@ -16,8 +16,11 @@
 package org.osaf.cosmo.service.impl;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 
@@ -28,13 +31,17 @@ import org.apache.commons.logging.LogFactory;
 import org.osaf.cosmo.calendar.RecurrenceExpander;
 import org.osaf.cosmo.dao.CalendarDao;
 import org.osaf.cosmo.dao.ContentDao;
+import org.osaf.cosmo.dao.EventLogDao;
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.CollectionLockedException;
 import org.osaf.cosmo.model.ContentItem;
+import org.osaf.cosmo.model.ContentItemIterator;
 import org.osaf.cosmo.model.DuplicateItemNameException;
 import org.osaf.cosmo.model.EventStamp;
 import org.osaf.cosmo.model.HomeCollectionItem;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemChangeRecord;
+import org.osaf.cosmo.model.ItemTombstone;
 import org.osaf.cosmo.model.ModelValidationException;
 import org.osaf.cosmo.model.ModificationUid;
 import org.osaf.cosmo.model.NoteItem;
@@ -44,6 +51,8 @@ import org.osaf.cosmo.model.StampUtils;
 import org.osaf.cosmo.model.Ticket;
 import org.osaf.cosmo.model.User;
 import org.osaf.cosmo.model.filter.ItemFilter;
+import org.osaf.cosmo.security.util.AccessDecisionCache;
+import org.osaf.cosmo.security.util.TicketGrantIndex;
 import org.osaf.cosmo.service.ContentService;
 import org.osaf.cosmo.service.lock.LockManager;
 import org.osaf.cosmo.service.triage.TriageStatusQueryContext;
@@ -61,8 +70,11 @@ public class StandardContentService implements ContentService {
 
     private CalendarDao calendarDao;
     private ContentDao contentDao;
+    private EventLogDao eventLogDao;
     private LockManager lockManager;
     private TriageStatusQueryProcessor triageStatusQueryProcessor;
+    private AccessDecisionCache accessDecisionCache;
+    private TicketGrantIndex ticketGrantIndex;
   
     private long lockTimeout = 0;
 
@@ -169,6 +181,7 @@ public class StandardContentService implements ContentService {
         
         contentDao.addItemToCollection(item, collection);
         contentDao.updateCollectionTimestamp(collection);
+        invalidateTicketGrants(item);
     }
 
     /**
@@ -218,6 +231,7 @@ public class StandardContentService implements ContentService {
                         "unable to obtain collection lock");
 
             try {
+                lockManager.checkLock(parent);
                 contentDao.copyItem(item, path, deepCopy);
             } finally {
                 lockManager.unlockCollection(parent);
@@ -266,6 +280,8 @@ public class StandardContentService implements ContentService {
             // remove item from oldParent
             contentDao.removeItemFromCollection(item, oldParent);
         }
+        
+        invalidateTicketGrants(item);
     }
     
     /**
@@ -287,8 +303,10 @@ public class StandardContentService implements ContentService {
             removeContent((ContentItem) item);
         else if(item instanceof CollectionItem)
             removeCollection((CollectionItem) item);
-        else
+        else {
             contentDao.removeItem(item);
+            invalidateTicketGrants(item);
+        }
     }
     
     /**
@@ -305,6 +323,7 @@ public class StandardContentService implements ContentService {
         
         contentDao.removeItemFromCollection(item, collection);
         contentDao.updateCollectionTimestamp(collection);
+        invalidateTicketGrants(item);
     }
 
     
@@ -324,6 +343,76 @@ public class StandardContentService implements ContentService {
         return contentDao.loadChildren(collection, timestamp);
     }
 
+    /**
+     * Iterate over the children of a collection that have been updated
+     * since a given timestamp, loading <code>chunkSize</code> children
+     * at a time.
+     *
+     * @param collection collection
+     * @param timestamp timestamp, or null for all children
+     * @param chunkSize number of children to load at a time
+     * @return iterator over the children, which must be closed
+     */
+    public ContentItemIterator iterateChildren(CollectionItem collection,
+                                               Date timestamp,
+                                               int chunkSize) {
+        return contentDao.iterateChildren(collection, timestamp, chunkSize);
+    }
+
+    /**
+     * Find the children of a collection that have the given names.
+     *
+     * @param collection collection
+     * @param names names of children
+     * @return children of collection indexed by name
+     */
+    public Map<String, Item> findChildrenByNames(CollectionItem collection,
+                                                 Set<String> names) {
+        return contentDao.findChildrenByNames(collection, names);
+    }
+
+    /**
+     * Find the tombstones of the items removed from a collection
+     * after a given timestamp.
+     *
+     * @param collection collection
+     * @param timestamp timestamp
+     * @return tombstones of the items removed after timestamp
+     */
+    public List<ItemTombstone> findItemTombstones(CollectionItem collection,
+                                                 Date timestamp) {
+        return contentDao.findItemTombstones(collection, timestamp);
+    }
+
+    /**
+     * Find the changes made to the items of a collection during a
+     * period of time, as recorded by the event log.
+     *
+     * @param collection collection
+     * @param start start of the period
+     * @param end end of the period
+     * @return changes made between start and end
+     */
+    public List<ItemChangeRecord> findChangesForCollection(CollectionItem collection,
+                                                           Date start,
+                                                           Date end) {
+        if (eventLogDao == null)
+            throw new IllegalStateException("eventLogDao must not be null");
+        return eventLogDao.findChangesForCollection(collection, start, end);
+    }
+
+    /**
+     * Find the date of the oldest change recorded by the event log
+     * that may not be visible yet.
+     *
+     * @return date of the oldest pending change, or null
+     */
+    public Date getOldestPendingChangeDate() {
+        if (eventLogDao == null)
+            throw new IllegalStateException("eventLogDao must not be null");
+        return eventLogDao.getOldestPendingEntryDate();
+    }
+
     /**
      * Create a new collection.
      * 
@@ -398,6 +487,7 @@ public class StandardContentService implements ContentService {
             
             // update all children and collection
             collection = contentDao.updateCollection(collection, childrenToUpdate);
+            invalidateTicketGrants(childrenToUpdate);
             
             // update timestamps on all collections involved
             for(CollectionItem lockedCollection : locks)
@@ -433,6 +523,7 @@ public class StandardContentService implements ContentService {
             throw new CollectionLockedException("unable to obtain collection lock");
         
         try {
+            lockManager.checkLock(collection);
             return contentDao.updateCollection(collection);
         } finally {
             lockManager.unlockCollection(collection);
@@ -502,6 +593,7 @@ public class StandardContentService implements ContentService {
             }
             
             collection = contentDao.updateCollection(collection, childrenToUpdate);
+            invalidateTicketGrants(childrenToUpdate);
             
             // update collections involved
             for(CollectionItem lockedCollection : locks) {
@@ -534,6 +626,7 @@ public class StandardContentService implements ContentService {
             throw new IllegalArgumentException("cannot remove home collection");
         
         contentDao.removeCollection(collection);
+        invalidateTicketGrants(collection);
     }
 
     /**
@@ -592,6 +685,7 @@ public class StandardContentService implements ContentService {
             throw new CollectionLockedException("unable to obtain collection lock");
         
         try {
+            lockManager.checkLock(parent);
             for(ContentItem content : contentItems)
                 contentDao.createContent(parent, content);
             
@@ -634,6 +728,7 @@ public class StandardContentService implements ContentService {
                else
                    contentDao.updateContent(content);
            }
+           invalidateTicketGrants(contentItems);
            
            // update collections
            for(CollectionItem parent : locks)
@@ -662,6 +757,7 @@ public class StandardContentService implements ContentService {
         
         try {
             content = contentDao.updateContent(content);
+            invalidateTicketGrants(content);
             
             // update collections
             for(CollectionItem parent : locks)
@@ -690,6 +786,7 @@ public class StandardContentService implements ContentService {
         
         try {
             contentDao.removeContent(content);
+            invalidateTicketGrants(content);
             // update collections
             for(CollectionItem parent : locks)
                 contentDao.updateCollectionTimestamp(parent);
@@ -766,6 +863,9 @@ public class StandardContentService implements ContentService {
             log.debug("creating ticket on item " + item.getUid());
         }
         contentDao.createTicket(item, ticket);
+        if (ticketGrantIndex != null)
+            ticketGrantIndex.putTicket(ticket, item);
+        invalidateAccessDecisions();
     }
 
     /**
@@ -783,6 +883,9 @@ public class StandardContentService implements ContentService {
         if (item == null)
             throw new IllegalArgumentException("item not found for path " + path);
         contentDao.createTicket(item, ticket);
+        if (ticketGrantIndex != null)
+            ticketGrantIndex.putTicket(ticket, item);
+        invalidateAccessDecisions();
     }
 
     /**
@@ -815,6 +918,9 @@ public class StandardContentService implements ContentService {
                       item.getUid());
         }
         contentDao.removeTicket(item, ticket);
+        if (ticketGrantIndex != null)
+            ticketGrantIndex.removeTicket(ticket);
+        invalidateAccessDecisions();
     }
 
     /**
@@ -837,6 +943,9 @@ public class StandardContentService implements ContentService {
         if (ticket == null)
             return;
         contentDao.removeTicket(item, ticket);
+        if (ticketGrantIndex != null)
+            ticketGrantIndex.removeTicket(ticket);
+        invalidateAccessDecisions();
     }
 
     // Service methods
@@ -886,6 +995,19 @@ public class StandardContentService implements ContentService {
         contentDao = dao;
     }
 
+    /** */
+    public EventLogDao getEventLogDao() {
+        return eventLogDao;
+    }
+
+    /**
+     * @param dao event log used to find the changes made to the
+     *        items of a collection
+     */
+    public void setEventLogDao(EventLogDao dao) {
+        eventLogDao = dao;
+    }
+
 	public void setTriageStatusQueryProcessor(
             TriageStatusQueryProcessor triageStatusQueryProcessor) {
         this.triageStatusQueryProcessor = triageStatusQueryProcessor;
@@ -902,6 +1024,24 @@ public class StandardContentService implements ContentService {
     }
     
     
+    /**
+     * @param accessDecisionCache cache of ticket-based access
+     *        decisions, invalidated whenever a ticket is created or
+     *        removed
+     */
+    public void setAccessDecisionCache(AccessDecisionCache accessDecisionCache) {
+        this.accessDecisionCache = accessDecisionCache;
+    }
+    
+    /**
+     * @param ticketGrantIndex index of the items covered by tickets,
+     *        maintained as tickets are created and removed and as
+     *        items are added to and removed from collections
+     */
+    public void setTicketGrantIndex(TicketGrantIndex ticketGrantIndex) {
+        this.ticketGrantIndex = ticketGrantIndex;
+    }
+    
     /**
      * Sets the maximum ammount of time (in millisecondes) that the
      * service will wait on acquiring an exclusive lock on a CollectionItem.
@@ -911,6 +1051,23 @@ public class StandardContentService implements ContentService {
         this.lockTimeout = lockTimeout;
     }
     
+    private void invalidateAccessDecisions() {
+        if (accessDecisionCache != null)
+            accessDecisionCache.invalidateAll();
+    }
+    
+    private void invalidateTicketGrants(Item item) {
+        if (ticketGrantIndex != null)
+            ticketGrantIndex.invalidate(item);
+    }
+    
+    private void invalidateTicketGrants(Set<? extends Item> items) {
+        if (ticketGrantIndex == null)
+            return;
+        for (Item item : items)
+            ticketGrantIndex.invalidate(item);
+    }
+    
     /**
      * Given a set of items, aquire a lock on all parents
      */
@@ -924,6 +1081,7 @@ public class StandardContentService implements ContentService {
             for(Item child : children)
                 acquireLocks(locks, child);
            
+            checkLocks(locks);
             return locks;
         } catch (RuntimeException e) {
             releaseLocks(locks);
@@ -950,6 +1108,7 @@ public class StandardContentService implements ContentService {
             for(Item child : children)
                 acquireLocks(locks, child);
            
+            checkLocks(locks);
             return locks;
         } catch (RuntimeException e) {
             releaseLocks(locks);
@@ -968,6 +1127,7 @@ public class StandardContentService implements ContentService {
         HashSet<CollectionItem> locks = new HashSet<CollectionItem>();
         try {
             acquireLocks(locks,item);
+            checkLocks(locks);
             return locks;
         } catch (RuntimeException e) {
             releaseLocks(locks);
@@ -993,6 +1153,16 @@ public class StandardContentService implements ContentService {
         }
     }
     
+    /**
+     * Check, in the current transaction, that the acquired locks are
+     * still held, so that a lock lost to another node fails the
+     * write instead of overlapping with the writes of the new holder.
+     */
+    private void checkLocks(Set<CollectionItem> locks) {
+        for(CollectionItem lock : locks)
+            lockManager.checkLock(lock);
+    }
+    
     private void releaseLocks(Set<CollectionItem> locks) {
         for(CollectionItem lock : locks)
             lockManager.unlockCollection(lock);
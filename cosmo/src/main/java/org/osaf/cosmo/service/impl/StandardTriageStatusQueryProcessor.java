@@ -20,6 +20,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -33,11 +34,14 @@ import net.fortuna.ical4j.model.TimeZone;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.osaf.cosmo.calendar.ICalendarUtils;
 import org.osaf.cosmo.calendar.Instance;
 import org.osaf.cosmo.calendar.InstanceList;
 import org.osaf.cosmo.calendar.RecurrenceExpander;
+import org.osaf.cosmo.calendar.RecurrenceExpansionCache;
 import org.osaf.cosmo.dao.ContentDao;
 import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.EventExceptionStamp;
 import org.osaf.cosmo.model.EventStamp;
 import org.osaf.cosmo.model.Item;
 import org.osaf.cosmo.model.ModificationUid;
@@ -64,6 +68,7 @@ public class StandardTriageStatusQueryProcessor implements
         TriageStatusQueryProcessor {
 
     private ContentDao contentDao = null;
+    private RecurrenceExpansionCache expansionCache = null;
     
     private static final Log log = LogFactory.getLog(StandardTriageStatusQueryProcessor.class);
     private static final Comparator<NoteItem> COMPARE_ASC = new NoteItemTriageStatusComparator(false);
@@ -117,17 +122,230 @@ public class StandardTriageStatusQueryProcessor implements
             throw new IllegalArgumentException("invalid status: " + context.getTriageStatus());
     }
 
+    /**
+     * ALL Query:<br/>
+     *   - the union of the NOW, LATER and DONE queries, computed in a
+     *     single pass.  Items with a triage status are fetched at once,
+     *     recurring events are fetched once for a year before and after
+     *     the point in time, and each recurring master is expanded once
+     *     over the union of its NOW, LATER and DONE periods.
+     */
     private QueryResult getAll(CollectionItem collection,
                                TriageStatusQueryContext context) {
-        QueryResult qr = new QueryResult();
+        QueryResult now = new QueryResult();
+        QueryResult later = new QueryResult(false, -1);
+        QueryResult done = new QueryResult(true, maxDone);
+        Date currentDate = context.getPointInTime();
+
+        NoteItemFilter nowFilter =
+            getTriageStatusFilter(collection, TriageStatus.CODE_NOW);
+        NoteItemFilter noTriageStatusFilter =
+            getTriageStatusFilter(collection, -1);
+        noTriageStatusFilter.setIsModification(false);
+        NoteItemFilter laterFilter =
+            getTriageStatusFilter(collection, TriageStatus.CODE_LATER);
+        NoteItemFilter doneFilter =
+            getTriageStatusFilter(collection, TriageStatus.CODE_DONE);
+        doneFilter.setMaxResults(maxDone);
+        doneFilter.addOrderBy(ContentItemFilter.ORDER_BY_TRIAGE_STATUS_RANK_ASC);
+
+        // Recurring event filter spanning the DONE, NOW and LATER periods
+        Date laterDate = yearLaterDur.getTime(currentDate);
+        NoteItemFilter eventFilter =
+            getRecurringEventFilter(collection,
+                                    yearDoneDur.getTime(currentDate),
+                                    laterDate, context.getTimeZone());
 
-        qr.add(getNow(collection, context));
-        qr.add(getDone(collection, context));
-        qr.add(getLater(collection, context));
+        // Add all non-recurring items with an explicit triage status,
+        // modifications with NOW or LATER triage, or no triage
+        ItemFilter[] filters = new ItemFilter[] {
+            nowFilter, noTriageStatusFilter, laterFilter, doneFilter
+        };
+        for(Item item : contentDao.findItems(filters)) {
+            NoteItem note = (NoteItem) item;
+            EventStamp eventStamp = StampUtils.getEventStamp(note);
+
+            // Don't add recurring events
+            if(eventStamp!=null && eventStamp.isRecurring())
+                continue;
+
+            TriageStatus status = note.getTriageStatus();
+            Integer code = status!=null ? status.getCode() : null;
+            if(code!=null && code.equals(TriageStatus.CODE_DONE)) {
+                done.getResults().add(note);
+                continue;
+            }
+
+            QueryResult qr =
+                code!=null && code.equals(TriageStatus.CODE_LATER) ?
+                later : now;
+            qr.getResults().add(note);
+            // keep track of master
+            if(note.getModifies()!=null)
+                qr.getMasters().add(note.getModifies());
+        }
+
+        // Now process recurring events
+        for(Item item: contentDao.findItems(eventFilter)) {
+            NoteItem note = (NoteItem) item;
+
+            // per bug 10623:
+            // return all modifications for later
+            if(note.getModifies()!=null) {
+                if(isModificationInRange(note, currentDate, laterDate,
+                                         context.getTimeZone())) {
+                    later.getResults().add(note);
+                    later.getMasters().add(note.getModifies());
+                }
+                continue;
+            }
+
+            getAllFromRecurringNote(note, context, now, later, done);
+        }
+
+        // add masters for all DONE ocurrences and modifications
+        for(NoteItem note: done.getResults())
+            if(note instanceof NoteOccurrence)
+                done.getMasters().add(((NoteOccurrence) note).getMasterNote());
+            else if(note.getModifies()!=null)
+                done.getMasters().add(note.getModifies());
+
+        QueryResult qr = new QueryResult();
+        qr.add(now);
+        qr.add(done);
+        qr.add(later);
 
         return qr;
     }
 
+    /**
+     * Expand a recurring event once and add its NOW occurrences and
+     * modifications, its next occurrence or LATER modification and its
+     * most recent occurrence or DONE modification to the given results.
+     */
+    private void getAllFromRecurringNote(NoteItem note,
+                                         TriageStatusQueryContext context,
+                                         QueryResult now,
+                                         QueryResult later,
+                                         QueryResult done) {
+        EventStamp eventStamp = StampUtils.getEventStamp(note);
+        TimeZone timezone = context.getTimeZone();
+        Date currentDate = context.getPointInTime();
+        Date pastDate = getDurToUseForExpanding(eventStamp, false).getTime(
+                currentDate);
+        Date futureDate = getDurToUseForExpanding(eventStamp, true).getTime(
+                currentDate);
+
+        InstanceList occurrences = getOcurrences(eventStamp,
+                new DateTime(pastDate), new DateTime(futureDate), timezone);
+        ArrayList<Instance> instances =
+            new ArrayList<Instance>((Collection<Instance>) occurrences.values());
+        ModificationIndex mods = new ModificationIndex(note);
+
+        // occurrences that overlap the current instant in time, and
+        // modifications without triage status
+        DateTime currentDateTime = new DateTime(currentDate);
+        boolean occursNow = false;
+        for(Instance instance: instances) {
+            if(!ICalendarUtils.beforeDate(instance.getStart(), currentDateTime, timezone)
+               || !ICalendarUtils.afterDate(instance.getEnd(), currentDateTime, timezone))
+                continue;
+            if(!instance.isOverridden()) {
+                now.getResults().add(NoteOccurrenceUtil.createNoteOccurrence(instance.getRid(), note));
+                occursNow = true;
+            } else {
+                NoteItem mod = getModification(note, instance, mods);
+                if(mod!=null && (mod.getTriageStatus()==null || mod.getTriageStatus().getCode()==null)) {
+                    now.getResults().add(mod);
+                    occursNow = true;
+                }
+            }
+        }
+        if(occursNow)
+            now.getMasters().add(note);
+
+        // the first occurrence or LATER modification that begins after
+        // the current instant in time
+        for(Instance instance: instances) {
+            if(!instance.getStart().after(currentDate))
+                continue;
+            NoteItem laterItem = getInstanceOrModification(note, instance,
+                    TriageStatus.CODE_LATER, mods);
+            if(laterItem!=null) {
+                later.getResults().add(laterItem);
+                later.getMasters().add(note);
+                break;
+            }
+        }
+
+        // the last occurrence or DONE modification that ends before
+        // the current instant in time
+        for(int i=instances.size()-1; i>=0; i--) {
+            Instance instance = instances.get(i);
+            if(!instance.getEnd().before(currentDate))
+                continue;
+            NoteItem doneItem = getInstanceOrModification(note, instance,
+                    TriageStatus.CODE_DONE, mods);
+            if(doneItem!=null) {
+                done.getResults().add(doneItem);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Return the occurrence for an instance that is not overridden, or
+     * the modification for an instance that is, if the modification
+     * has the given triage status or none.
+     */
+    private NoteItem getInstanceOrModification(NoteItem note,
+                                               Instance instance,
+                                               int code,
+                                               ModificationIndex mods) {
+        if(!instance.isOverridden())
+            return NoteOccurrenceUtil.createNoteOccurrence(instance.getRid(), note);
+
+        NoteItem mod = getModification(note, instance, mods);
+        if(mod==null)
+            return null;
+        TriageStatus status = mod.getTriageStatus();
+        if(status==null || status.getCode().equals(code))
+            return mod;
+        return null;
+    }
+
+    /**
+     * Return the modification for an overridden instance from the
+     * given modifications.
+     */
+    private NoteItem getModification(NoteItem note, Instance instance,
+                                     ModificationIndex mods) {
+        NoteItem mod = mods.get(
+                ModificationUid.fromDateToStringNoTimezone(instance.getRid()));
+        // shouldn't happen, but log and continue if it does
+        if(mod==null)
+            log.error("no modification found for uid: "
+                    + new ModificationUid(note, instance.getRid()).toString());
+        return mod;
+    }
+
+    /**
+     * Determine whether a modification overlaps a date range.
+     */
+    private boolean isModificationInRange(NoteItem mod, Date rangeStart,
+                                          Date rangeEnd, TimeZone timezone) {
+        EventExceptionStamp exceptionStamp =
+            StampUtils.getEventExceptionStamp(mod);
+        if(exceptionStamp==null || exceptionStamp.getEvent()==null)
+            return false;
+
+        InstanceList instances = new InstanceList();
+        instances.setTimezone(timezone);
+        instances.addComponent(exceptionStamp.getEvent(),
+                new DateTime(rangeStart), new DateTime(rangeEnd));
+        return instances.size() > 0;
+    }
+
     private QueryResult getAll(NoteItem note,
                                TriageStatusQueryContext context) {
         QueryResult qr = new QueryResult();
@@ -236,14 +454,13 @@ public class StandardTriageStatusQueryProcessor implements
                                 TriageStatusQueryContext context) {
         EventStamp eventStamp = StampUtils.getEventStamp(note);
         DateTime currentDate = new DateTime(context.getPointInTime()); 
-        RecurrenceExpander expander = new RecurrenceExpander();
         HashSet<NoteItem> results = new HashSet<NoteItem>();
         
         // Get all occurrences that overlap current instance in time
-        InstanceList occurrences = expander.getOcurrences(
-                eventStamp.getEvent(), eventStamp.getExceptions(), currentDate,
+        InstanceList occurrences = getOcurrences(eventStamp, currentDate,
                 currentDate, context.getTimeZone());
         
+        ModificationIndex mods = new ModificationIndex(note);
         for(Instance instance: (Collection<Instance>) occurrences.values()) {
             // Not interested in modifications
             if(!instance.isOverridden()) {
@@ -251,8 +468,9 @@ public class StandardTriageStatusQueryProcessor implements
                 results.add(NoteOccurrenceUtil.createNoteOccurrence(instance.getRid(), note));
             } else {
                 // return modification if it has no triage-status
-                ModificationUid modUid = new ModificationUid(note, instance.getRid());
-                NoteItem mod = (NoteItem) contentDao.findItemByUid(modUid.toString());
+                NoteItem mod = getModification(note, instance, mods);
+                if(mod==null)
+                    continue;
                 if(mod.getTriageStatus()==null || mod.getTriageStatus().getCode()==null)
                     results.add(mod);
             }
@@ -494,10 +712,9 @@ public class StandardTriageStatusQueryProcessor implements
     private NoteItem getLatestInstanceOrModification(EventStamp event, Date rangeStart, Date rangeEnd,
             TimeZone timezone) {
         NoteItem note = (NoteItem) event.getItem();
-        RecurrenceExpander expander = new RecurrenceExpander();
-        
-        InstanceList instances = expander.getOcurrences(event.getEvent(), event.getExceptions(),
-                new DateTime(rangeStart), new DateTime(rangeEnd), timezone);
+        InstanceList instances = getOcurrences(event, new DateTime(rangeStart),
+                new DateTime(rangeEnd), timezone);
+        ModificationIndex mods = new ModificationIndex(note);
 
         // Find the latest occurrence that ends before the end of the range
         while (instances.size() > 0) {
@@ -505,13 +722,10 @@ public class StandardTriageStatusQueryProcessor implements
             Instance instance = (Instance) instances.remove(lastKey);
             if (instance.getEnd().before(rangeEnd)) {
                 if(instance.isOverridden()) {
-                    ModificationUid modUid = new ModificationUid(note, instance.getRid());
-                    NoteItem mod = (NoteItem) contentDao.findItemByUid(modUid.toString());
-                    // shouldn't happen, but log and continue if it does
-                    if(mod==null) {
-                        log.error("no modification found for uid: " + modUid.toString());
+                    NoteItem mod = getModification(note, instance, mods);
+                    // shouldn't happen, but continue if it does
+                    if(mod==null)
                         continue;
-                    }
                     TriageStatus status = mod.getTriageStatus();
                     if(status==null || status.getCode().equals(TriageStatus.CODE_DONE))
                         return mod;
@@ -535,9 +749,9 @@ public class StandardTriageStatusQueryProcessor implements
      */
     private NoteItem getFirstInstanceOrModification(EventStamp event, Date rangeStart, Date rangeEnd, TimeZone timezone) {
         NoteItem note = (NoteItem) event.getItem();
-        RecurrenceExpander expander = new RecurrenceExpander();
-        
-        InstanceList instances = expander.getOcurrences(event.getEvent(), event.getExceptions(), new DateTime(rangeStart), new DateTime(rangeEnd), timezone );
+        InstanceList instances = getOcurrences(event, new DateTime(rangeStart),
+                new DateTime(rangeEnd), timezone);
+        ModificationIndex mods = new ModificationIndex(note);
      
         // Find the first occurrence that begins after the start range
         while(instances.size()>0) {
@@ -545,13 +759,10 @@ public class StandardTriageStatusQueryProcessor implements
             Instance instance = (Instance) instances.remove(firstKey);
             if(instance.getStart().after(rangeStart)) {
                 if(instance.isOverridden()) {
-                    ModificationUid modUid = new ModificationUid(note, instance.getRid());
-                    NoteItem mod = (NoteItem) contentDao.findItemByUid(modUid.toString());
-                    // shouldn't happen, but log and continue if it does
-                    if(mod==null) {
-                        log.error("no modification found for uid: " + modUid.toString());
+                    NoteItem mod = getModification(note, instance, mods);
+                    // shouldn't happen, but continue if it does
+                    if(mod==null)
                         continue;
-                    }
                     TriageStatus status = mod.getTriageStatus();
                     if(status==null || status.getCode().equals(TriageStatus.CODE_LATER))
                         return mod;
@@ -565,6 +776,20 @@ public class StandardTriageStatusQueryProcessor implements
     }
     
     
+    /**
+     * Expand a recurring event, using the expansion cache if configured.
+     */
+    private InstanceList getOcurrences(EventStamp event, DateTime rangeStart,
+            DateTime rangeEnd, TimeZone timezone) {
+        if (expansionCache != null)
+            return expansionCache.getOcurrences(event, rangeStart, rangeEnd,
+                    timezone);
+        
+        RecurrenceExpander expander = new RecurrenceExpander();
+        return expander.getOcurrences(event.getEvent(), event.getExceptions(),
+                rangeStart, rangeEnd, timezone);
+    }
+    
     private Set<NoteItem> getModificationsByTriageStatus(NoteItem master, Integer triageStatus) {
         
         HashSet<NoteItem> mods = new HashSet<NoteItem>();
@@ -635,6 +860,15 @@ public class StandardTriageStatusQueryProcessor implements
         this.contentDao = contentDao;
     }
 
+    /**
+     * Set the cache used to memoize the expansion of recurring
+     * events.  If not set, recurring events are expanded each time.
+     * @param expansionCache
+     */
+    public void setExpansionCache(RecurrenceExpansionCache expansionCache) {
+        this.expansionCache = expansionCache;
+    }
+    
     public void setMaxDone(int maxDone) {
         this.maxDone = maxDone;
     }
@@ -700,4 +934,32 @@ public class StandardTriageStatusQueryProcessor implements
             return merged;
         }
     }
+
+    /**
+     * The modifications of a recurring master, indexed by recurrence
+     * id as formatted in a modification uid, so that they don't have
+     * to be looked up one by one.  The modifications are only loaded
+     * when the first overridden instance is looked up, so masters
+     * whose instances in range aren't overridden don't load them.
+     */
+    private static class ModificationIndex {
+        private NoteItem master;
+        private HashMap<String, NoteItem> mods = null;
+
+        public ModificationIndex(NoteItem master) {
+            this.master = master;
+        }
+
+        public NoteItem get(String recurrenceId) {
+            if(mods==null) {
+                mods = new HashMap<String, NoteItem>();
+                for(NoteItem mod: master.getModifications()) {
+                    String uid = mod.getUid();
+                    int index = uid.lastIndexOf(ModificationUid.RECURRENCEID_DELIMITER);
+                    mods.put(uid.substring(index + 1), mod);
+                }
+            }
+            return mods.get(recurrenceId);
+        }
+    }
 }
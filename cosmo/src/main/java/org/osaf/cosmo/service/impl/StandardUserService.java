@@ -29,6 +29,7 @@ import org.osaf.cosmo.model.DuplicateUsernameException;
 import org.osaf.cosmo.model.HomeCollectionItem;
 import org.osaf.cosmo.model.PasswordRecovery;
 import org.osaf.cosmo.model.User;
+import org.osaf.cosmo.security.util.AccessDecisionCache;
 import org.osaf.cosmo.service.OverlordDeletionException;
 import org.osaf.cosmo.service.ServiceEvent;
 import org.osaf.cosmo.service.ServiceListener;
@@ -54,6 +55,7 @@ public class StandardUserService extends BaseService implements UserService {
     private StringIdentifierGenerator passwordGenerator;
     private ContentDao contentDao;
     private UserDao userDao;
+    private AccessDecisionCache accessDecisionCache;
 
     // UserService methods
 
@@ -210,6 +212,7 @@ public class StandardUserService extends BaseService implements UserService {
      */
     public User updateUser(User user) {
         boolean isUsernameChanged = user.isUsernameChanged();
+        String oldUsername = user.getOldUsername();
         if (log.isDebugEnabled()) {
             log.debug("updating user " + user.getOldUsername());
             if (isUsernameChanged)
@@ -223,6 +226,12 @@ public class StandardUserService extends BaseService implements UserService {
        
         userDao.updateUser(user);
 
+        // subscriptions may have changed
+        if (accessDecisionCache != null) {
+            accessDecisionCache.invalidate(oldUsername);
+            accessDecisionCache.invalidate(user.getUsername());
+        }
+
         User newUser = userDao.getUser(user.getUsername());
 
         if (isUsernameChanged) {
@@ -416,6 +425,15 @@ public class StandardUserService extends BaseService implements UserService {
         this.userDao = userDao;
     }
 
+    /**
+     * @param accessDecisionCache cache of the tickets referenced by
+     *        each user's subscriptions, invalidated whenever a user
+     *        is updated or removed
+     */
+    public void setAccessDecisionCache(AccessDecisionCache accessDecisionCache) {
+        this.accessDecisionCache = accessDecisionCache;
+    }
+
     public PasswordRecovery getPasswordRecovery(String key) {
          PasswordRecovery passwordRecovery = userDao.getPasswordRecovery(key);
          
@@ -456,5 +474,8 @@ public class StandardUserService extends BaseService implements UserService {
         // (items that only exist in other user's collections)
         contentDao.removeUserContent(user);
         userDao.removeUser(user);
+        // the user's tickets were removed along with their items
+        if (accessDecisionCache != null)
+            accessDecisionCache.invalidateAll();
     }
 }
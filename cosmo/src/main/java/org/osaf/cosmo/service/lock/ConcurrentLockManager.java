@@ -0,0 +1,362 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.service.lock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osaf.cosmo.model.CollectionItem;
+
+/**
+ * An implementation of <code>LockManager</code> that supports locking
+ * within a single JVM without any global synchronization.
+ * <p>
+ * Locks are kept in a <code>ConcurrentHashMap</code> and are reference
+ * counted: each thread holding or waiting for a lock holds a
+ * reference to it, and the lock is removed from the map by the
+ * thread that releases the last reference.  Only locks that are in
+ * use are kept in memory, so there is no cleanup scan.  At most
+ * <code>maxLocks</code> collections can be locked at the same time.
+ * <p>
+ * As with {@link SingleVMLockManager}, a thread owns a lock until it
+ * unlocks it, and a thread that attempts to unlock a lock it doesn't
+ * own will result in a RuntimeException.
+ * <p>
+ * Lock wait times are tracked overall and, for collections whose
+ * lock was contended, per collection.  The statistics are exported
+ * through {@link ConcurrentLockManagerMBean}.
+ *
+ * @see LockManager
+ */
+public class ConcurrentLockManager implements LockManager,
+        ConcurrentLockManagerMBean {
+    private static final Log log =
+        LogFactory.getLog(ConcurrentLockManager.class);
+
+    private int maxLocks = 10000;
+    private int maxTrackedCollections = 1000;
+
+    private ConcurrentHashMap<String, CollectionLock> locks =
+        new ConcurrentHashMap<String, CollectionLock>();
+    private AtomicInteger numLocks = new AtomicInteger(0);
+
+    private ConcurrentHashMap<String, CollectionLockStatistics> statistics =
+        new ConcurrentHashMap<String, CollectionLockStatistics>();
+    private CollectionLockStatistics totals = new CollectionLockStatistics();
+    private AtomicLong acquisitions = new AtomicLong(0);
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.lock.LockManager#lockCollection(org.osaf.cosmo.model.CollectionItem)
+     */
+    public void lockCollection(CollectionItem collection) {
+        lockCollection(collection, -1);
+    }
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.lock.LockManager#lockCollection(org.osaf.cosmo.model.CollectionItem, long)
+     */
+    public boolean lockCollection(CollectionItem collection, long timeout) {
+        String uid = collection.getUid();
+        CollectionLock lock = reference(uid);
+
+        // uncontended case
+        if (lock.tryLock()) {
+            acquisitions.incrementAndGet();
+            return true;
+        }
+
+        long start = System.nanoTime();
+        boolean locked = false;
+        try {
+            if (timeout < 0) {
+                lock.lock();
+                locked = true;
+            } else {
+                locked = lock.tryLock(timeout, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("thread interrupted, no lock acquired");
+        } finally {
+            if (!locked)
+                release(uid, lock);
+            recordContention(uid, System.nanoTime() - start, locked);
+        }
+
+        if (locked)
+            acquisitions.incrementAndGet();
+        return locked;
+    }
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.lock.LockManager#unlockCollection(org.osaf.cosmo.model.CollectionItem)
+     */
+    public void unlockCollection(CollectionItem collection) {
+        String uid = collection.getUid();
+        CollectionLock lock = locks.get(uid);
+
+        // unlock if there is a lock to unlock
+        if (lock == null)
+            return;
+        if (!lock.isHeldByCurrentThread())
+            throw new RuntimeException("Current thread does not own lock");
+
+        lock.unlock();
+        release(uid, lock);
+    }
+
+    /**
+     * Returns -1, since locks held within a single JVM have no token.
+     */
+    public long getLockToken(CollectionItem collection) {
+        return -1;
+    }
+
+    /**
+     * Does nothing, since a lock held within a single JVM can't be
+     * lost.
+     */
+    public void checkLock(CollectionItem collection) {
+    }
+
+    /**
+     * Check if a collection is locked
+     * @param collection
+     * @return true if collection is locked
+     */
+    public boolean isLocked(CollectionItem collection) {
+        CollectionLock lock = locks.get(collection.getUid());
+        return lock != null && lock.isLocked();
+    }
+
+    /**
+     * Return the number of threads waiting on collection lock
+     * @param collection
+     * @return number of threads waiting on collection lock
+     */
+    public int getNumWaitingThreads(CollectionItem collection) {
+        CollectionLock lock = locks.get(collection.getUid());
+        return lock == null ? 0 : lock.getQueueLength();
+    }
+
+    public int getNumLocksInMemory() {
+        return numLocks.get();
+    }
+
+    public int getMaxLocks() {
+        return maxLocks;
+    }
+
+    /**
+     * Set the maximum number of collections that can be locked (or
+     * waited on) at the same time.
+     * @param maxLocks
+     */
+    public void setMaxLocks(int maxLocks) {
+        this.maxLocks = maxLocks;
+    }
+
+    public int getMaxTrackedCollections() {
+        return maxTrackedCollections;
+    }
+
+    /**
+     * Set the maximum number of collections for which contention
+     * statistics are kept.  Contention on further collections is
+     * only reflected in the overall statistics.
+     * @param maxTrackedCollections
+     */
+    public void setMaxTrackedCollections(int maxTrackedCollections) {
+        this.maxTrackedCollections = maxTrackedCollections;
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.get();
+    }
+
+    public long getContendedAcquisitions() {
+        return totals.contended.get();
+    }
+
+    public long getTimeouts() {
+        return totals.timeouts.get();
+    }
+
+    public long getTotalWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(totals.waitTime.get());
+    }
+
+    public long getMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(totals.maxWaitTime.get());
+    }
+
+    public String[] getCollectionStatistics() {
+        List<Entry<String, CollectionLockStatistics>> entries =
+            new ArrayList<Entry<String, CollectionLockStatistics>>(
+                    statistics.entrySet());
+        Collections.sort(entries,
+                new Comparator<Entry<String, CollectionLockStatistics>>() {
+            public int compare(Entry<String, CollectionLockStatistics> e1,
+                               Entry<String, CollectionLockStatistics> e2) {
+                long w1 = e1.getValue().waitTime.get();
+                long w2 = e2.getValue().waitTime.get();
+                return w1 > w2 ? -1 : (w1 == w2 ? 0 : 1);
+            }
+        });
+
+        String[] result = new String[entries.size()];
+        int i = 0;
+        for (Iterator<Entry<String, CollectionLockStatistics>> it =
+                entries.iterator(); it.hasNext();) {
+            Entry<String, CollectionLockStatistics> entry = it.next();
+            result[i++] = entry.getKey() + ": " + entry.getValue();
+        }
+        return result;
+    }
+
+    public void resetStatistics() {
+        statistics.clear();
+        totals = new CollectionLockStatistics();
+        acquisitions.set(0);
+    }
+
+    /**
+     * Get the lock for a collection, creating it if necessary, and
+     * add a reference to it.
+     */
+    private CollectionLock reference(String uid) {
+        while (true) {
+            CollectionLock lock = locks.get(uid);
+            if (lock != null) {
+                if (lock.reference())
+                    return lock;
+                // the lock is being removed; wait for the removing
+                // thread to finish and try again
+                Thread.yield();
+                continue;
+            }
+
+            if (numLocks.incrementAndGet() > maxLocks) {
+                numLocks.decrementAndGet();
+                log.info("max locks reached(" + maxLocks + ")");
+                throw new RuntimeException(
+                        "Maximum ammount of locks in memeory reached");
+            }
+
+            lock = new CollectionLock();
+            if (locks.putIfAbsent(uid, lock) == null)
+                return lock;
+            numLocks.decrementAndGet();
+        }
+    }
+
+    /**
+     * Release a reference to the lock of a collection, removing the
+     * lock if it is no longer used.
+     */
+    private void release(String uid, CollectionLock lock) {
+        if (lock.release()) {
+            locks.remove(uid, lock);
+            numLocks.decrementAndGet();
+        }
+    }
+
+    private void recordContention(String uid, long waitTime, boolean locked) {
+        totals.record(waitTime, locked);
+
+        CollectionLockStatistics stats = statistics.get(uid);
+        if (stats == null) {
+            if (statistics.size() >= maxTrackedCollections)
+                return;
+            stats = new CollectionLockStatistics();
+            CollectionLockStatistics existing = statistics.putIfAbsent(uid, stats);
+            if (existing != null)
+                stats = existing;
+        }
+        stats.record(waitTime, locked);
+    }
+
+    /**
+     * Lock with a count of the threads holding or waiting for it.
+     * Once the count drops to zero the lock is dead and can't be
+     * referenced again, so a thread can never acquire a lock that
+     * has been removed from the map.
+     */
+    static class CollectionLock extends ReentrantLock {
+
+        private AtomicInteger references = new AtomicInteger(1);
+
+        /**
+         * @return false if the lock is dead
+         */
+        boolean reference() {
+            while (true) {
+                int count = references.get();
+                if (count == 0)
+                    return false;
+                if (references.compareAndSet(count, count + 1))
+                    return true;
+            }
+        }
+
+        /**
+         * @return true if this was the last reference
+         */
+        boolean release() {
+            return references.decrementAndGet() == 0;
+        }
+    }
+
+    /**
+     * Contention statistics of a collection lock.
+     */
+    static class CollectionLockStatistics {
+        AtomicLong contended = new AtomicLong(0);
+        AtomicLong timeouts = new AtomicLong(0);
+        AtomicLong waitTime = new AtomicLong(0);
+        AtomicLong maxWaitTime = new AtomicLong(0);
+
+        void record(long wait, boolean locked) {
+            contended.incrementAndGet();
+            if (!locked)
+                timeouts.incrementAndGet();
+            waitTime.addAndGet(wait);
+            while (true) {
+                long max = maxWaitTime.get();
+                if (wait <= max || maxWaitTime.compareAndSet(max, wait))
+                    break;
+            }
+        }
+
+        public String toString() {
+            return "contended=" + contended.get() + " timeouts="
+                    + timeouts.get() + " totalWait="
+                    + TimeUnit.NANOSECONDS.toMillis(waitTime.get())
+                    + "ms maxWait="
+                    + TimeUnit.NANOSECONDS.toMillis(maxWaitTime.get()) + "ms";
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.service.lock;
+
+/**
+ * Management interface for {@link ConcurrentLockManager}.
+ */
+public interface ConcurrentLockManagerMBean {
+
+    /**
+     * @return number of collections currently locked or waited on
+     */
+    public int getNumLocksInMemory();
+
+    /**
+     * @return maximum number of collections that can be locked at
+     *         the same time
+     */
+    public int getMaxLocks();
+
+    /**
+     * @return number of locks acquired
+     */
+    public long getAcquisitions();
+
+    /**
+     * @return number of lock requests that had to wait because the
+     *         lock was held by another thread
+     */
+    public long getContendedAcquisitions();
+
+    /**
+     * @return number of lock requests that timed out
+     */
+    public long getTimeouts();
+
+    /**
+     * @return total time in milliseconds spent waiting for locks
+     */
+    public long getTotalWaitTime();
+
+    /**
+     * @return longest time in milliseconds spent waiting for a lock
+     */
+    public long getMaxWaitTime();
+
+    /**
+     * @return contention statistics of each collection whose lock
+     *         was contended, ordered by total wait time
+     */
+    public String[] getCollectionStatistics();
+
+    /**
+     * Reset all statistics.
+     */
+    public void resetStatistics();
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.service.lock;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osaf.cosmo.dao.CollectionLockDao;
+import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.CollectionLockedException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * An implementation of <code>LockManager</code> that locks collections
+ * across all nodes of a cluster sharing the same database.
+ * <p>
+ * A collection is locked by first locking it within the JVM, using a
+ * {@link ConcurrentLockManager}, and then acquiring a lease on the
+ * collection in the <code>collection_lock</code> table.  A thread that
+ * already holds the lock of a collection acquires it again without
+ * accessing the database.  Lease operations run in their own
+ * transactions, independent of the transaction of the caller, so a
+ * thread that locks a collection while its transaction is open uses
+ * a second connection for the duration of the lease operation.  The
+ * connection pool must allow for one extra connection per thread that
+ * can lock collections at the same time, or threads will wait for
+ * connections held by other threads waiting for connections.
+ * <p>
+ * Leases expire after <code>leaseDuration</code> milliseconds unless
+ * they are renewed, so a collection locked by a node that dies is
+ * unlocked once the lease expires.  Held leases are renewed every
+ * <code>heartbeatInterval</code> milliseconds by a background thread.
+ * Expiry is based on the clocks of the nodes, so the lease duration
+ * must be much longer than both the heartbeat interval and the clock
+ * skew between nodes.
+ * <p>
+ * Every acquisition of a lease gets a new token.  A node whose lease
+ * could not be renewed in time, for example because the node was
+ * paused for longer than the lease duration, may find that another
+ * node has taken the lease over, so writes are fenced by the token:
+ * {@link #checkLock(CollectionItem)} updates the lease row in the
+ * transaction of the write, matching the token of the lease, and
+ * fails if the row no longer has that token.  The row then stays
+ * locked by the transaction of the write until it completes, so the
+ * lease can't be taken over before the write is committed, and the
+ * release of a checked lease is deferred until the transaction
+ * completes.
+ * <p>
+ * {@link #init()} must be called before use and {@link #destroy()}
+ * when the lock manager is no longer used.
+ *
+ * @see LockManager
+ * @see CollectionLockDao
+ */
+public class DatabaseLockManager implements LockManager {
+    private static final Log log =
+        LogFactory.getLog(DatabaseLockManager.class);
+
+    private CollectionLockDao lockDao;
+    private PlatformTransactionManager transactionManager;
+    private String nodeId;
+    private long leaseDuration = 60000;
+    private long heartbeatInterval = 20000;
+    private long pollInterval = 100;
+
+    private ConcurrentLockManager localLocks = new ConcurrentLockManager();
+    private ConcurrentHashMap<String, Lease> leases =
+        new ConcurrentHashMap<String, Lease>();
+    private TransactionTemplate txTemplate;
+    private Timer heartbeat;
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.lock.LockManager#lockCollection(org.osaf.cosmo.model.CollectionItem)
+     */
+    public void lockCollection(CollectionItem collection) {
+        lockCollection(collection, -1);
+    }
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.lock.LockManager#lockCollection(org.osaf.cosmo.model.CollectionItem, long)
+     */
+    public boolean lockCollection(CollectionItem collection, long timeout) {
+        long deadline = timeout < 0 ? -1 : currentTimeMillis() + timeout;
+
+        if (!localLocks.lockCollection(collection, timeout))
+            return false;
+
+        // only the thread holding the local lock can hold the lease
+        String uid = collection.getUid();
+        Lease lease = leases.get(uid);
+        if (lease != null) {
+            lease.holdCount++;
+            return true;
+        }
+
+        boolean acquired = false;
+        try {
+            Long token = acquireLease(uid, deadline);
+            if (token != null) {
+                leases.put(uid, new Lease(token.longValue(),
+                        currentTimeMillis() + leaseDuration));
+                acquired = true;
+            }
+        } finally {
+            if (!acquired)
+                localLocks.unlockCollection(collection);
+        }
+        return acquired;
+    }
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.lock.LockManager#unlockCollection(org.osaf.cosmo.model.CollectionItem)
+     */
+    public void unlockCollection(CollectionItem collection) {
+        String uid = collection.getUid();
+        Lease lease = leases.get(uid);
+
+        // let the local lock manager deal with locks that aren't ours
+        if (lease == null || lease.holder != Thread.currentThread()) {
+            localLocks.unlockCollection(collection);
+            return;
+        }
+
+        boolean deferred = false;
+        try {
+            if (--lease.holdCount == 0) {
+                if (lease.checked &&
+                    TransactionSynchronizationManager.isSynchronizationActive()) {
+                    // the lease row is locked by the current
+                    // transaction, so release it once it completes
+                    if (!lease.releasePending) {
+                        lease.releasePending = true;
+                        TransactionSynchronizationManager.registerSynchronization(
+                                new DeferredRelease(collection, lease));
+                        deferred = true;
+                    }
+                } else {
+                    leases.remove(uid);
+                    releaseLease(uid, lease);
+                }
+            }
+        } finally {
+            if (!deferred)
+                localLocks.unlockCollection(collection);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.osaf.cosmo.service.lock.LockManager#getLockToken(org.osaf.cosmo.model.CollectionItem)
+     */
+    public long getLockToken(CollectionItem collection) {
+        Lease lease = leases.get(collection.getUid());
+        if (lease == null || lease.holder != Thread.currentThread()
+                || lease.lost || lease.expires <= currentTimeMillis())
+            return -1;
+        return lease.token;
+    }
+
+    /**
+     * Check that the lease of the current thread on a collection
+     * still has its token, and extend it, in the current transaction.
+     * The lease row stays locked until the transaction completes, so
+     * no other node can take the lease over before then.
+     * @param collection locked collection
+     * @throws CollectionLockedException if the lease was taken over
+     *         by another node
+     * @throws IllegalStateException if the current thread doesn't
+     *         hold the lock
+     */
+    public void checkLock(CollectionItem collection) {
+        String uid = collection.getUid();
+        Lease lease = leases.get(uid);
+        if (lease == null || lease.holder != Thread.currentThread())
+            throw new IllegalStateException("current thread does not hold "
+                    + "the lock on collection " + uid);
+
+        if (!lease.lost && lockDao.renewLease(uid, nodeId, lease.token,
+                currentTimeMillis() + leaseDuration)) {
+            if (TransactionSynchronizationManager.isSynchronizationActive())
+                lease.checked = true;
+            return;
+        }
+
+        lease.lost = true;
+        throw new CollectionLockedException("lock on collection " + uid
+                + " was lost");
+    }
+
+    /**
+     * Check if a collection is locked by this node
+     * @param collection
+     * @return true if collection is locked by this node
+     */
+    public boolean isLocked(CollectionItem collection) {
+        return leases.containsKey(collection.getUid());
+    }
+
+    public void init() {
+        if (lockDao == null)
+            throw new IllegalStateException("lockDao must not be null");
+        if (transactionManager == null)
+            throw new IllegalStateException("transactionManager must not be null");
+        if (heartbeatInterval >= leaseDuration)
+            throw new IllegalStateException("heartbeatInterval must be shorter than leaseDuration");
+
+        if (nodeId == null)
+            nodeId = getHostName() + ":" + UUID.randomUUID().toString();
+
+        txTemplate = new TransactionTemplate(transactionManager);
+        txTemplate.setPropagationBehavior(
+                TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        if (heartbeatInterval > 0) {
+            heartbeat = new Timer(true);
+            heartbeat.schedule(new HeartbeatTask(), heartbeatInterval,
+                    heartbeatInterval);
+        }
+    }
+
+    public void destroy() {
+        if (heartbeat != null) {
+            heartbeat.cancel();
+            heartbeat = null;
+        }
+    }
+
+    public CollectionLockDao getLockDao() {
+        return lockDao;
+    }
+
+    public void setLockDao(CollectionLockDao lockDao) {
+        this.lockDao = lockDao;
+    }
+
+    public PlatformTransactionManager getTransactionManager() {
+        return transactionManager;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Set the id identifying this node as lease owner.  Must be
+     * unique within the cluster; defaults to the host name followed by
+     * a random uuid.
+     * @param nodeId
+     */
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public long getLeaseDuration() {
+        return leaseDuration;
+    }
+
+    /**
+     * Set the time in milliseconds after which a lease that is not
+     * renewed expires.
+     * @param leaseDuration
+     */
+    public void setLeaseDuration(long leaseDuration) {
+        this.leaseDuration = leaseDuration;
+    }
+
+    public long getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    /**
+     * Set the interval in milliseconds at which held leases are
+     * renewed.  A value of 0 disables renewal.
+     * @param heartbeatInterval
+     */
+    public void setHeartbeatInterval(long heartbeatInterval) {
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Set the time in milliseconds to wait between attempts to
+     * acquire a lease held by another node.
+     * @param pollInterval
+     */
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    private Long acquireLease(String uid, long deadline) {
+        while (true) {
+            Long token = tryAcquireLease(uid);
+            if (token != null)
+                return token;
+
+            long wait = pollInterval;
+            if (deadline >= 0) {
+                long remaining = deadline - currentTimeMillis();
+                if (remaining <= 0)
+                    return null;
+                wait = Math.min(wait, remaining);
+            }
+
+            try {
+                sleep(wait);
+            } catch (InterruptedException e) {
+                throw new RuntimeException("thread interrupted, no lock acquired");
+            }
+        }
+    }
+
+    private Long tryAcquireLease(final String uid) {
+        try {
+            return (Long) txTemplate.execute(new TransactionCallback() {
+                public Object doInTransaction(TransactionStatus status) {
+                    long now = currentTimeMillis();
+                    return lockDao.acquireLease(uid, nodeId,
+                            now + leaseDuration, now);
+                }
+            });
+        } catch (DataIntegrityViolationException e) {
+            // another node created the lease first
+            return null;
+        }
+    }
+
+    private void releaseLease(final String uid, final Lease lease) {
+        // a lost lease belongs to another node
+        if (lease.lost)
+            return;
+        try {
+            txTemplate.execute(new TransactionCallback() {
+                public Object doInTransaction(TransactionStatus status) {
+                    if (!lockDao.releaseLease(uid, nodeId, lease.token))
+                        log.warn("lease on collection " + uid
+                                + " was lost before it was released");
+                    return null;
+                }
+            });
+        } catch (RuntimeException e) {
+            // the lease will expire
+            log.error("error releasing lease on collection " + uid, e);
+        }
+    }
+
+    /**
+     * Renew the leases held by this node.  Called by the heartbeat
+     * thread.
+     */
+    void renewLeases() {
+        for (Iterator<Entry<String, Lease>> it =
+                leases.entrySet().iterator(); it.hasNext();) {
+            Entry<String, Lease> entry = it.next();
+            final String uid = entry.getKey();
+            final Lease lease = entry.getValue();
+            if (lease.lost)
+                continue;
+
+            final long expires = currentTimeMillis() + leaseDuration;
+            try {
+                Boolean renewed = (Boolean) txTemplate.execute(
+                        new TransactionCallback() {
+                    public Object doInTransaction(TransactionStatus status) {
+                        return Boolean.valueOf(lockDao.renewLease(uid,
+                                nodeId, lease.token, expires));
+                    }
+                });
+                if (renewed.booleanValue()) {
+                    lease.expires = expires;
+                } else {
+                    lease.lost = true;
+                    log.error("lease on collection " + uid + " was lost");
+                }
+            } catch (RuntimeException e) {
+                log.error("error renewing lease on collection " + uid, e);
+            }
+        }
+    }
+
+    /**
+     * The current time used to compute and check the expiry of leases.
+     * Must be consistent across the nodes of the cluster.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Wait before trying to acquire a lease held by another node
+     * again.
+     */
+    protected void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    /**
+     * A lease held by this node.  Only the thread holding the lease
+     * updates the hold count and the check state; the heartbeat
+     * thread updates the expiry time.
+     */
+    static class Lease {
+        final long token;
+        final Thread holder = Thread.currentThread();
+        int holdCount = 1;
+        // checked in the current transaction, so its row is locked
+        boolean checked = false;
+        boolean releasePending = false;
+        volatile long expires;
+        volatile boolean lost = false;
+
+        Lease(long token, long expires) {
+            this.token = token;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Releases a checked lease, and the local lock that goes with it,
+     * once the transaction that checked it completes.  The lease is
+     * kept if it was locked again during the transaction and is still
+     * held.
+     */
+    class DeferredRelease extends TransactionSynchronizationAdapter {
+        private CollectionItem collection;
+        private Lease lease;
+
+        DeferredRelease(CollectionItem collection, Lease lease) {
+            this.collection = collection;
+            this.lease = lease;
+        }
+
+        public void afterCompletion(int status) {
+            lease.checked = false;
+            lease.releasePending = false;
+            try {
+                if (lease.holdCount == 0) {
+                    leases.remove(collection.getUid());
+                    releaseLease(collection.getUid(), lease);
+                }
+            } finally {
+                localLocks.unlockCollection(collection);
+            }
+        }
+    }
+
+    class HeartbeatTask extends TimerTask {
+        public void run() {
+            // an exception thrown from a TimerTask kills the timer thread
+            try {
+                renewLeases();
+            } catch (RuntimeException e) {
+                log.error("error renewing leases", e);
+            }
+        }
+    }
+}
@@ -68,4 +68,28 @@ public interface LockManager {
      *            collection to unlock
      */
     public void unlockCollection(CollectionItem collection);
+
+    /**
+     * Get the fencing token of the lock held by the current thread on
+     * a collection.  Tokens increase with every acquisition of a lock
+     * that can be taken over by another node.
+     *
+     * @param collection locked collection
+     * @return the token, or -1 if the current thread doesn't hold a
+     *         valid lock on the collection or the lock has no token
+     */
+    public long getLockToken(CollectionItem collection);
+
+    /**
+     * Check, in the current transaction, that the lock held by the
+     * current thread on a collection is still valid, so that the
+     * writes of the transaction can't overlap with those of another
+     * holder of the lock.  Must be called after the lock is acquired
+     * and before the transaction commits.
+     *
+     * @param collection locked collection
+     * @throws org.osaf.cosmo.model.CollectionLockedException
+     *         if the lock was lost
+     */
+    public void checkLock(CollectionItem collection);
 }
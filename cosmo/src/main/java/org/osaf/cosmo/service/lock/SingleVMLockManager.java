@@ -59,6 +59,20 @@ public class SingleVMLockManager implements LockManager {
         return maxLocks;
     }
     
+    /**
+     * Returns -1, since locks held within a single JVM have no token.
+     */
+    public long getLockToken(CollectionItem collection) {
+        return -1;
+    }
+
+    /**
+     * Does nothing, since a lock held within a single JVM can't be
+     * lost.
+     */
+    public void checkLock(CollectionItem collection) {
+    }
+
     /**
      * Check if a collection is locked
      * @param collection
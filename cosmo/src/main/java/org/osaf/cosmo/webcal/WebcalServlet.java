@@ -15,46 +15,66 @@
  */
 package org.osaf.cosmo.webcal;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import net.fortuna.ical4j.model.Calendar;
-
 import org.apache.abdera.util.EntityTag;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.osaf.cosmo.calendar.EntityConverter;
 import org.osaf.cosmo.icalendar.ICalendarClientFilterManager;
+import org.osaf.cosmo.icalendar.ICalendarCollectionWriter;
 import org.osaf.cosmo.icalendar.ICalendarConstants;
-import org.osaf.cosmo.icalendar.ICalendarOutputter;
+import org.osaf.cosmo.icalendar.ICalendarFragmentCache;
 import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.ContentItemIterator;
 import org.osaf.cosmo.model.Item;
 import org.osaf.cosmo.model.StampUtils;
 import org.osaf.cosmo.security.CosmoSecurityException;
 import org.osaf.cosmo.server.CollectionPath;
 import org.osaf.cosmo.service.ContentService;
 import org.springframework.beans.BeansException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
 import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.context.support.WebApplicationContextUtils;
 
 /**
  * A simple servlet that provides a "webcal"-style iCalendar
  * representation of a calendar collection.
+ *
+ * The representation is written as the collection's children are
+ * loaded, a chunk at a time, rather than built as a single calendar
+ * object. If an <code>ICalendarFragmentCache</code> is available,
+ * each child's serialized components are cached under its entity tag
+ * and the whole representation is cached under the collection's
+ * entity tag.
  */
 public class WebcalServlet extends HttpServlet implements ICalendarConstants {
     private static final Log log = LogFactory.getLog(WebcalServlet.class);
     private static final String BEAN_CONTENT_SERVICE = "contentService";
     private static final String BEAN_CLIENT_FILTER_MANAGER = "iCalendarClientFilterManager";
+    private static final String BEAN_FRAGMENT_CACHE = "iCalendarFragmentCache";
+    private static final String BEAN_TRANSACTION_MANAGER =
+        "transactionManager";
 
     
     private WebApplicationContext wac;
     private ContentService contentService;
     private ICalendarClientFilterManager clientFilterManager;
+    private ICalendarFragmentCache fragmentCache;
+    private PlatformTransactionManager transactionManager;
     private EntityConverter entityConverter = new EntityConverter(null);
+    private int chunkSize = 100;
 
     // HttpServlet methods
 
@@ -156,16 +176,56 @@ public class WebcalServlet extends HttpServlet implements ICalendarConstants {
         resp.setHeader("Content-Disposition",
                        "attachment; filename=\"" + filename + "\"");
 
-        // get icalendar
-        Calendar calendar = entityConverter.convertCollection(collection);
-        
-        // Filter if necessary so we play nicely with clients
-        // that don't adhere to spec
-        if(clientFilterManager!=null)
-            clientFilterManager.filterCalendar(calendar);
-        
-        // spool
-        ICalendarOutputter.output(calendar, resp.getOutputStream());
+        String client = clientFilterManager != null ?
+            clientFilterManager.getClient() :
+            null;
+
+        if (fragmentCache != null) {
+            byte[] cached = fragmentCache.getCollection(collection.getUid(),
+                    collection.getEntityTag(), client);
+            if (cached != null) {
+                resp.setContentLength(cached.length);
+                resp.getOutputStream().write(cached);
+                return;
+            }
+        }
+
+        ICalendarCollectionWriter writer =
+            new ICalendarCollectionWriter(entityConverter,
+                                          clientFilterManager, fragmentCache);
+
+        // children are loaded as they are written, so keep the
+        // transaction open until the response is done.  the children
+        // are read twice: first for their timezones, then to stream
+        // their components
+        TransactionStatus tx = beginReadOnlyTransaction();
+        ContentItemIterator children = null;
+        try {
+            children = contentService.iterateChildren(collection, null,
+                                                      chunkSize);
+            Map<String, String> timezones = writer.findTimezones(children);
+            children.close();
+
+            children = contentService.iterateChildren(collection, null,
+                                                      chunkSize);
+            if (fragmentCache == null) {
+                writer.write(timezones, children, resp.getOutputStream());
+                return;
+            }
+
+            CapturingOutputStream out =
+                new CapturingOutputStream(resp.getOutputStream(),
+                        fragmentCache.getMaxCollectionBytes());
+            writer.write(timezones, children, out);
+            if (out.getCaptured() != null)
+                fragmentCache.putCollection(collection.getUid(),
+                        collection.getEntityTag(), client,
+                        out.getCaptured());
+        } finally {
+            if (children != null)
+                children.close();
+            endReadOnlyTransaction(tx);
+        }
     }
 
     protected EntityTag[] getIfNoneMatch(HttpServletRequest request) {
@@ -200,6 +260,15 @@ public class WebcalServlet extends HttpServlet implements ICalendarConstants {
                 clientFilterManager = (ICalendarClientFilterManager) getBean(
                         BEAN_CLIENT_FILTER_MANAGER,
                         ICalendarClientFilterManager.class);
+            if (fragmentCache == null &&
+                wac.containsBean(BEAN_FRAGMENT_CACHE))
+                fragmentCache = (ICalendarFragmentCache) getBean(
+                        BEAN_FRAGMENT_CACHE, ICalendarFragmentCache.class);
+            if (transactionManager == null &&
+                wac.containsBean(BEAN_TRANSACTION_MANAGER))
+                transactionManager = (PlatformTransactionManager)
+                    getBean(BEAN_TRANSACTION_MANAGER,
+                            PlatformTransactionManager.class);
         }
         
         if (contentService == null)
@@ -227,8 +296,54 @@ public class WebcalServlet extends HttpServlet implements ICalendarConstants {
         this.clientFilterManager = clientFilterManager;
     }
 
+    public ICalendarFragmentCache getFragmentCache() {
+        return fragmentCache;
+    }
+
+    public void setFragmentCache(ICalendarFragmentCache fragmentCache) {
+        this.fragmentCache = fragmentCache;
+    }
+
+    public PlatformTransactionManager getTransactionManager() {
+        return transactionManager;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @param chunkSize number of children loaded at a time
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
     // private methods
 
+    private TransactionStatus beginReadOnlyTransaction() {
+        if (transactionManager == null)
+            return null;
+        DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+        def.setReadOnly(true);
+        return transactionManager.getTransaction(def);
+    }
+
+    private void endReadOnlyTransaction(TransactionStatus tx) {
+        if (tx == null || tx.isCompleted())
+            return;
+        // nothing is written while exporting
+        try {
+            transactionManager.rollback(tx);
+        } catch (RuntimeException e) {
+            log.warn("Error ending read-only transaction", e);
+        }
+    }
+
     private Object getBean(String name, Class clazz)
         throws ServletException {
         try {
@@ -237,5 +352,49 @@ public class WebcalServlet extends HttpServlet implements ICalendarConstants {
             throw new ServletException("Error retrieving bean " + name + " of type " + clazz + " from web application context", e);
         }
     }
+
+    /**
+     * Passes everything written through to another stream and keeps
+     * a copy, unless more than a maximum number of bytes are written.
+     */
+    private static class CapturingOutputStream extends FilterOutputStream {
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        private long maxBytes;
+
+        public CapturingOutputStream(OutputStream out,
+                                     long maxBytes) {
+            super(out);
+            this.maxBytes = maxBytes;
+        }
+
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (copy != null) {
+                copy.write(b);
+                checkSize();
+            }
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (copy != null) {
+                copy.write(b, off, len);
+                checkSize();
+            }
+        }
+
+        /**
+         * @return the bytes written, or null if more than the
+         *         maximum were written
+         */
+        public byte[] getCaptured() {
+            return copy != null ? copy.toByteArray() : null;
+        }
+
+        private void checkSize() {
+            if (copy.size() > maxBytes)
+                copy = null;
+        }
+    }
     
 }
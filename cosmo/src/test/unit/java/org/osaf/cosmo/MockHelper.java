@@ -23,6 +23,7 @@ import org.osaf.cosmo.calendar.query.impl.StandardCalendarQueryProcessor;
 import org.osaf.cosmo.dao.mock.MockCalendarDao;
 import org.osaf.cosmo.dao.mock.MockContentDao;
 import org.osaf.cosmo.dao.mock.MockDaoStorage;
+import org.osaf.cosmo.dao.mock.MockEventLogDao;
 import org.osaf.cosmo.dao.mock.MockUserDao;
 import org.osaf.cosmo.icalendar.ICalendarClientFilterManager;
 import org.osaf.cosmo.model.CollectionItem;
@@ -56,6 +57,7 @@ public class MockHelper extends TestHelper {
     private MockSecurityManager securityManager;
     private ServiceLocatorFactory serviceLocatorFactory;
     private StandardContentService contentService;
+    private MockEventLogDao eventLogDao;
     private StandardUserService userService;
     private ICalendarClientFilterManager clientFilterManager;
     private StandardCalendarQueryProcessor calendarQueryProcessor;
@@ -81,6 +83,7 @@ public class MockHelper extends TestHelper {
         MockCalendarDao calendarDao = new MockCalendarDao(storage);
         MockContentDao contentDao = new MockContentDao(storage);
         MockUserDao userDao = new MockUserDao(storage);
+        eventLogDao = new MockEventLogDao();
         SingleVMLockManager lockManager = new SingleVMLockManager();
         
         entityFactory = new MockEntityFactory();
@@ -88,6 +91,7 @@ public class MockHelper extends TestHelper {
         contentService = new StandardContentService();
         contentService.setCalendarDao(calendarDao);
         contentService.setContentDao(contentDao);
+        contentService.setEventLogDao(eventLogDao);
         contentService.setLockManager(lockManager);
         contentService.setTriageStatusQueryProcessor(new StandardTriageStatusQueryProcessor());
         
@@ -140,6 +144,10 @@ public class MockHelper extends TestHelper {
         return contentService;
     }
     
+    public MockEventLogDao getEventLogDao() {
+        return eventLogDao;
+    }
+
     public EntityFactory getEntityFactory() {
         return entityFactory;
     }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.atom.generator;
+
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.osaf.cosmo.model.mock.MockNoteItem;
+
+/**
+ * Test Case for {@link FeedPage}.
+ */
+public class FeedPageTest extends TestCase {
+
+    public void testKey() throws Exception {
+        MockNoteItem item = makeItem(1000, "a-b-c");
+        String key = FeedPage.key(item);
+        assertEquals("1000-a-b-c", key);
+
+        FeedPage page = new FeedPage(10, key, false);
+        assertEquals(10, page.getSize());
+        assertEquals(new Date(1000), page.getModifiedDate());
+        assertEquals("a-b-c", page.getUid());
+        assertFalse(page.isBefore());
+        assertFalse(page.isFirst());
+    }
+
+    public void testInvalidKey() throws Exception {
+        try {
+            new FeedPage(10, "abc-def", false);
+            fail("parsed key without a date");
+        } catch (IllegalArgumentException e) {}
+        try {
+            new FeedPage(10, "1000-", false);
+            fail("parsed key without a uid");
+        } catch (IllegalArgumentException e) {}
+        try {
+            new FeedPage(0);
+            fail("created empty page");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    public void testIncludes() throws Exception {
+        MockNoteItem newer = makeItem(2000, "a");
+        MockNoteItem same = makeItem(1000, "b");
+        MockNoteItem sameDateLowerUid = makeItem(1000, "a");
+        MockNoteItem older = makeItem(500, "z");
+
+        assertTrue(new FeedPage(5).includes(newer));
+
+        FeedPage after = new FeedPage(5, FeedPage.key(same), false);
+        assertFalse(after.includes(newer));
+        assertFalse(after.includes(same));
+        assertTrue(after.includes(sameDateLowerUid));
+        assertTrue(after.includes(older));
+
+        FeedPage before = new FeedPage(5, FeedPage.key(same), true);
+        assertTrue(before.includes(newer));
+        assertFalse(before.includes(same));
+        assertFalse(before.includes(sameDateLowerUid));
+        assertFalse(before.includes(older));
+
+        assertTrue(FeedPage.ORDER.compare(newer, same) < 0);
+        assertTrue(FeedPage.ORDER.compare(same, sameDateLowerUid) < 0);
+        assertTrue(FeedPage.ORDER.compare(older, sameDateLowerUid) > 0);
+    }
+
+    private MockNoteItem makeItem(long modified, String uid) {
+        MockNoteItem item = new MockNoteItem();
+        item.setUid(uid);
+        item.setModifiedDate(new Date(modified));
+        return item;
+    }
+}
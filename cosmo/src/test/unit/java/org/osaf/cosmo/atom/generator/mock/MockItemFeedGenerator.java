@@ -19,6 +19,7 @@ import org.apache.abdera.model.Entry;
 import org.apache.abdera.model.Feed;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.osaf.cosmo.atom.generator.FeedPage;
 import org.osaf.cosmo.atom.generator.ItemFeedGenerator;
 import org.osaf.cosmo.atom.generator.GeneratorException;
 import org.osaf.cosmo.model.CollectionItem;
@@ -43,6 +44,7 @@ public class MockItemFeedGenerator implements ItemFeedGenerator {
     private String format;
     private ServiceLocator locator;
     private NoteItemFilter filter;
+    private FeedPage page;
 
     /** */
     public MockItemFeedGenerator(MockGeneratorFactory factory,
@@ -61,6 +63,10 @@ public class MockItemFeedGenerator implements ItemFeedGenerator {
         this.filter = filter;
     }
 
+    public void setPage(FeedPage page) {
+        this.page = page;
+    }
+
     public Feed generateFeed(CollectionItem item)
         throws GeneratorException {
         if (factory.isFailureMode())
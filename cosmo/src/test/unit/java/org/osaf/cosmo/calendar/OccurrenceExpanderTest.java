@@ -0,0 +1,181 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.calendar;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.Date;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.TimeZone;
+import net.fortuna.ical4j.model.TimeZoneRegistry;
+import net.fortuna.ical4j.model.TimeZoneRegistryFactory;
+import net.fortuna.ical4j.model.component.VEvent;
+
+/**
+ * Test OccurrenceExpander by comparing its results with InstanceList.
+ */
+public class OccurrenceExpanderTest extends TestCase {
+
+    private static final TimeZoneRegistry TIMEZONE_REGISTRY =
+        TimeZoneRegistryFactory.getInstance().createRegistry();
+
+    private static final String[] CALENDARS = new String[] {
+        "allday_recurring.ics",
+        "allday_recurring_with_exdates.ics",
+        "allday_weekly_recurring.ics",
+        "allday_weekly_recurring_with_mods.ics",
+        "complicated_allday_recurring.ics",
+        "complicated_recurring.ics",
+        "eventwithtimezone3.ics",
+        "floating_recurr_event.ics",
+        "recurring_by_day.ics",
+        "recurring_until.ics",
+        "recurring_with_exdates.ics",
+        "recurring_with_exdates_floating.ics",
+        "recurring_with_exdates_utc.ics",
+        "recurring_with_exrule.ics",
+        "recurring_with_rdates.ics"
+    };
+
+    public void testFloatingExpansion() throws Exception {
+        for (int i = 0; i < CALENDARS.length; i++) {
+            compare(CALENDARS[i], false, null, new DateTime("20060101T000000"),
+                    new DateTime("20090101T000000"));
+        }
+    }
+
+    public void testUTCExpansion() throws Exception {
+        TimeZone tz = TIMEZONE_REGISTRY.getTimeZone("America/New_York");
+        for (int i = 0; i < CALENDARS.length; i++) {
+            compare(CALENDARS[i], true, tz, new DateTime("20060101T050000Z"),
+                    new DateTime("20090101T050000Z"));
+        }
+    }
+
+    public void testNarrowRange() throws Exception {
+        TimeZone tz = TIMEZONE_REGISTRY.getTimeZone("Australia/Sydney");
+        for (int i = 0; i < CALENDARS.length; i++) {
+            compare(CALENDARS[i], true, tz, new DateTime("20070102T103000Z"),
+                    new DateTime("20070109T000000Z"));
+        }
+    }
+
+    public void testOccurrenceTimes() throws Exception {
+        Calendar calendar = getCalendar("floating_recurr_event.ics");
+        TimeZone tz = TIMEZONE_REGISTRY.getTimeZone("America/New_York");
+
+        OccurrenceExpander expander = new OccurrenceExpander();
+        expander.setUTC(true);
+        expander.setTimezone(tz);
+        OccurrenceList occurrences = expand(expander, calendar,
+                new DateTime("20060101T190000Z"),
+                new DateTime("20060108T190000Z"));
+
+        Assert.assertEquals(5, occurrences.size());
+        Assert.assertEquals(new DateTime("20060102T190000Z").getTime(),
+                occurrences.getStart(0));
+        Assert.assertEquals(new DateTime("20060102T200000Z").getTime(),
+                occurrences.getEnd(0));
+        Assert.assertFalse(occurrences.isOverridden(0));
+
+        // modified occurrence
+        Assert.assertEquals(new DateTime("20060104T190000Z").getTime(),
+                occurrences.getRecurrenceId(2));
+        Assert.assertEquals(new DateTime("20060104T210000Z").getTime(),
+                occurrences.getStart(2));
+        Assert.assertTrue(occurrences.isOverridden(2));
+    }
+
+    public void testTimeZoneOffsets() throws Exception {
+        java.util.TimeZone tz = java.util.TimeZone.getTimeZone("America/New_York");
+        TimeZoneOffsets offsets = new TimeZoneOffsets(tz);
+
+        // 2007-03-10 09:00 EST and the day after, across the DST change
+        long time = new DateTime("20070310T140000Z").getTime();
+        Assert.assertEquals(tz.getOffset(time), offsets.getOffset(time));
+        Assert.assertEquals(new DateTime("20070311T130000Z").getTime(),
+                offsets.addDays(time, 1));
+        Assert.assertEquals(new DateTime("20061110T140000Z").getTime(),
+                offsets.addDays(time, -120));
+
+        // the offset of the day of the transition itself
+        long transition = new DateTime("20070311T063000Z").getTime();
+        Assert.assertEquals(tz.getOffset(transition), offsets.getOffset(transition));
+        transition = new DateTime("20070311T073000Z").getTime();
+        Assert.assertEquals(tz.getOffset(transition), offsets.getOffset(transition));
+    }
+
+    private void compare(String name, boolean utc, TimeZone tz, Date start,
+                         Date end) throws Exception {
+        Calendar calendar = getCalendar(name);
+
+        InstanceList expected = new InstanceList();
+        expected.setUTC(utc);
+        expected.setTimezone(tz);
+        for (Iterator<VEvent> it = calendar.getComponents("VEVENT").iterator(); it.hasNext();)
+            expected.addComponent(it.next(), start, end);
+
+        OccurrenceExpander expander = new OccurrenceExpander();
+        expander.setUTC(utc);
+        expander.setTimezone(tz);
+        InstanceList actual = expand(expander, calendar, start, end).toInstanceList();
+
+        Assert.assertEquals(name, expected.keySet(), actual.keySet());
+        for (Iterator<String> it = expected.keySet().iterator(); it.hasNext();) {
+            String key = it.next();
+            Instance e = (Instance) expected.get(key);
+            Instance a = (Instance) actual.get(key);
+            Assert.assertEquals(name + " " + key, e.getStart().toString(),
+                    a.getStart().toString());
+            Assert.assertEquals(name + " " + key, e.getEnd().toString(),
+                    a.getEnd().toString());
+            Assert.assertEquals(name + " " + key, e.isOverridden(),
+                    a.isOverridden());
+            Assert.assertSame(name + " " + key, e.getComp(), a.getComp());
+        }
+    }
+
+    private OccurrenceList expand(OccurrenceExpander expander,
+                                  Calendar calendar, Date start, Date end) {
+        Component master = null;
+        List<Component> overrides = new ArrayList<Component>();
+        for (Iterator<VEvent> it = calendar.getComponents("VEVENT").iterator(); it.hasNext();) {
+            VEvent event = it.next();
+            if (event.getRecurrenceId() == null)
+                master = event;
+            else
+                overrides.add(event);
+        }
+        return expander.expand(master, overrides, start, end);
+    }
+
+    protected Calendar getCalendar(String name) throws Exception {
+        CalendarBuilder cb = new CalendarBuilder();
+        InputStream in = getClass().getClassLoader().getResourceAsStream("instancelist/" + name);
+        if (in == null) {
+            throw new IllegalStateException("resource " + name + " not found");
+        }
+        return cb.build(in);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.calendar;
+
+import java.lang.reflect.Field;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import net.fortuna.ical4j.model.DateTime;
+
+import org.osaf.cosmo.eim.schema.EimValueConverter;
+import org.osaf.cosmo.model.hibernate.HibEventStamp;
+import org.osaf.cosmo.model.hibernate.HibItem;
+import org.osaf.cosmo.model.hibernate.HibNoteItem;
+
+/**
+ * Test RecurrenceExpansionCache
+ */
+public class RecurrenceExpansionCacheTest extends TestCase {
+
+    RecurrenceExpansionCache cache = new RecurrenceExpansionCache();
+
+    public void testGetOccurrences() throws Exception {
+        HibEventStamp eventStamp = createRecurringEvent("1");
+
+        DateTime start = new DateTime("20070201T000000Z");
+        DateTime end = new DateTime("20070301T000000Z");
+
+        InstanceList instances = cache.getOcurrences(eventStamp, start, end, null);
+        Assert.assertEquals(0, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(4, instances.size());
+
+        // callers can modify the returned list without affecting the cache
+        instances.remove(instances.firstKey());
+
+        InstanceList cached = cache.getOcurrences(eventStamp, start, end, null);
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(4, cached.size());
+        Assert.assertEquals("20070205T100000Z", cached.firstKey());
+        Assert.assertNull(((Instance) cached.get(cached.firstKey())).getComp());
+
+        // different range is a different expansion
+        cache.getOcurrences(eventStamp, start, new DateTime("20070401T000000Z"), null);
+        Assert.assertEquals(2, cache.getMisses());
+
+        // updated event is a different expansion
+        setVersion(eventStamp.getItem(), new Integer(1));
+        cache.getOcurrences(eventStamp, start, end, null);
+        Assert.assertEquals(3, cache.getMisses());
+        Assert.assertEquals(3, cache.getSize());
+    }
+
+    public void testUnsavedEventNotCached() throws Exception {
+        HibEventStamp eventStamp = createRecurringEvent("1");
+        setVersion(eventStamp.getItem(), null);
+
+        InstanceList instances = cache.getOcurrences(eventStamp,
+                new DateTime("20070201T000000Z"),
+                new DateTime("20070301T000000Z"), null);
+        Assert.assertEquals(4, instances.size());
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    public void testMaxEntries() throws Exception {
+        cache.setMaxEntries(1);
+        DateTime start = new DateTime("20070201T000000Z");
+        DateTime end = new DateTime("20070301T000000Z");
+
+        cache.getOcurrences(createRecurringEvent("1"), start, end, null);
+        cache.getOcurrences(createRecurringEvent("2"), start, end, null);
+        Assert.assertEquals(1, cache.getSize());
+    }
+
+    private HibEventStamp createRecurringEvent(String uid) throws Exception {
+        HibNoteItem master = new HibNoteItem();
+        master.setUid(uid);
+        HibEventStamp eventStamp = new HibEventStamp(master);
+        eventStamp.createCalendar();
+        eventStamp.setStartDate(new DateTime("20070101T100000Z"));
+        eventStamp.setEndDate(new DateTime("20070101T110000Z"));
+        eventStamp.setRecurrenceRules(EimValueConverter.toICalRecurs("FREQ=WEEKLY;"));
+        master.addStamp(eventStamp);
+        setVersion(master, new Integer(0));
+        return eventStamp;
+    }
+
+    // the version is only set by Hibernate
+    private void setVersion(Object item, Integer version) throws Exception {
+        Field field = HibItem.class.getDeclaredField("version");
+        field.setAccessible(true);
+        field.set(item, version);
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dao.hibernate;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.osaf.cosmo.model.event.EventLogEntry;
+import org.osaf.cosmo.model.event.ItemAddedEntry;
+import org.osaf.cosmo.model.hibernate.BaseModelObject;
+import org.osaf.cosmo.model.hibernate.HibCollectionItem;
+import org.osaf.cosmo.model.hibernate.HibEventLogEntry;
+import org.osaf.cosmo.model.hibernate.HibNoteItem;
+import org.osaf.cosmo.model.hibernate.HibUser;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Test BatchingEventLogDao, recording the entries it writes instead
+ * of saving them.
+ */
+public class BatchingEventLogDaoTest extends TestCase {
+
+    private RecordingEventLogDao eventLogDao = new RecordingEventLogDao();
+    private TestTransactionManager transactionManager =
+        new TestTransactionManager();
+    private BatchingEventLogDao batchingDao = new BatchingEventLogDao();
+    private File spillDir = new File("target/test-eventlog-spill");
+
+    private HibUser user;
+    private HibCollectionItem col;
+    private HibNoteItem note;
+
+    @Override
+    protected void setUp() throws Exception {
+        user = new HibUser();
+        user.setUsername("test");
+        setId(user, new Long(1));
+
+        col = new HibCollectionItem();
+        setId(col, new Long(2));
+        col.setUid("uid1");
+
+        note = new HibNoteItem();
+        setId(note, new Long(3));
+        note.setUid("uid2");
+        note.setDisplayName("note");
+
+        batchingDao.setEventLogDao(eventLogDao);
+        batchingDao.setTransactionManager(transactionManager);
+        batchingDao.setRetryInterval(10);
+        deleteSpillDir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        batchingDao.destroy();
+        deleteSpillDir();
+    }
+
+    public void testTransactional() throws Exception {
+        batchingDao.setMode(BatchingEventLogDao.MODE_TRANSACTIONAL);
+        batchingDao.init();
+
+        new TransactionTemplate(transactionManager).execute(
+                new TransactionCallback() {
+            public Object doInTransaction(TransactionStatus status) {
+                batchingDao.addEventLogEntry(createEntry());
+                batchingDao.addEventLogEntries(createEntries(2));
+                // written when the transaction commits
+                Assert.assertEquals(0, eventLogDao.saved.size());
+                return null;
+            }
+        });
+
+        Assert.assertEquals(1, eventLogDao.batches);
+        Assert.assertEquals(3, eventLogDao.saved.size());
+        HibEventLogEntry hibEntry = eventLogDao.saved.get(0);
+        Assert.assertEquals("ItemAdded", hibEntry.getType());
+        Assert.assertEquals(new Long(2), hibEntry.getId1());
+        Assert.assertEquals(new Long(3), hibEntry.getId2());
+        Assert.assertEquals("uid2", hibEntry.getUid1());
+        Assert.assertEquals("note", hibEntry.getStrval1());
+        Assert.assertEquals(3, batchingDao.getEntriesWritten());
+
+        // entries of a rolled back transaction are not written
+        new TransactionTemplate(transactionManager).execute(
+                new TransactionCallback() {
+            public Object doInTransaction(TransactionStatus status) {
+                batchingDao.addEventLogEntries(createEntries(2));
+                status.setRollbackOnly();
+                return null;
+            }
+        });
+        Assert.assertEquals(3, eventLogDao.saved.size());
+    }
+
+    public void testWriteBehind() throws Exception {
+        batchingDao.setMode(BatchingEventLogDao.MODE_WRITE_BEHIND);
+        batchingDao.setBatchSize(10);
+        batchingDao.setFlushInterval(50);
+        batchingDao.init();
+
+        new TransactionTemplate(transactionManager).execute(
+                new TransactionCallback() {
+            public Object doInTransaction(TransactionStatus status) {
+                batchingDao.addEventLogEntries(createEntries(25));
+                // queued when the transaction commits
+                Assert.assertEquals(0, batchingDao.getEntriesQueued());
+                return null;
+            }
+        });
+        Assert.assertEquals(25, batchingDao.getEntriesQueued());
+
+        for (int i = 0; i < 100 && batchingDao.getEntriesWritten() < 25; i++)
+            Thread.sleep(50);
+
+        Assert.assertEquals(25, batchingDao.getEntriesWritten());
+        Assert.assertEquals(25, eventLogDao.saved.size());
+        Assert.assertTrue(batchingDao.getBatchesWritten() >= 3);
+        Assert.assertEquals(0, batchingDao.getQueueDepth());
+        Assert.assertEquals(0, batchingDao.getEntriesFailed());
+    }
+
+    public void testBackpressure() throws Exception {
+        batchingDao.setMode(BatchingEventLogDao.MODE_WRITE_BEHIND);
+        batchingDao.setQueueCapacity(2);
+        batchingDao.setOfferTimeout(10);
+        batchingDao.setFlushInterval(50);
+        batchingDao.init();
+
+        // stop the writer so that the queue fills up
+        batchingDao.destroy();
+
+        batchingDao.addEventLogEntries(createEntries(3));
+        Assert.assertEquals(2, batchingDao.getQueueDepth());
+        Assert.assertEquals(2, batchingDao.getMaxQueueDepth());
+        Assert.assertEquals(2, batchingDao.getEntriesQueued());
+        Assert.assertEquals(1, batchingDao.getBackpressureWaits());
+
+        // the entry that didn't fit is written by the caller
+        Assert.assertEquals(1, batchingDao.getOverflowWrites());
+        Assert.assertEquals(1, eventLogDao.saved.size());
+    }
+
+    public void testPendingEntries() throws Exception {
+        batchingDao.setMode(BatchingEventLogDao.MODE_WRITE_BEHIND);
+        batchingDao.init();
+
+        // stop the writer so that queued entries stay pending
+        batchingDao.destroy();
+
+        final Date date = new Date(System.currentTimeMillis() - 120000);
+        new TransactionTemplate(transactionManager).execute(
+                new TransactionCallback() {
+            public Object doInTransaction(TransactionStatus status) {
+                EventLogEntry entry = createEntry();
+                entry.setDate(date);
+                batchingDao.addEventLogEntry(entry);
+                batchingDao.addEventLogEntries(createEntries(2));
+                // pending before the transaction commits
+                Assert.assertEquals(date, batchingDao.getOldestPendingEntryDate());
+                return null;
+            }
+        });
+
+        // and while the entries are queued
+        Assert.assertEquals(3, batchingDao.getQueueDepth());
+        Assert.assertEquals(date, batchingDao.getOldestPendingEntryDate());
+    }
+
+    public void testPendingEntriesTransactional() throws Exception {
+        batchingDao.setMode(BatchingEventLogDao.MODE_TRANSACTIONAL);
+        batchingDao.init();
+
+        new TransactionTemplate(transactionManager).execute(
+                new TransactionCallback() {
+            public Object doInTransaction(TransactionStatus status) {
+                batchingDao.addEventLogEntries(createEntries(2));
+                Assert.assertNotNull(batchingDao.getOldestPendingEntryDate());
+                return null;
+            }
+        });
+        Assert.assertNull(batchingDao.getOldestPendingEntryDate());
+
+        // entries of a rolled back transaction are no longer pending
+        new TransactionTemplate(transactionManager).execute(
+                new TransactionCallback() {
+            public Object doInTransaction(TransactionStatus status) {
+                batchingDao.addEventLogEntries(createEntries(2));
+                status.setRollbackOnly();
+                return null;
+            }
+        });
+        Assert.assertNull(batchingDao.getOldestPendingEntryDate());
+    }
+
+    public void testRetry() throws Exception {
+        batchingDao.setMode(BatchingEventLogDao.MODE_WRITE_BEHIND);
+        batchingDao.setFlushInterval(50);
+        batchingDao.setSpillDirectory(spillDir.getPath());
+        batchingDao.init();
+
+        eventLogDao.failures = 2;
+        batchingDao.addEventLogEntries(createEntries(3));
+
+        for (int i = 0; i < 100 && batchingDao.getEntriesWritten() < 3; i++)
+            Thread.sleep(50);
+
+        // written by the second retry
+        Assert.assertEquals(3, eventLogDao.saved.size());
+        Assert.assertEquals(2, batchingDao.getWriteRetries());
+        Assert.assertEquals(0, batchingDao.getEntriesSpilled());
+        Assert.assertEquals(0, batchingDao.getEntriesFailed());
+    }
+
+    public void testSpillAndReplay() throws Exception {
+        batchingDao.setMode(BatchingEventLogDao.MODE_WRITE_BEHIND);
+        batchingDao.setFlushInterval(50);
+        batchingDao.setMaxRetries(1);
+        batchingDao.setSpillDirectory(spillDir.getPath());
+        batchingDao.init();
+
+        eventLogDao.failures = Integer.MAX_VALUE;
+        batchingDao.addEventLogEntries(createEntries(3));
+
+        for (int i = 0; i < 100 && batchingDao.getEntriesSpilled() < 3; i++)
+            Thread.sleep(50);
+
+        // spilled after retrying once instead of being dropped
+        Assert.assertEquals(3, batchingDao.getEntriesSpilled());
+        Assert.assertEquals(1, batchingDao.getSpilledBatches());
+        Assert.assertEquals(0, batchingDao.getEntriesFailed());
+        Assert.assertEquals(0, eventLogDao.saved.size());
+        Assert.assertNotNull(batchingDao.getOldestPendingEntryDate());
+
+        // written by the writer once the database accepts writes again
+        eventLogDao.failures = 0;
+        for (int i = 0; i < 100 && batchingDao.getEntriesReplayed() < 3; i++)
+            Thread.sleep(50);
+
+        Assert.assertEquals(3, batchingDao.getEntriesReplayed());
+        Assert.assertEquals(3, eventLogDao.saved.size());
+        Assert.assertEquals("uid2", eventLogDao.saved.get(0).getUid1());
+        Assert.assertEquals(0, batchingDao.getSpilledBatches());
+        Assert.assertNull(batchingDao.getOldestPendingEntryDate());
+    }
+
+    public void testReplayOnInit() throws Exception {
+        batchingDao.setMode(BatchingEventLogDao.MODE_WRITE_BEHIND);
+        batchingDao.setQueueCapacity(1);
+        batchingDao.setOfferTimeout(10);
+        batchingDao.setMaxRetries(0);
+        batchingDao.setSpillDirectory(spillDir.getPath());
+        batchingDao.init();
+        batchingDao.destroy();
+
+        // the entries that overflow the queue can't be written
+        eventLogDao.failures = Integer.MAX_VALUE;
+        batchingDao.addEventLogEntries(createEntries(3));
+        Assert.assertEquals(2, batchingDao.getEntriesSpilled());
+        Assert.assertEquals(0, eventLogDao.saved.size());
+
+        // and are written when the next dao starts
+        eventLogDao.failures = 0;
+        BatchingEventLogDao next = new BatchingEventLogDao();
+        next.setEventLogDao(eventLogDao);
+        next.setTransactionManager(transactionManager);
+        next.setSpillDirectory(spillDir.getPath());
+        next.init();
+        try {
+            Assert.assertEquals(2, next.getEntriesReplayed());
+            Assert.assertEquals(2, eventLogDao.saved.size());
+            Assert.assertEquals(0, next.getSpilledBatches());
+        } finally {
+            next.destroy();
+        }
+    }
+
+    private EventLogEntry createEntry() {
+        ItemAddedEntry entry = new ItemAddedEntry(note, col);
+        entry.setUser(user);
+        return entry;
+    }
+
+    private List<EventLogEntry> createEntries(int count) {
+        List<EventLogEntry> entries = new ArrayList<EventLogEntry>();
+        for (int i = 0; i < count; i++)
+            entries.add(createEntry());
+        return entries;
+    }
+
+    private void setId(BaseModelObject bmo, Long id) throws Exception {
+        Method method = BaseModelObject.class.getDeclaredMethod("setId", Long.class);
+        method.setAccessible(true);
+        method.invoke(bmo, id);
+    }
+
+    private void deleteSpillDir() {
+        File[] files = spillDir.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        spillDir.delete();
+    }
+
+    static class RecordingEventLogDao extends EventLogDaoImpl {
+        List<HibEventLogEntry> saved = new ArrayList<HibEventLogEntry>();
+        int batches = 0;
+        volatile int failures = 0;
+
+        public synchronized void saveEventLogEntries(List<HibEventLogEntry> entries) {
+            if (failures > 0) {
+                failures--;
+                throw new DataAccessResourceFailureException("database unavailable");
+            }
+            saved.addAll(entries);
+            batches++;
+        }
+    }
+
+    static class TestTransactionManager extends AbstractPlatformTransactionManager {
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+        }
+
+        protected void doCommit(DefaultTransactionStatus status) {
+        }
+
+        protected void doRollback(DefaultTransactionStatus status) {
+        }
+    }
+}
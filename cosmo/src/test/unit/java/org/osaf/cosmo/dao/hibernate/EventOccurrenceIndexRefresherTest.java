@@ -0,0 +1,119 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dao.hibernate;
+
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.osaf.cosmo.dao.UserDao;
+import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.NoteItem;
+import org.osaf.cosmo.model.User;
+import org.osaf.cosmo.model.hibernate.EventOccurrenceIndexer;
+import org.osaf.cosmo.model.hibernate.HibEventStamp;
+import org.osaf.cosmo.model.hibernate.HibNoteItem;
+
+/**
+ * Test the selection of events by EventOccurrenceIndexRefresher.
+ */
+public class EventOccurrenceIndexRefresherTest extends AbstractHibernateDaoTestCase {
+
+    protected UserDaoImpl userDao = null;
+    protected ContentDaoImpl contentDao = null;
+    protected EventOccurrenceIndexer eventOccurrenceIndexer = null;
+    protected EventOccurrenceIndexRefresher eventOccurrenceIndexRefresher = null;
+
+    public EventOccurrenceIndexRefresherTest() {
+        super();
+    }
+
+    public void testFindStaleEvents() throws Exception {
+        int maxOccurrences = eventOccurrenceIndexer.getMaxOccurrences();
+        boolean enabled = eventOccurrenceIndexer.isEnabled();
+        eventOccurrenceIndexer.setEnabled(true);
+        // a daily event has more occurrences within the window than
+        // this, a weekly event fewer
+        eventOccurrenceIndexer.setMaxOccurrences(500);
+        try {
+            User user = getUser(userDao, "testuser");
+            CollectionItem root = (CollectionItem) contentDao.getRootItem(user);
+
+            NoteItem daily = createEvent(root, "daily", "allday_recurring.ics");
+            NoteItem weekly = createEvent(root, "weekly", "allday_weekly_recurring.ics");
+            NoteItem single = createEvent(root, "single", "cal1.ics");
+            session.flush();
+            clearSession();
+
+            HibEventStamp dailyStamp = getStamp(daily);
+            HibEventStamp weeklyStamp = getStamp(weekly);
+            Assert.assertEquals(new Integer(500),
+                    dailyStamp.getTimeRangeIndex().getOccurrenceLimit());
+            Assert.assertNull(dailyStamp.getTimeRangeIndex().getOccurrenceEnd());
+            Assert.assertNull(weeklyStamp.getTimeRangeIndex().getOccurrenceLimit());
+            Assert.assertNotNull(weeklyStamp.getTimeRangeIndex().getOccurrenceEnd());
+
+            // the weekly event is current and the daily event was
+            // capped at the current maximum
+            Assert.assertEquals(0, findStaleEvents(
+                    eventOccurrenceIndexer.getRefreshThreshold()).size());
+
+            // the weekly event falls behind, the daily event stays capped
+            List<HibEventStamp> stale = findStaleEvents("99991231");
+            Assert.assertEquals(1, stale.size());
+            Assert.assertEquals(weeklyStamp.getId(), stale.get(0).getId());
+
+            // the daily event is reconsidered once the maximum is raised
+            eventOccurrenceIndexer.setMaxOccurrences(5000);
+            stale = findStaleEvents(eventOccurrenceIndexer.getRefreshThreshold());
+            Assert.assertEquals(1, stale.size());
+            Assert.assertEquals(dailyStamp.getId(), stale.get(0).getId());
+
+            Assert.assertNull(getStamp(single).getTimeRangeIndex().getOccurrenceLimit());
+        } finally {
+            eventOccurrenceIndexer.setMaxOccurrences(maxOccurrences);
+            eventOccurrenceIndexer.setEnabled(enabled);
+        }
+    }
+
+    private List<HibEventStamp> findStaleEvents(String threshold) {
+        return eventOccurrenceIndexRefresher.findStaleEvents(session,
+                new Long(0), threshold);
+    }
+
+    private HibEventStamp getStamp(NoteItem note) {
+        NoteItem queryItem = (NoteItem) contentDao.findItemByUid(note.getUid());
+        return (HibEventStamp) HibEventStamp.getStamp(queryItem);
+    }
+
+    private NoteItem createEvent(CollectionItem parent, String name,
+                                 String ics) throws Exception {
+        NoteItem note = new HibNoteItem();
+        note.setName(name);
+        note.setDisplayName(name);
+        note.setOwner(parent.getOwner());
+
+        HibEventStamp event = new HibEventStamp(note);
+        event.setEventCalendar(helper.getCalendar(ics));
+        note.addStamp(event);
+
+        return (NoteItem) contentDao.createContent(parent, note);
+    }
+
+    private User getUser(UserDao userDao, String username) {
+        return helper.getUser(userDao, contentDao, username);
+    }
+}
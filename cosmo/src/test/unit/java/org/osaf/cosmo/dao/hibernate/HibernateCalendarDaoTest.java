@@ -16,13 +16,16 @@
 package org.osaf.cosmo.dao.hibernate;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.GregorianCalendar;
+import java.util.Map;
 import java.util.Set;
 
 import junit.framework.Assert;
 import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.DateTime;
 import net.fortuna.ical4j.model.Period;
+import net.fortuna.ical4j.model.PeriodList;
 
 import org.osaf.cosmo.calendar.EntityConverter;
 import org.osaf.cosmo.calendar.query.CalendarFilter;
@@ -380,6 +383,74 @@ public class HibernateCalendarDaoTest extends AbstractHibernateDaoTestCase {
         verifyUidInSet(queryEvents, "test3uid:20200526T081500Z");
     }
 
+    public void testFindBusyPeriods() throws Exception {
+        CollectionItem calendar = generateCalendar("test", "testuser");
+        CollectionItem root = (CollectionItem) contentDao.getRootItem(getUser(userDao, "testuser"));
+        
+        calendar = contentDao.createCollection(root, calendar);
+        
+        // one single event and two recurring events, one of those
+        // with a modification
+        NoteItem event = generateEvent("test1.ics", "eventwithtimezone1.ics", "testuser");
+        contentDao.createContent(calendar, event);
+        event = generateEvent("test2.ics", "eventwithtimezone2.ics", "testuser");
+        NoteItem single = (NoteItem) contentDao.createContent(calendar, event);
+        event = generateEvent("test3.ics", "eventwithtimezone3.ics", "testuser");
+        event.setUid("test3uid");
+        NoteItem master = (NoteItem) contentDao.createContent(calendar, event);
+        
+        event = generateEventException("mod.ics", "eventmodwithtimezone.ics", "testuser");
+        event.setModifies(master);
+        contentDao.createContent(calendar, event);
+        
+        clearSession();
+        
+        // the single event is answered from the index
+        PeriodList busy = new PeriodList();
+        PeriodList tentative = new PeriodList();
+        Map<ContentItem, CollectionItem> unindexed = findBusyPeriods(calendar,
+                "20070501T000000Z", "20070502T000000Z", busy, tentative);
+        Assert.assertEquals("20070501T093000Z/20070501T103000Z", busy.toString());
+        Assert.assertEquals(0, tentative.size());
+        Assert.assertEquals(0, unindexed.size());
+        
+        // recurring events aren't covered by the occurrence index
+        unindexed = findBusyPeriods(calendar, "20070515T000000Z",
+                "20070516T000000Z", busy, tentative);
+        Assert.assertEquals(0, busy.size());
+        Assert.assertEquals(2, unindexed.size());
+        verifyItemNameInSet(unindexed.keySet(), "test1.ics");
+        verifyItemNameInSet(unindexed.keySet(), "test3.ics");
+        
+        // the master of a modification in the range is expanded
+        unindexed = findBusyPeriods(calendar, "20060501T000000Z",
+                "20060601T000000Z", busy, tentative);
+        Assert.assertEquals(1, unindexed.size());
+        verifyItemNameInSet(unindexed.keySet(), "test3.ics");
+        
+        // cancelled events aren't busy
+        single = (NoteItem) contentDao.findItemByUid(single.getUid());
+        ((EventStamp) single.getStamp(EventStamp.class)).setStatus("CANCELLED");
+        contentDao.updateContent(single);
+        
+        clearSession();
+        
+        unindexed = findBusyPeriods(calendar, "20070501T000000Z",
+                "20070502T000000Z", busy, tentative);
+        Assert.assertEquals(0, busy.size());
+        Assert.assertEquals(0, unindexed.size());
+    }
+    
+    private Map<ContentItem, CollectionItem> findBusyPeriods(
+            CollectionItem calendar, String start, String end,
+            PeriodList busy, PeriodList tentative) throws Exception {
+        busy.clear();
+        tentative.clear();
+        Period period = new Period(new DateTime(start), new DateTime(end));
+        return calendarDao.findBusyPeriods(Collections.singletonList(calendar),
+                period, busy, tentative);
+    }
+
     private User getUser(UserDao userDao, String username) {
         return helper.getUser(userDao, contentDao, username);
     }
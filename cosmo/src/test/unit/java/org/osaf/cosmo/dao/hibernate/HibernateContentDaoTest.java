@@ -34,6 +34,7 @@ import org.dom4j.Document;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 import org.dom4j.io.DOMWriter;
+import org.hibernate.Hibernate;
 import org.hibernate.validator.InvalidStateException;
 import org.osaf.cosmo.calendar.util.CalendarUtils;
 import org.osaf.cosmo.dao.UserDao;
@@ -43,6 +44,7 @@ import org.osaf.cosmo.model.BooleanAttribute;
 import org.osaf.cosmo.model.CalendarAttribute;
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.ContentItem;
+import org.osaf.cosmo.model.ContentItemIterator;
 import org.osaf.cosmo.model.DecimalAttribute;
 import org.osaf.cosmo.model.DictionaryAttribute;
 import org.osaf.cosmo.model.DuplicateItemNameException;
@@ -78,10 +80,12 @@ import org.osaf.cosmo.model.hibernate.HibFreeBusyItem;
 import org.osaf.cosmo.model.hibernate.HibICalendarAttribute;
 import org.osaf.cosmo.model.hibernate.HibIntegerAttribute;
 import org.osaf.cosmo.model.hibernate.HibItem;
+import org.osaf.cosmo.model.hibernate.HibMessageStamp;
 import org.osaf.cosmo.model.hibernate.HibMultiValueStringAttribute;
 import org.osaf.cosmo.model.hibernate.HibNoteItem;
 import org.osaf.cosmo.model.hibernate.HibQName;
 import org.osaf.cosmo.model.hibernate.HibStringAttribute;
+import org.osaf.cosmo.model.hibernate.HibTaskStamp;
 import org.osaf.cosmo.model.hibernate.HibTicket;
 import org.osaf.cosmo.model.hibernate.HibTimestampAttribute;
 import org.osaf.cosmo.model.hibernate.HibTriageStatus;
@@ -141,6 +145,102 @@ public class HibernateContentDaoTest extends AbstractHibernateDaoTestCase {
         Assert.assertEquals(1, children.size());
     }
     
+    public void testContentDaoLoadChildrenInBatches() throws Exception {
+        User user = getUser(userDao, "testuser");
+        CollectionItem root = (CollectionItem) contentDao.getRootItem(user);
+
+        for (int i = 0; i < 5; i++) {
+            NoteItem note = generateTestNote("test" + i, "testuser");
+            note.addAttribute(new HibStringAttribute(new HibQName("a1"), "v1"));
+            note.addAttribute(new HibStringAttribute(new HibQName("a2"), "v2"));
+            note.addStamp(new HibMessageStamp(note));
+            note.addStamp(new HibTaskStamp());
+            contentDao.createContent(root, note);
+        }
+
+        int batchSize = contentDao.getChildBatchSize();
+        try {
+            // more than one batch
+            contentDao.setChildBatchSize(2);
+            clearSession();
+            
+            Set<ContentItem> children = contentDao.loadChildren(root, null);
+            Assert.assertEquals(5, children.size());
+            for (ContentItem child : children) {
+                Assert.assertTrue(Hibernate.isInitialized(child.getStamps()));
+                Assert.assertTrue(Hibernate.isInitialized(child.getAttributes()));
+                Assert.assertTrue(Hibernate.isInitialized(child.getTombstones()));
+                Assert.assertEquals(2, child.getStamps().size());
+                Assert.assertEquals(2, child.getAttributes().size());
+            }
+            
+            // same children as with a single query
+            contentDao.setChildBatchSize(0);
+            clearSession();
+            Assert.assertEquals(children, contentDao.loadChildren(root, null));
+        } finally {
+            contentDao.setChildBatchSize(batchSize);
+        }
+    }
+    
+    public void testContentDaoIterateChildren() throws Exception {
+        User user = getUser(userDao, "testuser");
+        CollectionItem root = (CollectionItem) contentDao.getRootItem(user);
+
+        for (int i = 0; i < 5; i++) {
+            ContentItem item = generateTestContent();
+            item.setName("test" + i);
+            contentDao.createContent(root, item);
+        }
+
+        clearSession();
+
+        Set<String> names = new HashSet<String>();
+        ContentItemIterator it = contentDao.iterateChildren(root, null, 2);
+        while (it.hasNext()) {
+            ContentItem child = it.next();
+            Assert.assertTrue(names.add(child.getName()));
+            Assert.assertEquals(1, child.getAttributes().size());
+        }
+        it.close();
+        Assert.assertEquals(5, names.size());
+        
+        // closing more than once has no effect
+        it.close();
+        Assert.assertFalse(it.hasNext());
+        
+        it = contentDao.iterateChildren(root, new Date(), 2);
+        Assert.assertFalse(it.hasNext());
+        it.close();
+    }
+    
+    public void testContentDaoFindChildrenByNames() throws Exception {
+        User user = getUser(userDao, "testuser");
+        CollectionItem root = (CollectionItem) contentDao.getRootItem(user);
+
+        for (int i = 0; i < 3; i++) {
+            NoteItem note = generateTestNote("test" + i, "testuser");
+            note.addStamp(new HibTaskStamp());
+            contentDao.createContent(root, note);
+        }
+
+        clearSession();
+
+        Set<String> names = new HashSet<String>();
+        names.add("test0");
+        names.add("test2");
+        names.add("missing");
+        Map<String, Item> children = contentDao.findChildrenByNames(root, names);
+        Assert.assertEquals(2, children.size());
+        Assert.assertEquals("test0", children.get("test0").getName());
+        Assert.assertTrue(Hibernate.isInitialized(
+                ((ContentItem) children.get("test2")).getStamps()));
+        Assert.assertNull(children.get("missing"));
+
+        Assert.assertEquals(0, contentDao.findChildrenByNames(root,
+                new HashSet<String>()).size());
+    }
+
     public void testContentDaoCreateContentDuplicateUid() throws Exception {
         User user = getUser(userDao, "testuser");
         CollectionItem root = (CollectionItem) contentDao.getRootItem(user);
@@ -15,7 +15,9 @@
  */
 package org.osaf.cosmo.dao.hibernate;
 
+import java.util.Date;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import junit.framework.Assert;
@@ -162,6 +164,50 @@ public class HibernateContentDaoTombstonesTest extends AbstractHibernateDaoTestC
         
     }
     
+    public void testContentDaoFindItemTombstones() throws Exception {
+        User user = getUser(userDao, "testuser");
+        CollectionItem root = (CollectionItem) contentDao.getRootItem(user);
+
+        CollectionItem a = new HibCollectionItem();
+        a.setUid("a");
+        a.setName("a");
+        a.setOwner(user);
+        a = contentDao.createCollection(root, a);
+        
+        NoteItem note1 = generateTestNote("test1", "testuser");
+        note1.setUid("1");
+        NoteItem note2 = generateTestNote("test2", "testuser");
+        note2.setUid("2");
+        note1 = (NoteItem) contentDao.createContent(a, note1);
+        note2 = (NoteItem) contentDao.createContent(a, note2);
+        
+        contentDao.removeItemFromCollection(note1, a);
+        clearSession();
+        
+        a = (CollectionItem) contentDao.findItemByUid(a.getUid());
+        Date removed = getItemTombstone(a, "1").getTimestamp();
+        
+        // give 10 ms wait to ensure a later timestamp
+        Thread.sleep(10);
+        
+        note2 = (NoteItem) contentDao.findItemByUid("2");
+        contentDao.removeItemFromCollection(note2, a);
+        clearSession();
+        
+        a = (CollectionItem) contentDao.findItemByUid(a.getUid());
+        
+        List<ItemTombstone> tombstones =
+            contentDao.findItemTombstones(a, new Date(removed.getTime() - 1));
+        Assert.assertEquals(2, tombstones.size());
+        
+        tombstones = contentDao.findItemTombstones(a, removed);
+        Assert.assertEquals(1, tombstones.size());
+        Assert.assertEquals("2", tombstones.get(0).getItemUid());
+        
+        tombstones = contentDao.findItemTombstones(a, new Date());
+        Assert.assertEquals(0, tombstones.size());
+    }
+    
     public void testContentDaoStampTombstones() throws Exception {
         User user = getUser(userDao, "testuser");
         CollectionItem root = (CollectionItem) contentDao.getRootItem(user);
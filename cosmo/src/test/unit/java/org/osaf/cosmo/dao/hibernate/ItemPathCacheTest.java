@@ -0,0 +1,121 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dao.hibernate;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Test ItemPathCache
+ */
+public class ItemPathCacheTest extends TestCase {
+
+    ItemPathCache cache = new ItemPathCache();
+
+    public void testNormalizePath() throws Exception {
+        Assert.assertEquals("user/cal/event.ics",
+                ItemPathCache.normalizePath("/user/cal/event.ics"));
+        Assert.assertEquals("user/cal",
+                ItemPathCache.normalizePath("//user/cal/"));
+        Assert.assertEquals("", ItemPathCache.normalizePath("/"));
+        Assert.assertNull(ItemPathCache.normalizePath(null));
+    }
+
+    public void testGetPut() throws Exception {
+        Assert.assertNull(cache.get("user/cal"));
+        Assert.assertEquals(1, cache.getMisses());
+
+        cache.put("user/cal", new Long[] { new Long(1), new Long(2) },
+                new Integer[] { new Integer(3) });
+
+        ItemPathCache.Entry entry = cache.get("user/cal");
+        Assert.assertNotNull(entry);
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(new Long(2), entry.getItemId());
+        Assert.assertEquals(new Long(1), entry.getPathIds()[0]);
+        Assert.assertEquals(new Integer(3), entry.getAncestorVersions()[0]);
+
+        cache.put("user", new Long[] { new Long(1) }, new Integer[0]);
+        entry = cache.get("user");
+        Assert.assertEquals(new Long(1), entry.getItemId());
+        Assert.assertEquals(0, entry.getAncestorVersions().length);
+    }
+
+    public void testEvict() throws Exception {
+        cache.put("user", new Long[] { new Long(1) }, new Integer[0]);
+        cache.put("user/cal", new Long[] { new Long(1), new Long(2) },
+                versions(1));
+        cache.put("user/cal/1.ics", new Long[] { new Long(1), new Long(2),
+                new Long(3) }, versions(2));
+        cache.put("user/cal2", new Long[] { new Long(1), new Long(4) },
+                versions(1));
+
+        // evicting collection evicts all of its descendants
+        cache.evict(new Long(2));
+        Assert.assertEquals(2, cache.getSize());
+        Assert.assertNull(cache.get("user/cal"));
+        Assert.assertNull(cache.get("user/cal/1.ics"));
+        Assert.assertNotNull(cache.get("user/cal2"));
+
+        cache.evict(new Long(1));
+        Assert.assertEquals(0, cache.getSize());
+
+        // evicting an item that isn't cached does nothing
+        cache.evict(new Long(2));
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    public void testReplaceAndRemove() throws Exception {
+        cache.put("user/cal", new Long[] { new Long(1), new Long(2) },
+                versions(1));
+        // the path now resolves to another item
+        cache.put("user/cal", new Long[] { new Long(1), new Long(5) },
+                versions(1));
+        cache.evict(new Long(2));
+        Assert.assertNotNull(cache.get("user/cal"));
+
+        cache.remove("user/cal");
+        Assert.assertNull(cache.get("user/cal"));
+
+        // removed entries are no longer indexed by their items
+        cache.put("user/cal2", new Long[] { new Long(6), new Long(7) },
+                versions(1));
+        cache.evict(new Long(1));
+        Assert.assertNotNull(cache.get("user/cal2"));
+    }
+
+    public void testMaxEntries() throws Exception {
+        cache.setMaxEntries(2);
+        cache.put("a", new Long[] { new Long(1) }, versions(0));
+        cache.put("b", new Long[] { new Long(2) }, versions(0));
+
+        // access a so that b becomes eldest
+        cache.get("a");
+        cache.put("c", new Long[] { new Long(3) }, versions(0));
+
+        Assert.assertEquals(2, cache.getSize());
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+        Assert.assertNotNull(cache.get("c"));
+    }
+
+    private Integer[] versions(int count) {
+        Integer[] versions = new Integer[count];
+        for (int i = 0; i < count; i++)
+            versions[i] = new Integer(0);
+        return versions;
+    }
+}
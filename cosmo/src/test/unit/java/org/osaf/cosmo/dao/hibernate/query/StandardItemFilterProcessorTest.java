@@ -35,6 +35,7 @@ import org.osaf.cosmo.model.filter.ItemFilter;
 import org.osaf.cosmo.model.filter.NoteItemFilter;
 import org.osaf.cosmo.model.filter.Restrictions;
 import org.osaf.cosmo.model.filter.StampFilter;
+import org.osaf.cosmo.model.filter.FilterOrder.Order;
 import org.osaf.cosmo.model.hibernate.HibCollectionItem;
 import org.osaf.cosmo.model.hibernate.HibNoteItem;
 import org.osaf.cosmo.model.hibernate.HibQName;
@@ -127,6 +128,25 @@ public class StandardItemFilterProcessorTest extends AbstractHibernateDaoTestCas
         Assert.assertEquals("select i from HibContentItem i join i.parentDetails pd where pd.primaryKey.collection=:parent and i.triageStatus.code=:param1 order by i.triageStatus.rank", query.getQueryString());
     }
     
+    public void testKeysetQuery() throws Exception {
+        NoteItemFilter filter = new NoteItemFilter();
+        CollectionItem parent = new HibCollectionItem();
+        filter.setParent(parent);
+        filter.addOrderBy(ItemFilter.ORDER_BY_MODIFIED_DATE_DESC);
+        filter.addOrderBy(ItemFilter.ORDER_BY_UID_DESC);
+        filter.setKeyset(new Date(), "uid1", Order.DESC);
+        Query query =  queryBuilder.buildQuery(session, filter);
+        Assert.assertEquals("select i from HibNoteItem i join i.parentDetails pd where pd.primaryKey.collection=:parent and (i.modifiedDate<:keysetDate or (i.modifiedDate=:keysetDate and i.uid<:keysetUid)) order by i.modifiedDate desc, i.uid desc", query.getQueryString());
+        
+        filter = new NoteItemFilter();
+        filter.setParent(parent);
+        filter.addOrderBy(ItemFilter.ORDER_BY_MODIFIED_DATE_ASC);
+        filter.addOrderBy(ItemFilter.ORDER_BY_UID_ASC);
+        filter.setKeyset(new Date(), "uid1", Order.ASC);
+        query =  queryBuilder.buildQuery(session, filter);
+        Assert.assertEquals("select i from HibNoteItem i join i.parentDetails pd where pd.primaryKey.collection=:parent and (i.modifiedDate>:keysetDate or (i.modifiedDate=:keysetDate and i.uid>:keysetUid)) order by i.modifiedDate, i.uid", query.getQueryString());
+    }
+    
     public void testNoteItemQuery() throws Exception {
         NoteItemFilter filter = new NoteItemFilter();
         CollectionItem parent = new HibCollectionItem();
@@ -200,7 +220,30 @@ public class StandardItemFilterProcessorTest extends AbstractHibernateDaoTestCas
         filter.setParent(parent);
         filter.getStampFilters().add(eventFilter);
         Query query =  queryBuilder.buildQuery(session, filter);
-        Assert.assertEquals("select i from HibNoteItem i join i.parentDetails pd, HibBaseEventStamp es where pd.primaryKey.collection=:parent and es.item=i and ( (es.timeRangeIndex.isFloating=true and es.timeRangeIndex.startDate < '20070201T040000' and es.timeRangeIndex.endDate > '20070101T040000') or (es.timeRangeIndex.isFloating=false and es.timeRangeIndex.startDate < '20070201T100000Z' and es.timeRangeIndex.endDate > '20070101T100000Z') or (es.timeRangeIndex.startDate=es.timeRangeIndex.endDate and (es.timeRangeIndex.startDate='20070101T040000' or es.timeRangeIndex.startDate='20070101T100000Z')))", query.getQueryString());
+        Assert.assertEquals("select i from HibNoteItem i join i.parentDetails pd, HibBaseEventStamp es where pd.primaryKey.collection=:parent and es.item=i and ( (es.timeRangeIndex.isFloating=true and es.timeRangeIndex.startDate < :floatEnd and es.timeRangeIndex.endDate > :floatStart) or (es.timeRangeIndex.isFloating=false and es.timeRangeIndex.startDate < :utcEnd and es.timeRangeIndex.endDate > :utcStart) or (es.timeRangeIndex.startDate=es.timeRangeIndex.endDate and (es.timeRangeIndex.startDate=:floatStart or es.timeRangeIndex.startDate=:utcStart)))", query.getQueryString());
+        Assert.assertEquals("20070101T040000", eventFilter.getFloatStart());
+        Assert.assertEquals("20070201T100000Z", eventFilter.getUTCEnd());
+    }
+    
+    public void testTimeRangeQueryStringReused() throws Exception {
+        CollectionItem parent = new HibCollectionItem();
+        NoteItemFilter filter1 = new NoteItemFilter();
+        EventStampFilter eventFilter1 = new EventStampFilter();
+        eventFilter1.setPeriod(new Period(new DateTime("20070101T100000Z"), new DateTime("20070201T100000Z")));
+        filter1.setParent(parent);
+        filter1.getStampFilters().add(eventFilter1);
+        
+        NoteItemFilter filter2 = new NoteItemFilter();
+        EventStampFilter eventFilter2 = new EventStampFilter();
+        eventFilter2.setPeriod(new Period(new DateTime("20080301T100000Z"), new DateTime("20080401T100000Z")));
+        filter2.setParent(parent);
+        filter2.getStampFilters().add(eventFilter2);
+        
+        Query query1 = queryBuilder.buildQuery(session, filter1);
+        Query query2 = queryBuilder.buildQuery(session, filter2);
+        
+        // same HQL, so Hibernate's query plan cache reuses the plan
+        Assert.assertEquals(query1.getQueryString(), query2.getQueryString());
     }
     
     public void testBasicStampQuery() throws Exception {
@@ -15,11 +15,16 @@
  */
 package org.osaf.cosmo.dao.mock;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Period;
+import net.fortuna.ical4j.model.PeriodList;
 
 import org.osaf.cosmo.calendar.EntityConverter;
 import org.osaf.cosmo.calendar.query.CalendarFilter;
@@ -104,5 +109,24 @@ public class MockCalendarDao extends MockItemDao implements CalendarDao {
         throw new UnsupportedOperationException();
     }
     
+    /**
+     * Find busy periods.
+     * NOTE: This impl doesn't maintain an index, so it returns every
+     * calendar item in the collections to be expanded by the caller.
+     */
+    public Map<ContentItem, CollectionItem> findBusyPeriods(
+            Collection<CollectionItem> collections, Period period,
+            PeriodList busyPeriods, PeriodList busyTentativePeriods) {
+        HashMap<ContentItem, CollectionItem> results =
+            new HashMap<ContentItem, CollectionItem>();
+        for (CollectionItem collection : collections) {
+            for (Item child : collection.getChildren()) {
+                if (child instanceof ICalendarItem)
+                    results.put((ContentItem) child, collection);
+            }
+        }
+        return results;
+    }
+    
     
 }
@@ -15,8 +15,13 @@
  */
 package org.osaf.cosmo.dao.mock;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -24,8 +29,11 @@ import org.apache.commons.logging.LogFactory;
 import org.osaf.cosmo.dao.ContentDao;
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.ContentItem;
+import org.osaf.cosmo.model.ContentItemIterator;
 import org.osaf.cosmo.model.Item;
+import org.osaf.cosmo.model.ItemTombstone;
 import org.osaf.cosmo.model.ModelValidationException;
+import org.osaf.cosmo.model.Tombstone;
 import org.osaf.cosmo.model.UidInUseException;
 import org.osaf.cosmo.model.User;
 import org.osaf.cosmo.model.mock.MockCollectionItem;
@@ -274,5 +282,46 @@ public class MockContentDao extends MockItemDao implements ContentDao {
         }
         return items;
     }
+
+    public ContentItemIterator iterateChildren(CollectionItem collection,
+                                               Date timestamp,
+                                               int chunkSize) {
+        final Iterator<ContentItem> items =
+            loadChildren(collection, timestamp).iterator();
+        return new ContentItemIterator() {
+            public boolean hasNext() {
+                return items.hasNext();
+            }
+            public ContentItem next() {
+                return items.next();
+            }
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+            public void close() {
+            }
+        };
+    }
+
+    public Map<String, Item> findChildrenByNames(CollectionItem collection,
+                                                 Set<String> names) {
+        Map<String, Item> children = new HashMap<String, Item>();
+        for (Item child : collection.getChildren()) {
+            if (names.contains(child.getName()))
+                children.put(child.getName(), child);
+        }
+        return children;
+    }
+
+    public List<ItemTombstone> findItemTombstones(CollectionItem collection,
+                                                 Date timestamp) {
+        List<ItemTombstone> tombstones = new ArrayList<ItemTombstone>();
+        for (Tombstone tombstone : collection.getTombstones()) {
+            if (tombstone instanceof ItemTombstone &&
+                tombstone.getTimestamp().after(timestamp))
+                tombstones.add((ItemTombstone) tombstone);
+        }
+        return tombstones;
+    }
     
 }
@@ -41,6 +41,36 @@ public class MockEventLogDao implements EventLogDao {
     private static final Log log = LogFactory.getLog(MockEventLogDao.class);
 
     ArrayList<EventLogEntry> allEntries = new ArrayList<EventLogEntry>();
+    ArrayList<EventLogEntry> pendingEntries = new ArrayList<EventLogEntry>();
+    
+    /**
+     * Add an entry that is not returned by findChangesForCollection()
+     * until writePendingEntries() is called, like an entry that is
+     * waiting to be written.
+     * @param entry entry to add
+     */
+    public void addPendingEventLogEntry(EventLogEntry entry) {
+        if(entry.getDate()==null)
+            entry.setDate(new Date());
+        pendingEntries.add(entry);
+    }
+    
+    /**
+     * Make the pending entries visible.
+     */
+    public void writePendingEntries() {
+        allEntries.addAll(pendingEntries);
+        pendingEntries.clear();
+    }
+    
+    public Date getOldestPendingEntryDate() {
+        Date oldest = null;
+        for(EventLogEntry entry: pendingEntries) {
+            if(oldest==null || entry.getDate().before(oldest))
+                oldest = entry.getDate();
+        }
+        return oldest;
+    }
     
     public void addEventLogEntries(List<EventLogEntry> entries) {
         for(EventLogEntry entry: entries)
@@ -85,6 +115,7 @@ public class MockEventLogDao implements EventLogDao {
            }
            
            record.setItemUuid(itemEntry.getItem().getUid());
+           record.setItemName(itemEntry.getItem().getName());
            record.setItemDisplayName(itemEntry.getItem().getDisplayName());
            setModifiedBy(record, itemEntry);
            records.add(record);
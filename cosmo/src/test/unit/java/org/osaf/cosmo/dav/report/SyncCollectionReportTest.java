@@ -0,0 +1,309 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dav.report;
+
+import java.io.StringReader;
+import java.util.Date;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import net.fortuna.ical4j.model.DateTime;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.apache.jackrabbit.webdav.version.report.ReportInfo;
+import org.apache.jackrabbit.webdav.xml.DomUtil;
+
+import org.osaf.cosmo.dav.BadRequestException;
+import org.osaf.cosmo.dav.InsufficientStorageException;
+import org.osaf.cosmo.dav.InvalidSyncTokenException;
+import org.osaf.cosmo.dav.MultiStatus;
+import org.osaf.cosmo.dav.impl.DavCalendarCollection;
+import org.osaf.cosmo.dav.impl.DavEvent;
+import org.osaf.cosmo.dav.property.SyncToken;
+import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.ModificationUid;
+import org.osaf.cosmo.model.NoteItem;
+import org.osaf.cosmo.model.event.EventLogEntry;
+import org.osaf.cosmo.model.event.ItemAddedEntry;
+import org.osaf.cosmo.model.event.ItemRemovedEntry;
+import org.osaf.cosmo.model.event.ItemUpdatedEntry;
+
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+/**
+ * Test case for <code>SyncCollectionReport</code>.
+ */
+public class SyncCollectionReportTest extends BaseReportTestCase {
+    private static final Log log =
+        LogFactory.getLog(SyncCollectionReportTest.class);
+
+    public void testWrongType() throws Exception {
+        DavCalendarCollection dcc =
+            testHelper.initializeDavCalendarCollection("sync");
+
+        SyncCollectionReport report = new SyncCollectionReport();
+        try {
+            report.init(dcc, makeReportInfo("freebusy1.xml", DEPTH_1));
+            fail("Freebusy report initalized");
+        } catch (Exception e) {}
+    }
+
+    public void testInvalidLimit() throws Exception {
+        DavCalendarCollection dcc =
+            testHelper.initializeDavCalendarCollection("sync");
+
+        SyncCollectionReport report = new SyncCollectionReport();
+        try {
+            report.init(dcc, makeSyncReportInfo("", "0"));
+            fail("Report with invalid limit initalized");
+        } catch (BadRequestException e) {}
+    }
+
+    public void testInitialSync() throws Exception {
+        DavCalendarCollection dcc =
+            testHelper.initializeDavCalendarCollection("sync");
+        testHelper.initializeDavEvent(dcc, "foo");
+        testHelper.initializeDavEvent(dcc, "bar");
+
+        SyncCollectionReport report = makeSyncReport(dcc, "", null);
+        report.runQuery();
+
+        MultiStatus ms = toMultiStatus(report);
+        assertEquals(2, ms.getResponses().size());
+        assertEquals(200, findResponse(ms, "/foo").getStatus().getCode());
+        assertEquals(200, findResponse(ms, "/bar").getStatus().getCode());
+        assertTrue(SyncToken.parse(report.getNewSyncToken()) >= 0);
+    }
+
+    public void testInitialSyncOverLimit() throws Exception {
+        DavCalendarCollection dcc =
+            testHelper.initializeDavCalendarCollection("sync");
+        testHelper.initializeDavEvent(dcc, "foo");
+        testHelper.initializeDavEvent(dcc, "bar");
+
+        SyncCollectionReport report = makeSyncReport(dcc, "", "1");
+        try {
+            report.runQuery();
+            fail("Initial sync over limit succeeded");
+        } catch (InsufficientStorageException e) {}
+    }
+
+    public void testSyncChanges() throws Exception {
+        DavCalendarCollection dcc =
+            testHelper.initializeDavCalendarCollection("sync");
+        CollectionItem collection = (CollectionItem) dcc.getItem();
+        DavEvent foo = testHelper.initializeDavEvent(dcc, "foo");
+        testHelper.initializeDavEvent(dcc, "bar");
+        NoteItem removed = makeRemovedItem("baz");
+
+        long since = System.currentTimeMillis() - 10000;
+        addEntry(new ItemAddedEntry(foo.getItem(), collection), since - 1000);
+        addEntry(new ItemUpdatedEntry(foo.getItem(), collection), since + 1000);
+        addEntry(new ItemRemovedEntry(removed, collection), since + 2000);
+
+        SyncCollectionReport report =
+            makeSyncReport(dcc, SyncToken.format(since), null);
+        report.runQuery();
+
+        MultiStatus ms = toMultiStatus(report);
+        assertEquals(2, ms.getResponses().size());
+        assertEquals(200, findResponse(ms, "/foo").getStatus().getCode());
+        assertEquals(404, findResponse(ms, "/baz").getStatus().getCode());
+        assertNull(findResponse(ms, "/bar"));
+        assertTrue(SyncToken.parse(report.getNewSyncToken()) >= since);
+    }
+
+    public void testSyncModifications() throws Exception {
+        DavCalendarCollection dcc =
+            testHelper.initializeDavCalendarCollection("sync");
+        CollectionItem collection = (CollectionItem) dcc.getItem();
+        DavEvent foo = testHelper.initializeDavEvent(dcc, "foo");
+        NoteItem master = (NoteItem) foo.getItem();
+
+        NoteItem mod =
+            makeModification(master, new DateTime("20080101T100000Z"));
+        testHelper.getContentService().createContent(collection, mod);
+        NoteItem removedMod =
+            makeModification(master, new DateTime("20080102T100000Z"));
+
+        long since = System.currentTimeMillis() - 10000;
+        addEntry(new ItemUpdatedEntry(mod, collection), since + 1000);
+        addEntry(new ItemRemovedEntry(removedMod, collection), since + 2000);
+
+        SyncCollectionReport report =
+            makeSyncReport(dcc, SyncToken.format(since), null);
+        report.runQuery();
+
+        // both changes are reported once, as a change to the master
+        MultiStatus ms = toMultiStatus(report);
+        assertEquals(1, ms.getResponses().size());
+        assertEquals(200, findResponse(ms, "/foo").getStatus().getCode());
+    }
+
+    public void testSyncChangesOverLimit() throws Exception {
+        DavCalendarCollection dcc =
+            testHelper.initializeDavCalendarCollection("sync");
+        CollectionItem collection = (CollectionItem) dcc.getItem();
+        DavEvent foo = testHelper.initializeDavEvent(dcc, "foo");
+        DavEvent bar = testHelper.initializeDavEvent(dcc, "bar");
+
+        long since = System.currentTimeMillis() - 10000;
+        addEntry(new ItemUpdatedEntry(foo.getItem(), collection), since + 1000);
+        addEntry(new ItemUpdatedEntry(bar.getItem(), collection), since + 2000);
+
+        SyncCollectionReport report =
+            makeSyncReport(dcc, SyncToken.format(since), "1");
+        report.runQuery();
+
+        // the oldest change and the truncated collection
+        MultiStatus ms = toMultiStatus(report);
+        assertEquals(2, ms.getResponses().size());
+        assertEquals(200, findResponse(ms, "/foo").getStatus().getCode());
+        assertNull(findResponse(ms, "/bar"));
+        assertEquals(since + 1000,
+                     SyncToken.parse(report.getNewSyncToken()));
+
+        // the next report continues after the token
+        report = makeSyncReport(dcc, report.getNewSyncToken(), "1");
+        report.runQuery();
+
+        ms = toMultiStatus(report);
+        assertEquals(1, ms.getResponses().size());
+        assertEquals(200, findResponse(ms, "/bar").getStatus().getCode());
+    }
+
+    public void testSyncEntryWrittenAfterToken() throws Exception {
+        DavCalendarCollection dcc =
+            testHelper.initializeDavCalendarCollection("sync");
+        CollectionItem collection = (CollectionItem) dcc.getItem();
+        DavEvent foo = testHelper.initializeDavEvent(dcc, "foo");
+
+        // a change made well before the report whose entry has not
+        // been written yet
+        long changed =
+            System.currentTimeMillis() - 2 * SyncCollectionReport.OVERLAP;
+        EventLogEntry entry =
+            new ItemUpdatedEntry(foo.getItem(), collection);
+        entry.setUser(testHelper.getUser());
+        entry.setDate(new Date(changed));
+        testHelper.getEventLogDao().addPendingEventLogEntry(entry);
+
+        SyncCollectionReport report = makeSyncReport(dcc, "", null);
+        report.runQuery();
+        String token = report.getNewSyncToken();
+        assertTrue(SyncToken.parse(token) < changed);
+
+        // the entry is written after the token was issued
+        testHelper.getEventLogDao().writePendingEntries();
+
+        report = makeSyncReport(dcc, token, null);
+        report.runQuery();
+
+        MultiStatus ms = toMultiStatus(report);
+        assertEquals(1, ms.getResponses().size());
+        assertEquals(200, findResponse(ms, "/foo").getStatus().getCode());
+    }
+
+    public void testInvalidSyncToken() throws Exception {
+        DavCalendarCollection dcc =
+            testHelper.initializeDavCalendarCollection("sync");
+
+        SyncCollectionReport report =
+            makeSyncReport(dcc, "http://example.com/sync/1", null);
+        try {
+            report.runQuery();
+            fail("Report with foreign sync token succeeded");
+        } catch (InvalidSyncTokenException e) {}
+    }
+
+    private SyncCollectionReport makeSyncReport(DavCalendarCollection dcc,
+                                                String token,
+                                                String limit)
+        throws Exception {
+        SyncCollectionReport report = new SyncCollectionReport();
+        report.init(dcc, makeSyncReportInfo(token, limit));
+        return report;
+    }
+
+    private ReportInfo makeSyncReportInfo(String token,
+                                          String limit)
+        throws Exception {
+        StringBuffer xml = new StringBuffer();
+        xml.append("<D:sync-collection xmlns:D=\"DAV:\">").
+            append("<D:sync-token>").append(token).append("</D:sync-token>").
+            append("<D:sync-level>1</D:sync-level>");
+        if (limit != null)
+            xml.append("<D:limit><D:nresults>").append(limit).
+                append("</D:nresults></D:limit>");
+        xml.append("<D:prop><D:getetag/></D:prop>").
+            append("</D:sync-collection>");
+
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document doc = factory.newDocumentBuilder().
+            parse(new InputSource(new StringReader(xml.toString())));
+        return new ReportInfo(doc.getDocumentElement(), DEPTH_0);
+    }
+
+    private NoteItem makeRemovedItem(String name) {
+        NoteItem item = testHelper.getEntityFactory().createNote();
+        item.setUid(name + "-uid");
+        item.setName(name);
+        return item;
+    }
+
+    private NoteItem makeModification(NoteItem master,
+                                      DateTime recurrenceId) {
+        NoteItem mod = testHelper.getEntityFactory().createNote();
+        mod.setUid(new ModificationUid(master, recurrenceId).toString());
+        mod.setName(mod.getUid());
+        mod.setOwner(master.getOwner());
+        mod.setModifies(master);
+        return mod;
+    }
+
+    private void addEntry(EventLogEntry entry,
+                          long date) {
+        entry.setUser(testHelper.getUser());
+        entry.setDate(new Date(date));
+        testHelper.getEventLogDao().addEventLogEntry(entry);
+    }
+
+    private MultiStatus toMultiStatus(SyncCollectionReport report)
+        throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document doc = factory.newDocumentBuilder().newDocument();
+        doc.appendChild(report.getMultiStatus().toXml(doc));
+
+        assertEquals(report.getNewSyncToken(),
+                     DomUtil.getChildTextTrim(doc.getDocumentElement(),
+                                              ELEMENT_SYNC_TOKEN, NAMESPACE));
+        return MultiStatus.createFromXml(doc);
+    }
+
+    private MultiStatus.MultiStatusResponse findResponse(MultiStatus ms,
+                                                         String suffix) {
+        for (MultiStatus.MultiStatusResponse msr : ms.getResponses()) {
+            if (msr.getHref().endsWith(suffix))
+                return msr;
+        }
+        return null;
+    }
+}
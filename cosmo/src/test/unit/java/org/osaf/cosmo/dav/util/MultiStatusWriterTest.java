@@ -0,0 +1,75 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.dav.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.webdav.MultiStatusResponse;
+import org.apache.jackrabbit.webdav.property.DefaultDavProperty;
+
+import org.osaf.cosmo.dav.MultiStatus;
+import org.osaf.cosmo.dav.caldav.CaldavConstants;
+
+import org.w3c.dom.Document;
+
+/**
+ * Test case for <code>MultiStatusWriter</code>.
+ */
+public class MultiStatusWriterTest extends TestCase
+    implements CaldavConstants {
+
+    public void testWriteResponses() throws Exception {
+        MultiStatusResponse foo = new MultiStatusResponse("/foo", (String) null);
+        foo.add(new DefaultDavProperty(ELEMENT_CALDAV_CALENDAR_DATA,
+                                       "BEGIN:VCALENDAR", NAMESPACE_CALDAV));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MultiStatusWriter writer = new MultiStatusWriter(out);
+        writer.writeStartMultiStatus();
+        writer.writeResponse(foo);
+        writer.writeResponse(new MultiStatusResponse("/bar", 404));
+        writer.writeEndMultiStatus();
+        writer.close();
+
+        String xml = new String(out.toByteArray(), "UTF-8");
+        // the DAV namespace is only declared on the multistatus element
+        assertEquals(xml.indexOf("xmlns:D"), xml.lastIndexOf("xmlns:D"));
+
+        MultiStatus ms = MultiStatus.createFromXml(parse(out.toByteArray()));
+        assertEquals(2, ms.getResponses().size());
+
+        MultiStatus.MultiStatusResponse msr = ms.findResponse("/foo");
+        assertNotNull(msr);
+        assertEquals("BEGIN:VCALENDAR",
+                     msr.findPropStat(200).
+                     findProp(ELEMENT_CALDAV_CALENDAR_DATA, NAMESPACE_CALDAV).
+                     getTextContent());
+
+        assertEquals(404, ms.findResponse("/bar").getStatus().getCode());
+    }
+
+    private Document parse(byte[] bytes) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().
+            parse(new ByteArrayInputStream(bytes));
+    }
+}
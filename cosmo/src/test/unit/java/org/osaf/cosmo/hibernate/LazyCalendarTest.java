@@ -0,0 +1,118 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.hibernate;
+
+import java.io.InputStream;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.property.Location;
+
+import org.apache.commons.io.IOUtils;
+import org.osaf.cosmo.calendar.util.CalendarUtils;
+
+/**
+ * Test LazyCalendar and LazyCalendarClobType
+ */
+public class LazyCalendarTest extends TestCase {
+
+    LazyCalendarClobType type = new LazyCalendarClobType(null, null);
+
+    public void testLazyParse() throws Exception {
+        String ics = getICalendarString("testdata/cal1.ics");
+        LazyCalendar lc = new LazyCalendar(ics);
+
+        Assert.assertFalse(lc.isParsed());
+        Assert.assertSame(ics, lc.getICalendarString());
+
+        // snapshot shouldn't parse or copy anything
+        LazyCalendar snapshot = (LazyCalendar) type.deepCopy(lc);
+        Assert.assertFalse(lc.isParsed());
+        Assert.assertFalse(snapshot.isParsed());
+        Assert.assertSame(ics, snapshot.getICalendarString());
+        Assert.assertTrue(type.equals(lc, snapshot));
+
+        Calendar calendar = lc.getCalendar();
+        Assert.assertNotNull(calendar);
+        Assert.assertTrue(lc.isParsed());
+        Assert.assertTrue(lc.isCheckedOut());
+        Assert.assertSame(calendar, lc.getCalendar());
+    }
+
+    public void testDirtyCheck() throws Exception {
+        String ics = CalendarUtils.parseCalendar(
+                getICalendarString("testdata/cal1.ics")).toString();
+        LazyCalendar lc = new LazyCalendar(ics);
+        LazyCalendar snapshot = (LazyCalendar) type.deepCopy(lc);
+
+        // accessing the calendar without modifying it isn't a change
+        lc.getCalendar();
+        Assert.assertTrue(type.equals(lc, snapshot));
+
+        VEvent event = (VEvent) lc.getCalendar().getComponent("VEVENT");
+        event.getProperties().add(new Location("here"));
+        Assert.assertFalse(type.equals(lc, snapshot));
+
+        // new snapshot should reflect change
+        snapshot = (LazyCalendar) type.deepCopy(lc);
+        Assert.assertFalse(snapshot.isParsed());
+        Assert.assertTrue(type.equals(lc, snapshot));
+        Assert.assertTrue(snapshot.getICalendarString().indexOf("LOCATION:here") >= 0);
+    }
+
+    public void testNonCanonicalTextNotDirty() throws Exception {
+        // stored text that ical4j would write differently
+        String ics = getICalendarString("testdata/cal1.ics");
+        Assert.assertFalse(ics.equals(CalendarUtils.parseCalendar(ics).toString()));
+
+        LazyCalendar lc = new LazyCalendar(ics);
+        LazyCalendar snapshot = (LazyCalendar) type.deepCopy(lc);
+
+        // reading the calendar doesn't rewrite the text
+        lc.getCalendar().getComponent("VEVENT");
+        Assert.assertTrue(type.equals(lc, snapshot));
+        Assert.assertSame(ics, lc.getICalendarString());
+
+        VEvent event = (VEvent) lc.getCalendar().getComponent("VEVENT");
+        event.getProperties().add(new Location("here"));
+        Assert.assertFalse(type.equals(lc, snapshot));
+    }
+
+    public void testSetCalendar() throws Exception {
+        String ics = getICalendarString("testdata/cal1.ics");
+        LazyCalendar lc = new LazyCalendar(ics);
+        LazyCalendar snapshot = (LazyCalendar) type.deepCopy(lc);
+
+        Calendar calendar = CalendarUtils.parseCalendar(
+                getICalendarString("testdata/cal2.ics"));
+        lc.setCalendar(calendar);
+
+        Assert.assertSame(calendar, lc.getCalendar());
+        Assert.assertFalse(type.equals(lc, snapshot));
+        Assert.assertEquals(calendar.toString(), lc.getICalendarString());
+    }
+
+    private String getICalendarString(String name) throws Exception {
+        InputStream in = getClass().getClassLoader().getResourceAsStream(name);
+        try {
+            return IOUtils.toString(in);
+        } finally {
+            in.close();
+        }
+    }
+}
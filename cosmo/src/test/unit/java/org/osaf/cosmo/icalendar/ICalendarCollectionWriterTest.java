@@ -0,0 +1,179 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.icalendar;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+
+import org.osaf.cosmo.calendar.EntityConverter;
+import org.osaf.cosmo.model.ContentItem;
+import org.osaf.cosmo.model.NoteItem;
+import org.osaf.cosmo.model.mock.MockEntityFactory;
+import org.osaf.cosmo.model.mock.MockNoteItem;
+
+/**
+ * Test case for <code>ICalendarCollectionWriter</code>.
+ */
+public class ICalendarCollectionWriterTest extends TestCase {
+    private static final String BASE_DIR =
+        "src/test/unit/resources/testdata/entityconverter/";
+
+    private EntityConverter converter =
+        new EntityConverter(new MockEntityFactory());
+    private ICalendarFragmentCache cache;
+    private ICalendarCollectionWriter writer;
+    private List<ContentItem> children;
+
+    protected void setUp() throws Exception {
+        cache = new ICalendarFragmentCache();
+        writer = new ICalendarCollectionWriter(converter, null, cache);
+
+        children = new ArrayList<ContentItem>();
+        children.add(makeEvent("event1", "eventwithtimezone1.ics"));
+        children.add(makeEvent("event2", "eventwithtimezone1.ics"));
+        children.add(makeTask("task1", "vtodo.ics"));
+    }
+
+    public void testWrite() throws Exception {
+        Calendar calendar = write();
+        calendar.validate();
+
+        // the shared timezone is only written once
+        assertEquals(1, calendar.getComponents(Component.VTIMEZONE).size());
+        assertEquals(2, calendar.getComponents(Component.VEVENT).size());
+        assertEquals(1, calendar.getComponents(Component.VTODO).size());
+        assertEquals(Component.VTIMEZONE,
+                     ((Component) calendar.getComponents().get(0)).getName());
+    }
+
+    public void testFragmentsCached() throws Exception {
+        // the second pass finds the fragments cached by the first
+        write();
+        assertEquals(3, cache.getSize());
+        assertEquals(3, cache.getHits());
+        assertEquals(3, cache.getMisses());
+
+        write();
+        assertEquals(9, cache.getHits());
+
+        // a changed item is serialized again
+        ((MockNoteItem) children.get(0)).setEntityTag("changed");
+        write();
+        assertEquals(14, cache.getHits());
+        assertEquals(4, cache.getMisses());
+    }
+
+    public void testWriteWithoutCache() throws Exception {
+        writer = new ICalendarCollectionWriter(converter, null, null);
+        Calendar calendar = write();
+        calendar.validate();
+        assertEquals(1, calendar.getComponents(Component.VTIMEZONE).size());
+        assertEquals(2, calendar.getComponents(Component.VEVENT).size());
+    }
+
+    public void testTimezoneNotFoundByFirstPass() throws Exception {
+        // the timezone appears only after the first pass
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(new HashMap<String, String>(), children.iterator(), out);
+        Calendar calendar = new CalendarBuilder().
+            build(new ByteArrayInputStream(out.toByteArray()));
+        calendar.validate();
+        assertEquals(1, calendar.getComponents(Component.VTIMEZONE).size());
+        assertEquals(2, calendar.getComponents(Component.VEVENT).size());
+        assertEquals(1, calendar.getComponents(Component.VTODO).size());
+    }
+
+    public void testCollectionCacheBytes() throws Exception {
+        cache.setMaxCollectionBytes(10);
+
+        cache.putCollection("c1", "1", null, new byte[6]);
+        assertNotNull(cache.getCollection("c1", "1", null));
+        assertNull(cache.getCollection("c1", "1", "ical3"));
+
+        // too large to cache
+        cache.putCollection("c2", "1", null, new byte[11]);
+        assertNull(cache.getCollection("c2", "1", null));
+
+        // evicts the least recently used
+        cache.putCollection("c3", "1", null, new byte[6]);
+        assertNull(cache.getCollection("c1", "1", null));
+        assertNotNull(cache.getCollection("c3", "1", null));
+        assertEquals(6, cache.getCollectionBytes());
+    }
+
+    public void testCalendarCacheBytes() throws Exception {
+        cache.setMaxCalendarBytes(10);
+
+        cache.putCalendar("i1", "1", null, new byte[4]);
+        cache.putCalendar("i2", "1", null, new byte[4]);
+        assertNotNull(cache.getCalendar("i1", "1", null));
+        assertNull(cache.getCalendar("i1", "2", null));
+        assertEquals(8, cache.getCalendarBytes());
+
+        // evicts the least recently used
+        cache.putCalendar("i3", "1", null, new byte[4]);
+        assertNull(cache.getCalendar("i2", "1", null));
+        assertNotNull(cache.getCalendar("i1", "1", null));
+        assertEquals(2, cache.getCalendarSize());
+        assertEquals(8, cache.getCalendarBytes());
+        assertEquals(2, cache.getCalendarHits());
+        assertEquals(2, cache.getCalendarMisses());
+
+        // item calendars don't count against collections
+        assertEquals(0, cache.getCollectionBytes());
+    }
+
+    private Calendar write() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(writer.findTimezones(children.iterator()),
+                     children.iterator(), out);
+        return new CalendarBuilder().
+            build(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private NoteItem makeEvent(String uid, String file) throws Exception {
+        NoteItem note =
+            converter.convertEventCalendar(getCalendar(file)).iterator().next();
+        note.setUid(uid);
+        ((MockNoteItem) note).setEntityTag(uid);
+        return note;
+    }
+
+    private NoteItem makeTask(String uid, String file) throws Exception {
+        NoteItem note = converter.convertTaskCalendar(getCalendar(file));
+        note.setUid(uid);
+        ((MockNoteItem) note).setEntityTag(uid);
+        return note;
+    }
+
+    private Calendar getCalendar(String name) throws Exception {
+        FileInputStream fis = new FileInputStream(BASE_DIR + name);
+        try {
+            return new CalendarBuilder().build(fis);
+        } finally {
+            fis.close();
+        }
+    }
+}
@@ -285,6 +285,84 @@ public class StandardMorseCodeControllerTest extends TestCase {
         Assert.assertFalse(it.hasNext());
     }
     
+    public void testSyncExpiredToken() throws Exception {
+        mcController.setTombstoneMaxAgeDays(1);
+        
+        User user = testHelper.makeDummyUser("mcuser","password");
+        userService.createUser(user);
+        
+        HomeCollectionItem root = contentDao.getRootItem(user);
+        
+        CollectionItem collection = testHelper.makeDummyCollection(user);
+        collection.setUid("col1");
+        
+        contentService.createCollection(root, collection);
+        
+        SyncToken current = SyncToken.generate(collection);
+        long twoDaysAgo = System.currentTimeMillis() - 2 * 24 * 60 * 60 * 1000L;
+        SyncToken expired = SyncToken.deserialize(twoDaysAgo + "-" +
+                (current.getHash() + 1));
+        
+        try {
+            mcController.synchronizeCollection("col1", expired);
+            fail("able to sync with expired token");
+        } catch (SyncTokenException e) {}
+        
+        // an unchanged collection doesn't need tombstones
+        expired = SyncToken.deserialize(twoDaysAgo + "-" + current.getHash());
+        SubRecords records = mcController.synchronizeCollection("col1", expired);
+        Assert.assertFalse(records.getItemRecordSets().hasNext());
+    }
+    
+    public void testSubscribeSyncStreaming() throws Exception {
+        mcController.setSyncChunkSize(1);
+        
+        User user = testHelper.makeDummyUser("mcuser","password");
+        userService.createUser(user);
+        
+        HomeCollectionItem root = contentDao.getRootItem(user);
+        
+        CollectionItem collection = testHelper.makeDummyCollection(user);
+        collection.setUid("col1");
+        
+        contentService.createCollection(root, collection);
+        
+        NoteItem note = testHelper.makeDummyItem(user);
+        note.setUid("1");
+        
+        contentService.createContent(collection, note);
+        
+        // non-note items are not shared
+        contentService.createCollection(collection,
+                testHelper.makeDummyCollection(user));
+        
+        SubRecords records = mcController.subscribeToCollection("col1");
+        Assert.assertTrue(records.getToken().isValid(collection));
+        
+        EimRecordSetIterator it = records.getItemRecordSets();
+        Assert.assertTrue(it.hasNext());
+        Assert.assertEquals("1", it.next().getUuid());
+        Assert.assertFalse(it.hasNext());
+        records.close();
+        
+        SyncToken token = records.getToken();
+        
+        // give 100 ms wait to ensure updated lastModified dates
+        Thread.sleep(100);
+        
+        NoteItem note2 = testHelper.makeDummyItem(user);
+        note2.setUid("2");
+        
+        contentService.createContent(collection, note2);
+        
+        records = mcController.synchronizeCollection("col1", token);
+        it = records.getItemRecordSets();
+        Assert.assertTrue(it.hasNext());
+        Assert.assertEquals("2", it.next().getUuid());
+        Assert.assertFalse(it.hasNext());
+        records.close();
+    }
+    
     /**
      * Test full cycle (publish->sync-->update) 
      * */
@@ -21,6 +21,7 @@ import junit.framework.Assert;
 import junit.framework.TestCase;
 import net.fortuna.ical4j.model.Date;
 import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Dur;
 import net.fortuna.ical4j.model.TimeZone;
 import net.fortuna.ical4j.model.TimeZoneRegistry;
 import net.fortuna.ical4j.model.TimeZoneRegistryFactory;
@@ -133,6 +134,65 @@ public class EventStampInterceptorTest extends TestCase {
         Assert.assertEquals("20070213T084500", index.getEndDate());
     }
    
+
+    public void testOccurrenceIndex() throws Exception {
+        EventOccurrenceIndexer indexer = new EventOccurrenceIndexer();
+        indexer.setEnabled(true);
+        
+        HibNoteItem master = new HibNoteItem();
+        HibEventStamp eventStamp = new HibEventStamp(master);
+        eventStamp.createCalendar();
+        
+        // start ten days ago so that all occurrences are in the window
+        DateTime start = new DateTime(System.currentTimeMillis() - 10L*24*60*60*1000);
+        start.setUtc(true);
+        eventStamp.setStartDate(start);
+        eventStamp.setDuration(new Dur(0, 1, 0, 0));
+        eventStamp.setRecurrenceRules(EimValueConverter.toICalRecurs("FREQ=DAILY;COUNT=20;"));
+        master.addStamp(eventStamp);
+        
+        HibEventTimeRangeIndex index = interceptor.calculateEventStampIndexes(eventStamp);
+        indexer.indexOccurrences(eventStamp, index, null);
+        
+        Assert.assertEquals(20, eventStamp.getOccurrences().size());
+        Assert.assertNotNull(index.getOccurrenceStart());
+        Assert.assertNotNull(index.getOccurrenceEnd());
+        Assert.assertTrue(index.getOccurrenceStart().compareTo(index.getStartDate()) < 0);
+        
+        DateTime end = new DateTime(start.getTime() + 60*60*1000);
+        end.setUtc(true);
+        Assert.assertTrue(eventStamp.getOccurrences().contains(
+                new HibEventOccurrence(start.toString(), end.toString())));
+        
+        // too many occurrences to index
+        indexer.setMaxOccurrences(10);
+        HibEventTimeRangeIndex previous = index;
+        index = interceptor.calculateEventStampIndexes(eventStamp);
+        indexer.indexOccurrences(eventStamp, index, previous);
+        
+        Assert.assertEquals(0, eventStamp.getOccurrences().size());
+        Assert.assertNull(index.getOccurrenceStart());
+        Assert.assertNull(index.getOccurrenceEnd());
+    }
+    
+    public void testOccurrenceIndexDisabled() throws Exception {
+        EventOccurrenceIndexer indexer = new EventOccurrenceIndexer();
+        
+        HibNoteItem master = new HibNoteItem();
+        HibEventStamp eventStamp = new HibEventStamp(master);
+        eventStamp.createCalendar();
+        eventStamp.setStartDate(new DateTime("20070212T074500"));
+        eventStamp.setEndDate(new DateTime("20070212T094500"));
+        eventStamp.setRecurrenceRules(EimValueConverter.toICalRecurs("FREQ=DAILY;"));
+        master.addStamp(eventStamp);
+        
+        HibEventTimeRangeIndex index = interceptor.calculateEventStampIndexes(eventStamp);
+        indexer.indexOccurrences(eventStamp, index, null);
+        
+        Assert.assertEquals(0, eventStamp.getOccurrences().size());
+        Assert.assertNull(index.getOccurrenceStart());
+    }
+   
     
     
 }
@@ -15,7 +15,9 @@
  */
 package org.osaf.cosmo.security.util;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import junit.framework.Assert;
@@ -28,6 +30,8 @@ import org.osaf.cosmo.dao.mock.MockContentDao;
 import org.osaf.cosmo.dao.mock.MockDaoStorage;
 import org.osaf.cosmo.dao.mock.MockUserDao;
 import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.CollectionSubscription;
+import org.osaf.cosmo.model.Item;
 import org.osaf.cosmo.model.Ticket;
 import org.osaf.cosmo.model.User;
 import org.osaf.cosmo.model.mock.MockCollectionItem;
@@ -36,6 +40,8 @@ import org.osaf.cosmo.security.CosmoSecurityContext;
 import org.osaf.cosmo.security.mock.MockSecurityContext;
 import org.osaf.cosmo.security.mock.MockTicketPrincipal;
 import org.osaf.cosmo.security.mock.MockUserPrincipal;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * Test Case for <code>SecurityHelper/code> which uses mock
@@ -234,6 +240,230 @@ public class SecurityHelperTest extends TestCase {
         Assert.assertTrue(securityHelper.hasWriteAccess(context, note));
     }
     
+    /** */
+    public void testSubscriptionAccessCached() throws Exception {
+        AccessDecisionCache cache = new AccessDecisionCache();
+        securityHelper.setAccessDecisionCache(cache);
+        
+        User user1 = testHelper.makeDummyUser("user1","password");
+        User user2 = testHelper.makeDummyUser("user2","password");
+        
+        MockCollectionItem col = new MockCollectionItem();
+        col.setOwner(user1);
+        col.setUid("col1");
+        MockNoteItem note = new MockNoteItem();
+        note.setUid("note1");
+        note.setOwner(user1);
+        note.addParent(col);
+        
+        Ticket rwTicket = testHelper.makeDummyTicket();
+        rwTicket.setKey("2");
+        rwTicket.getPrivileges().add(Ticket.PRIVILEGE_WRITE);
+        contentDao.createTicket(col, rwTicket);
+        
+        CollectionSubscription sub =
+            testHelper.makeDummySubscription(col, rwTicket);
+        user2.addSubscription(sub);
+        userDao.createUser(user2);
+        
+        CosmoSecurityContext context = getSecurityContext(user2);
+        
+        cache.beginRequest();
+        Assert.assertTrue(securityHelper.hasWriteAccess(context, col));
+        // granted through the collection without looking at subscriptions
+        Assert.assertTrue(securityHelper.hasWriteAccess(context, note));
+        Assert.assertEquals(0, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        cache.endRequest();
+        
+        // subscription tickets are reused by later requests
+        Assert.assertTrue(securityHelper.hasReadAccess(context, note));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getSize());
+        
+        user2.removeSubscription(sub);
+        cache.invalidate("user2");
+        Assert.assertEquals(0, cache.getSize());
+        Assert.assertFalse(securityHelper.hasReadAccess(context, note));
+        Assert.assertEquals(2, cache.getMisses());
+    }
+    
+    /** */
+    public void testTicketGrantIndex() throws Exception {
+        TicketGrantIndex index = new TicketGrantIndex();
+        securityHelper.setTicketGrantIndex(index);
+        
+        User user1 = testHelper.makeDummyUser("user1","password");
+        
+        MockCollectionItem home = new MockCollectionItem();
+        MockCollectionItem col1 = new MockCollectionItem();
+        MockCollectionItem col2 = new MockCollectionItem();
+        home.setOwner(user1);
+        col1.setOwner(user1);
+        col2.setOwner(user1);
+        home.setUid("home");
+        col1.setUid("col1");
+        col2.setUid("col2");
+        col1.addParent(home);
+        col2.addParent(home);
+        MockNoteItem note1 = new MockNoteItem();
+        note1.setUid("note1");
+        note1.setOwner(user1);
+        note1.addParent(col1);
+        MockNoteItem note2 = new MockNoteItem();
+        note2.setUid("note2");
+        note2.setOwner(user1);
+        note2.addParent(col2);
+        
+        Ticket rwTicket = testHelper.makeDummyTicket();
+        rwTicket.setKey("1");
+        rwTicket.getPrivileges().add(Ticket.PRIVILEGE_WRITE);
+        col1.getTickets().add(rwTicket);
+        index.putTicket(rwTicket, col1);
+        
+        CosmoSecurityContext context = getSecurityContext(rwTicket);
+        
+        Assert.assertTrue(securityHelper.hasWriteAccess(context, note1));
+        Assert.assertFalse(securityHelper.hasWriteAccess(context, note2));
+        Assert.assertFalse(securityHelper.hasWriteAccess(context, home));
+        // the ancestors of home are only looked up once
+        Assert.assertEquals(2, index.getHits());
+        Assert.assertEquals(5, index.getMisses());
+        
+        Assert.assertTrue(securityHelper.hasReadAccess(context, note1));
+        Assert.assertEquals(5, index.getSize());
+        Assert.assertEquals(3, index.getHits());
+        
+        List<Item> items = new ArrayList<Item>();
+        items.add(note1);
+        items.add(note2);
+        items.add(col1);
+        Set<Item> granted = index.getGrantedItems(rwTicket, items);
+        Assert.assertEquals(2, granted.size());
+        Assert.assertTrue(granted.contains(note1));
+        Assert.assertTrue(granted.contains(col1));
+        
+        List<Item> denied = securityHelper.getWriteDeniedItems(context, items);
+        Assert.assertEquals(1, denied.size());
+        Assert.assertEquals(note2, denied.get(0));
+        
+        // move note2 into col1
+        note2.removeParent(col2);
+        note2.addParent(col1);
+        Assert.assertFalse(securityHelper.hasWriteAccess(context, note2));
+        index.invalidate(note2);
+        Assert.assertTrue(securityHelper.hasWriteAccess(context, note2));
+        
+        // move col2 into col1
+        col2.removeParent(home);
+        col2.addParent(col1);
+        index.invalidate(col2);
+        Assert.assertEquals(0, index.getSize());
+        Assert.assertTrue(securityHelper.hasWriteAccess(context, col2));
+        
+        // a removed ticket is no longer granted
+        col1.getTickets().remove(rwTicket);
+        index.removeTicket(rwTicket);
+        Assert.assertEquals(0, index.getTicketCount());
+        Assert.assertFalse(securityHelper.hasReadAccess(context, note1));
+        Assert.assertFalse(securityHelper.hasReadAccess(context, col2));
+    }
+    
+    /** */
+    public void testTicketGrantIndexFindsTicketItem() throws Exception {
+        TicketGrantIndex index = new TicketGrantIndex();
+        
+        MockCollectionItem col = new MockCollectionItem();
+        col.setUid("col1");
+        MockNoteItem note = new MockNoteItem();
+        note.setUid("note1");
+        note.addParent(col);
+        
+        Ticket ticket = testHelper.makeDummyTicket();
+        ticket.setKey("1");
+        ticket.setItem(col);
+        
+        // not indexed while the item doesn't hold the ticket
+        Assert.assertFalse(index.isGranted(ticket, note));
+        Assert.assertEquals(0, index.getTicketCount());
+        
+        col.getTickets().add(ticket);
+        Assert.assertTrue(index.isGranted(ticket, note));
+        Assert.assertEquals(1, index.getTicketCount());
+        
+        // unsaved items are checked by the ticket
+        MockNoteItem unsaved = new MockNoteItem();
+        unsaved.addParent(col);
+        Assert.assertTrue(index.isGranted(ticket, unsaved));
+        Assert.assertFalse(index.isGranted(ticket, null));
+    }
+    
+    /** */
+    public void testTicketGrantIndexInvalidatedAfterCompletion() throws Exception {
+        TicketGrantIndex index = new TicketGrantIndex();
+        
+        MockCollectionItem col1 = new MockCollectionItem();
+        col1.setUid("col1");
+        MockCollectionItem col2 = new MockCollectionItem();
+        col2.setUid("col2");
+        MockNoteItem note = new MockNoteItem();
+        note.setUid("note1");
+        note.addParent(col2);
+        
+        Ticket ticket = testHelper.makeDummyTicket();
+        ticket.setKey("1");
+        col1.getTickets().add(ticket);
+        index.putTicket(ticket, col1);
+        
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            // the note is moved into col1 by a transaction that
+            // hasn't committed yet, while another thread still sees
+            // it in col2
+            index.invalidate(note);
+            Assert.assertFalse(index.isGranted(ticket, note));
+            Assert.assertEquals(2, index.getSize());
+            
+            note.removeParent(col2);
+            note.addParent(col1);
+            for (Object sync :
+                     TransactionSynchronizationManager.getSynchronizations())
+                ((TransactionSynchronization) sync).afterCompletion(
+                        TransactionSynchronization.STATUS_COMMITTED);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        
+        Assert.assertFalse(TransactionSynchronizationManager.hasResource(index));
+        Assert.assertTrue(index.isGranted(ticket, note));
+    }
+    
+    /** */
+    public void testTicketGrantIndexDisabled() throws Exception {
+        TicketGrantIndex index = new TicketGrantIndex();
+        index.setEnabled(false);
+        
+        MockCollectionItem col = new MockCollectionItem();
+        col.setUid("col1");
+        MockNoteItem note = new MockNoteItem();
+        note.setUid("note1");
+        note.addParent(col);
+        
+        Ticket ticket = testHelper.makeDummyTicket();
+        ticket.setKey("1");
+        ticket.setItem(col);
+        col.getTickets().add(ticket);
+        index.putTicket(ticket, col);
+        
+        // checked with the ticket, nothing is indexed
+        Assert.assertTrue(index.isGranted(ticket, note));
+        Assert.assertEquals(0, index.getTicketCount());
+        Assert.assertEquals(0, index.getSize());
+        
+        col.getTickets().remove(ticket);
+        Assert.assertFalse(index.isGranted(ticket, note));
+    }
+    
     private CosmoSecurityContext getSecurityContext(User user) {
         return new MockSecurityContext(new MockUserPrincipal(user));
     }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.service.impl;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.mock.MockCollectionItem;
+
+/**
+ * Test Case for {@link ParallelCollectionExecutor}.
+ */
+public class ParallelCollectionExecutorTest extends TestCase {
+
+    private ParallelCollectionExecutor executor;
+
+    protected void setUp() throws Exception {
+        executor = new ParallelCollectionExecutor();
+        executor.setPoolSize(4);
+        executor.setMaxParallelism(2);
+        executor.init();
+    }
+
+    protected void tearDown() throws Exception {
+        executor.destroy();
+    }
+
+    public void testResultsInCollectionOrder() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        List<String> results = executor.execute(makeCollections(6),
+            new ParallelCollectionExecutor.CollectionTask<String>() {
+                public String execute(CollectionItem collection)
+                    throws Exception {
+                    int count = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        if (count > maxRunning.get())
+                            maxRunning.set(count);
+                    }
+                    Thread.sleep(20);
+                    running.decrementAndGet();
+                    return collection.getUid();
+                }
+            });
+
+        assertEquals(6, results.size());
+        for (int i = 0; i < 6; i++)
+            assertEquals("c" + i, results.get(i));
+        assertTrue(maxRunning.get() <= 2);
+    }
+
+    public void testTaskFailure() throws Exception {
+        try {
+            executor.execute(makeCollections(3),
+                new ParallelCollectionExecutor.CollectionTask<String>() {
+                    public String execute(CollectionItem collection)
+                        throws Exception {
+                        if (collection.getUid().equals("c1"))
+                            throw new Exception("failed");
+                        return collection.getUid();
+                    }
+                });
+            fail("task failure not reported");
+        } catch (ExecutionException e) {
+            assertEquals("failed", e.getCause().getMessage());
+        }
+    }
+
+    public void testBusyPool() throws Exception {
+        executor.destroy();
+        executor = new ParallelCollectionExecutor();
+        executor.setPoolSize(2);
+        executor.setMaxParallelism(3);
+        executor.setTimeout(100);
+        executor.init();
+
+        // another request keeps both pool threads busy
+        final CountDownLatch busy = new CountDownLatch(3);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread other = new Thread() {
+            public void run() {
+                try {
+                    executor.execute(makeCollections(3),
+                        new ParallelCollectionExecutor.CollectionTask<String>() {
+                            public String execute(CollectionItem collection)
+                                throws Exception {
+                                busy.countDown();
+                                release.await();
+                                return collection.getUid();
+                            }
+                        });
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        other.start();
+        try {
+            assertTrue(busy.await(5, TimeUnit.SECONDS));
+
+            // the calling thread processes every collection, and
+            // the time spent waiting for pool threads doesn't count
+            final Thread caller = Thread.currentThread();
+            List<Boolean> results = executor.execute(makeCollections(3),
+                new ParallelCollectionExecutor.CollectionTask<Boolean>() {
+                    public Boolean execute(CollectionItem collection)
+                        throws Exception {
+                        Thread.sleep(50);
+                        return Boolean.valueOf(Thread.currentThread() == caller);
+                    }
+                });
+
+            assertEquals(3, results.size());
+            for (Boolean result : results)
+                assertEquals(Boolean.TRUE, result);
+        } finally {
+            release.countDown();
+            other.join();
+        }
+    }
+
+    public void testInline() throws Exception {
+        executor.destroy();
+        executor = new ParallelCollectionExecutor();
+        executor.setPoolSize(0);
+        executor.init();
+
+        final Thread caller = Thread.currentThread();
+        List<Boolean> results = executor.execute(makeCollections(2),
+            new ParallelCollectionExecutor.CollectionTask<Boolean>() {
+                public Boolean execute(CollectionItem collection) {
+                    return Boolean.valueOf(Thread.currentThread() == caller);
+                }
+            });
+
+        assertEquals(Boolean.TRUE, results.get(0));
+        assertEquals(Boolean.TRUE, results.get(1));
+    }
+
+    private CollectionItem[] makeCollections(int count) {
+        CollectionItem[] collections = new CollectionItem[count];
+        for (int i = 0; i < count; i++) {
+            collections[i] = new MockCollectionItem();
+            collections[i].setUid("c" + i);
+        }
+        return collections;
+    }
+}
@@ -15,11 +15,13 @@
  */
 package org.osaf.cosmo.service.impl;
 
+import java.util.HashSet;
 import java.util.Set;
 
 import junit.framework.Assert;
 import junit.framework.TestCase;
 import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Dur;
 
 import org.osaf.cosmo.TestHelper;
 import org.osaf.cosmo.calendar.util.CalendarUtils;
@@ -28,6 +30,7 @@ import org.osaf.cosmo.dao.mock.MockDaoStorage;
 import org.osaf.cosmo.model.CalendarCollectionStamp;
 import org.osaf.cosmo.model.CollectionItem;
 import org.osaf.cosmo.model.ContentItem;
+import org.osaf.cosmo.model.EventExceptionStamp;
 import org.osaf.cosmo.model.EventStamp;
 import org.osaf.cosmo.model.Item;
 import org.osaf.cosmo.model.NoteItem;
@@ -119,6 +122,28 @@ public class StandardTriageStatusQueryProcessorTest extends TestCase {
         verifyItemInSet(all,"calendar2_4");
     }
 
+    public void testGetAllMatchesNowDoneLater() throws Exception {
+        CollectionItem calendar = (CollectionItem) contentDao.findItemByUid(CALENDAR_UID);
+        DateTime pointInTime = new DateTime("20070601T083000Z");
+        
+        Set<NoteItem> all = queryProcessor.processTriageStatusQuery(calendar,
+                new TriageStatusQueryContext(null, pointInTime, null));
+        
+        HashSet<String> expected = new HashSet<String>();
+        String[] labels = new String[] { TriageStatus.LABEL_NOW,
+                TriageStatus.LABEL_DONE, TriageStatus.LABEL_LATER };
+        for (String label : labels)
+            for (NoteItem note : queryProcessor.processTriageStatusQuery(
+                    calendar, new TriageStatusQueryContext(label,
+                            pointInTime, null)))
+                expected.add(note.getUid());
+        
+        for (String uid : expected)
+            verifyItemInSet(all, uid);
+        for (NoteItem note : all)
+            Assert.assertTrue(expected.contains(note.getUid()));
+    }
+
     public void testGetDoneCollection() throws Exception {
         CollectionItem calendar = (CollectionItem) contentDao.findItemByUid(CALENDAR_UID);
         TriageStatusQueryContext context =
@@ -200,6 +225,32 @@ public class StandardTriageStatusQueryProcessorTest extends TestCase {
         verifyItemInSet(results, "calendar2_3");
     }
 
+    public void testGetNowItemWithMissingModification() throws Exception {
+        NoteItem master = (NoteItem) contentDao.findItemByUid("calendar2_3");
+        CollectionItem calendar = (CollectionItem) contentDao.findItemByUid(CALENDAR_UID);
+
+        // overrides the instance that overlaps the instant in time,
+        // but its uid doesn't match its recurrence id, so it can't be
+        // found for the instance
+        NoteItem mod = generateNote("testmissingmod", master.getOwner());
+        mod.setUid("calendar2_3:20070602T081500Z");
+        mod.setModifies(master);
+        EventExceptionStamp ees = factory.createEventExceptionStamp(mod);
+        mod.addStamp(ees);
+        ees.createCalendar();
+        ees.setRecurrenceId(new DateTime("20070601T081500Z"));
+        ees.setStartDate(new DateTime("20070601T081500Z"));
+        ees.setDuration(new Dur("PT1H"));
+        contentDao.createContent(calendar, mod);
+
+        TriageStatusQueryContext context =
+            new TriageStatusQueryContext(TriageStatus.LABEL_NOW, new DateTime("20070601T083000Z"), null);
+        Set<NoteItem> results = queryProcessor.processTriageStatusQuery(master, context);
+
+        // the overridden instance is skipped, and so is the master
+        Assert.assertEquals(0, results.size());
+    }
+
     private CollectionItem generateCalendar(String name, User owner) {
         CollectionItem calendar = factory.createCollection();
         calendar.setName(name);
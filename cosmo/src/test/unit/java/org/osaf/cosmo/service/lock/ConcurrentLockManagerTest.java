@@ -0,0 +1,155 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.service.lock;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.hibernate.HibCollectionItem;
+
+/**
+ * Test ConcurrentLockManager
+ */
+public class ConcurrentLockManagerTest extends TestCase {
+
+    ConcurrentLockManager lockManager = new ConcurrentLockManager();
+
+    public void testLockManager() throws Exception {
+        lockManager.setMaxLocks(3);
+
+        LockTestThread t1 = new LockTestThread("1");
+        LockTestThread t2 = new LockTestThread("2");
+        LockTestThread t3 = new LockTestThread("3");
+        t1.start();
+        t2.start();
+        t3.start();
+
+        Thread.sleep(300);
+
+        // t4 should wait on col 3 because t3 has the lock
+        LockTestThread t4 = new LockTestThread("3");
+        t4.start();
+
+        Thread.sleep(300);
+
+        Assert.assertTrue(t1.hasLock);
+        Assert.assertTrue(t2.hasLock);
+        Assert.assertTrue(t3.hasLock);
+        Assert.assertFalse(t4.hasLock);
+
+        CollectionItem col = createCollection("3");
+        Assert.assertEquals(1, lockManager.getNumWaitingThreads(col));
+        Assert.assertTrue(lockManager.isLocked(col));
+
+        // Should not be able to obtain lock to 1
+        col.setUid("1");
+        Assert.assertFalse(lockManager.lockCollection(col, 100));
+        Assert.assertEquals(1, lockManager.getTimeouts());
+        Assert.assertEquals(3, lockManager.getNumLocksInMemory());
+
+        // Should not be able to lock 4 because 3 collections are
+        // already locked
+        col.setUid("4");
+        try {
+            lockManager.lockCollection(col);
+            Assert.fail("able to create more than maxLocks!");
+        } catch (RuntimeException e) {}
+        Assert.assertEquals(3, lockManager.getNumLocksInMemory());
+
+        lockManager.setMaxLocks(4);
+        Assert.assertTrue(lockManager.lockCollection(col, 100));
+        Assert.assertEquals(4, lockManager.getNumLocksInMemory());
+
+        // unused locks are removed immediately
+        lockManager.unlockCollection(col);
+        Assert.assertEquals(3, lockManager.getNumLocksInMemory());
+        Assert.assertFalse(lockManager.isLocked(col));
+
+        // should not be able to unlock something we don't own
+        col.setUid("1");
+        try {
+            lockManager.unlockCollection(col);
+            Assert.fail("able to unlock something we don't own");
+        } catch (RuntimeException e) {
+        }
+
+        // t4 is still waiting, so only the timed out request on 1
+        // has been recorded
+        String[] stats = lockManager.getCollectionStatistics();
+        Assert.assertEquals(1, stats.length);
+        Assert.assertTrue(stats[0].startsWith("1: contended=1 timeouts=1"));
+        Assert.assertEquals(1, lockManager.getContendedAcquisitions());
+    }
+
+    public void testReentrantLock() throws Exception {
+        CollectionItem col = createCollection("1");
+
+        lockManager.lockCollection(col);
+        Assert.assertTrue(lockManager.lockCollection(col, 0));
+        Assert.assertEquals(1, lockManager.getNumLocksInMemory());
+
+        lockManager.unlockCollection(col);
+        Assert.assertTrue(lockManager.isLocked(col));
+        Assert.assertEquals(1, lockManager.getNumLocksInMemory());
+
+        lockManager.unlockCollection(col);
+        Assert.assertFalse(lockManager.isLocked(col));
+        Assert.assertEquals(0, lockManager.getNumLocksInMemory());
+        Assert.assertEquals(2, lockManager.getAcquisitions());
+        Assert.assertEquals(0, lockManager.getContendedAcquisitions());
+    }
+
+    public void testWaitingThreadAcquiresLock() throws Exception {
+        CollectionItem col = createCollection("1");
+        lockManager.lockCollection(col);
+
+        LockTestThread t1 = new LockTestThread("1");
+        t1.start();
+        Thread.sleep(200);
+        Assert.assertFalse(t1.hasLock);
+
+        lockManager.unlockCollection(col);
+        t1.join(1000);
+        Assert.assertTrue(t1.hasLock);
+
+        // the lock is still referenced by t1, which never unlocks it
+        Assert.assertEquals(1, lockManager.getNumLocksInMemory());
+        Assert.assertEquals(1, lockManager.getContendedAcquisitions());
+        Assert.assertTrue(lockManager.getTotalWaitTime() >= 100);
+    }
+
+    private CollectionItem createCollection(String uid) {
+        CollectionItem collection = new HibCollectionItem();
+        collection.setUid(uid);
+        return collection;
+    }
+
+    class LockTestThread extends Thread {
+
+        String uid = null;
+        volatile boolean hasLock = false;
+
+        public LockTestThread(String uid) {
+            this.uid = uid;
+        }
+
+        public void run() {
+            lockManager.lockCollection(createCollection(uid));
+            hasLock = true;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2008 Open Source Applications Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osaf.cosmo.service.lock;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import junit.framework.Assert;
+
+import org.osaf.cosmo.dao.CollectionLockDao;
+import org.osaf.cosmo.dao.hibernate.AbstractHibernateDaoTestCase;
+import org.osaf.cosmo.model.CollectionItem;
+import org.osaf.cosmo.model.CollectionLockedException;
+import org.osaf.cosmo.model.hibernate.HibCollectionItem;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Test DatabaseLockManager, using two lock managers to act as the
+ * nodes of a cluster.  Leases are committed in their own transactions,
+ * so every test uses new collection uids.  The lock managers share a
+ * clock that is advanced by the tests and while waiting for a lease.
+ */
+public class DatabaseLockManagerTest extends AbstractHibernateDaoTestCase {
+
+    protected CollectionLockDao collectionLockDao = null;
+    protected PlatformTransactionManager transactionManager = null;
+
+    private List<DatabaseLockManager> managers =
+        new ArrayList<DatabaseLockManager>();
+
+    private volatile long now = System.currentTimeMillis();
+
+    public void testLockAcrossNodes() throws Exception {
+        DatabaseLockManager node1 = createLockManager("node1", 60000, 0);
+        DatabaseLockManager node2 = createLockManager("node2", 60000, 0);
+        CollectionItem col = createCollection();
+
+        Assert.assertTrue(node1.lockCollection(col, 0));
+        long token = node1.getLockToken(col);
+        Assert.assertTrue(token > 0);
+        Assert.assertTrue(node1.isLocked(col));
+
+        // held by node1
+        Assert.assertFalse(node2.lockCollection(col, 200));
+        Assert.assertEquals(-1, node2.getLockToken(col));
+
+        node1.unlockCollection(col);
+        Assert.assertFalse(node1.isLocked(col));
+        Assert.assertEquals(-1, node1.getLockToken(col));
+
+        Assert.assertTrue(node2.lockCollection(col, 0));
+        Assert.assertEquals(token + 1, node2.getLockToken(col));
+        node2.unlockCollection(col);
+    }
+
+    public void testReentrantLock() throws Exception {
+        DatabaseLockManager node1 = createLockManager("node1", 60000, 0);
+        DatabaseLockManager node2 = createLockManager("node2", 60000, 0);
+        CollectionItem col = createCollection();
+
+        node1.lockCollection(col);
+        long token = node1.getLockToken(col);
+        Assert.assertTrue(node1.lockCollection(col, 0));
+        Assert.assertEquals(token, node1.getLockToken(col));
+
+        node1.unlockCollection(col);
+        Assert.assertTrue(node1.isLocked(col));
+        Assert.assertFalse(node2.lockCollection(col, 0));
+
+        node1.unlockCollection(col);
+        Assert.assertFalse(node1.isLocked(col));
+        Assert.assertTrue(node2.lockCollection(col, 0));
+        node2.unlockCollection(col);
+    }
+
+    public void testWaitingNodeAcquiresLock() throws Exception {
+        TestLockManager node1 = createLockManager("node1", 60000, 0);
+        DatabaseLockManager node2 = createLockManager("node2", 60000, 0);
+        CollectionItem col = createCollection();
+
+        Assert.assertTrue(node2.lockCollection(col, 0));
+
+        LockTestThread t1 = new LockTestThread(node1, col);
+        t1.start();
+        node1.waitForPoll();
+        Assert.assertFalse(t1.hasLock);
+
+        node2.unlockCollection(col);
+        t1.join(10000);
+        Assert.assertTrue(t1.hasLock);
+    }
+
+    public void testExpiredLease() throws Exception {
+        DatabaseLockManager node1 = createLockManager("node1", 200, 0);
+        DatabaseLockManager node2 = createLockManager("node2", 60000, 0);
+        CollectionItem col = createCollection();
+
+        Assert.assertTrue(node1.lockCollection(col, 0));
+        long token = node1.getLockToken(col);
+
+        // node1 never renews its lease
+        now += 400;
+        Assert.assertEquals(-1, node1.getLockToken(col));
+        Assert.assertTrue(node2.lockCollection(col, 0));
+        Assert.assertEquals(token + 1, node2.getLockToken(col));
+
+        // releasing the lost lease doesn't release the lease of node2
+        node1.unlockCollection(col);
+        Assert.assertFalse(node1.lockCollection(col, 0));
+        node2.unlockCollection(col);
+    }
+
+    public void testWriteFencedAfterLeaseLost() throws Exception {
+        DatabaseLockManager node1 = createLockManager("node1", 200, 0);
+        DatabaseLockManager node2 = createLockManager("node2", 60000, 0);
+        CollectionItem col = createCollection();
+
+        Assert.assertTrue(node1.lockCollection(col, 0));
+
+        // node1's lease expires and node2 takes it over
+        now += 400;
+        Assert.assertTrue(node2.lockCollection(col, 0));
+
+        // node1's next write is rejected
+        try {
+            node1.checkLock(col);
+            Assert.fail("write with a lost lease not rejected");
+        } catch (CollectionLockedException e) {}
+        Assert.assertEquals(-1, node1.getLockToken(col));
+
+        // the lost lease isn't released, node2 keeps it
+        node1.unlockCollection(col);
+        Assert.assertTrue(node2.isLocked(col));
+        Assert.assertTrue(node2.getLockToken(col) > 0);
+    }
+
+    public void testCheckedLeaseReleasedAfterTransaction() throws Exception {
+        DatabaseLockManager node1 = createLockManager("node1", 60000, 0);
+        DatabaseLockManager node2 = createLockManager("node2", 60000, 0);
+        CollectionItem col = createCollection();
+
+        Assert.assertTrue(node1.lockCollection(col, 0));
+        node1.checkLock(col);
+
+        // the lease row is locked by the transaction of the write, so
+        // the lease is only released once the transaction completes
+        node1.unlockCollection(col);
+        Assert.assertTrue(node1.isLocked(col));
+
+        endTransaction();
+        Assert.assertFalse(node1.isLocked(col));
+        Assert.assertTrue(node2.lockCollection(col, 0));
+        node2.unlockCollection(col);
+    }
+
+    public void testRenewLeases() throws Exception {
+        DatabaseLockManager node1 = createLockManager("node1", 300, 0);
+        DatabaseLockManager node2 = createLockManager("node2", 60000, 0);
+        CollectionItem col = createCollection();
+
+        Assert.assertTrue(node1.lockCollection(col, 0));
+        now += 200;
+        node1.renewLeases();
+        now += 200;
+
+        // the lease was renewed
+        Assert.assertTrue(node1.getLockToken(col) > 0);
+        Assert.assertFalse(node2.lockCollection(col, 0));
+        node1.unlockCollection(col);
+    }
+
+    @Override
+    protected void onTearDownAfterTransaction() throws Exception {
+        for (Iterator<DatabaseLockManager> it = managers.iterator(); it.hasNext();)
+            it.next().destroy();
+        super.onTearDownAfterTransaction();
+    }
+
+    private TestLockManager createLockManager(String nodeId,
+                                              long leaseDuration,
+                                              long heartbeatInterval) {
+        TestLockManager lockManager = new TestLockManager();
+        lockManager.setLockDao(collectionLockDao);
+        lockManager.setTransactionManager(transactionManager);
+        lockManager.setNodeId(nodeId);
+        lockManager.setLeaseDuration(leaseDuration);
+        lockManager.setHeartbeatInterval(heartbeatInterval);
+        lockManager.setPollInterval(20);
+        lockManager.init();
+        managers.add(lockManager);
+        return lockManager;
+    }
+
+    private CollectionItem createCollection() {
+        CollectionItem collection = new HibCollectionItem();
+        collection.setUid(UUID.randomUUID().toString());
+        return collection;
+    }
+
+    class TestLockManager extends DatabaseLockManager {
+
+        private int polls = 0;
+
+        protected long currentTimeMillis() {
+            return now;
+        }
+
+        protected void sleep(long millis) throws InterruptedException {
+            synchronized (this) {
+                polls++;
+                notifyAll();
+            }
+            super.sleep(millis);
+            now += millis;
+        }
+
+        /**
+         * Wait until a thread failed to acquire a lease at least once,
+         * for at most ten seconds.
+         */
+        synchronized void waitForPoll() throws InterruptedException {
+            if (polls == 0)
+                wait(10000);
+        }
+    }
+
+    class LockTestThread extends Thread {
+
+        DatabaseLockManager lockManager = null;
+        CollectionItem collection = null;
+        volatile boolean hasLock = false;
+
+        public LockTestThread(DatabaseLockManager lockManager,
+                              CollectionItem collection) {
+            this.lockManager = lockManager;
+            this.collection = collection;
+        }
+
+        public void run() {
+            lockManager.lockCollection(collection);
+            hasLock = true;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+# 160-to-170-MySQL5-pre.sql
+
+# migrate data
+alter table event_stamp add column occurstart varchar(16)
+alter table event_stamp add column occurend varchar(16)
+alter table event_stamp add column fbtype varchar(16)
+alter table event_stamp add column occurlimit integer
+
+create table event_occurrence (stampid bigint not null, startdate varchar(16) not null, enddate varchar(16) not null, primary key (stampid, startdate, enddate)) ENGINE=InnoDB
+alter table event_occurrence add index FK_event_occurrence_stamp (stampid), add constraint FK_event_occurrence_stamp foreign key (stampid) references stamp (id)
+create index idx_occurstartdt on event_occurrence (startdate)
+create index idx_occurenddt on event_occurrence (enddate)
+
+create table collection_lock (collectionuid varchar(255) not null, owner varchar(255), token bigint not null, expires bigint not null, primary key (collectionuid)) ENGINE=InnoDB
+
+create index idx_tombstoneitemdt on tombstones (itemid, removedate)
+create index idx_tombstonedt on tombstones (removedate)
@@ -0,0 +1,17 @@
+# 160-to-170-PostgresSQL-pre.sql
+
+# migrate data
+alter table event_stamp add column occurstart varchar(16)
+alter table event_stamp add column occurend varchar(16)
+alter table event_stamp add column fbtype varchar(16)
+alter table event_stamp add column occurlimit int4
+
+create table event_occurrence (stampid int8 not null, startdate varchar(16) not null, enddate varchar(16) not null, primary key (stampid, startdate, enddate))
+alter table event_occurrence add constraint FK_event_occurrence_stamp foreign key (stampid) references stamp
+create index idx_occurstartdt on event_occurrence (startdate)
+create index idx_occurenddt on event_occurrence (enddate)
+
+create table collection_lock (collectionuid varchar(255) not null, owner varchar(255), token int8 not null, expires int8 not null, primary key (collectionuid))
+
+create index idx_tombstoneitemdt on tombstones (itemid, removedate)
+create index idx_tombstonedt on tombstones (removedate)